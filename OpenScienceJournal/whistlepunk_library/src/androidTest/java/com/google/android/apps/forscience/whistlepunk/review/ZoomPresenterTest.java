@@ -91,6 +91,20 @@ public class ZoomPresenterTest extends AndroidTestCase {
         assertEquals(1, ZoomPresenter.computeTier(-1, 4, stats, 100));
     }
 
+    public void testNeverBelowLowestTier() {
+        RunStats stats = new RunStats();
+        stats.putStat(StatsAccumulator.KEY_TOTAL_DURATION, 99);
+        stats.putStat(StatsAccumulator.KEY_NUM_DATA_POINTS, 100);
+        stats.putStat(ZoomRecorder.STATS_KEY_TIER_COUNT, 3);
+        stats.putStat(ZoomRecorder.STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS, 5);
+        assertEquals(0, ZoomPresenter.computeTier(0, 200, stats, 100));
+
+        // Tier 0 has been compacted away, even though the current tier is close enough
+        stats.putStat(ZoomRecorder.STATS_KEY_LOWEST_TIER, 1);
+        assertEquals(1, ZoomPresenter.computeTier(0, 200, stats, 100));
+        assertEquals(1, ZoomPresenter.computeTier(-1, 200, stats, 100));
+    }
+
     public void testBiasToCurrentTier() {
         RunStats stats = new RunStats();
         stats.putStat(StatsAccumulator.KEY_TOTAL_DURATION, 99);
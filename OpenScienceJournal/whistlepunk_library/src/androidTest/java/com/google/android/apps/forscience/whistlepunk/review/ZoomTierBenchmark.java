@@ -0,0 +1,208 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.review;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.javalib.Success;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.StatsAccumulator;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.MinMaxDownsampler;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import java.util.Random;
+
+/**
+ * Records the same kind of run at very different sample rates, with the fixed zoom level between
+ * tiers and with one chosen from the sample rate, and then times loading a chart's worth of
+ * readings at a range of viewport widths.  Results are written to the log under {@link #TAG}.
+ */
+public class ZoomTierBenchmark extends AndroidTestCase {
+    private static final String TAG = "ZoomTierBenchmark";
+    private static final String DATABASE_NAME = "benchmark_zoom.db";
+    private static final int BATCH_SIZE = 1000;
+
+    // The narrowest viewport; each one after is this many times wider, up to the whole run
+    private static final long NARROWEST_VIEWPORT_MILLIS = 1000;
+    private static final int VIEWPORT_GROWTH = 4;
+
+    public void testSlowSensor() {
+        // 1Hz for two hours
+        compare(1000, 2 * 60 * 60);
+    }
+
+    public void testTypicalSensor() {
+        // 20Hz for an hour
+        compare(50, 20 * 60 * 60);
+    }
+
+    public void testFastSensor() {
+        // 1kHz for two minutes
+        compare(1, 1000 * 60 * 2);
+    }
+
+    private void compare(long millisBetweenReadings, int numReadings) {
+        Result fixed = measure(new ZoomRecorder("fixed",
+                ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS * 2, 1), "fixed",
+                millisBetweenReadings, numReadings);
+        Result adaptive = measure(ZoomRecorder.createAdaptive("adaptive", new MinMaxDownsampler(),
+                ZoomPresenter.IDEAL_NUMBER_OF_DISPLAYED_DATAPOINTS), "adaptive",
+                millisBetweenReadings, numReadings);
+        Log.i(TAG, String.format("%.0f Hz: fixed %s; adaptive %s",
+                1000.0 / millisBetweenReadings, fixed, adaptive));
+        assertTrue(adaptive.mTierCount <= fixed.mTierCount);
+    }
+
+    private Result measure(ZoomRecorder recorder, String sensorId, long millisBetweenReadings,
+            int numReadings) {
+        getContext().deleteDatabase(DATABASE_NAME);
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), DATABASE_NAME);
+        BatchingDataController dc = new BatchingDataController(db, sensorId);
+        Random random = new Random(0);
+        double value = 0;
+        long writeStart = System.nanoTime();
+        for (int i = 0; i < numReadings; i++) {
+            value += random.nextGaussian();
+            long timestamp = i * millisBetweenReadings;
+            dc.addScalarReading(sensorId, 0, timestamp, value);
+            recorder.addData(timestamp, value, dc);
+        }
+        // As in ScalarSensor, count the tiers before the last partial windows are flushed.
+        int tierCount = recorder.countTiers();
+        RunStats stats = new RunStats();
+        stats.putStat(StatsAccumulator.KEY_NUM_DATA_POINTS, numReadings);
+        stats.putStat(StatsAccumulator.KEY_TOTAL_DURATION,
+                (numReadings - 1) * millisBetweenReadings);
+        ZoomRecorder.putTierStats(stats, tierCount, recorder.getZoomLevelBetweenTiers(),
+                recorder.getAlgorithm());
+        recorder.flushAllTiers(dc);
+        dc.flushScalarReadings(sensorId);
+
+        Result result = new Result();
+        result.mWriteNanos = System.nanoTime() - writeStart;
+        result.mZoomLevel = recorder.getZoomLevelBetweenTiers();
+        result.mTierCount = tierCount;
+
+        long runMillis = numReadings * millisBetweenReadings;
+        long viewport = NARROWEST_VIEWPORT_MILLIS;
+        while (true) {
+            viewport = Math.min(viewport, runMillis);
+            int tier = ZoomPresenter.computeTier(0,
+                    ZoomPresenter.IDEAL_NUMBER_OF_DISPLAYED_DATAPOINTS, stats, viewport);
+            long start = (runMillis - viewport) / 2;
+            long loadStart = System.nanoTime();
+            int loaded = db.getScalarReadings(sensorId,
+                    TimeRange.oldest(Range.closed(start, start + viewport)), tier, 0).size();
+            result.mLoadNanos += System.nanoTime() - loadStart;
+            result.mMaxLoaded = Math.max(result.mMaxLoaded, loaded);
+            result.mLoads++;
+            if (viewport == runMillis) {
+                break;
+            }
+            viewport *= VIEWPORT_GROWTH;
+        }
+        return result;
+    }
+
+    private static class Result {
+        long mWriteNanos;
+        long mLoadNanos;
+        int mLoads;
+        int mMaxLoaded;
+        int mZoomLevel;
+        int mTierCount;
+
+        @Override
+        public String toString() {
+            return String.format("zoom %d, %d tiers, write %d ms, %d loads %d ms, "
+                            + "at most %d points", mZoomLevel, mTierCount, mWriteNanos / 1000000,
+                    mLoads, mLoadNanos / 1000000, mMaxLoaded);
+        }
+    }
+
+    /**
+     * Writes what the recorder produces to the database in batches, as DataControllerImpl does.
+     */
+    private static class BatchingDataController implements RecordingDataController {
+        private final SensorDatabaseImpl mDb;
+        private final ScalarReadingBuffer mBuffer;
+
+        BatchingDataController(SensorDatabaseImpl db, String sensorId) {
+            mDb = db;
+            mBuffer = new ScalarReadingBuffer(sensorId);
+        }
+
+        @Override
+        public void addScalarReading(String sensorId, int resolutionTier, long timestampMillis,
+                double value) {
+            mBuffer.add(resolutionTier, timestampMillis, value);
+            if (mBuffer.size() == BATCH_SIZE) {
+                flushScalarReadings(sensorId);
+            }
+        }
+
+        @Override
+        public void addScalarReadings(ScalarReadingBuffer readings) {
+            mBuffer.addAll(readings);
+            if (mBuffer.size() >= BATCH_SIZE) {
+                flushScalarReadings(readings.getSensorTag());
+            }
+        }
+
+        @Override
+        public void addScalarSummary(String sensorId, int level, ScalarAggregate summary) {
+        }
+
+        @Override
+        public void flushScalarReadings(String sensorId) {
+            mDb.addScalarReadings(mBuffer);
+            mBuffer.clear();
+        }
+
+        @Override
+        public void setCurrentRun(String sensorId, String runId) {
+        }
+
+        @Override
+        public void setStats(String runId, String sensorId, RunStats runStats,
+                MaybeConsumer<Success> onSuccess) {
+        }
+
+        @Override
+        public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {
+        }
+
+        @Override
+        public void clearDataErrorListenerForSensor(String sensorId) {
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Times each data point through a FrequencyBuffer with a full window of 1,000, 10,000 and 100,000
+ * readings, and through {@link ListFrequencyBuffer}, which goes over the whole window each time.
+ * Results are written to the log under {@link #TAG}.
+ */
+public class FrequencyBufferBenchmark extends AndroidTestCase {
+    private static final String TAG = "FrequencyBufferBench";
+    private static final int NUM_SAMPLES = 2000;
+    private static final int NUM_WARMUP_ROUNDS = 10;
+
+    // One reading a millisecond, so the window in milliseconds is also the number of readings
+    private static final int[] WINDOW_SIZES = {1000, 10000, 100000};
+
+    // Written with every frequency, so that nothing is optimized away
+    private double mSink = 0;
+
+    public void testPerSampleCost() {
+        // A few rounds without logging, so that both are compiled before they are timed
+        for (int i = 0; i < NUM_WARMUP_ROUNDS; i++) {
+            compare(WINDOW_SIZES[0], false);
+        }
+        for (int windowSize : WINDOW_SIZES) {
+            compare(windowSize, true);
+        }
+    }
+
+    private void compare(int windowSize, boolean log) {
+        FrequencyBuffer buffer = new FrequencyBuffer(windowSize, 1000.0, 0.1);
+        ListFrequencyBuffer listBuffer = new ListFrequencyBuffer(windowSize, 1000.0, 0.1);
+        Random random = new Random(windowSize);
+        for (int i = 0; i < windowSize; i++) {
+            double value = signal(i, windowSize, random);
+            buffer.filterValue(i, value);
+            listBuffer.addReading(i, value);
+        }
+
+        double nanos = time(buffer, windowSize, random);
+        double listNanos = time(listBuffer, windowSize, random);
+        if (log) {
+            Log.i(TAG, String.format("Window of %d: %.0f ns per sample, %.0f ns with a list "
+                    + "(sink %f)", windowSize, nanos, listNanos, mSink));
+            assertTrue(nanos < listNanos);
+        }
+    }
+
+    /**
+     * @return the average time per sample, in nanoseconds
+     */
+    private double time(ValueFilter filter, int windowSize, Random random) {
+        long start = System.nanoTime();
+        for (int i = windowSize; i < windowSize + NUM_SAMPLES; i++) {
+            mSink += filter.filterValue(i, signal(i, windowSize, random));
+        }
+        return (System.nanoTime() - start) / (double) NUM_SAMPLES;
+    }
+
+    // Ten cycles a window, with some noise
+    private static double signal(int i, int windowSize, Random random) {
+        return Math.sin(i * 20 * Math.PI / windowSize) + random.nextGaussian() * 0.05;
+    }
+}
@@ -18,6 +18,8 @@ package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
 import android.test.AndroidTestCase;
 
+import java.util.Random;
+
 public class FrequencyBufferTest extends AndroidTestCase {
     public void testTwenty() {
         final FrequencyBuffer buffer = new FrequencyBuffer(100, 1000.0, 0.0);
@@ -137,4 +139,81 @@ public class FrequencyBufferTest extends AndroidTestCase {
         buffer.changeWindow(200);
         // Just don't crash
     }
+
+    public void testSameAsListImplementation() {
+        final long[] windows = {2000, 500, 5000, 100, 3000};
+        final double[] filters = {1.0, 0.0, 4.0, 0.5, 1.0};
+        final int segmentLength = 2000;
+        long[] timestamps = new long[10 * segmentLength];
+        double[] values = new double[timestamps.length];
+        makeRecording(timestamps, values, segmentLength);
+
+        FrequencyBuffer buffer = new FrequencyBuffer(windows[0], 60000.0, filters[0]);
+        ListFrequencyBuffer expected = new ListFrequencyBuffer(windows[0], 60000.0, filters[0]);
+        for (int i = 0; i < timestamps.length; i++) {
+            if (i > 0 && i % segmentLength == 0) {
+                int change = (i / segmentLength) % windows.length;
+                buffer.changeWindow(windows[change]);
+                expected.changeWindow(windows[change]);
+                buffer.changeFilter(filters[change]);
+                expected.changeFilter(filters[change]);
+                assertEquals(expected.getLatestFrequency(), buffer.getLatestFrequency(), 0.0);
+            }
+            assertEquals("Reading " + i, expected.filterValue(timestamps[i], values[i]),
+                    buffer.filterValue(timestamps[i], values[i]), 0.0);
+        }
+    }
+
+    /**
+     * Something like what a magnetometer next to a wheel sees, read every 10ms or so: a few
+     * seconds each at several speeds, with noise both smaller and larger than the filter, stops,
+     * a square wave whose values are often exactly equal to the average, and readings that
+     * aren't finite.  Most values are multiples of 1/64, like those of a sensor with a fixed
+     * resolution, and one stretch is not rounded at all.
+     */
+    private static void makeRecording(long[] timestamps, double[] values, int segmentLength) {
+        final double[] hertz = {2, 5, 5, 0, 12, 1, 20, 3, 8, 0};
+        Random random = new Random(4);
+        long timestamp = 1466000000000L;
+        double phase = 0;
+        for (int i = 0; i < timestamps.length; i++) {
+            int segment = i / segmentLength;
+            long millisSinceLast = 8 + random.nextInt(5);
+            timestamp += millisSinceLast;
+            double speed = hertz[segment];
+            if (segment == 2) {
+                // Slowing down
+                speed -= 4.5 * (i % segmentLength) / segmentLength;
+            }
+            phase += 2 * Math.PI * speed * millisSinceLast / 1000;
+
+            double value;
+            switch (segment) {
+                case 3:
+                    value = 3 + random.nextGaussian() * 0.1;
+                    break;
+                case 4:
+                    value = 2 * Math.sin(phase) + random.nextGaussian() * 1.5;
+                    break;
+                case 7:
+                    value = Math.sin(phase) > 0 ? 10 : 0;
+                    break;
+                case 9:
+                    value = 0;
+                    break;
+                default:
+                    value = 10 * Math.sin(phase) + random.nextGaussian() * 0.5;
+            }
+            if (segment != 5) {
+                value = Math.round(value * 64) / 64.0;
+            }
+            if (segment == 6 && i % 500 == 0) {
+                value = Double.NaN;
+            } else if (segment == 8 && i % 700 == 0) {
+                value = i % 1400 == 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+            }
+            timestamps[i] = timestamp;
+            values[i] = value;
+        }
+    }
 }
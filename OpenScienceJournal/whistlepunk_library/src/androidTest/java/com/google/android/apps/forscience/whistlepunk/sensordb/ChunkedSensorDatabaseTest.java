@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.test.AndroidTestCase;
+
+import com.google.common.collect.Range;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ChunkedSensorDatabaseTest extends AndroidTestCase {
+    private static final String TEST_DATABASE_NAME = "chunkedtest.db";
+    private static final String LEGACY_DATABASE_NAME = "legacytest.db";
+    private static final long CHUNK_DURATION = 10;
+
+    private ChunkedSensorDatabase makeDb() {
+        return new ChunkedSensorDatabase(getContext(), TEST_DATABASE_NAME, CHUNK_DURATION);
+    }
+
+    private static List<ScalarReading> readAll(SensorDatabase db, String tag, int tier) {
+        return ScalarReading.slurp(db.getScalarReadings(tag, TimeRange.oldest(Range.<Long>all()),
+                tier, 0));
+    }
+
+    public void testAddAcrossChunks() {
+        ChunkedSensorDatabase db = makeDb();
+        for (int i = 0; i < 35; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        List<ScalarReading> readings = readAll(db, "tag", 0);
+        assertEquals(35, readings.size());
+        for (int i = 0; i < 35; i++) {
+            assertEquals(new ScalarReading(i, i), readings.get(i));
+        }
+    }
+
+    public void testRangeAndLimits() {
+        ChunkedSensorDatabase db = makeDb();
+        for (int i = 0; i < 35; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.open(8L, 12L)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(9, 9), new ScalarReading(10, 10),
+                new ScalarReading(11, 11)), readings);
+
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(8L, 30L)), 0, 2));
+        assertEquals(Arrays.asList(new ScalarReading(8, 8), new ScalarReading(9, 9)), readings);
+
+        // Newest first, starting in the open chunk and continuing into stored chunks
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.newest(Range.closed(0L, 100L)), 0, 7));
+        assertEquals(7, readings.size());
+        assertEquals(new ScalarReading(34, 34), readings.get(0));
+        assertEquals(new ScalarReading(28, 28), readings.get(6));
+    }
+
+    public void testTagsAndTiers() {
+        ChunkedSensorDatabase db = makeDb();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 1, 2, 2.0);
+        db.addScalarReading("other", 0, 3, 3.0);
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), readAll(db, "tag", 0));
+        assertEquals(Arrays.asList(new ScalarReading(2, 2.0)), readAll(db, "tag", 1));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0)), readAll(db, "other", 0));
+    }
+
+    public void testOutOfOrderReadings() {
+        ChunkedSensorDatabase db = makeDb();
+        // Zoom tiers write the min and max of each window in either order.
+        db.addScalarReading("tag", 1, 5, 5.0);
+        db.addScalarReading("tag", 1, 3, 3.0);
+        db.addScalarReading("tag", 1, 15, 15.0);
+        // Late arrival for the first, already-sealed chunk
+        db.addScalarReading("tag", 1, 4, 4.0);
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0), new ScalarReading(4, 4.0),
+                new ScalarReading(5, 5.0), new ScalarReading(15, 15.0)), readAll(db, "tag", 1));
+    }
+
+    public void testBatchedReadings() {
+        ChunkedSensorDatabase db = makeDb();
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer("tag");
+        for (int i = 0; i < 100; i++) {
+            buffer.add(0, i, i / 2.0);
+        }
+        buffer.add(1, 0, 0.0);
+        buffer.add(1, 99, 49.5);
+        db.addScalarReadings(buffer);
+        assertEquals(100, readAll(db, "tag", 0).size());
+        assertEquals(Arrays.asList(new ScalarReading(0, 0.0), new ScalarReading(99, 49.5)),
+                readAll(db, "tag", 1));
+    }
+
+    public void testOpenChunkSurvivesReopen() {
+        ChunkedSensorDatabase db = makeDb();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 12, 12.0);
+
+        ChunkedSensorDatabase reopened = makeDb();
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(12, 12.0)),
+                readAll(reopened, "tag", 0));
+        reopened.addScalarReading("tag", 0, 13, 13.0);
+        reopened.addScalarReading("tag", 0, 25, 25.0);
+        assertEquals(4, readAll(reopened, "tag", 0).size());
+    }
+
+    public void testFirstTagAfter() {
+        ChunkedSensorDatabase db = makeDb();
+        db.addScalarReading("tagBefore", 0, 1, 1.0);
+        db.addScalarReading("tagAfter", 0, 3, 2.0);
+        db.addScalarReading("tagFurtherAfter", 0, 25, 3.0);
+        assertEquals("tagAfter", db.getFirstDatabaseTagAfter(2));
+        assertEquals("tagFurtherAfter", db.getFirstDatabaseTagAfter(3));
+        assertNull(db.getFirstDatabaseTagAfter(25));
+    }
+
+    public void testTierUsage() {
+        ChunkedSensorDatabase db = makeDb();
+        for (int i = 0; i < 50; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        db.addScalarReading("tag", 1, 10, 10);
+        db.addScalarReading("tag2", 0, 10, 10);
+
+        Map<String, Long> counts = new HashMap<>();
+        for (TierUsage usage : db.getTierUsage()) {
+            counts.put(usage.getSensorTag() + "/" + usage.getResolutionTier(),
+                    usage.getReadingCount());
+            assertTrue(usage.getEstimatedBytes() > 0);
+        }
+        assertEquals(3, counts.size());
+        assertEquals(50, (long) counts.get("tag/0"));
+        assertEquals(1, (long) counts.get("tag/1"));
+        assertEquals(1, (long) counts.get("tag2/0"));
+    }
+
+    public void testDeleteReadingsBelowTier() {
+        ChunkedSensorDatabase db = makeDb();
+        for (int i = 0; i < 50; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        db.addScalarReading("tag", 1, 10, 10);
+        db.addScalarReading("tag", 1, 30, 30);
+        db.deleteScalarReadingsBelowTier("tag", TimeRange.oldest(Range.closed(5L, 44L)), 1);
+
+        assertEquals(10, readAll(db, "tag", 0).size());
+        assertEquals(2, readAll(db, "tag", 1).size());
+    }
+
+    public void testDeleteReadings() {
+        ChunkedSensorDatabase db = makeDb();
+        for (int i = 0; i < 50; i++) {
+            db.addScalarReading("tag", 0, i, i);
+            db.addScalarReading("tag2", 0, i, i);
+        }
+        db.addScalarReading("tag", 1, 25, 25);
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(5L, 44L)));
+
+        List<ScalarReading> readings = readAll(db, "tag", 0);
+        assertEquals(10, readings.size());
+        assertEquals(new ScalarReading(4, 4), readings.get(4));
+        assertEquals(new ScalarReading(45, 45), readings.get(5));
+        assertEquals(0, readAll(db, "tag", 1).size());
+        assertEquals(50, readAll(db, "tag2", 0).size());
+    }
+
+    public void testMigrateFromSensorDatabaseImpl() {
+        SensorDatabaseImpl legacy = new SensorDatabaseImpl(getContext(), LEGACY_DATABASE_NAME);
+        for (int i = 0; i < 30; i++) {
+            legacy.addScalarReading("tag", 0, i, i);
+        }
+        legacy.addScalarReading("tag", 1, 0, 0);
+        legacy.addScalarReading("other", 0, 7, 7);
+
+        ChunkedSensorDatabase db = makeDb();
+        assertEquals(32, legacy.copyAllReadingsTo(db));
+        assertEquals(readAll(legacy, "tag", 0), readAll(db, "tag", 0));
+        assertEquals(readAll(legacy, "tag", 1), readAll(db, "tag", 1));
+        assertEquals(readAll(legacy, "other", 0), readAll(db, "other", 0));
+    }
+
+    public void testMigrateInBatches() {
+        SensorDatabaseImpl legacy = new SensorDatabaseImpl(getContext(), LEGACY_DATABASE_NAME);
+        for (int i = 0; i < 10; i++) {
+            legacy.addScalarReading("tag", 0, i, i);
+        }
+        // Two readings at the end of the first batch's span, and a sensor with only zoom tiers
+        legacy.addScalarReading("tag", 0, 3, 30);
+        legacy.addScalarReading("tag", 1, 5, 5);
+        legacy.addScalarReading("zoomed", 1, 2, 2);
+
+        ChunkedSensorDatabase db = makeDb();
+        SensorDatabaseImpl.CopyPosition position = SensorDatabaseImpl.CopyPosition.START;
+        int batches = 0;
+        while (position != null) {
+            SensorDatabaseImpl.CopyBatch batch = legacy.readCopyBatch(position, 4);
+            ScalarReadingBuffer readings = batch.getReadings();
+            if (readings != null) {
+                for (int tier = 0; tier < readings.getTierCount(); tier++) {
+                    for (int i = 0; i < readings.getTierSize(tier); i++) {
+                        assertTrue(readings.getTimestamp(tier, i)
+                                > position.getTimestampMillis());
+                    }
+                }
+                db.addScalarReadings(readings);
+                batches++;
+            }
+            position = batch.getNext();
+        }
+        assertEquals(4, batches);
+        assertEquals(11, readAll(db, "tag", 0).size());
+        assertEquals(readAll(legacy, "tag", 1), readAll(db, "tag", 1));
+        assertEquals(readAll(legacy, "zoomed", 1), readAll(db, "zoomed", 1));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(TEST_DATABASE_NAME);
+        getContext().deleteDatabase(LEGACY_DATABASE_NAME);
+    }
+}
@@ -19,6 +19,7 @@ package com.google.android.apps.forscience.whistlepunk.sensordb;
 import android.test.AndroidTestCase;
 
 import com.google.android.apps.forscience.javalib.Consumer;
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.Arbitrary;
 import com.google.android.apps.forscience.whistlepunk.Clock;
@@ -26,6 +27,7 @@ import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.DataControllerImpl;
 import com.google.android.apps.forscience.whistlepunk.ExplodingFactory;
 import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.ScalarIngestionQueue;
 import com.google.android.apps.forscience.whistlepunk.TestConsumers;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
 import com.google.android.apps.forscience.whistlepunk.metadata.ApplicationLabel;
@@ -36,9 +38,12 @@ import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpe
 import com.google.android.apps.forscience.whistlepunk.metadata.Project;
 import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -63,6 +68,198 @@ public class DataControllerTest extends AndroidTestCase {
         assertEquals(12.34, reading.getValue(), 0.001);
     }
 
+    public void testAddScalarReadingBatches() {
+        final InMemorySensorDatabase db = new InMemorySensorDatabase();
+        RecordingDataController controller = new DataControllerImpl(db,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), new MemoryMetadataManager(), new MonotonicClock(),
+                null, 3, Long.MAX_VALUE);
+
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        controller.addScalarReading("tag", 1, 1, 1.0);
+        assertEquals(0, db.getReadings(0).size());
+        assertEquals(0, db.getReadings(1).size());
+
+        // Third reading fills the batch
+        controller.addScalarReading("tag", 0, 2, 2.0);
+        assertEquals(2, db.getReadings(0).size());
+        assertEquals(1, db.getReadings(1).size());
+
+        controller.addScalarReading("tag", 0, 3, 3.0);
+        assertEquals(2, db.getReadings(0).size());
+        controller.flushScalarReadings("tag");
+        assertEquals(3, db.getReadings(0).size());
+        assertEquals(new InMemorySensorDatabase.Reading("tag", 3, 3.0), db.getReadings(0).get(2));
+    }
+
+    public void testAddScalarReadingBatchDelay() {
+        final InMemorySensorDatabase db = new InMemorySensorDatabase();
+        IncrementableMonotonicClock clock = new IncrementableMonotonicClock();
+        RecordingDataController controller = new DataControllerImpl(db,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), new MemoryMetadataManager(), clock, null,
+                Integer.MAX_VALUE, 10);
+
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        assertEquals(0, db.getReadings(0).size());
+        for (int i = 0; i < 10; i++) {
+            clock.increment();
+        }
+        controller.addScalarReading("tag", 0, 2, 2.0);
+        assertEquals(2, db.getReadings(0).size());
+    }
+
+    public void testCurrentRunIsStoredWithBatches() {
+        final List<String> runIds = new ArrayList<>();
+        final InMemorySensorDatabase db = new InMemorySensorDatabase() {
+            @Override
+            public void addScalarReadings(ScalarReadingBuffer readings) {
+                runIds.add(readings.getRunId());
+                super.addScalarReadings(readings);
+            }
+        };
+        RecordingDataController controller = new DataControllerImpl(db,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), new MemoryMetadataManager(), new MonotonicClock(),
+                null, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+        controller.addScalarReading("tag", 0, 1, 1.0);
+
+        // Changing the run writes what was buffered for the previous one
+        controller.setCurrentRun("tag", "runId");
+        assertEquals(1, db.getReadings(0).size());
+        controller.addScalarReading("tag", 0, 2, 2.0);
+        controller.addScalarReading("tag", 0, 3, 3.0);
+        controller.setCurrentRun("tag", null);
+        assertEquals(3, db.getReadings(0).size());
+        assertEquals(Arrays.asList(null, "runId"), runIds);
+    }
+
+    public void testReadsWaitOnlyForUnwrittenReadings() {
+        final InMemorySensorDatabase db = new InMemorySensorDatabase();
+        ExplicitExecutor dataThread = new ExplicitExecutor();
+        ExplicitExecutor readThread = new ExplicitExecutor();
+        DataControllerImpl controller = new DataControllerImpl(db,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(), dataThread,
+                readThread, new MemoryMetadataManager(), new MonotonicClock(), null,
+                Integer.MAX_VALUE, Long.MAX_VALUE, new ScalarIngestionQueue(10,
+                ScalarIngestionQueue.OverflowPolicy.BLOCK),
+                ScalarBlockCache.disabled());
+        final List<Integer> sizes = new ArrayList<>();
+        MaybeConsumer<ScalarReadingList> onSuccess = TestConsumers.expectingSuccess(
+                new Consumer<ScalarReadingList>() {
+                    @Override
+                    public void take(ScalarReadingList readings) {
+                        sizes.add(readings.size());
+                    }
+                });
+        TimeRange all = TimeRange.oldest(Range.<Long>all());
+
+        // The buffered reading is written first, and the read is queued behind it.
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        controller.getScalarReadings("tag", 0, all, 0, onSuccess);
+        assertFalse(readThread.drain());
+        assertTrue(dataThread.drain());
+        assertEquals(Arrays.asList(1), sizes);
+
+        // Once everything is written, reads don't wait for the data thread.
+        controller.getScalarReadings("tag", 0, all, 0, onSuccess);
+        assertFalse(dataThread.drain());
+        assertTrue(readThread.drain());
+        assertEquals(Arrays.asList(1, 1), sizes);
+
+        // Other sensors' writes don't hold up the read.
+        controller.addScalarReading("other", 0, 2, 2.0);
+        controller.flushScalarReadings("other");
+        controller.getScalarReadings("tag", 0, all, 0, onSuccess);
+        assertTrue(readThread.drain());
+        assertEquals(Arrays.asList(1, 1, 1), sizes);
+        assertTrue(dataThread.drain());
+
+        // Nor do the sensor's own unwritten readings, if they are newer than the range read, and
+        // they aren't written early for it.
+        controller.addScalarReading("tag", 0, 3, 3.0);
+        controller.getScalarReadings("tag", 0, TimeRange.oldest(Range.closed(0L, 1L)), 0,
+                onSuccess);
+        assertFalse(dataThread.drain());
+        assertTrue(readThread.drain());
+        assertEquals(Arrays.asList(1, 1, 1, 1), sizes);
+
+        controller.getScalarReadings("tag", 0, TimeRange.oldest(Range.closed(0L, 3L)), 0,
+                onSuccess);
+        assertFalse(readThread.drain());
+        assertTrue(dataThread.drain());
+        assertEquals(Arrays.asList(1, 1, 1, 1, 2), sizes);
+    }
+
+    public void testDroppedReadingsAreStoredInStats() {
+        final InMemorySensorDatabase db = new InMemorySensorDatabase();
+        ExplicitExecutor dataThread = new ExplicitExecutor();
+        DataControllerImpl controller = new DataControllerImpl(db,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(), dataThread,
+                dataThread, new MemoryMetadataManager(), new MonotonicClock(), null, 1,
+                Long.MAX_VALUE, new ScalarIngestionQueue(1,
+                ScalarIngestionQueue.OverflowPolicy.DROP_OLDEST),
+                ScalarBlockCache.disabled());
+
+        // Nothing is written until the data thread runs, so each reading drops the last.
+        controller.setCurrentRun("tag", "runId");
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        controller.addScalarReading("tag", 0, 2, 2.0);
+        controller.addScalarReading("tag", 0, 3, 3.0);
+        controller.setCurrentRun("tag", null);
+        controller.setStats("runId", "tag", new RunStats(),
+                TestConsumers.<Success>expectingSuccess());
+
+        // The run's last reading is dropped after it stopped, and is still counted.
+        controller.addScalarReading("other", 0, 4, 4.0);
+        dataThread.drain();
+        assertEquals(Arrays.asList(new InMemorySensorDatabase.Reading("other", 4, 4.0)),
+                db.getReadings(0));
+
+        final AtomicBoolean success = new AtomicBoolean(false);
+        controller.getStats("runId", "tag", TestConsumers.expectingSuccess(
+                new Consumer<RunStats>() {
+                    @Override
+                    public void take(RunStats runStats) {
+                        assertEquals(3.0, runStats.getStat(
+                                ScalarIngestionQueue.STATS_KEY_DROPPED_READINGS), 0.001);
+                        success.set(true);
+                    }
+                }));
+        assertTrue(success.get());
+    }
+
+    public void testCachedReadsSeeLaterReadings() {
+        final InMemorySensorDatabase db = new InMemorySensorDatabase();
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        DataControllerImpl controller = new DataControllerImpl(db,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(),
+                new MemoryMetadataManager(), new MonotonicClock(), null, Integer.MAX_VALUE,
+                Long.MAX_VALUE, new ScalarIngestionQueue(10,
+                ScalarIngestionQueue.OverflowPolicy.BLOCK), cache);
+        final List<Integer> sizes = new ArrayList<>();
+        MaybeConsumer<ScalarReadingList> onSuccess = TestConsumers.expectingSuccess(
+                new Consumer<ScalarReadingList>() {
+                    @Override
+                    public void take(ScalarReadingList readings) {
+                        sizes.add(readings.size());
+                    }
+                });
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 19L));
+
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        controller.getScalarReadings("tag", 0, range, 0, onSuccess);
+        controller.getScalarReadings("tag", 0, range, 0, onSuccess);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        controller.addScalarReading("tag", 0, 2, 2.0);
+        controller.getScalarReadings("tag", 0, range, 0, onSuccess);
+        assertEquals(Arrays.asList(1, 1, 2), sizes);
+    }
+
     public void testStoreStats() {
         final InMemorySensorDatabase db = new InMemorySensorDatabase();
 
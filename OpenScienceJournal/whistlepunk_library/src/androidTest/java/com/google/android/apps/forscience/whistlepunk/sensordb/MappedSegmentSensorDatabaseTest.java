@@ -0,0 +1,253 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.google.common.collect.Range;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MappedSegmentSensorDatabaseTest extends AndroidTestCase {
+    private static final String TEST_DIRECTORY_NAME = "segmenttest";
+    private static final int SEGMENT_CAPACITY = 10;
+
+    private MappedSegmentSensorDatabase makeDb() {
+        return new MappedSegmentSensorDatabase(getRoot(), SEGMENT_CAPACITY);
+    }
+
+    private File getRoot() {
+        return new File(getContext().getFilesDir(), TEST_DIRECTORY_NAME);
+    }
+
+    private static List<ScalarReading> readAll(SensorDatabase db, String tag, int tier) {
+        return ScalarReading.slurp(db.getScalarReadings(tag, TimeRange.oldest(Range.<Long>all()),
+                tier, 0));
+    }
+
+    public void testAddAcrossSegments() {
+        MappedSegmentSensorDatabase db = makeDb();
+        for (int i = 0; i < 35; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        List<ScalarReading> readings = readAll(db, "tag", 0);
+        assertEquals(35, readings.size());
+        for (int i = 0; i < 35; i++) {
+            assertEquals(new ScalarReading(i, i), readings.get(i));
+        }
+    }
+
+    public void testIndexedLookup() {
+        // Segments big enough to need several index entries each
+        MappedSegmentSensorDatabase db = new MappedSegmentSensorDatabase(getRoot(),
+                MappedSegmentSensorDatabase.INDEX_STRIDE * 5);
+        for (int i = 0; i < 2000; i++) {
+            db.addScalarReading("tag", 0, i * 2, i);
+        }
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(1001L, 1010L)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(1002, 501), new ScalarReading(1004, 502),
+                new ScalarReading(1006, 503), new ScalarReading(1008, 504),
+                new ScalarReading(1010, 505)), readings);
+    }
+
+    public void testRangeAndLimits() {
+        MappedSegmentSensorDatabase db = makeDb();
+        for (int i = 0; i < 35; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.open(8L, 12L)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(9, 9), new ScalarReading(10, 10),
+                new ScalarReading(11, 11)), readings);
+
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(8L, 30L)), 0, 2));
+        assertEquals(Arrays.asList(new ScalarReading(8, 8), new ScalarReading(9, 9)), readings);
+
+        // Newest first, across a segment boundary
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.newest(Range.closed(0L, 100L)), 0, 7));
+        assertEquals(7, readings.size());
+        assertEquals(new ScalarReading(34, 34), readings.get(0));
+        assertEquals(new ScalarReading(28, 28), readings.get(6));
+    }
+
+    public void testTagsAndTiers() {
+        MappedSegmentSensorDatabase db = makeDb();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 1, 2, 2.0);
+        db.addScalarReading("other/tag", 0, 3, 3.0);
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), readAll(db, "tag", 0));
+        assertEquals(Arrays.asList(new ScalarReading(2, 2.0)), readAll(db, "tag", 1));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0)), readAll(db, "other/tag", 0));
+        assertEquals(0, readAll(db, "missing", 0).size());
+    }
+
+    public void testOutOfOrderReadings() {
+        MappedSegmentSensorDatabase db = makeDb();
+        // Zoom tiers write the min and max of each window in either order.
+        for (int i = 0; i < 10; i++) {
+            db.addScalarReading("tag", 1, i * 10 + 5, i);
+            db.addScalarReading("tag", 1, i * 10, i);
+        }
+        // Late arrival for the first, full segment: pushes a record into the next one.
+        db.addScalarReading("tag", 1, 3, 3.0);
+        List<ScalarReading> readings = readAll(db, "tag", 1);
+        assertEquals(21, readings.size());
+        for (int i = 1; i < readings.size(); i++) {
+            assertTrue(readings.get(i - 1).getCollectedTimeMillis()
+                    <= readings.get(i).getCollectedTimeMillis());
+        }
+        assertEquals(new ScalarReading(3, 3.0), readings.get(1));
+    }
+
+    public void testBatchedReadings() {
+        MappedSegmentSensorDatabase db = makeDb();
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer("tag");
+        for (int i = 0; i < 100; i++) {
+            buffer.add(0, i, i / 2.0);
+        }
+        buffer.add(1, 0, 0.0);
+        buffer.add(1, 99, 49.5);
+        db.addScalarReadings(buffer);
+        assertEquals(100, readAll(db, "tag", 0).size());
+        assertEquals(Arrays.asList(new ScalarReading(0, 0.0), new ScalarReading(99, 49.5)),
+                readAll(db, "tag", 1));
+    }
+
+    public void testCopyToAllocatesNothingPerReading() {
+        MappedSegmentSensorDatabase db = makeDb();
+        int count = 35;
+        for (int i = 0; i < count; i++) {
+            db.addScalarReading("tag", 0, i, i * 2.0);
+        }
+        ScalarReadingList list = db.getScalarReadings("tag",
+                TimeRange.newest(Range.<Long>all()), 0, 0);
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        int copied = list.copyTo(timestamps, values, 0);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals(0, allocations);
+        assertEquals(count, copied);
+        for (int i = 0; i < count; i++) {
+            assertEquals(count - 1 - i, timestamps[i]);
+            assertEquals((count - 1 - i) * 2.0, values[i], 0.0);
+        }
+    }
+
+    public void testSurvivesReopen() {
+        MappedSegmentSensorDatabase db = makeDb();
+        for (int i = 0; i < 15; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+
+        MappedSegmentSensorDatabase reopened = makeDb();
+        assertEquals(readAll(db, "tag", 0), readAll(reopened, "tag", 0));
+        reopened.addScalarReading("tag", 0, 15, 15);
+        assertEquals(16, readAll(reopened, "tag", 0).size());
+    }
+
+    public void testFirstTagAfter() {
+        MappedSegmentSensorDatabase db = makeDb();
+        db.addScalarReading("tagBefore", 0, 1, 1.0);
+        db.addScalarReading("tagAfter", 0, 3, 2.0);
+        db.addScalarReading("tagFurtherAfter", 0, 25, 3.0);
+        assertEquals("tagAfter", db.getFirstDatabaseTagAfter(2));
+        assertEquals("tagFurtherAfter", db.getFirstDatabaseTagAfter(3));
+        assertNull(db.getFirstDatabaseTagAfter(25));
+    }
+
+    public void testTierUsage() {
+        MappedSegmentSensorDatabase db = makeDb();
+        for (int i = 0; i < 50; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        db.addScalarReading("tag", 1, 10, 10);
+        db.addScalarReading("tag2", 0, 10, 10);
+
+        Map<String, Long> counts = new HashMap<>();
+        for (TierUsage usage : db.getTierUsage()) {
+            counts.put(usage.getSensorTag() + "/" + usage.getResolutionTier(),
+                    usage.getReadingCount());
+            assertTrue(usage.getEstimatedBytes() > 0);
+        }
+        assertEquals(3, counts.size());
+        assertEquals(50, (long) counts.get("tag/0"));
+        assertEquals(1, (long) counts.get("tag/1"));
+        assertEquals(1, (long) counts.get("tag2/0"));
+    }
+
+    public void testDeleteReadingsBelowTier() {
+        MappedSegmentSensorDatabase db = makeDb();
+        for (int i = 0; i < 50; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        db.addScalarReading("tag", 1, 10, 10);
+        db.addScalarReading("tag", 1, 30, 30);
+        db.deleteScalarReadingsBelowTier("tag", TimeRange.oldest(Range.closed(5L, 44L)), 1);
+
+        assertEquals(10, readAll(db, "tag", 0).size());
+        assertEquals(2, readAll(db, "tag", 1).size());
+    }
+
+    public void testDeleteReadings() {
+        MappedSegmentSensorDatabase db = makeDb();
+        for (int i = 0; i < 50; i++) {
+            db.addScalarReading("tag", 0, i, i);
+            db.addScalarReading("tag2", 0, i, i);
+        }
+        db.addScalarReading("tag", 1, 25, 25);
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(5L, 44L)));
+
+        List<ScalarReading> readings = readAll(db, "tag", 0);
+        assertEquals(10, readings.size());
+        assertEquals(new ScalarReading(4, 4), readings.get(4));
+        assertEquals(new ScalarReading(45, 45), readings.get(5));
+        assertEquals(0, readAll(db, "tag", 1).size());
+        assertEquals(50, readAll(db, "tag2", 0).size());
+
+        // Deletes stick, and appending afterwards still works.
+        MappedSegmentSensorDatabase reopened = makeDb();
+        assertEquals(readings, readAll(reopened, "tag", 0));
+        reopened.addScalarReading("tag", 0, 50, 50);
+        assertEquals(11, readAll(reopened, "tag", 0).size());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(getRoot());
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.common.collect.Range;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Compares the storage engines on the same synthetic recording.  Results are written to the log
+ * under {@link #TAG}; the assertions only check that the comparison is meaningful.
+ */
+public class SensorDatabaseBenchmark extends AndroidTestCase {
+    private static final String TAG = "SensorDatabaseBenchmark";
+    private static final String LEGACY_DATABASE_NAME = "benchmark_legacy.db";
+    private static final String CHUNKED_DATABASE_NAME = "benchmark_chunked.db";
+    private static final String SEGMENT_DIRECTORY_NAME = "benchmark_segments";
+
+    // A 20Hz sensor recording for a little under 42 minutes
+    private static final int NUM_READINGS = 50000;
+    private static final long MILLIS_BETWEEN_READINGS = 50;
+    private static final int BATCH_SIZE = 200;
+
+    private static final int NUM_RANGE_SCANS = 50;
+    private static final long RANGE_SCAN_MILLIS = 5 * 60 * 1000;
+
+    public void testBytesPerSampleAndRangeScans() {
+        SensorDatabaseImpl legacy = new SensorDatabaseImpl(getContext(), LEGACY_DATABASE_NAME);
+        ChunkedSensorDatabase chunked = new ChunkedSensorDatabase(getContext(),
+                CHUNKED_DATABASE_NAME);
+        MappedSegmentSensorDatabase segments = new MappedSegmentSensorDatabase(getContext(),
+                SEGMENT_DIRECTORY_NAME);
+
+        long legacyWriteNanos = fill(legacy);
+        long chunkedWriteNanos = fill(chunked);
+        long segmentWriteNanos = fill(segments);
+
+        double legacyBytes = bytesPerSample(LEGACY_DATABASE_NAME);
+        double chunkedBytes = bytesPerSample(CHUNKED_DATABASE_NAME);
+        double segmentBytes = directorySize(getSegmentDirectory()) / (double) NUM_READINGS;
+
+        long legacyScanNanos = scan(legacy);
+        long chunkedScanNanos = scan(chunked);
+        long segmentScanNanos = scan(segments);
+
+        Log.i(TAG, String.format("SensorDatabaseImpl: %.1f bytes/sample, write %d ms, "
+                        + "%d range scans %d ms", legacyBytes, legacyWriteNanos / 1000000,
+                NUM_RANGE_SCANS, legacyScanNanos / 1000000));
+        Log.i(TAG, String.format("ChunkedSensorDatabase: %.1f bytes/sample, write %d ms, "
+                        + "%d range scans %d ms", chunkedBytes, chunkedWriteNanos / 1000000,
+                NUM_RANGE_SCANS, chunkedScanNanos / 1000000));
+        Log.i(TAG, String.format("MappedSegmentSensorDatabase: %.1f bytes/sample, write %d ms, "
+                        + "%d range scans %d ms", segmentBytes, segmentWriteNanos / 1000000,
+                NUM_RANGE_SCANS, segmentScanNanos / 1000000));
+
+        assertTrue(chunkedBytes < legacyBytes);
+    }
+
+    private long fill(SensorDatabase db) {
+        Random random = new Random(0);
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer("sensor");
+        double value = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_READINGS; i++) {
+            // A slowly wandering value, at the resolution a typical sensor reports
+            value += random.nextGaussian() * 0.05;
+            buffer.add(0, i * MILLIS_BETWEEN_READINGS, Math.round(value * 100) / 100.0);
+            if (buffer.size() == BATCH_SIZE) {
+                db.addScalarReadings(buffer);
+                buffer.clear();
+            }
+        }
+        db.addScalarReadings(buffer);
+        return System.nanoTime() - start;
+    }
+
+    private double bytesPerSample(String databaseName) {
+        return getContext().getDatabasePath(databaseName).length() / (double) NUM_READINGS;
+    }
+
+    private File getSegmentDirectory() {
+        return new File(getContext().getFilesDir(), SEGMENT_DIRECTORY_NAME);
+    }
+
+    private static long directorySize(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += directorySize(child);
+        }
+        return size;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private long scan(SensorDatabase db) {
+        Random random = new Random(0);
+        final long[] count = {0};
+        StreamConsumer counter = new StreamConsumer() {
+            @Override
+            public void addData(long timestampMillis, double value) {
+                count[0]++;
+            }
+        };
+        long recordingLength = NUM_READINGS * MILLIS_BETWEEN_READINGS;
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_RANGE_SCANS; i++) {
+            long scanStart = (long) (random.nextDouble() * (recordingLength - RANGE_SCAN_MILLIS));
+            db.getScalarReadings("sensor", TimeRange.oldest(
+                    Range.closed(scanStart, scanStart + RANGE_SCAN_MILLIS)), 0, 0).deliver(
+                    counter);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(NUM_RANGE_SCANS * (RANGE_SCAN_MILLIS / MILLIS_BETWEEN_READINGS + 1),
+                count[0]);
+        return elapsed;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(LEGACY_DATABASE_NAME);
+        getContext().deleteDatabase(CHUNKED_DATABASE_NAME);
+        deleteRecursively(getSegmentDirectory());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.whistlepunk.DataControllerImpl;
+import com.google.android.apps.forscience.whistlepunk.ScalarIngestionQueue;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long reads of a high-rate sensor's earlier readings take while it is still being
+ * recorded, as when scrolling back through a recording, first with reads queued on the same
+ * thread as the writes, and then with reads on a thread of their own.  Results are written to
+ * the log under {@link #TAG}.
+ */
+public class SensorDatabaseConcurrentReadBenchmark extends AndroidTestCase {
+    private static final String TAG = "ConcurrentReadBenchmark";
+    private static final String DATABASE_NAME = "benchmark_concurrent.db";
+    private static final String SENSOR_TAG = "live";
+
+    // What the sensor recorded earlier: 20Hz, for a little under 42 minutes
+    private static final int NUM_HISTORY_READINGS = 50000;
+    private static final long MILLIS_BETWEEN_HISTORY_READINGS = 50;
+
+    // Then LIVE_READINGS_PER_TICK readings every millisecond, batched as in the app
+    private static final int LIVE_READINGS_PER_TICK = 2;
+    private static final int BATCH_SIZE = 200;
+    private static final long BATCH_DELAY_MILLIS = 500;
+    private static final int MAX_QUEUED_BATCHES = 100;
+
+    // Each read covers 5 minutes of the earlier readings
+    private static final int NUM_READS = 50;
+    private static final long READ_MILLIS = 5 * 60 * 1000;
+    private static final int MAX_RECORDS_PER_READ = (int) (READ_MILLIS
+            / MILLIS_BETWEEN_HISTORY_READINGS) + 1;
+    private static final long MILLIS_BETWEEN_READS = 100;
+
+    // Far longer than either recording lasts
+    private static final long LIVE_START_GAP_MILLIS = 24 * 60 * 60 * 1000;
+
+    public void testReadLatencyDuringRecording() throws Exception {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), DATABASE_NAME);
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer(SENSOR_TAG);
+        Random random = new Random(0);
+        for (int i = 0; i < NUM_HISTORY_READINGS; i++) {
+            buffer.add(0, i * MILLIS_BETWEEN_HISTORY_READINGS, random.nextDouble());
+            if (buffer.size() == BATCH_SIZE) {
+                db.addScalarReadings(buffer);
+                buffer.clear();
+            }
+        }
+        db.addScalarReadings(buffer);
+
+        ExecutorService dataThread = Executors.newSingleThreadExecutor();
+        ExecutorService readThread = Executors.newSingleThreadExecutor();
+        try {
+            long historyLength = NUM_HISTORY_READINGS * MILLIS_BETWEEN_HISTORY_READINGS;
+            long[] sharedNanos = measureReads(db, dataThread, dataThread, historyLength);
+            // Recording again, later on, so as not to repeat the timestamps just written
+            long[] separateNanos = measureReads(db, dataThread, readThread,
+                    historyLength + LIVE_START_GAP_MILLIS);
+            Log.i(TAG, "Reads on the write thread: " + describe(sharedNanos));
+            Log.i(TAG, "Reads on their own thread: " + describe(separateNanos));
+        } finally {
+            dataThread.shutdown();
+            readThread.shutdown();
+        }
+    }
+
+    /**
+     * @param liveStartMillis the timestamp of the first reading recorded while reading
+     * @return the latency of each read, in nanoseconds, sorted
+     */
+    private long[] measureReads(SensorDatabase db, ExecutorService dataThread,
+            ExecutorService readThread, final long liveStartMillis) throws Exception {
+        final DataControllerImpl dc = new DataControllerImpl(db, MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), dataThread, readThread,
+                new MemoryMetadataManager(), new MonotonicClock(), null, BATCH_SIZE,
+                BATCH_DELAY_MILLIS, new ScalarIngestionQueue(MAX_QUEUED_BATCHES,
+                ScalarIngestionQueue.OverflowPolicy.BLOCK),
+                ScalarBlockCache.disabled());
+        ScheduledExecutorService liveSensor = Executors.newSingleThreadScheduledExecutor();
+        liveSensor.scheduleAtFixedRate(new Runnable() {
+            private long mTimestamp = liveStartMillis;
+
+            @Override
+            public void run() {
+                for (int i = 0; i < LIVE_READINGS_PER_TICK; i++) {
+                    dc.addScalarReading(SENSOR_TAG, 0, mTimestamp++, Math.random());
+                }
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+
+        long[] nanos = new long[NUM_READS];
+        Random random = new Random(1);
+        long historyLength = NUM_HISTORY_READINGS * MILLIS_BETWEEN_HISTORY_READINGS;
+        try {
+            for (int i = 0; i < NUM_READS; i++) {
+                Thread.sleep(MILLIS_BETWEEN_READS);
+                long start = (long) (random.nextDouble() * (historyLength - READ_MILLIS));
+                final CountDownLatch done = new CountDownLatch(1);
+                final int[] count = {0};
+                long startNanos = System.nanoTime();
+                dc.getScalarReadings(SENSOR_TAG, 0,
+                        TimeRange.oldest(Range.closed(start, start + READ_MILLIS)),
+                        MAX_RECORDS_PER_READ, new MaybeConsumer<ScalarReadingList>() {
+                            @Override
+                            public void success(ScalarReadingList readings) {
+                                count[0] = readings.size();
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void fail(Exception e) {
+                                done.countDown();
+                            }
+                        });
+                done.await();
+                nanos[i] = System.nanoTime() - startNanos;
+                assertTrue(count[0] > 0);
+            }
+        } finally {
+            liveSensor.shutdown();
+            liveSensor.awaitTermination(1, TimeUnit.SECONDS);
+            dc.flushScalarReadings(SENSOR_TAG);
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static String describe(long[] sortedNanos) {
+        return String.format("median %.2f ms, 90th percentile %.2f ms, max %.2f ms",
+                sortedNanos[sortedNanos.length / 2] / 1e6,
+                sortedNanos[sortedNanos.length * 9 / 10] / 1e6,
+                sortedNanos[sortedNanos.length - 1] / 1e6);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+}
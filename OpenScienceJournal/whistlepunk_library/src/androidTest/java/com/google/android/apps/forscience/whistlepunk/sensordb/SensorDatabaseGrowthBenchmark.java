@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.common.collect.Range;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Measures how SensorDatabaseImpl range queries slow down as the database grows from 1M to 50M
+ * rows, with several sensors recorded at once (so each time window holds rows from every sensor
+ * and tier).  Results are written to the log under {@link #TAG}.
+ *
+ * This takes a long time, and several GB of storage at the largest size; it is skipped if there is
+ * not enough free space.
+ */
+public class SensorDatabaseGrowthBenchmark extends AndroidTestCase {
+    private static final String TAG = "SensorDbGrowthBenchmark";
+    private static final String DATABASE_NAME = "benchmark_growth.db";
+
+    // Database sizes, in rows, at which query latency is measured
+    private static final int[] ROW_COUNTS = {1000000, 5000000, 10000000, 25000000, 50000000};
+
+    // Rough on-disk cost of a row, including both indexes, for the free space check
+    private static final long BYTES_PER_ROW_ESTIMATE = 80;
+
+    // Sensors recorded side by side, each at 20Hz, with a tier 1 point for every 10 readings
+    private static final int NUM_SENSORS = 20;
+    private static final long MILLIS_BETWEEN_READINGS = 50;
+    private static final int TIER_1_EVERY = 10;
+    private static final int BATCH_SIZE = 10000;
+
+    private static final int NUM_RANGE_QUERIES = 50;
+    private static final long RANGE_QUERY_MILLIS = 5 * 60 * 1000;
+
+    public void testRangeQueryLatencyAsDatabaseGrows() {
+        File dbFile = getContext().getDatabasePath(DATABASE_NAME);
+        dbFile.getParentFile().mkdirs();
+        long neededBytes = ROW_COUNTS[ROW_COUNTS.length - 1] * BYTES_PER_ROW_ESTIMATE;
+        if (dbFile.getParentFile().getUsableSpace() < neededBytes) {
+            Log.w(TAG, "Skipping: needs about " + (neededBytes >> 20) + "MB free");
+            return;
+        }
+
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), DATABASE_NAME);
+        ScalarReadingBuffer[] buffers = new ScalarReadingBuffer[NUM_SENSORS];
+        for (int sensor = 0; sensor < NUM_SENSORS; sensor++) {
+            buffers[sensor] = new ScalarReadingBuffer(getTag(sensor));
+        }
+        Random random = new Random(0);
+        long rows = 0;
+        long reading = 0;
+        for (int rowCount : ROW_COUNTS) {
+            while (rows < rowCount) {
+                long timestamp = reading * MILLIS_BETWEEN_READINGS;
+                for (int sensor = 0; sensor < NUM_SENSORS; sensor++) {
+                    double value = random.nextDouble();
+                    buffers[sensor].add(0, timestamp, value);
+                    rows++;
+                    if (reading % TIER_1_EVERY == 0) {
+                        buffers[sensor].add(1, timestamp, value);
+                        rows++;
+                    }
+                    if (buffers[sensor].size() >= BATCH_SIZE) {
+                        db.addScalarReadings(buffers[sensor]);
+                        buffers[sensor].clear();
+                    }
+                }
+                reading++;
+            }
+            for (ScalarReadingBuffer buffer : buffers) {
+                db.addScalarReadings(buffer);
+                buffer.clear();
+            }
+
+            long recordingLength = reading * MILLIS_BETWEEN_READINGS;
+            double tier0Millis = averageQueryMillis(db, 0, recordingLength);
+            double tier1Millis = averageQueryMillis(db, 1, recordingLength);
+            Log.i(TAG, String.format("%d rows (%.1f bytes/row): 5-minute range query %.2f ms "
+                            + "at tier 0, %.2f ms at tier 1", rows,
+                    dbFile.length() / (double) rows, tier0Millis, tier1Millis));
+        }
+    }
+
+    private double averageQueryMillis(SensorDatabase db, int tier, long recordingLength) {
+        Random random = new Random(tier);
+        final long[] count = {0};
+        StreamConsumer counter = new StreamConsumer() {
+            @Override
+            public void addData(long timestampMillis, double value) {
+                count[0]++;
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_RANGE_QUERIES; i++) {
+            long queryStart = (long) (random.nextDouble() * (recordingLength - RANGE_QUERY_MILLIS));
+            db.getScalarReadings(getTag(random.nextInt(NUM_SENSORS)), TimeRange.oldest(
+                    Range.closed(queryStart, queryStart + RANGE_QUERY_MILLIS)), tier, 0).deliver(
+                    counter);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue(count[0] > 0);
+        return elapsed / 1000000.0 / NUM_RANGE_QUERIES;
+    }
+
+    private static String getTag(int sensor) {
+        return "sensor" + sensor;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+}
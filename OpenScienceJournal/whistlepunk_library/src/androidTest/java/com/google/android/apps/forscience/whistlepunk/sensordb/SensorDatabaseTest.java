@@ -16,14 +16,20 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
 import android.test.AndroidTestCase;
 
 import com.google.android.apps.forscience.whistlepunk.Arbitrary;
 import com.google.common.collect.Range;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SensorDatabaseTest extends AndroidTestCase {
     private static final String TEST_DATABASE_NAME = "test.db";
@@ -100,6 +106,27 @@ public class SensorDatabaseTest extends AndroidTestCase {
         assertEquals(Arrays.asList(new ScalarReading(3, 3.0), new ScalarReading(4, 4.0)), readings);
     }
 
+    public void testAddScalarReadings() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer("tag");
+        for (int i = 0; i < 100; i++) {
+            buffer.add(0, i, i);
+        }
+        buffer.add(1, 0, 0.0);
+        buffer.add(1, 99, 99.0);
+        db.addScalarReadings(buffer);
+
+        List<ScalarReading> tier0 = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0));
+        assertEquals(100, tier0.size());
+        assertEquals(new ScalarReading(42, 42.0), tier0.get(42));
+
+        List<ScalarReading> tier1 = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 1, 0));
+        assertEquals(Arrays.asList(new ScalarReading(0, 0.0), new ScalarReading(99, 99.0)),
+                tier1);
+    }
+
     public void testTiers() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
         db.addScalarReading("tag", 0, 0, 0.0);
@@ -163,6 +190,372 @@ public class SensorDatabaseTest extends AndroidTestCase {
 
     }
 
+    public void testUnlimitedReadsAreWindowed() {
+        // Windows of 3 rows, with runs of equal timestamps straddling window boundaries
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME, 3);
+        long[] timestamps = {1, 2, 2, 2, 2, 3, 4, 4, 5, 6};
+        for (int i = 0; i < timestamps.length; i++) {
+            db.addScalarReading("tag", 0, timestamps[i], i);
+        }
+        db.addScalarReading("other", 0, 2, 100);
+
+        ScalarReadingList oldest = db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(2L, 5L)), 0, 0);
+        List<ScalarReading> readings = ScalarReading.slurp(oldest);
+        assertEquals(8, readings.size());
+        assertEquals(8, oldest.size());
+        for (int i = 0; i < readings.size(); i++) {
+            assertEquals(new ScalarReading(timestamps[i + 1], i + 1), readings.get(i));
+        }
+
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.newest(Range.<Long>all()), 0, 0));
+        assertEquals(timestamps.length, readings.size());
+        for (int i = 0; i < readings.size(); i++) {
+            int expected = timestamps.length - 1 - i;
+            assertEquals(new ScalarReading(timestamps[expected], expected), readings.get(i));
+        }
+    }
+
+    public void testCopyToAllocatesNothingPerReading() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        int count = 1000;
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer("tag");
+        for (int i = 0; i < count; i++) {
+            buffer.add(0, i, i * 2.0);
+        }
+        db.addScalarReadings(buffer);
+        ScalarReadingList list = db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, count);
+        long[] timestamps = new long[count + 1];
+        double[] values = new double[count + 1];
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        int copied = list.copyTo(timestamps, values, 1);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals(0, allocations);
+        assertEquals(count, copied);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, timestamps[i + 1]);
+            assertEquals(i * 2.0, values[i + 1], 0.0);
+        }
+    }
+
+    public void testRunReadingsArePartitioned() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("tag", 0, 1, 1.0);
+        ScalarReadingBuffer run = new ScalarReadingBuffer("tag", "runId");
+        run.add(0, 2, 2.0);
+        run.add(0, 3, 3.0);
+        run.add(1, 2, 2.0);
+        db.addScalarReadings(run);
+        db.addScalarReading("tag", 0, 4, 4.0);
+
+        // Readings in and out of the run are merged in timestamp order
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0),
+                new ScalarReading(3, 3.0), new ScalarReading(4, 4.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0), new ScalarReading(2, 2.0)),
+                ScalarReading.slurp(db.getScalarReadings("tag",
+                        TimeRange.newest(Range.closed(2L, 3L)), 0, 10)));
+        assertEquals(Arrays.asList(new ScalarReading(2, 2.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 1, 0)));
+        assertEquals("tag", db.getFirstDatabaseTagAfter(1));
+        assertUsesCompositeIndex(db.explainScalarReadingsQuery("tag",
+                TimeRange.oldest(Range.closed(0L, 4L)), 0, 0));
+
+        db.deleteRunReadings("runId", Arrays.asList("tag"), TimeRange.oldest(Range.closed(2L,
+                3L)));
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(4, 4.0)),
+                ScalarReading.slurp(db.getScalarReadings("tag",
+                        TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        assertEquals(0, db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 1,
+                0).size());
+    }
+
+    public void testDeleteRunReadingsWithoutPartition() {
+        // As recorded before runs were partitioned
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 2.0);
+        db.addScalarReading("tag", 0, 3, 3.0);
+        db.deleteRunReadings("runId", Arrays.asList("tag"), TimeRange.oldest(Range.closed(2L,
+                3L)));
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0, 0)));
+    }
+
+    public void testTierUsage() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        for (int i = 0; i < 50; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        db.addScalarReading("tag", 1, 10, 10);
+        db.addScalarReading("tag2", 0, 10, 10);
+
+        Map<String, Long> counts = new HashMap<>();
+        for (TierUsage usage : db.getTierUsage()) {
+            counts.put(usage.getSensorTag() + "/" + usage.getResolutionTier(),
+                    usage.getReadingCount());
+            assertTrue(usage.getEstimatedBytes() > 0);
+        }
+        assertEquals(3, counts.size());
+        assertEquals(50, (long) counts.get("tag/0"));
+        assertEquals(1, (long) counts.get("tag/1"));
+        assertEquals(1, (long) counts.get("tag2/0"));
+    }
+
+    public void testDeleteReadingsBelowTier() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        ScalarReadingBuffer run = new ScalarReadingBuffer("tag", "runId");
+        for (int i = 0; i < 10000; i++) {
+            run.add(0, i, i);
+        }
+        run.add(1, 0, 0);
+        run.add(1, 9999, 9999);
+        db.addScalarReadings(run);
+        db.addScalarReading("tag", 0, 10000, 10000);
+
+        assertTrue(db.deleteScalarReadingsBelowTier("tag",
+                TimeRange.oldest(Range.closed(0L, 9999L)), 1) > 0);
+        assertEquals(Arrays.asList(new ScalarReading(10000, 10000)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        assertEquals(2, db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 1,
+                0).size());
+    }
+
+    public void testReclaimFreePagesShrinksFile() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        ScalarReadingBuffer run = new ScalarReadingBuffer("tag", "runId");
+        for (int i = 0; i < 10000; i++) {
+            run.add(0, i, i);
+        }
+        db.addScalarReadings(run);
+        File dbFile = getContext().getDatabasePath(TEST_DATABASE_NAME);
+        long fullLength = dbFile.length();
+
+        db.deleteRunReadings("runId", Arrays.asList("tag"),
+                TimeRange.oldest(Range.closed(0L, 10000L)));
+        assertEquals(fullLength, dbFile.length());
+        while (db.reclaimFreePages(16)) {
+            // keep going
+        }
+        assertTrue(dbFile.length() < fullLength / 2);
+    }
+
+    public void testAggregatesMatchReadings() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer("tag", "runId");
+        ScalarAggregate all = new ScalarAggregate();
+        ScalarAggregate summary = new ScalarAggregate();
+        for (int i = 0; i < 1000; i++) {
+            buffer.add(0, i, i % 37);
+            summary.add(i, i % 37);
+            if (summary.getCount() == 100) {
+                db.addScalarSummary("tag", 0, summary);
+                all.merge(summary);
+                summary = new ScalarAggregate();
+            }
+        }
+        db.addScalarReadings(buffer);
+        db.addScalarSummary("tag", 1, all);
+        // Recorded without summaries
+        for (int i = 2000; i < 2010; i++) {
+            db.addScalarReading("tag", 0, i, i % 37);
+        }
+
+        TimeRange range = TimeRange.oldest(Range.closed(50L, 2005L));
+        assertEquals(ScalarAggregates.computeFromReadings(db, "tag", range, 4),
+                db.getAggregates("tag", range, 4));
+        range = TimeRange.oldest(Range.closed(0L, 999L));
+        assertEquals(Arrays.asList(all), db.getAggregates("tag", range, 1));
+
+        // Summaries covering deleted readings are deleted too.
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(0L, 10L)));
+        assertEquals(ScalarAggregates.computeFromReadings(db, "tag", range, 3),
+                db.getAggregates("tag", range, 3));
+    }
+
+    public void testAggregatesReadSummaries() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("tag", 0, 1, 1.0);
+        // Claims more readings than are stored, to show that it was used.
+        db.addScalarSummary("tag", 0, new ScalarAggregate(5, 10, 1, 3, 1, 1, 5, 3));
+        assertEquals(Arrays.asList(new ScalarAggregate(5, 10, 1, 3, 1, 1, 5, 3)),
+                db.getAggregates("tag", TimeRange.oldest(Range.closed(0L, 10L)), 1));
+        // Only readings are used when the summary doesn't fit in the bucket.
+        assertEquals(Arrays.asList(new ScalarAggregate(1, 1, 1, 1, 1, 1, 1, 1)),
+                db.getAggregates("tag", TimeRange.oldest(Range.closed(0L, 4L)), 1));
+    }
+
+    public void testAlignedReadings() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("a", 0, 0, 0.0);
+        db.addScalarReading("a", 0, 10, 10.0);
+        db.addScalarReading("b", 0, 5, 50.0);
+        db.addScalarReading("b", 0, 20, 200.0);
+        // Outside the range
+        db.addScalarReading("b", 0, 30, 300.0);
+
+        AlignedReadings.Rows rows = new AlignedReadings.Rows(2);
+        db.getAlignedReadings(Arrays.asList("a", "b"), TimeRange.oldest(Range.closed(0L, 20L)),
+                0, AlignedReadings.Alignment.PREVIOUS, rows);
+        assertEquals(4, rows.size());
+        assertEquals(5, rows.getTimestamp(1));
+        assertEquals(0.0, rows.getValue(1, 0), 0.0);
+        assertEquals(50.0, rows.getValue(1, 1), 0.0);
+        assertEquals(20, rows.getTimestamp(3));
+        assertEquals(10.0, rows.getValue(3, 0), 0.0);
+        assertEquals(200.0, rows.getValue(3, 1), 0.0);
+    }
+
+    public void testAlignedReadingsAcrossReadWindows() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME, 2);
+        InMemorySensorDatabase expected = new InMemorySensorDatabase();
+        for (int i = 0; i < 10; i++) {
+            db.addScalarReading("a", 0, i * 2, i);
+            expected.addScalarReading("a", 0, i * 2, i);
+            db.addScalarReading("b", 0, i * 3, -i);
+            expected.addScalarReading("b", 0, i * 3, -i);
+        }
+
+        for (TimeRange range : Arrays.asList(TimeRange.oldest(Range.closed(1L, 25L)),
+                TimeRange.newest(Range.closed(1L, 25L)))) {
+            AlignedReadings.Rows rows = new AlignedReadings.Rows(2);
+            db.getAlignedReadings(Arrays.asList("a", "b"), range, 0,
+                    AlignedReadings.Alignment.LINEAR, rows);
+            AlignedReadings.Rows expectedRows = new AlignedReadings.Rows(2);
+            expected.getAlignedReadings(Arrays.asList("a", "b"), range, 0,
+                    AlignedReadings.Alignment.LINEAR, expectedRows);
+            assertEquals(expectedRows.size(), rows.size());
+            for (int row = 0; row < rows.size(); row++) {
+                assertEquals(expectedRows.getTimestamp(row), rows.getTimestamp(row));
+                // Boxed, so that NaNs (before a sensor's first reading) compare equal
+                assertEquals(Double.valueOf(expectedRows.getValue(row, 0)),
+                        Double.valueOf(rows.getValue(row, 0)));
+                assertEquals(Double.valueOf(expectedRows.getValue(row, 1)),
+                        Double.valueOf(rows.getValue(row, 1)));
+            }
+        }
+    }
+
+    public void testRangeQueriesUseCompositeIndex() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        assertUsesCompositeIndex(db.explainScalarReadingsQuery("tag",
+                TimeRange.oldest(Range.closed(0L, 4L)), 0, 0));
+        assertUsesCompositeIndex(db.explainScalarReadingsQuery("tag",
+                TimeRange.newest(Range.closed(0L, 4L)), 2, 100));
+        assertUsesCompositeIndex(db.explainScalarReadingsQuery("tag",
+                TimeRange.oldest(Range.<Long>all()), 1, 0));
+        assertUsesCompositeIndex(db.explainScalarReadingsQuery("tag",
+                TimeRange.newest(Range.atLeast(5L)), 0, 1));
+    }
+
+    public void testUpgradeFromV3AddsCompositeIndex() {
+        // Schema as of DbVersions.V3_TIER
+        File dbFile = getContext().getDatabasePath(TEST_DATABASE_NAME);
+        dbFile.getParentFile().mkdirs();
+        SQLiteDatabase v3 = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        v3.execSQL("CREATE TABLE scalar_sensors (tag  TEXT, timestampMillis INTEGER, value REAL,"
+                + "resolutionTier INTEGER DEFAULT 0);");
+        v3.execSQL("CREATE INDEX timestamp ON scalar_sensors(timestampMillis);");
+        v3.execSQL("INSERT INTO scalar_sensors (tag, resolutionTier, timestampMillis, value) "
+                + "VALUES ('tag', 0, 1, 1.0);");
+        v3.setVersion(3);
+        v3.close();
+
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        assertUsesIndex(db.explainScalarReadingsQuery("tag",
+                TimeRange.oldest(Range.closed(0L, 4L)), 0, 0), "tag_tier_timestamp");
+
+        while (db.migrateLegacyReadingBatch(100)) {
+            // keep going
+        }
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        assertUsesCompositeIndex(db.explainScalarReadingsQuery("tag",
+                TimeRange.oldest(Range.closed(0L, 4L)), 0, 0));
+    }
+
+    public void testUpgradeFromV4MovesTagsToDictionaryInBatches() {
+        // Schema as of DbVersions.V4_COMPOSITE_INDEX
+        File dbFile = getContext().getDatabasePath(TEST_DATABASE_NAME);
+        dbFile.getParentFile().mkdirs();
+        SQLiteDatabase v4 = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        v4.execSQL("CREATE TABLE scalar_sensors (tag  TEXT, timestampMillis INTEGER, value REAL,"
+                + "resolutionTier INTEGER DEFAULT 0);");
+        v4.execSQL("CREATE INDEX timestamp ON scalar_sensors(timestampMillis);");
+        v4.execSQL("CREATE INDEX tag_tier_timestamp ON scalar_sensors(tag, resolutionTier, "
+                + "timestampMillis, value);");
+        for (int i = 0; i < 10; i++) {
+            v4.execSQL("INSERT INTO scalar_sensors (tag, resolutionTier, timestampMillis, value) "
+                    + "VALUES (?, 0, ?, ?);", new Object[]{i % 2 == 0 ? "even" : "odd", i, i});
+        }
+        v4.setVersion(4);
+        v4.close();
+
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("odd", 0, 11, 11);
+        assertEquals("odd", db.getFirstDatabaseTagAfter(0));
+        assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L, 11L), getTimestamps(db, "odd"));
+
+        // Moves readings 0 through 3, leaving the rest in the legacy table
+        assertTrue(db.migrateLegacyReadingBatch(4));
+        assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L, 11L), getTimestamps(db, "odd"));
+        assertEquals(Arrays.asList(0L, 2L, 4L, 6L, 8L), getTimestamps(db, "even"));
+        assertEquals(5, db.getScalarReadings("even", TimeRange.oldest(Range.<Long>all()), 0,
+                0).size());
+        assertEquals("even", db.getFirstDatabaseTagAfter(3));
+        assertEquals("odd", db.getFirstDatabaseTagAfter(4));
+
+        // Deletes from both the new and the legacy table
+        db.deleteScalarReadings("even", TimeRange.oldest(Range.closed(2L, 6L)));
+        assertEquals(Arrays.asList(0L, 8L), getTimestamps(db, "even"));
+
+        while (db.migrateLegacyReadingBatch(4)) {
+            // keep going
+        }
+        assertFalse(db.migrateLegacyReadingBatch(4));
+        assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L, 11L), getTimestamps(db, "odd"));
+        assertEquals(Arrays.asList(0L, 8L), getTimestamps(db, "even"));
+        assertEquals("odd", db.getFirstDatabaseTagAfter(8));
+
+        SQLiteDatabase migrated = SQLiteDatabase.openDatabase(dbFile.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(0, DatabaseUtils.queryNumEntries(migrated, "sqlite_master",
+                    "type = 'table' AND name = 'legacy_scalar_sensors'"));
+        } finally {
+            migrated.close();
+        }
+    }
+
+    private static List<Long> getTimestamps(SensorDatabase db, String tag) {
+        List<Long> timestamps = new ArrayList<>();
+        for (ScalarReading reading : ScalarReading.slurp(db.getScalarReadings(tag,
+                TimeRange.oldest(Range.<Long>all()), 0, 0))) {
+            timestamps.add(reading.getCollectedTimeMillis());
+        }
+        return timestamps;
+    }
+
+    private static void assertUsesCompositeIndex(List<String> queryPlan) {
+        assertUsesIndex(queryPlan, "sensor_tier_timestamp");
+    }
+
+    private static void assertUsesIndex(List<String> queryPlan, String indexName) {
+        String plan = queryPlan.toString();
+        // Covering: the table rows are never read.  And since the index is already in timestamp
+        // order, no sorting is needed in either direction.
+        assertTrue(plan, plan.contains("USING COVERING INDEX " + indexName));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
     @Override
     protected void setUp() throws Exception {
         File dbtest = getContext().getDatabasePath(TEST_DATABASE_NAME);
@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.common.collect.Range;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Measures the file size and range query latency of a database written with the pre-V5 schema,
+ * which stores the full sensor tag in every row, and again after its readings have been moved to
+ * the sensor_tags dictionary and the file vacuumed.  Results are written to the log under
+ * {@link #TAG}.
+ */
+public class TagDictionaryBenchmark extends AndroidTestCase {
+    private static final String TAG = "TagDictionaryBenchmark";
+    private static final String DATABASE_NAME = "benchmark_tags.db";
+
+    // External sensors have long tags, built from the device address.
+    private static final int NUM_SENSORS = 10;
+    private static final int READINGS_PER_SENSOR = 100000;
+    private static final long MILLIS_BETWEEN_READINGS = 50;
+    private static final int TIER_1_EVERY = 10;
+
+    private static final int NUM_RANGE_QUERIES = 50;
+    private static final long RANGE_QUERY_MILLIS = 5 * 60 * 1000;
+
+    public void testSizeAndLatencyBeforeAndAfterMigration() {
+        File dbFile = getContext().getDatabasePath(DATABASE_NAME);
+        dbFile.getParentFile().mkdirs();
+        long rows = writeV4Database(dbFile);
+
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), DATABASE_NAME);
+        double tier0Before = averageQueryMillis(db, 0);
+        double tier1Before = averageQueryMillis(db, 1);
+        long bytesBefore = dbFile.length();
+
+        long start = System.nanoTime();
+        while (db.migrateLegacyReadingBatch(5000)) {
+            // keep going
+        }
+        double migrationMillis = (System.nanoTime() - start) / 1000000.0;
+        vacuum(dbFile);
+
+        double tier0After = averageQueryMillis(db, 0);
+        double tier1After = averageQueryMillis(db, 1);
+        long bytesAfter = dbFile.length();
+
+        Log.i(TAG, String.format("%d rows. Tag per row: %.1f bytes/row, 5-minute range query "
+                        + "%.2f ms at tier 0, %.2f ms at tier 1", rows, bytesBefore / (double) rows,
+                tier0Before, tier1Before));
+        Log.i(TAG, String.format("Sensor ids: %.1f bytes/row, 5-minute range query %.2f ms at "
+                        + "tier 0, %.2f ms at tier 1 (migration took %.0f ms)", bytesAfter
+                        / (double) rows, tier0After, tier1After, migrationMillis));
+        assertTrue(bytesAfter < bytesBefore);
+    }
+
+    /**
+     * Writes readings for every sensor using the schema as of DbVersions.V4_COMPOSITE_INDEX.
+     *
+     * @return the number of rows written
+     */
+    private long writeV4Database(File dbFile) {
+        SQLiteDatabase v4 = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        v4.execSQL("CREATE TABLE scalar_sensors (tag  TEXT, timestampMillis INTEGER, value REAL,"
+                + "resolutionTier INTEGER DEFAULT 0);");
+        v4.execSQL("CREATE INDEX timestamp ON scalar_sensors(timestampMillis);");
+        v4.execSQL("CREATE INDEX tag_tier_timestamp ON scalar_sensors(tag, resolutionTier, "
+                + "timestampMillis, value);");
+        SQLiteStatement insert = v4.compileStatement("INSERT INTO scalar_sensors (tag, "
+                + "resolutionTier, timestampMillis, value) VALUES (?, ?, ?, ?);");
+        Random random = new Random(0);
+        long rows = 0;
+        v4.beginTransaction();
+        try {
+            for (int reading = 0; reading < READINGS_PER_SENSOR; reading++) {
+                long timestamp = reading * MILLIS_BETWEEN_READINGS;
+                for (int sensor = 0; sensor < NUM_SENSORS; sensor++) {
+                    double value = random.nextDouble();
+                    insert(insert, sensor, 0, timestamp, value);
+                    rows++;
+                    if (reading % TIER_1_EVERY == 0) {
+                        insert(insert, sensor, 1, timestamp, value);
+                        rows++;
+                    }
+                }
+            }
+            v4.setTransactionSuccessful();
+        } finally {
+            v4.endTransaction();
+        }
+        v4.setVersion(4);
+        v4.close();
+        return rows;
+    }
+
+    private static void insert(SQLiteStatement insert, int sensor, int tier, long timestamp,
+            double value) {
+        insert.bindString(1, getTag(sensor));
+        insert.bindLong(2, tier);
+        insert.bindLong(3, timestamp);
+        insert.bindDouble(4, value);
+        insert.executeInsert();
+    }
+
+    private void vacuum(File dbFile) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            db.execSQL("VACUUM;");
+        } finally {
+            db.close();
+        }
+    }
+
+    private double averageQueryMillis(SensorDatabase db, int tier) {
+        Random random = new Random(tier);
+        final long[] count = {0};
+        StreamConsumer counter = new StreamConsumer() {
+            @Override
+            public void addData(long timestampMillis, double value) {
+                count[0]++;
+            }
+        };
+        long recordingLength = READINGS_PER_SENSOR * MILLIS_BETWEEN_READINGS;
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_RANGE_QUERIES; i++) {
+            long queryStart = (long) (random.nextDouble() * (recordingLength - RANGE_QUERY_MILLIS));
+            db.getScalarReadings(getTag(random.nextInt(NUM_SENSORS)), TimeRange.oldest(
+                    Range.closed(queryStart, queryStart + RANGE_QUERY_MILLIS)), tier, 0).deliver(
+                    counter);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue(count[0] > 0);
+        return elapsed / 1000000.0 / NUM_RANGE_QUERIES;
+    }
+
+    private static String getTag(int sensor) {
+        return String.format("bluetooth_le-C8:2A:14:5F:%02X:%02X", sensor / 256, sensor % 256);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+}
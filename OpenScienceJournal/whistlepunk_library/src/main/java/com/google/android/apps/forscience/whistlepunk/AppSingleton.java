@@ -16,10 +16,12 @@
 
 package com.google.android.apps.forscience.whistlepunk;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
 import com.google.android.apps.forscience.ble.BleClient;
 import com.google.android.apps.forscience.ble.BleClientImpl;
@@ -28,6 +30,10 @@ import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.ExternalSensorDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.metadata.SimpleMetaDataManager;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ChunkedSensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MappedSegmentSensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarBlockCache;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
 
 import java.util.HashMap;
@@ -37,12 +43,40 @@ import java.util.concurrent.Executors;
 
 public class AppSingleton {
     private static final String SENSOR_DATABASE_NAME = "sensors.db";
+
+    // Where the alternative storage engines, selectable in the developer options, keep their data.
+    private static final String CHUNKED_SENSOR_DATABASE_NAME = "sensor_chunks.db";
+    private static final String SEGMENT_SENSOR_DATABASE_NAME = "sensor_segments";
+
+    // Where SensorDatabaseMigration saves how far it has copied sensors.db into the others
+    private static final String SENSOR_DATABASE_MIGRATION_PREFS = "SensorDatabaseMigration";
+
+    // Scalar readings are written to the sensor database in batches of up to this many readings
+    // per sensor...
+    private static final int MAX_SCALAR_READING_BATCH_SIZE = 200;
+
+    // ...or once a batch is this old, whichever comes first.
+    private static final long MAX_SCALAR_READING_BATCH_DELAY_MILLIS = 500;
+
+    // Batches waiting to be written, across all sensors, before the overflow policy kicks in
+    private static final int MAX_QUEUED_SCALAR_READING_BATCHES = 100;
+
+    // Scalar readings read back from the database are cached in up to this fraction of the heap
+    // that the app is expected to stay within...
+    private static final int READING_CACHE_FRACTION_OF_MEMORY_CLASS = 16;
+
+    // ...in blocks of about this many readings...
+    private static final int READING_CACHE_READINGS_PER_BLOCK = 512;
+
+    // ...which are this many milliseconds long until a read shows how dense the readings are.
+    private static final long READING_CACHE_FIRST_BLOCK_MILLIS = 10000;
     private static final String TAG = "AppSingleton";
     private static AppSingleton sInstance;
     private final Context mApplicationContext;
     private DataControllerImpl mDataController;
 
     private static Executor sUiThreadExecutor = null;
+    private static Executor sUiFrameExecutor = null;
     private SensorAppearanceProviderImpl mSensorAppearanceProvider;
     private final Clock mCurrentTimeClock = new CurrentTimeClock();
     private BleClientImpl mBleClient;
@@ -50,6 +84,7 @@ public class AppSingleton {
     private MetadataController mMetadataController;
     private SensorRegistry mSensorRegistry;
     private PrefsSensorHistoryStorage mPrefsSensorHistoryStorage;
+    private RetentionPolicyStorage mRetentionPolicyStorage;
     private Map<String, ExternalSensorProvider> mExternalSensorProviders;
 
     private SensorEnvironment mSensorEnvironment = new SensorEnvironment() {
@@ -74,6 +109,13 @@ public class AppSingleton {
                 }
             };
 
+    public RetentionPolicyStorage getRetentionPolicyStorage() {
+        if (mRetentionPolicyStorage == null) {
+            mRetentionPolicyStorage = new PrefsRetentionPolicyStorage(mApplicationContext);
+        }
+        return mRetentionPolicyStorage;
+    }
+
     @NonNull
     public PrefsSensorHistoryStorage getPrefsSensorHistoryStorage() {
         if (mPrefsSensorHistoryStorage == null) {
@@ -95,6 +137,17 @@ public class AppSingleton {
         return sUiThreadExecutor;
     }
 
+    /**
+     * @return an executor that runs commands on the UI thread at the start of the next frame; see
+     * {@link FrameExecutor}
+     */
+    public static Executor getUiFrameExecutor() {
+        if (sUiFrameExecutor == null) {
+            sUiFrameExecutor = new FrameExecutor(Looper.getMainLooper());
+        }
+        return sUiFrameExecutor;
+    }
+
     public static AppSingleton getInstance(Context context) {
         if (sInstance == null) {
             sInstance = new AppSingleton(context);
@@ -108,16 +161,110 @@ public class AppSingleton {
 
     public DataController getDataController() {
         if (mDataController == null) {
-            mDataController = new DataControllerImpl(
-                    new SensorDatabaseImpl(mApplicationContext, SENSOR_DATABASE_NAME),
-                    getUiThreadExecutor(), Executors.newSingleThreadExecutor(),
-                    Executors.newSingleThreadExecutor(),
+            Executor sensorDataThread = Executors.newSingleThreadExecutor();
+            SensorDatabase sensorDatabase = createSensorDatabase(sensorDataThread);
+            // Only SensorDatabaseImpl can be read while it is being written.
+            Executor sensorReadThread = sensorDatabase instanceof SensorDatabaseImpl
+                    ? Executors.newSingleThreadExecutor() : sensorDataThread;
+            mDataController = new DataControllerImpl(sensorDatabase, getUiThreadExecutor(),
+                    Executors.newSingleThreadExecutor(), sensorDataThread, sensorReadThread,
                     new SimpleMetaDataManager(mApplicationContext), getDefaultClock(),
-                    getExternalSensorProviders());
+                    getExternalSensorProviders(), MAX_SCALAR_READING_BATCH_SIZE,
+                    MAX_SCALAR_READING_BATCH_DELAY_MILLIS,
+                    new ScalarIngestionQueue(MAX_QUEUED_SCALAR_READING_BATCHES,
+                            DevOptionsFragment.getIngestionOverflowPolicy(mApplicationContext),
+                            Looper.getMainLooper().getThread()),
+                    createReadingCache());
+            // The zoom tiers and retention of runs are only looked at once every reading of
+            // theirs is in the database.
+            if (sensorDatabase instanceof SensorDatabaseImpl
+                    || !mApplicationContext.getDatabasePath(SENSOR_DATABASE_NAME).exists()) {
+                startSensorDataMaintenance();
+            } else {
+                migrateSensorDatabase();
+            }
         }
         return mDataController;
     }
 
+    /**
+     * Copies anything recorded with the default engine into the one chosen in the developer
+     * options, if nothing has been recorded with that one yet.
+     */
+    private void migrateSensorDatabase() {
+        mDataController.migrateSensorDatabase(
+                new SensorDatabaseImpl(mApplicationContext, SENSOR_DATABASE_NAME),
+                mApplicationContext.getSharedPreferences(SENSOR_DATABASE_MIGRATION_PREFS,
+                        Context.MODE_PRIVATE),
+                DevOptionsFragment.getSensorStorageEngine(mApplicationContext),
+                Executors.newSingleThreadScheduledExecutor(),
+                new SensorDatabaseMigration.ProgressListener() {
+                    @Override
+                    public void onProgress(long copied, boolean finished) {
+                        if (!finished) {
+                            return;
+                        }
+                        if (copied > 0 && Log.isLoggable(TAG, Log.INFO)) {
+                            Log.i(TAG, "Copied " + copied + " sensor readings into the "
+                                    + "selected storage engine");
+                        }
+                        startSensorDataMaintenance();
+                    }
+                });
+    }
+
+    private void startSensorDataMaintenance() {
+        mDataController.backfillZoomTiers(Executors.newSingleThreadScheduledExecutor(),
+                new ZoomTierBackfill.ProgressListener() {
+                    @Override
+                    public void onProgress(int completed, int total) {
+                        if (total > 0 && Log.isLoggable(TAG, Log.INFO)) {
+                            Log.i(TAG, "Zoom tiers backfilled for " + completed + " of "
+                                    + total + " sensor runs");
+                        }
+                    }
+                });
+        mDataController.scheduleReadingCompaction(
+                Executors.newSingleThreadScheduledExecutor(), getRetentionPolicyStorage(),
+                new ReadingCompaction.ProgressListener() {
+                    @Override
+                    public void onProgress(int completed, int total, long reclaimedBytes) {
+                        if (total > 0 && completed == total
+                                && Log.isLoggable(TAG, Log.INFO)) {
+                            Log.i(TAG, "Raw readings compacted for " + total
+                                    + " sensor runs, reclaiming " + reclaimedBytes
+                                    + " bytes");
+                        }
+                    }
+                });
+    }
+
+    private ScalarBlockCache createReadingCache() {
+        ActivityManager activityManager = (ActivityManager) mApplicationContext.getSystemService(
+                Context.ACTIVITY_SERVICE);
+        long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        return new ScalarBlockCache(memoryClassBytes / READING_CACHE_FRACTION_OF_MEMORY_CLASS,
+                READING_CACHE_FIRST_BLOCK_MILLIS, READING_CACHE_READINGS_PER_BLOCK);
+    }
+
+    /**
+     * @param sensorDataThread the executor through which the data controller will access the
+     *                         database
+     */
+    private SensorDatabase createSensorDatabase(Executor sensorDataThread) {
+        String engine = DevOptionsFragment.getSensorStorageEngine(mApplicationContext);
+        if (DevOptionsFragment.STORAGE_ENGINE_CHUNKED.equals(engine)) {
+            return new ChunkedSensorDatabase(mApplicationContext, CHUNKED_SENSOR_DATABASE_NAME);
+        } else if (DevOptionsFragment.STORAGE_ENGINE_SEGMENTS.equals(engine)) {
+            return new MappedSegmentSensorDatabase(mApplicationContext,
+                    SEGMENT_SENSOR_DATABASE_NAME);
+        }
+        SensorDatabaseImpl database = new SensorDatabaseImpl(mApplicationContext,
+                SENSOR_DATABASE_NAME);
+        database.setMaintenanceExecutor(sensorDataThread);
+        return database;
+    }
+
     public SensorAppearanceProvider getSensorAppearanceProvider() {
         if (mSensorAppearanceProvider == null) {
             mSensorAppearanceProvider = new SensorAppearanceProviderImpl(getDataController());
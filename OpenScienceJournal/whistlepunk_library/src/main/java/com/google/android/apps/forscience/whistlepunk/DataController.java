@@ -28,7 +28,10 @@ import com.google.android.apps.forscience.whistlepunk.metadata.Project;
 import com.google.android.apps.forscience.whistlepunk.metadata.Run;
 import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.sensordb.AlignedReadings;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.StorageReport;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 
 import java.util.List;
@@ -40,9 +43,31 @@ import java.util.Map;
  * later on the UI thread.
  */
 public interface DataController {
+    /**
+     * The readings are all read before {@code onSuccess} is called, so using them doesn't touch
+     * the database.
+     */
     void getScalarReadings(String databaseTag, final int resolutionTier, TimeRange timeRange,
             int maxRecords, MaybeConsumer<ScalarReadingList> onSuccess);
 
+    /**
+     * @see com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase#getAggregates(String, TimeRange, int)
+     */
+    void getAggregates(String databaseTag, TimeRange timeRange, int bucketCount,
+            MaybeConsumer<List<ScalarAggregate>> onSuccess);
+
+    /**
+     * Reads several sensors at once, with their readings merged onto a common timeline.  The rows
+     * are delivered to {@code consumer} a page at a time as they are read, and then
+     * {@code onSuccess} is told that they are complete.  If the read fails partway through, the
+     * failure follows the rows read until then.
+     *
+     * @see com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase#getAlignedReadings
+     */
+    void getAlignedReadings(List<String> databaseTags, int resolutionTier, TimeRange timeRange,
+            AlignedReadings.Alignment alignment, AlignedReadings.RowConsumer consumer,
+            MaybeConsumer<Success> onSuccess);
+
     void addLabel(Label label, MaybeConsumer<Label> onSuccess);
 
     void startRun(Experiment experiment, MaybeConsumer<ApplicationLabel> onSuccess);
@@ -211,4 +236,10 @@ public interface DataController {
      */
     void deleteSensorTrigger(SensorTrigger trigger, final MaybeConsumer<Success> onSuccess);
 
+    /**
+     * Gets how many readings are stored for each sensor and tier, how much space they take up,
+     * and how long writes and reads of readings have taken since launch.
+     */
+    void getStorageReport(MaybeConsumer<StorageReport> onSuccess);
+
 }
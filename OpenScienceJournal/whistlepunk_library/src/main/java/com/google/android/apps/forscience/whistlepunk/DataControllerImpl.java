@@ -16,6 +16,7 @@
 
 package com.google.android.apps.forscience.whistlepunk;
 
+import android.content.SharedPreferences;
 import android.support.v4.util.ArrayMap;
 
 import com.google.android.apps.forscience.javalib.Consumer;
@@ -34,41 +35,157 @@ import com.google.android.apps.forscience.whistlepunk.metadata.Project;
 import com.google.android.apps.forscience.whistlepunk.metadata.Run;
 import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.sensordb.AlignedReadings;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ArrayScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InstrumentedSensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarBlockCache;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensordb.StorageMetrics;
+import com.google.android.apps.forscience.whistlepunk.sensordb.StorageReport;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Range;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class DataControllerImpl implements DataController, RecordingDataController {
-    private final SensorDatabase mSensorDatabase;
+    // How many full batches of scalar readings can wait to be written, unless a queue is given
+    private static final int DEFAULT_MAX_QUEUED_BATCHES = 100;
+
+    // How many aligned rows are handed to the UI thread at once
+    private static final int ALIGNED_ROWS_PER_PAGE = 500;
+
+    private final InstrumentedSensorDatabase mSensorDatabase;
     private final Executor mUiThread;
     private final Executor mMetaDataThread;
     private final Executor mSensorDataThread;
+    private final Executor mSensorReadThread;
     private MetaDataManager mMetaDataManager;
     private Clock mClock;
     private Map<String, FailureListener> mSensorFailureListeners = new HashMap<>();
     private final Map<String, ExternalSensorProvider> mProviderMap;
     private long mPrevLabelTimestamp = 0;
 
+    // Scalar readings that have been added, but not yet handed to mIngestionQueue, by sensor id.
+    // Guarded by itself, since readings can arrive on any thread.
+    private final Map<String, PendingReadings> mPendingReadings = new HashMap<>();
+
+    // The run that each sensor is currently recording, by sensor id.  Guarded by mPendingReadings.
+    private final Map<String, String> mCurrentRuns = new HashMap<>();
+
+    // How many writes of summaries have been handed to mSensorDataThread, but not yet finished,
+    // by sensor id.  Guarded by mPendingReadings.
+    private final Map<String, Integer> mWritesInFlight = new HashMap<>();
+
+    // The newest timestamp written so far at each tier, by sensor id.  A sensor's readings at a
+    // tier are written in order, so any that are still waiting are newer than this.  Guarded by
+    // mPendingReadings.
+    private final Map<String, long[]> mLastWrittenMillis = new HashMap<>();
+    private final int mMaxBatchSize;
+    private final long mMaxBatchDelayMillis;
+    private final ScalarIngestionQueue mIngestionQueue;
+    private final ScalarBlockCache mReadingCache;
+
+    // Storage given back by finished passes of ReadingCompaction.  Only touched on the UI thread.
+    private long mReclaimedBytes = 0;
+
+    // Writes batches from mIngestionQueue until it is empty.  Only posted to mSensorDataThread
+    // when the queue says that it's idle, so at most one is waiting there at a time.
+    private final Runnable mWriteQueuedReadings = new Runnable() {
+        @Override
+        public void run() {
+            ScalarReadingBuffer batch;
+            while ((batch = mIngestionQueue.poll()) != null) {
+                try {
+                    mSensorDatabase.addScalarReadings(batch);
+                    mReadingCache.invalidate(batch);
+                    recordWritten(batch);
+                } catch (final Exception e) {
+                    final String sensorId = batch.getSensorTag();
+                    mUiThread.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyFailureListener(sensorId, e);
+                        }
+                    });
+                } finally {
+                    mIngestionQueue.recycle(batch);
+                }
+            }
+        }
+    };
+
+    /**
+     * Creates a DataControllerImpl that writes each scalar reading as soon as it arrives.
+     */
     public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
             Executor metaDataThread,
             Executor sensorDataThread, MetaDataManager metaDataManager, Clock clock,
             Map<String, ExternalSensorProvider> providerMap) {
-        mSensorDatabase = sensorDatabase;
+        this(sensorDatabase, uiThread, metaDataThread, sensorDataThread, metaDataManager, clock,
+                providerMap, 1, 0);
+    }
+
+    /**
+     * @param maxBatchSize        scalar readings for a sensor are buffered until this many have
+     *                            arrived, and then written to the database together.
+     * @param maxBatchDelayMillis a partial batch is written once a new reading arrives at least
+     *                            this long (according to {@code clock}) after the batch was
+     *                            started.
+     */
+    public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
+            Executor metaDataThread,
+            Executor sensorDataThread, MetaDataManager metaDataManager, Clock clock,
+            Map<String, ExternalSensorProvider> providerMap, int maxBatchSize,
+            long maxBatchDelayMillis) {
+        this(sensorDatabase, uiThread, metaDataThread, sensorDataThread, sensorDataThread,
+                metaDataManager, clock, providerMap, maxBatchSize, maxBatchDelayMillis,
+                new ScalarIngestionQueue(DEFAULT_MAX_QUEUED_BATCHES,
+                        ScalarIngestionQueue.OverflowPolicy.BLOCK),
+                ScalarBlockCache.disabled());
+    }
+
+    /**
+     * @param sensorReadThread reads of scalar readings and aggregates, and the storage report,
+     *                         run here, alongside writes on {@code sensorDataThread}, unless
+     *                         the range being read may hold readings still waiting to be
+     *                         written.  Only pass a different executor if
+     *                         {@code sensorDatabase} can be read and written at the same time.
+     * @param ingestionQueue   holds full batches until {@code sensorDataThread} writes them, and
+     *                         decides what to do when the database can't keep up.
+     * @param readingCache     serves repeated reads of scalar readings from memory.  It is kept
+     *                         up to date with everything written through this controller, so it
+     *                         must not be shared with another.
+     */
+    public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
+            Executor metaDataThread, Executor sensorDataThread, Executor sensorReadThread,
+            MetaDataManager metaDataManager, Clock clock,
+            Map<String, ExternalSensorProvider> providerMap, int maxBatchSize,
+            long maxBatchDelayMillis, ScalarIngestionQueue ingestionQueue,
+            ScalarBlockCache readingCache) {
+        mSensorDatabase = new InstrumentedSensorDatabase(sensorDatabase, new StorageMetrics());
         mUiThread = uiThread;
         mMetaDataThread = metaDataThread;
         mSensorDataThread = sensorDataThread;
+        mSensorReadThread = sensorReadThread;
         mMetaDataManager = metaDataManager;
         mClock = clock;
         mProviderMap = providerMap;
+        mMaxBatchSize = maxBatchSize;
+        mMaxBatchDelayMillis = maxBatchDelayMillis;
+        mIngestionQueue = ingestionQueue;
+        mReadingCache = readingCache;
     }
 
     public void replaceSensorInExperiment(final String experimentId, final String oldSensorId,
@@ -144,8 +261,10 @@ public class DataControllerImpl implements DataController, RecordingDataControll
             public void run() {
                 TimeRange times = TimeRange.oldest(Range.closed(run.getFirstTimestamp(),
                         run.getLastTimestamp()));
+                mSensorDatabase.deleteRunReadings(run.getRunId(), run.getSensorTags(), times);
                 for (String tag : run.getSensorTags()) {
-                    mSensorDatabase.deleteScalarReadings(tag, times);
+                    mReadingCache.invalidate(tag, run.getFirstTimestamp(),
+                            run.getLastTimestamp());
                 }
             }
         });
@@ -154,12 +273,323 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     @Override
     public void addScalarReading(final String sensorId, final int resolutionTier,
             final long timestampMillis, final double value) {
+        ScalarReadingBuffer readyToWrite;
+        synchronized (mPendingReadings) {
+            long now = mClock.getNow();
+            readyToWrite = addPendingReading(sensorId, resolutionTier, timestampMillis, value,
+                    now);
+            if (readyToWrite == null) {
+                readyToWrite = takeLatePendingReadings(sensorId, now);
+            }
+        }
+        if (readyToWrite != null) {
+            writeScalarReadings(readyToWrite);
+        }
+    }
+
+    @Override
+    public void addScalarReadings(ScalarReadingBuffer readings) {
+        String sensorId = readings.getSensorTag();
+        List<ScalarReadingBuffer> readyToWrite = new ArrayList<>();
+        synchronized (mPendingReadings) {
+            long now = mClock.getNow();
+            for (int tier = 0; tier < readings.getTierCount(); tier++) {
+                int tierSize = readings.getTierSize(tier);
+                int added = 0;
+                while (added < tierSize) {
+                    // As many as fit in the pending batch, copied together
+                    ScalarReadingBuffer pending = getPendingReadings(sensorId, now);
+                    int count = Math.min(tierSize - added,
+                            Math.max(1, mMaxBatchSize - pending.size()));
+                    pending.addAll(readings, tier, added, count);
+                    added += count;
+                    ScalarReadingBuffer full = takeFullPendingReadings(sensorId);
+                    if (full != null) {
+                        readyToWrite.add(full);
+                    }
+                }
+            }
+            ScalarReadingBuffer late = takeLatePendingReadings(sensorId, now);
+            if (late != null) {
+                readyToWrite.add(late);
+            }
+        }
+        for (ScalarReadingBuffer batch : readyToWrite) {
+            writeScalarReadings(batch);
+        }
+    }
+
+    /**
+     * Adds a reading to the sensor's pending batch.  Call only while holding mPendingReadings.
+     *
+     * @return the batch, if it is now full, or else null
+     */
+    private ScalarReadingBuffer addPendingReading(String sensorId, int resolutionTier,
+            long timestampMillis, double value, long now) {
+        getPendingReadings(sensorId, now).add(resolutionTier, timestampMillis, value);
+        return takeFullPendingReadings(sensorId);
+    }
+
+    /**
+     * Call only while holding mPendingReadings.
+     *
+     * @return the sensor's pending batch, started now if there wasn't one.  It always has room
+     * for at least one more reading.
+     */
+    private ScalarReadingBuffer getPendingReadings(String sensorId, long now) {
+        PendingReadings pending = mPendingReadings.get(sensorId);
+        if (pending == null) {
+            pending = new PendingReadings(
+                    mIngestionQueue.obtain(sensorId, mCurrentRuns.get(sensorId)), now);
+            mPendingReadings.put(sensorId, pending);
+        }
+        return pending.mReadings;
+    }
+
+    /**
+     * Call only while holding mPendingReadings.
+     *
+     * @return the sensor's pending batch, if it is full, or else null
+     */
+    private ScalarReadingBuffer takeFullPendingReadings(String sensorId) {
+        PendingReadings pending = mPendingReadings.get(sensorId);
+        if (pending != null && pending.mReadings.size() >= mMaxBatchSize) {
+            mPendingReadings.remove(sensorId);
+            return pending.mReadings;
+        }
+        return null;
+    }
+
+    /**
+     * Call only while holding mPendingReadings.
+     *
+     * @return the sensor's pending batch, if it was started at least mMaxBatchDelayMillis ago,
+     * or else null
+     */
+    private ScalarReadingBuffer takeLatePendingReadings(String sensorId, long now) {
+        PendingReadings pending = mPendingReadings.get(sensorId);
+        if (pending != null && now - pending.mStartTimeMillis >= mMaxBatchDelayMillis) {
+            mPendingReadings.remove(sensorId);
+            return pending.mReadings;
+        }
+        return null;
+    }
+
+    @Override
+    public void setCurrentRun(String sensorId, String runId) {
+        PendingReadings pending;
+        synchronized (mPendingReadings) {
+            // Readings already buffered belong to the previous run.
+            pending = mPendingReadings.remove(sensorId);
+            if (runId == null) {
+                mCurrentRuns.remove(sensorId);
+            } else {
+                mCurrentRuns.put(sensorId, runId);
+            }
+        }
+        if (pending != null) {
+            writeScalarReadings(pending.mReadings);
+        }
+    }
+
+    /**
+     * @return true if any sensor is currently recording into a run (see {@link #setCurrentRun})
+     */
+    public boolean isRecording() {
+        synchronized (mPendingReadings) {
+            return !mCurrentRuns.isEmpty();
+        }
+    }
+
+    /**
+     * Starts writing zoom tiers for any runs that were stored without them, pausing whenever a
+     * sensor is recording.
+     *
+     * @param scheduler used to space out the work, and shut down once it is done
+     * @see ZoomTierBackfill
+     */
+    public void backfillZoomTiers(ScheduledExecutorService scheduler,
+            ZoomTierBackfill.ProgressListener listener) {
+        new ZoomTierBackfill(this, mSensorDatabase, mReadingCache, mMetaDataManager, mUiThread,
+                mMetaDataThread, mSensorDataThread, scheduler, listener).start();
+    }
+
+    /**
+     * Starts copying the readings recorded with {@code source} into this controller's database,
+     * unless something has already been recorded there, pausing whenever a sensor is recording.
+     *
+     * @param prefs     where to save how far the copy has got, so that it can go on after a
+     *                  restart
+     * @param engine    the name of this controller's storage engine
+     * @param scheduler used to space out the work, and shut down once it is done
+     * @see SensorDatabaseMigration
+     */
+    public void migrateSensorDatabase(SensorDatabaseImpl source, SharedPreferences prefs,
+            String engine, ScheduledExecutorService scheduler,
+            SensorDatabaseMigration.ProgressListener listener) {
+        new SensorDatabaseMigration(this, source, mSensorDatabase, mReadingCache, prefs, engine,
+                mUiThread, mSensorDataThread, scheduler, listener).start();
+    }
+
+    /**
+     * Starts deleting, once a day, the raw readings of runs that have outlived their retention
+     * policy, pausing whenever a sensor is recording.
+     *
+     * @param scheduler used to space out the work
+     * @see ReadingCompaction
+     */
+    public void scheduleReadingCompaction(ScheduledExecutorService scheduler,
+            RetentionPolicyStorage policies, final ReadingCompaction.ProgressListener listener) {
+        new ReadingCompaction(this, mSensorDatabase, mReadingCache, mMetaDataManager, policies,
+                mClock, mUiThread, mMetaDataThread, mSensorDataThread, scheduler,
+                new ReadingCompaction.ProgressListener() {
+                    @Override
+                    public void onProgress(int completed, int total, long reclaimedBytes) {
+                        if (completed == total) {
+                            mReclaimedBytes += reclaimedBytes;
+                        }
+                        listener.onProgress(completed, total, reclaimedBytes);
+                    }
+                }).start();
+    }
+
+    /**
+     * Counts what is stored on the read thread, since counting may read the whole database and
+     * shouldn't hold up writes.  Readings still waiting to be written aren't counted.
+     */
+    @Override
+    public void getStorageReport(MaybeConsumer<StorageReport> onSuccess) {
+        final long reclaimedBytes = mReclaimedBytes;
+        background(mSensorReadThread, onSuccess, new Callable<StorageReport>() {
+            @Override
+            public StorageReport call() throws Exception {
+                return new StorageReport(mClock.getNow(), mSensorDatabase.getTierUsage(),
+                        mSensorDatabase.getMetrics(), mReadingCache, reclaimedBytes);
+            }
+        });
+    }
+
+    /**
+     * @return the cache that scalar readings are read through, for its hit and miss counts
+     */
+    public ScalarBlockCache getReadingCache() {
+        return mReadingCache;
+    }
+
+    @Override
+    public void flushScalarReadings(String sensorId) {
+        PendingReadings pending;
+        synchronized (mPendingReadings) {
+            pending = mPendingReadings.remove(sensorId);
+        }
+        if (pending != null) {
+            writeScalarReadings(pending.mReadings);
+        }
+    }
+
+    private void writeScalarReadings(ScalarReadingBuffer readings) {
+        if (mIngestionQueue.offer(readings)) {
+            mSensorDataThread.execute(mWriteQueuedReadings);
+        }
+    }
+
+    private void startWrite(String sensorId) {
+        synchronized (mPendingReadings) {
+            Integer count = mWritesInFlight.get(sensorId);
+            mWritesInFlight.put(sensorId, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void finishWrite(String sensorId) {
+        synchronized (mPendingReadings) {
+            int count = mWritesInFlight.get(sensorId);
+            if (count == 1) {
+                mWritesInFlight.remove(sensorId);
+            } else {
+                mWritesInFlight.put(sensorId, count - 1);
+            }
+        }
+    }
+
+    private void recordWritten(ScalarReadingBuffer batch) {
+        synchronized (mPendingReadings) {
+            long[] lastWritten = mLastWrittenMillis.get(batch.getSensorTag());
+            if (lastWritten == null || lastWritten.length < batch.getTierCount()) {
+                long[] grown = new long[batch.getTierCount()];
+                Arrays.fill(grown, Long.MIN_VALUE);
+                if (lastWritten != null) {
+                    System.arraycopy(lastWritten, 0, grown, 0, lastWritten.length);
+                }
+                lastWritten = grown;
+                mLastWrittenMillis.put(batch.getSensorTag(), lastWritten);
+            }
+            for (int tier = 0; tier < batch.getTierCount(); tier++) {
+                for (int i = 0; i < batch.getTierSize(tier); i++) {
+                    lastWritten[tier] = Math.max(lastWritten[tier],
+                            batch.getTimestamp(tier, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if readings of {@code sensorId} at {@code resolutionTier} that haven't been
+     * written yet could fall in {@code range}
+     */
+    private boolean reachesPastWritten(String sensorId, int resolutionTier, TimeRange range) {
+        Range<Long> times = range.getTimes();
+        if (times == null || !times.hasUpperBound()) {
+            return true;
+        }
+        synchronized (mPendingReadings) {
+            long[] lastWritten = mLastWrittenMillis.get(sensorId);
+            return lastWritten == null || resolutionTier >= lastWritten.length
+                    || times.upperEndpoint() > lastWritten[resolutionTier];
+        }
+    }
+
+    /**
+     * Picks the executor for a read of {@code sensorId} at {@code resolutionTier}:
+     * mSensorReadThread, unless readings that the read should see are still waiting to be
+     * written, in which case they are written now, and the read is queued behind them on
+     * mSensorDataThread.  A read of readings that have all been written, such as a scroll back
+     * through a sensor that is still recording, doesn't wait for anything.
+     */
+    private Executor getReadThread(String sensorId, int resolutionTier, TimeRange range) {
+        if (!reachesPastWritten(sensorId, resolutionTier, range)) {
+            return mSensorReadThread;
+        }
+        flushScalarReadings(sensorId);
+        if (mIngestionQueue.hasBatchesFor(sensorId)) {
+            return mSensorDataThread;
+        }
+        synchronized (mPendingReadings) {
+            return mWritesInFlight.containsKey(sensorId) ? mSensorDataThread : mSensorReadThread;
+        }
+    }
+
+    /**
+     * Like {@link #getReadThread}, for aggregates, which are computed from tier 0 readings and
+     * from summaries.  A summary being written may cover any range, so the read waits for it.
+     */
+    private Executor getAggregatesReadThread(String sensorId, TimeRange range) {
+        synchronized (mPendingReadings) {
+            if (mWritesInFlight.containsKey(sensorId)) {
+                return mSensorDataThread;
+            }
+        }
+        return getReadThread(sensorId, 0, range);
+    }
+
+    @Override
+    public void addScalarSummary(final String sensorId, final int level,
+            final ScalarAggregate summary) {
+        startWrite(sensorId);
         mSensorDataThread.execute(new Runnable() {
             @Override
             public void run() {
                 try {
-                    mSensorDatabase.addScalarReading(sensorId, resolutionTier, timestampMillis,
-                            value);
+                    mSensorDatabase.addScalarSummary(sensorId, level, summary);
                 } catch (final Exception e) {
                     mUiThread.execute(new Runnable() {
                         @Override
@@ -167,6 +597,8 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                             notifyFailureListener(sensorId, e);
                         }
                     });
+                } finally {
+                    finishWrite(sensorId);
                 }
             }
         });
@@ -184,11 +616,58 @@ public class DataControllerImpl implements DataController, RecordingDataControll
             final TimeRange timeRange, final int maxRecords,
             final MaybeConsumer<ScalarReadingList> onSuccess) {
         Preconditions.checkNotNull(databaseTag);
-        background(mSensorDataThread, onSuccess, new Callable<ScalarReadingList>() {
+        // Make sure that the read sees everything recorded so far.
+        background(getReadThread(databaseTag, resolutionTier, timeRange), onSuccess,
+                new Callable<ScalarReadingList>() {
+                    @Override
+                    public ScalarReadingList call() throws Exception {
+                        // Copied here, so that the callback on the UI thread never touches the
+                        // database.
+                        return ArrayScalarReadingList.copyOf(mReadingCache.getScalarReadings(
+                                mSensorDatabase, databaseTag, timeRange, resolutionTier,
+                                maxRecords));
+                    }
+                });
+    }
+
+    @Override
+    public void getAggregates(final String databaseTag, final TimeRange timeRange,
+            final int bucketCount, MaybeConsumer<List<ScalarAggregate>> onSuccess) {
+        Preconditions.checkNotNull(databaseTag);
+        // Summaries are written as soon as they are complete, so the readings they cover must be
+        // written too.
+        background(getAggregatesReadThread(databaseTag, timeRange), onSuccess,
+                new Callable<List<ScalarAggregate>>() {
+                    @Override
+                    public List<ScalarAggregate> call() throws Exception {
+                        return mSensorDatabase.getAggregates(databaseTag, timeRange, bucketCount);
+                    }
+                });
+    }
+
+    @Override
+    public void getAlignedReadings(final List<String> databaseTags, final int resolutionTier,
+            final TimeRange timeRange, final AlignedReadings.Alignment alignment,
+            final AlignedReadings.RowConsumer consumer, MaybeConsumer<Success> onSuccess) {
+        // The read has to wait for the writes of any sensor that still has some waiting.
+        Executor readThread = mSensorReadThread;
+        for (String tag : databaseTags) {
+            if (getReadThread(tag, resolutionTier, timeRange) == mSensorDataThread) {
+                readThread = mSensorDataThread;
+            }
+        }
+        background(readThread, onSuccess, new Callable<Success>() {
             @Override
-            public ScalarReadingList call() throws Exception {
-                return mSensorDatabase.getScalarReadings(databaseTag, timeRange, resolutionTier,
-                        maxRecords);
+            public Success call() throws Exception {
+                AlignedReadings.RowPages pages = new AlignedReadings.RowPages(
+                        databaseTags.size(), ALIGNED_ROWS_PER_PAGE, mUiThread, consumer);
+                try {
+                    mSensorDatabase.getAlignedReadings(databaseTags, timeRange, resolutionTier,
+                            alignment, pages);
+                } finally {
+                    pages.flush();
+                }
+                return Success.SUCCESS;
             }
         });
     }
@@ -570,11 +1049,24 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     @Override
     public void setStats(final String runId, final String sensorId, final RunStats runStats,
             final MaybeConsumer<Success> onSuccess) {
-        background(mMetaDataThread, onSuccess, new Callable<Success>() {
+        // Only called when a recording stops, once its last readings have been queued.  Those
+        // may still be dropped while they wait, so the count is taken on the sensor data thread,
+        // once everything queued before now has been written or dropped.
+        mSensorDataThread.execute(new Runnable() {
             @Override
-            public Success call() throws Exception {
-                mMetaDataManager.setStats(runId, sensorId, runStats);
-                return Success.SUCCESS;
+            public void run() {
+                int droppedReadings = mIngestionQueue.takeDroppedReadingCount(sensorId, runId);
+                if (droppedReadings > 0) {
+                    runStats.putStat(ScalarIngestionQueue.STATS_KEY_DROPPED_READINGS,
+                            droppedReadings);
+                }
+                background(mMetaDataThread, onSuccess, new Callable<Success>() {
+                    @Override
+                    public Success call() throws Exception {
+                        mMetaDataManager.setStats(runId, sensorId, runStats);
+                        return Success.SUCCESS;
+                    }
+                });
             }
         });
     }
@@ -769,4 +1261,14 @@ public class DataControllerImpl implements DataController, RecordingDataControll
             }
         });
     }
+
+    private static class PendingReadings {
+        public final ScalarReadingBuffer mReadings;
+        public final long mStartTimeMillis;
+
+        public PendingReadings(ScalarReadingBuffer readings, long startTimeMillis) {
+            mReadings = readings;
+            mStartTimeMillis = startTimeMillis;
+        }
+    }
 }
@@ -18,6 +18,7 @@ package com.google.android.apps.forscience.whistlepunk;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
@@ -25,6 +26,15 @@ import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.support.annotation.VisibleForTesting;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.google.android.apps.forscience.whistlepunk.sensordb.StorageReport;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
 
 /**
  * Holder for Developer Testing Options
@@ -44,6 +54,25 @@ public class DevOptionsFragment extends PreferenceFragment {
     public static final String KEY_BAROMETER_SENSOR = "enable_barometer_sensor";
     public static final String KEY_AMBIENT_TEMPERATURE_SENSOR = "enable_ambient_temp_sensor";
     public static final String KEY_THIRD_PARTY_SENSORS = "enable_third_party_sensors";
+    private static final String KEY_SENSOR_STORAGE_ENGINE = "sensor_storage_engine";
+    private static final String KEY_INGESTION_OVERFLOW_POLICY = "ingestion_overflow_policy";
+    private static final String KEY_RAW_DATA_RETENTION_DAYS = "raw_data_retention_days";
+    private static final String KEY_STORAGE_REPORT = "storage_report";
+
+    // Values of the sensor storage engine preference; see sensor_storage_engine_values.
+    public static final String STORAGE_ENGINE_SQLITE = "sqlite";
+    public static final String STORAGE_ENGINE_CHUNKED = "chunked";
+    public static final String STORAGE_ENGINE_SEGMENTS = "segments";
+
+    // Values of the ingestion overflow policy preference; see ingestion_overflow_policy_values.
+    private static final String OVERFLOW_POLICY_BLOCK = "block";
+    private static final String OVERFLOW_POLICY_DROP_OLDEST = "drop_oldest";
+    private static final String OVERFLOW_POLICY_DECIMATE = "decimate";
+
+    // Value of the raw data retention preference that keeps raw data forever; the others are
+    // numbers of days.  See raw_data_retention_values.
+    private static final String RAW_DATA_RETENTION_FOREVER = "-1";
+
     private final SharedPreferences.OnSharedPreferenceChangeListener
             mSensorsChangedListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
         @Override
@@ -86,6 +115,24 @@ public class DevOptionsFragment extends PreferenceFragment {
         } else {
             getPreferenceScreen().removePreference(leakPref);
         }
+
+        findPreference(KEY_STORAGE_REPORT).setOnPreferenceClickListener(
+                new Preference.OnPreferenceClickListener() {
+                    @Override
+                    public boolean onPreferenceClick(final Preference preference) {
+                        getDataController().getStorageReport(
+                                new LoggingConsumer<StorageReport>(TAG, "save storage report") {
+                                    @Override
+                                    public void success(StorageReport report) {
+                                        showStorageReport(preference, report);
+                                        new SaveStorageReportTask(
+                                                preference.getContext().getApplicationContext(),
+                                                report).execute();
+                                    }
+                                });
+                        return true;
+                    }
+                });
     }
 
     @Override
@@ -93,6 +140,28 @@ public class DevOptionsFragment extends PreferenceFragment {
         super.onResume();
         getPreferenceManager().getSharedPreferences().registerOnSharedPreferenceChangeListener(
                 mSensorsChangedListener);
+        final Preference reportPref = findPreference(KEY_STORAGE_REPORT);
+        getDataController().getStorageReport(
+                new LoggingConsumer<StorageReport>(TAG, "get storage report") {
+                    @Override
+                    public void success(StorageReport report) {
+                        showStorageReport(reportPref, report);
+                    }
+                });
+    }
+
+    private DataController getDataController() {
+        return AppSingleton.getInstance(getActivity()).getDataController();
+    }
+
+    private static void showStorageReport(Preference preference, StorageReport report) {
+        Context context = preference.getContext();
+        preference.setSummary(context.getString(R.string.storage_report_summary,
+                report.getTotalReadingCount(),
+                Formatter.formatShortFileSize(context, report.getTotalEstimatedBytes()),
+                report.getInsertLatency().getPercentileMicros(0.5),
+                report.getInsertLatency().getPercentileMicros(0.95),
+                report.getInsertLatency().getPercentileMicros(0.99)));
     }
 
     @Override
@@ -153,4 +222,99 @@ public class DevOptionsFragment extends PreferenceFragment {
     public static boolean isThirdPartyDiscoveryEnabled(Context context) {
         return getBoolean(KEY_THIRD_PARTY_SENSORS, false, context);
     }
+
+    /**
+     * @return which SensorDatabase implementation to store sensor data in: one of the
+     * STORAGE_ENGINE_* constants.  Only read when the app starts.
+     */
+    public static String getSensorStorageEngine(Context context) {
+        if (!isDebugVersion(context)) {
+            return STORAGE_ENGINE_SQLITE;
+        }
+        return getPrefs(context).getString(KEY_SENSOR_STORAGE_ENGINE, STORAGE_ENGINE_SQLITE);
+    }
+
+    /**
+     * @return what to do with sensor readings that arrive faster than they can be stored.  Only
+     * read when the app starts.  Readings added on the main thread are never made to wait, even
+     * under {@link ScalarIngestionQueue.OverflowPolicy#BLOCK}.
+     */
+    public static ScalarIngestionQueue.OverflowPolicy getIngestionOverflowPolicy(
+            Context context) {
+        if (!isDebugVersion(context)) {
+            return ScalarIngestionQueue.OverflowPolicy.DECIMATE;
+        }
+        String policy = getPrefs(context).getString(KEY_INGESTION_OVERFLOW_POLICY,
+                OVERFLOW_POLICY_DECIMATE);
+        if (OVERFLOW_POLICY_BLOCK.equals(policy)) {
+            return ScalarIngestionQueue.OverflowPolicy.BLOCK;
+        } else if (OVERFLOW_POLICY_DROP_OLDEST.equals(policy)) {
+            return ScalarIngestionQueue.OverflowPolicy.DROP_OLDEST;
+        }
+        return ScalarIngestionQueue.OverflowPolicy.DECIMATE;
+    }
+
+    /**
+     * @return how long to keep the raw readings of runs in projects and experiments that don't
+     * have their own retention policy, which, with no UI to set those yet, is all of them
+     */
+    public static RetentionPolicy getDefaultRetentionPolicy(Context context) {
+        if (!isDebugVersion(context)) {
+            return RetentionPolicy.KEEP_EVERYTHING;
+        }
+        String days = getPrefs(context).getString(KEY_RAW_DATA_RETENTION_DAYS,
+                RAW_DATA_RETENTION_FOREVER);
+        try {
+            int parsed = Integer.parseInt(days);
+            if (parsed >= 0) {
+                return RetentionPolicy.keepRawDataForDays(parsed);
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the default.
+        }
+        return RetentionPolicy.KEEP_EVERYTHING;
+    }
+
+    /**
+     * Writes a storage report to the app's external files directory, where it can be pulled off
+     * the device without root, and says where it went.
+     */
+    private static class SaveStorageReportTask extends AsyncTask<Void, Void, File> {
+        private final Context mContext;
+        private final StorageReport mReport;
+
+        SaveStorageReportTask(Context context, StorageReport report) {
+            mContext = context;
+            mReport = report;
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            File dir = mContext.getExternalFilesDir(null);
+            if (dir == null) {
+                dir = mContext.getFilesDir();
+            }
+            File file = new File(dir, "storage_report_" + System.currentTimeMillis() + ".txt");
+            PrintWriter writer;
+            try {
+                writer = new PrintWriter(file);
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "Could not create " + file, e);
+                return null;
+            }
+            try {
+                mReport.writeTo(writer);
+            } finally {
+                writer.close();
+            }
+            return writer.checkError() ? null : file;
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            String message = file == null ? mContext.getString(R.string.storage_report_save_failed)
+                    : mContext.getString(R.string.storage_report_saved, file.getPath());
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs commands on a looper thread (usually the UI thread) at the start of its next frame, so that
+ * updates posted from other threads many times a frame are handled together, just before the
+ * frame is drawn.  Commands run in the order they were posted.
+ *
+ * No frames are drawn while the screen is off, or while the app is in the background, and
+ * commands may be doing more than drawing (firing triggers, for instance), so if no frame
+ * arrives soon after they are posted, they run from an ordinary handler message instead.
+ */
+public class FrameExecutor implements Executor {
+    // About three frames at 60fps, so that a slow frame doesn't trigger it
+    private static final long NO_FRAME_FALLBACK_MILLIS = 50;
+
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private ArrayList<Runnable> mPending = new ArrayList<>();
+    private boolean mFrameRequested = false;
+
+    // Only touched on the looper thread; swapped with mPending each frame, so that posting
+    // doesn't allocate.
+    private ArrayList<Runnable> mRunning = new ArrayList<>();
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mHandler.removeCallbacks(mNoFrame);
+            runPending();
+        }
+    };
+
+    private final Runnable mNoFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            runPending();
+        }
+    };
+
+    // Choreographer belongs to the looper thread, so the frame callback is posted from there.
+    private final Runnable mRequestFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            mHandler.postDelayed(mNoFrame, NO_FRAME_FALLBACK_MILLIS);
+        }
+    };
+
+    public FrameExecutor(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    private void runPending() {
+        synchronized (mLock) {
+            ArrayList<Runnable> running = mPending;
+            mPending = mRunning;
+            mRunning = running;
+            mFrameRequested = false;
+        }
+        for (int i = 0, size = mRunning.size(); i < size; i++) {
+            mRunning.get(i).run();
+        }
+        mRunning.clear();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (mLock) {
+            mPending.add(command);
+            if (mFrameRequested) {
+                return;
+            }
+            mFrameRequested = true;
+        }
+        mHandler.post(mRequestFrame);
+    }
+}
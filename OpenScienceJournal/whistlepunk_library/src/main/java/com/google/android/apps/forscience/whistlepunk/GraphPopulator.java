@@ -21,14 +21,11 @@ import android.support.annotation.NonNull;
 import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.javalib.FallibleConsumer;
 import com.google.android.apps.forscience.javalib.MaybeConsumers;
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.Range;
 
-import java.util.List;
-
 // TODO(saff): port tests from Weather
 public class GraphPopulator {
     // How many datapoints do we grab from the database at one time?
@@ -37,6 +34,9 @@ public class GraphPopulator {
     private Range<Long> mRequestedTimes = null;
     private ObservationDisplay mObservationDisplay;
     private boolean mRequestInFlight = false;
+    // Scratch space for finding the range of each load, reused between loads.
+    private long[] mLoadedTimestamps = new long[MAX_DATAPOINTS_PER_SENSOR_LOAD];
+    private double[] mLoadedValues = new double[MAX_DATAPOINTS_PER_SENSOR_LOAD];
     private final long mRequestId;
 
     // TODO: can we pass in the request id, rather than generating it here?
@@ -111,13 +111,23 @@ public class GraphPopulator {
 
                                 public Range<Long> addObservationsToDisplay(
                                         ScalarReadingList observations) {
-                                    List<ScalarReading> points = ScalarReading.slurp(observations);
-                                    Range<Long> range = null;
-                                    for (ScalarReading point : points) {
-                                        range = Ranges.span(range, Range.singleton(
-                                                point.getCollectedTimeMillis()));
+                                    int size = observations.size();
+                                    if (mLoadedTimestamps.length < size) {
+                                        mLoadedTimestamps = new long[size];
+                                        mLoadedValues = new double[size];
+                                    }
+                                    int count = observations.copyTo(mLoadedTimestamps,
+                                            mLoadedValues, 0);
+                                    if (count == 0) {
+                                        return null;
+                                    }
+                                    long min = mLoadedTimestamps[0];
+                                    long max = mLoadedTimestamps[0];
+                                    for (int i = 1; i < count; i++) {
+                                        min = Math.min(min, mLoadedTimestamps[i]);
+                                        max = Math.max(max, mLoadedTimestamps[i]);
                                     }
-                                    return range;
+                                    return Range.closed(min, max);
                                 }
                             })
             );
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Stores each policy as "keepRawMillis,lowestKeptTier" under a key made from the project or
+ * experiment id.  The default policy comes from the developer options.
+ */
+class PrefsRetentionPolicyStorage implements RetentionPolicyStorage {
+    private static final String TAG = "PrefsRetentionPolicy";
+    private static final String PREFS_FILE = "PrefsRetentionPolicyStorage";
+    private static final String KEY_PREFIX_PROJECT = "project:";
+    private static final String KEY_PREFIX_EXPERIMENT = "experiment:";
+
+    private Context mContext;
+
+    public PrefsRetentionPolicyStorage(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public RetentionPolicy getPolicy(String projectId, String experimentId) {
+        RetentionPolicy policy = readPolicy(KEY_PREFIX_EXPERIMENT + experimentId);
+        if (policy == null) {
+            policy = readPolicy(KEY_PREFIX_PROJECT + projectId);
+        }
+        if (policy == null) {
+            policy = DevOptionsFragment.getDefaultRetentionPolicy(mContext);
+        }
+        return policy;
+    }
+
+    @Override
+    public void setProjectPolicy(String projectId, RetentionPolicy policy) {
+        writePolicy(KEY_PREFIX_PROJECT + projectId, policy);
+    }
+
+    @Override
+    public void setExperimentPolicy(String experimentId, RetentionPolicy policy) {
+        writePolicy(KEY_PREFIX_EXPERIMENT + experimentId, policy);
+    }
+
+    public SharedPreferences getPrefs() {
+        return mContext.getSharedPreferences(PREFS_FILE, Context.MODE_PRIVATE);
+    }
+
+    private RetentionPolicy readPolicy(String key) {
+        String encoded = getPrefs().getString(key, null);
+        if (encoded == null) {
+            return null;
+        }
+        String[] split = encoded.split(",", 2);
+        try {
+            return new RetentionPolicy(Long.parseLong(split[0]), Integer.parseInt(split[1]));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            Log.e(TAG, "Could not read retention policy " + key + ": " + encoded, e);
+            return null;
+        }
+    }
+
+    private void writePolicy(String key, RetentionPolicy policy) {
+        if (policy == null) {
+            getPrefs().edit().remove(key).apply();
+        } else {
+            getPrefs().edit().putString(key,
+                    policy.getKeepRawMillis() + "," + policy.getLowestKeptTier()).apply();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.metadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentRun;
+import com.google.android.apps.forscience.whistlepunk.metadata.MetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.metadata.Project;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.review.ZoomPresenter;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarBlockCache;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the raw readings of runs that have outlived their {@link RetentionPolicy}, keeping only
+ * their zoom tiers (see {@link ZoomRecorder}) and summaries.
+ *
+ * Passes are scheduled a day apart, starting shortly after launch.  Each pass finds the runs that
+ * are due, and then compacts one sensor of one run at a time on the sensor data thread, with a
+ * pause in between, and nothing at all while a sensor is recording.  A run's lowest tier is
+ * stored in its stats before any of its readings are deleted, so {@link ZoomPresenter} never asks
+ * for a tier that is gone; if the job is stopped in between, the next pass finishes the delete.
+ */
+public class ReadingCompaction {
+    private static final String TAG = "ReadingCompaction";
+
+    // How long after launch to start the first pass, so that it doesn't slow down startup
+    private static final long FIRST_PASS_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // Time from the end of one pass to the start of the next
+    private static final long PASS_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Pause between steps
+    private static final long STEP_DELAY_MILLIS = 100;
+
+    // How long to wait before checking again whether recording has stopped
+    private static final long RECORDING_RETRY_DELAY_MILLIS = 10000;
+
+    public interface ProgressListener {
+        /**
+         * Called on the UI thread once the runs to compact in a pass have been found, and again
+         * after each sensor in each of them has been compacted.
+         *
+         * @param completed      how many sensors, across all runs, have been compacted
+         * @param total          how many sensors, across all runs, were due for compaction
+         * @param reclaimedBytes roughly how much storage this pass has given back so far
+         */
+        void onProgress(int completed, int total, long reclaimedBytes);
+    }
+
+    private final DataControllerImpl mDataController;
+    private final SensorDatabase mSensorDatabase;
+    private final ScalarBlockCache mReadingCache;
+    private final MetaDataManager mMetaDataManager;
+    private final RetentionPolicyStorage mPolicies;
+    private final Clock mClock;
+    private final Executor mUiThread;
+    private final Executor mMetaDataThread;
+    private final Executor mSensorDataThread;
+    private final ScheduledExecutorService mScheduler;
+    private final ProgressListener mListener;
+
+    // Only touched on the sensor data thread, once the runs of a pass have been found
+    private final Queue<RunCompaction> mPending = new LinkedList<>();
+    private int mTotal = 0;
+    private int mCompleted = 0;
+    private long mReclaimedBytes = 0;
+
+    ReadingCompaction(DataControllerImpl dataController, SensorDatabase sensorDatabase,
+            ScalarBlockCache readingCache, MetaDataManager metaDataManager,
+            RetentionPolicyStorage policies, Clock clock, Executor uiThread,
+            Executor metaDataThread, Executor sensorDataThread,
+            ScheduledExecutorService scheduler, ProgressListener listener) {
+        mDataController = dataController;
+        mSensorDatabase = sensorDatabase;
+        mReadingCache = readingCache;
+        mMetaDataManager = metaDataManager;
+        mPolicies = policies;
+        mClock = clock;
+        mUiThread = uiThread;
+        mMetaDataThread = metaDataThread;
+        mSensorDataThread = sensorDataThread;
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    public void start() {
+        schedulePass(FIRST_PASS_DELAY_MILLIS);
+    }
+
+    private void schedulePass(long delayMillis) {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mMetaDataThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final List<RunCompaction> runs = findRunsDue(mClock.getNow());
+                        mSensorDataThread.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                mPending.addAll(runs);
+                                mTotal = runs.size();
+                                mCompleted = 0;
+                                mReclaimedBytes = 0;
+                                reportProgress();
+                                scheduleStep(0);
+                            }
+                        });
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private List<RunCompaction> findRunsDue(long now) {
+        List<RunCompaction> runs = new ArrayList<>();
+        for (Project project : mMetaDataManager.getProjects(Integer.MAX_VALUE, true)) {
+            for (Experiment experiment : mMetaDataManager.getExperimentsForProject(project,
+                    true)) {
+                RetentionPolicy policy = mPolicies.getPolicy(project.getProjectId(),
+                        experiment.getExperimentId());
+                if (policy.keepsEverything()) {
+                    continue;
+                }
+                for (String runId : mMetaDataManager.getExperimentRunIds(
+                        experiment.getExperimentId(), true)) {
+                    ExperimentRun run = ExperimentRun.fromLabels(mMetaDataManager.getRun(runId),
+                            mMetaDataManager.getLabelsWithStartId(runId));
+                    if (!run.isValidRun() || !policy.isDue(run.getOriginalLastTimestamp(),
+                            now)) {
+                        continue;
+                    }
+                    for (String sensorId : run.getSensorTags()) {
+                        RunCompaction compaction = RunCompaction.create(sensorId, runId,
+                                Range.closed(run.getOriginalFirstTimestamp(),
+                                        run.getOriginalLastTimestamp()),
+                                mMetaDataManager.getStats(runId, sensorId), policy);
+                        if (compaction != null) {
+                            runs.add(compaction);
+                        }
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    private void scheduleStep(long delayMillis) {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mDataController.isRecording()) {
+                    scheduleStep(RECORDING_RETRY_DELAY_MILLIS);
+                    return;
+                }
+                mSensorDataThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        step();
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // On the sensor data thread
+    private void step() {
+        final RunCompaction run = mPending.peek();
+        if (run == null) {
+            schedulePass(PASS_INTERVAL_MILLIS);
+            return;
+        }
+        // The stats first, so that nothing asks for the tiers while they are being deleted.
+        mMetaDataThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMetaDataManager.setStats(run.getRunId(), run.getSensorId(), run.getStats());
+                mSensorDataThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            mReclaimedBytes += run.deleteReadings(mSensorDatabase);
+                            run.invalidateReadings(mReadingCache);
+                        } catch (Exception e) {
+                            // The stats already skip these tiers, so they only waste space; the
+                            // next pass will try again.
+                            Log.e(TAG, "Could not compact readings of run " + run.getRunId(), e);
+                        }
+                        mPending.remove();
+                        mCompleted++;
+                        reportProgress();
+                        scheduleStep(STEP_DELAY_MILLIS);
+                    }
+                });
+            }
+        });
+    }
+
+    private void reportProgress() {
+        final int completed = mCompleted;
+        final int total = mTotal;
+        final long reclaimedBytes = mReclaimedBytes;
+        mUiThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(completed, total, reclaimedBytes);
+            }
+        });
+    }
+
+    /**
+     * Deletes the tiers of one sensor in one run that its retention policy no longer keeps.
+     */
+    @VisibleForTesting
+    static class RunCompaction {
+        private final String mSensorId;
+        private final String mRunId;
+        private final Range<Long> mTimes;
+        private final int mLowestKeptTier;
+
+        private RunCompaction(String sensorId, String runId, Range<Long> times,
+                int lowestKeptTier) {
+            mSensorId = sensorId;
+            mRunId = runId;
+            mTimes = times;
+            mLowestKeptTier = lowestKeptTier;
+        }
+
+        /**
+         * The top tier is always kept, so that there is something left to show.  Runs without
+         * tier stats are left alone until ZoomTierBackfill has written their tiers.
+         *
+         * @param times    the timestamps of every reading in the run
+         * @param runStats the run's current stats for {@code sensorId}
+         * @return the compaction to do, or null if there is nothing to delete
+         */
+        static RunCompaction create(String sensorId, String runId, Range<Long> times,
+                RunStats runStats, RetentionPolicy policy) {
+            if (!ZoomPresenter.hasRequiredStats(runStats)) {
+                return null;
+            }
+            int topTier = runStats.getIntStat(ZoomRecorder.STATS_KEY_TIER_COUNT, 0) - 1;
+            int lowestKeptTier = Math.min(policy.getLowestKeptTier(), topTier);
+            if (lowestKeptTier <= ZoomRecorder.getLowestTier(runStats)) {
+                return null;
+            }
+            return new RunCompaction(sensorId, runId, times, lowestKeptTier);
+        }
+
+        public String getSensorId() {
+            return mSensorId;
+        }
+
+        public String getRunId() {
+            return mRunId;
+        }
+
+        public int getLowestKeptTier() {
+            return mLowestKeptTier;
+        }
+
+        /**
+         * @return the stats to store before deleting, which only change the lowest tier
+         */
+        public RunStats getStats() {
+            RunStats runStats = new RunStats();
+            runStats.putStat(ZoomRecorder.STATS_KEY_LOWEST_TIER, mLowestKeptTier);
+            return runStats;
+        }
+
+        /**
+         * @return roughly how many bytes of storage were given back
+         */
+        public long deleteReadings(SensorDatabase db) {
+            return db.deleteScalarReadingsBelowTier(mSensorId, TimeRange.oldest(mTimes),
+                    mLowestKeptTier);
+        }
+
+        /**
+         * Drops any cached readings that {@link #deleteReadings} has removed.
+         */
+        public void invalidateReadings(ScalarBlockCache cache) {
+            cache.invalidate(mSensorId, mTimes.lowerEndpoint(), mTimes.upperEndpoint());
+        }
+    }
+}
@@ -79,9 +79,10 @@ import com.google.android.apps.forscience.whistlepunk.scalarchart.ScalarDisplayO
 import com.google.android.apps.forscience.whistlepunk.sensorapi.DataViewOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.NewOptionsStorage;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorChoice;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
@@ -1299,7 +1300,10 @@ public class RecordFragment extends Fragment implements AddNoteDialog.AddNoteDia
                 sensorPresenter.getOptionsPresenter().applyOptions(readOptions);
 
                 sensorCardPresenter.startObserving(sensorChoice, sensorPresenter, readOptions,
-                        getDataController(), new SensorObserver() {
+                        getDataController(), new ScalarSensorObserver() {
+                            // For a sensorPresenter that only takes Bundles
+                            private final Bundle mBundle = new Bundle();
+
                             @Override
                             public void onNewData(long timestamp, Bundle value) {
                                 // TODO: Why is there an occasional errant first point when
@@ -1307,6 +1311,13 @@ public class RecordFragment extends Fragment implements AddNoteDialog.AddNoteDia
                                 // sensorCardPresenter.onNewData?
                                 sensorPresenter.onNewData(timestamp, value);
                             }
+
+                            @Override
+                            public void onNewScalarData(long timestamp, double value,
+                                    double min, double max, double average) {
+                                ScalarSensor.notifyObserver(sensorPresenter, mBundle, timestamp,
+                                        value, min, max, average);
+                            }
                         });
                 refreshLabels();
             }
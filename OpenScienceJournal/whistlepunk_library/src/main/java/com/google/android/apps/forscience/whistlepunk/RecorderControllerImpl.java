@@ -20,7 +20,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.media.RingtoneManager;
 import android.net.Uri;
-import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
@@ -45,7 +44,7 @@ import com.google.android.apps.forscience.whistlepunk.metadata.SensorTrigger;
 import com.google.android.apps.forscience.whistlepunk.metadata.SensorTriggerLabel;
 import com.google.android.apps.forscience.whistlepunk.metadata.TriggerHelper;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorChoice;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
@@ -250,13 +249,10 @@ public class RecorderControllerImpl implements RecorderController {
             final List<SensorTrigger> activeTriggers) {
         if (!mServiceObservers.containsKey(sensorId)) {
             String serviceObserverId = mRegistry.putListeners(sensorId,
-                    new SensorObserver() {
+                    new ScalarSensorObserver() {
                         @Override
-                        public void onNewData(long timestamp, Bundle data) {
-                            if (!ScalarSensor.hasValue(data)) {
-                                return;
-                            }
-                            double value = ScalarSensor.getValue(data);
+                        public void onNewScalarData(long timestamp, double value, double min,
+                                double max, double average) {
                             // Fire triggers.
                             for (SensorTrigger trigger : activeTriggers) {
                                 if (trigger.isTriggered(value)) {
@@ -18,6 +18,8 @@ package com.google.android.apps.forscience.whistlepunk;
 
 import android.os.Bundle;
 
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.common.collect.HashMultimap;
@@ -142,16 +144,29 @@ public class RecorderListenerRegistry implements SensorStatusListener {
 
     /**
      * Returns a new SensorObserver that routes new data to the currently-active UI listener, if
-     * any, for the given sensor.
+     * any, for the given sensor.  Scalar data is passed on as primitives to listeners that take
+     * it that way.
      */
     public SensorObserver makeObserverForRecorder(final String sensorId) {
-        return new SensorObserver() {
+        return new ScalarSensorObserver() {
+            // For listeners that only take Bundles
+            private final Bundle mBundle = new Bundle();
+
             @Override
             public void onNewData(long timestamp, Bundle bundle) {
                 for (ListenerSet set : mListeners.get(sensorId)) {
                     set.observer.onNewData(timestamp, bundle);
                 }
             }
+
+            @Override
+            public void onNewScalarData(long timestamp, double value, double min, double max,
+                    double average) {
+                for (ListenerSet set : mListeners.get(sensorId)) {
+                    ScalarSensor.notifyObserver(set.observer, mBundle, timestamp, value, min, max,
+                            average);
+                }
+            }
         };
     }
 }
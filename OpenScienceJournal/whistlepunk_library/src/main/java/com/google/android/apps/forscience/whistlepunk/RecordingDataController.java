@@ -20,6 +20,8 @@ import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
 
 /**
  * Data interface for sensor recorders
@@ -31,6 +33,31 @@ public interface RecordingDataController {
     void addScalarReading(String sensorId, final int resolutionTier, long timestampMillis,
             double value);
 
+    /**
+     * Adds every reading in {@code readings}, as {@link #addScalarReading} would, but all at
+     * once.  The readings are copied, so the buffer can be reused as soon as this returns.
+     */
+    void addScalarReadings(ScalarReadingBuffer readings);
+
+    /**
+     * @see com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase#addScalarSummary(String, int, ScalarAggregate)
+     */
+    void addScalarSummary(String sensorId, int level, ScalarAggregate summary);
+
+    /**
+     * Readings passed to {@link #addScalarReading} may be buffered and written in batches.  This
+     * writes any readings for {@code sensorId} that are still buffered; call it when recording
+     * stops so that nothing is left behind.
+     */
+    void flushScalarReadings(String sensorId);
+
+    /**
+     * Readings for {@code sensorId} passed to {@link #addScalarReading} after this call are
+     * stored as part of run {@code runId}, so that they can be deleted along with it.  Pass null
+     * once recording stops.
+     */
+    void setCurrentRun(String sensorId, String runId);
+
     /**
      * Set the statistics for the given run and sensor
      *
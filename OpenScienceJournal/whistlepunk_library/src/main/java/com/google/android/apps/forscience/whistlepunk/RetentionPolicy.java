@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long the raw (tier 0) readings of a run are kept once it has been recorded.  After that,
+ * {@link ReadingCompaction} deletes every tier below the lowest kept tier, so that charts of the
+ * run are drawn from its zoom tiers alone.
+ */
+public class RetentionPolicy {
+    /**
+     * Passed as the time to keep raw readings, to keep them forever.
+     */
+    public static final long KEEP_FOREVER = -1;
+
+    public static final RetentionPolicy KEEP_EVERYTHING = new RetentionPolicy(KEEP_FOREVER, 0);
+
+    private final long mKeepRawMillis;
+    private final int mLowestKeptTier;
+
+    /**
+     * @param keepRawMillis  how long after a run ends to keep the tiers below
+     *                       {@code lowestKeptTier}, or {@link #KEEP_FOREVER}
+     * @param lowestKeptTier the lowest tier kept after that
+     */
+    public RetentionPolicy(long keepRawMillis, int lowestKeptTier) {
+        mKeepRawMillis = keepRawMillis;
+        mLowestKeptTier = lowestKeptTier;
+    }
+
+    /**
+     * @return a policy that keeps raw readings for {@code days}, and then only tier 1 and up
+     */
+    public static RetentionPolicy keepRawDataForDays(int days) {
+        return new RetentionPolicy(TimeUnit.DAYS.toMillis(days), 1);
+    }
+
+    public long getKeepRawMillis() {
+        return mKeepRawMillis;
+    }
+
+    public int getLowestKeptTier() {
+        return mLowestKeptTier;
+    }
+
+    public boolean keepsEverything() {
+        return mKeepRawMillis == KEEP_FOREVER || mLowestKeptTier <= 0;
+    }
+
+    /**
+     * @return true if a run that ended at {@code runEndMillis} should be compacted at
+     * {@code nowMillis}
+     */
+    public boolean isDue(long runEndMillis, long nowMillis) {
+        return !keepsEverything() && nowMillis - runEndMillis >= mKeepRawMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RetentionPolicy that = (RetentionPolicy) o;
+        return mKeepRawMillis == that.mKeepRawMillis && mLowestKeptTier == that.mLowestKeptTier;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (mKeepRawMillis ^ (mKeepRawMillis >>> 32)) + mLowestKeptTier;
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy{" +
+                "mKeepRawMillis=" + mKeepRawMillis +
+                ", mLowestKeptTier=" + mLowestKeptTier +
+                '}';
+    }
+}
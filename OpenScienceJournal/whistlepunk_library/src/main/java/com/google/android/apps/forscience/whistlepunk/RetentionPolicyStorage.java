@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+/**
+ * Interface for persisting the {@link RetentionPolicy} of each project and experiment.
+ *
+ * There is no setting for these in the project or experiment UI yet, so nothing in the app calls
+ * {@link #setProjectPolicy} or {@link #setExperimentPolicy}; until something does, every run is
+ * kept under the default policy from the developer options, which only debug builds have.
+ */
+public interface RetentionPolicyStorage {
+    /**
+     * @return the experiment's policy if it has one, otherwise its project's, otherwise the
+     * default
+     */
+    RetentionPolicy getPolicy(String projectId, String experimentId);
+
+    /**
+     * @param policy the new policy, or null to use the default
+     */
+    void setProjectPolicy(String projectId, RetentionPolicy policy);
+
+    /**
+     * @param policy the new policy, or null to use the project's
+     */
+    void setExperimentPolicy(String experimentId, RetentionPolicy policy);
+}
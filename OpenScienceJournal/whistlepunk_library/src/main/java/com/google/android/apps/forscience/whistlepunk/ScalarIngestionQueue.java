@@ -0,0 +1,318 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.support.v4.util.Pair;
+
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Batches of scalar readings waiting to be written to the sensor database, in the order they were
+ * added.  At most a fixed number of batches wait at once; what happens to a batch that arrives
+ * when the queue is full depends on the {@link OverflowPolicy}.  Only tier-0 readings are ever
+ * lost to the policy: the zoom tiers are what zoomed-out charts are drawn from, and are small next
+ * to tier 0.  Readings lost to the policy are counted, by sensor and run.
+ *
+ * Emptied buffers are kept for reuse (see {@link #obtain}), so that a steady recording doesn't
+ * allocate a new buffer, or anything else, for each batch.
+ *
+ * Thread-safe.  Batches are expected to be written by a single thread, which calls {@link #poll}
+ * until it returns null, and {@link #recycle} on each batch once it is written.
+ */
+public class ScalarIngestionQueue {
+    // Stat holding how many tier-0 readings of a run were never stored, because the queue was
+    // full.  Only set if there were any.
+    public static final String STATS_KEY_DROPPED_READINGS = "stats_dropped_readings";
+
+    public enum OverflowPolicy {
+        /**
+         * Wait for the writing thread to make room.  Nothing is lost, but the thread adding
+         * readings is held up, so it must not be the writing thread.  The thread that must never
+         * be held up (see {@link #ScalarIngestionQueue(int, OverflowPolicy, Thread)}) gets
+         * {@link #DECIMATE} instead.
+         */
+        BLOCK,
+
+        /**
+         * Throw away the tier-0 readings of the oldest waiting batch.  Its readings in higher
+         * tiers are written with the next batch for the same sensor and run (which may be the
+         * batch being added), or on their own once the queue is empty if there isn't one yet.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Throw away every other tier-0 reading in the oldest waiting batch, and in the next one
+         * for the same sensor and run (which may be the batch being added), and combine what is
+         * left of the two.  This keeps the whole time span, at a lower rate: while the queue
+         * stays full, the oldest readings are thinned again each time, so the number of waiting
+         * readings stays bounded.  If there is no batch to combine the oldest with yet, its
+         * tier-0 readings are thrown away, as for {@link #DROP_OLDEST}.
+         */
+        DECIMATE
+    }
+
+    private final int mCapacity;
+    private final OverflowPolicy mPolicy;
+    private final Thread mUnblockableThread;
+    private final ArrayDeque<ScalarReadingBuffer> mBatches;
+    private final ArrayDeque<ScalarReadingBuffer> mFreeBuffers;
+
+    // The batch that was last returned by poll, until it is recycled
+    private ScalarReadingBuffer mWriting = null;
+
+    // Whether the writing thread is working through the queue (see offer and poll)
+    private boolean mBusy = false;
+
+    // Readings above tier 0 from batches whose tier-0 readings were thrown away, by sensor tag
+    // and run id.  They go in front of the next batch offered for the same sensor and run, or
+    // are written on their own once the queue is empty.
+    private final Map<Pair<String, String>, ScalarReadingBuffer> mCarriedReadings =
+            new HashMap<>();
+
+    // Tier-0 readings lost to the overflow policy, by sensor tag and run id
+    private final Map<Pair<String, String>, Integer> mDroppedReadings = new HashMap<>();
+
+    /**
+     * @param capacity how many batches can wait to be written at once
+     */
+    public ScalarIngestionQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, null);
+    }
+
+    /**
+     * @param capacity          how many batches can wait to be written at once
+     * @param unblockableThread a thread that {@link OverflowPolicy#BLOCK} must not hold up, such
+     *                          as the main thread, on which built-in sensors deliver their
+     *                          readings; or null
+     */
+    public ScalarIngestionQueue(int capacity, OverflowPolicy policy, Thread unblockableThread) {
+        Preconditions.checkArgument(capacity > 0);
+        mCapacity = capacity;
+        mPolicy = policy;
+        mUnblockableThread = unblockableThread;
+        mBatches = new ArrayDeque<>(capacity);
+        mFreeBuffers = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * @return an empty buffer for readings from {@code sensorTag} in {@code runId}: a recycled one
+     * if there is one, or else a new one.
+     */
+    public synchronized ScalarReadingBuffer obtain(String sensorTag, String runId) {
+        ScalarReadingBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            return new ScalarReadingBuffer(sensorTag, runId);
+        }
+        buffer.reset(sensorTag, runId);
+        return buffer;
+    }
+
+    /**
+     * Adds {@code batch} to the end of the queue, making room first if needed.  The queue owns
+     * the batch from now on.
+     *
+     * @return true if the writing thread was idle, and so needs to be started.
+     */
+    public synchronized boolean offer(ScalarReadingBuffer batch) {
+        OverflowPolicy policy = mPolicy == OverflowPolicy.BLOCK
+                && Thread.currentThread() == mUnblockableThread ? OverflowPolicy.DECIMATE
+                : mPolicy;
+        batch = takeCarriedReadings(batch);
+        while (mBatches.size() >= mCapacity) {
+            if (policy == OverflowPolicy.BLOCK) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Keep the reading rather than lose it; the interrupt is passed on.
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            ScalarReadingBuffer oldest = mBatches.peek();
+            ScalarReadingBuffer next = findNextWaiting(oldest);
+            if (next != null) {
+                shrinkInto(oldest, next, policy);
+                mBatches.remove(next);
+                mFreeBuffers.add(next);
+            } else if (isSameStream(oldest, batch)) {
+                // Nothing waiting goes with the oldest batch, but the new one does.
+                shrinkInto(oldest, batch, policy);
+                mFreeBuffers.add(batch);
+                return false;
+            } else {
+                setAsideOldest();
+            }
+        }
+        mBatches.add(batch);
+        boolean wasIdle = !mBusy;
+        mBusy = true;
+        return wasIdle;
+    }
+
+    /**
+     * @return {@code batch}, with any readings set aside from an earlier batch for the same
+     * sensor and run in front of its own
+     */
+    private ScalarReadingBuffer takeCarriedReadings(ScalarReadingBuffer batch) {
+        ScalarReadingBuffer carried = mCarriedReadings.remove(getStream(batch));
+        if (carried == null) {
+            return batch;
+        }
+        carried.addAll(batch);
+        mFreeBuffers.add(batch);
+        return carried;
+    }
+
+    /**
+     * @return the next waiting batch after {@code oldest} from the same sensor and run, or null
+     * if there isn't one
+     */
+    private ScalarReadingBuffer findNextWaiting(ScalarReadingBuffer oldest) {
+        Iterator<ScalarReadingBuffer> iterator = mBatches.iterator();
+        iterator.next();
+        while (iterator.hasNext()) {
+            ScalarReadingBuffer next = iterator.next();
+            if (isSameStream(next, oldest)) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Thins or drops tier-0 readings, as {@code policy} says, and appends all of {@code later} to
+     * {@code earlier}, which keeps its place in the queue.
+     */
+    private void shrinkInto(ScalarReadingBuffer earlier, ScalarReadingBuffer later,
+            OverflowPolicy policy) {
+        if (policy == OverflowPolicy.DECIMATE) {
+            countDropped(earlier, earlier.decimate(0) + later.decimate(0));
+        } else {
+            countDropped(earlier, getTierZeroSize(earlier));
+            earlier.clearTier(0);
+        }
+        earlier.addAll(later);
+    }
+
+    /**
+     * Throws away the tier-0 readings of the oldest waiting batch, which has nothing to be
+     * combined with, and sets aside the rest until the next batch from the same sensor and run.
+     */
+    private void setAsideOldest() {
+        ScalarReadingBuffer oldest = mBatches.poll();
+        countDropped(oldest, getTierZeroSize(oldest));
+        oldest.clearTier(0);
+        if (oldest.isEmpty()) {
+            mFreeBuffers.add(oldest);
+        } else {
+            mCarriedReadings.put(getStream(oldest), oldest);
+        }
+    }
+
+    private static int getTierZeroSize(ScalarReadingBuffer batch) {
+        return batch.getTierCount() > 0 ? batch.getTierSize(0) : 0;
+    }
+
+    private static Pair<String, String> getStream(ScalarReadingBuffer batch) {
+        return new Pair<>(batch.getSensorTag(), batch.getRunId());
+    }
+
+    private static boolean isSameStream(ScalarReadingBuffer a, ScalarReadingBuffer b) {
+        return a.getSensorTag().equals(b.getSensorTag()) && Objects.equals(a.getRunId(),
+                b.getRunId());
+    }
+
+    private void countDropped(ScalarReadingBuffer batch, int dropped) {
+        if (batch.getRunId() == null || dropped == 0) {
+            // Readings outside a run are only used for live display.
+            return;
+        }
+        Pair<String, String> key = new Pair<>(batch.getSensorTag(), batch.getRunId());
+        Integer count = mDroppedReadings.get(key);
+        mDroppedReadings.put(key, count == null ? dropped : count + dropped);
+    }
+
+    /**
+     * Called on the writing thread.
+     *
+     * @return the oldest waiting batch, or, once there are none, any readings still set aside
+     * from batches whose tier-0 readings were thrown away.  Null if there is nothing left, in
+     * which case the writing thread can stop: the next {@link #offer} will say to start it again.
+     */
+    public synchronized ScalarReadingBuffer poll() {
+        mWriting = mBatches.poll();
+        if (mWriting == null && !mCarriedReadings.isEmpty()) {
+            Iterator<ScalarReadingBuffer> carried = mCarriedReadings.values().iterator();
+            mWriting = carried.next();
+            carried.remove();
+        }
+        if (mWriting == null) {
+            mBusy = false;
+        } else {
+            // Room for another batch
+            notifyAll();
+        }
+        return mWriting;
+    }
+
+    /**
+     * Called on the writing thread once {@code batch}, returned by {@link #poll}, is written.
+     */
+    public synchronized void recycle(ScalarReadingBuffer batch) {
+        if (mWriting == batch) {
+            mWriting = null;
+        }
+        mFreeBuffers.add(batch);
+    }
+
+    /**
+     * @return true if any readings from {@code sensorTag} are waiting, or being written.
+     */
+    public synchronized boolean hasBatchesFor(String sensorTag) {
+        if (mWriting != null && mWriting.getSensorTag().equals(sensorTag)) {
+            return true;
+        }
+        for (ScalarReadingBuffer batch : mBatches) {
+            if (batch.getSensorTag().equals(sensorTag)) {
+                return true;
+            }
+        }
+        for (ScalarReadingBuffer batch : mCarriedReadings.values()) {
+            if (batch.getSensorTag().equals(sensorTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many tier-0 readings from {@code sensorTag} in {@code runId} have been lost to
+     * the overflow policy, and forgets the count.
+     */
+    public synchronized int takeDroppedReadingCount(String sensorTag, String runId) {
+        Integer count = mDroppedReadings.remove(new Pair<>(sensorTag, runId));
+        return count == null ? 0 : count;
+    }
+}
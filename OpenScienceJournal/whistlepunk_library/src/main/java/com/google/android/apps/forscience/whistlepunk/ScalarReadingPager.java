@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ReadingKeyset;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingLists;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the scalar readings for one sensor and tier a page at a time, through a
+ * {@link DataController}, so that a long run can be walked without holding all of its readings in
+ * memory.  Each page picks up exactly where the last one left off (see {@link ReadingKeyset}).
+ *
+ * Each page must be delivered before the next one is loaded: delivering a page is what moves the
+ * pager forward.
+ */
+public class ScalarReadingPager {
+    private final DataController mDataController;
+    private final String mSensorTag;
+    private final int mResolutionTier;
+    private final int mPageSize;
+    private final ReadingKeyset mKeyset;
+    private boolean mFinished = false;
+
+    public ScalarReadingPager(DataController dataController, String sensorTag,
+            int resolutionTier, TimeRange range, int pageSize) {
+        mDataController = dataController;
+        mSensorTag = sensorTag;
+        mResolutionTier = resolutionTier;
+        mPageSize = pageSize;
+        mKeyset = new ReadingKeyset(range);
+    }
+
+    /**
+     * Loads up to pageSize readings after those already delivered.
+     */
+    public void loadNextPage(final MaybeConsumer<ScalarReadingList> onSuccess) {
+        final int skip = mKeyset.getReadingsToSkip();
+        final int requested = mPageSize + skip;
+        mDataController.getScalarReadings(mSensorTag, mResolutionTier,
+                mKeyset.getRemainingRange(), requested, new MaybeConsumer<ScalarReadingList>() {
+                    @Override
+                    public void success(ScalarReadingList list) {
+                        if (list.size() < requested) {
+                            mFinished = true;
+                        }
+                        onSuccess.success(new Page(list, skip));
+                    }
+
+                    @Override
+                    public void fail(Exception e) {
+                        onSuccess.fail(e);
+                    }
+                });
+    }
+
+    /**
+     * @return true if the last page loaded reached the end of the range.
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    private class Page implements ScalarReadingList {
+        private final ScalarReadingList mReadings;
+        private final int mSkip;
+
+        Page(ScalarReadingList readings, int skip) {
+            mReadings = readings;
+            mSkip = skip;
+        }
+
+        @Override
+        public void deliver(final StreamConsumer c) {
+            mReadings.deliver(new StreamConsumer() {
+                private int mSkipped = 0;
+
+                @Override
+                public void addData(long timestampMillis, double value) {
+                    if (mSkipped < mSkip) {
+                        mSkipped++;
+                        return;
+                    }
+                    mKeyset.advance(timestampMillis);
+                    c.addData(timestampMillis, value);
+                }
+            });
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, mReadings.size() - mSkip);
+        }
+
+        @Override
+        public int copyTo(long[] timestamps, double[] values, int offset) {
+            return ScalarReadingLists.copyByDelivering(this, timestamps, values, offset);
+        }
+
+        @Override
+        public List<ChartData.DataPoint> asDataPoints() {
+            final List<ChartData.DataPoint> result = new ArrayList<>();
+            deliver(new StreamConsumer() {
+                @Override
+                public void addData(long timestampMillis, double value) {
+                    result.add(new ChartData.DataPoint(timestampMillis, value));
+                }
+            });
+            return result;
+        }
+    }
+}
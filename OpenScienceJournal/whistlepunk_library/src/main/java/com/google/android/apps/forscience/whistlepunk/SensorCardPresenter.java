@@ -53,6 +53,7 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.NewOptionsStorag
 import com.google.android.apps.forscience.whistlepunk.sensorapi.OptionsListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorChoice;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
@@ -201,6 +202,18 @@ public class SensorCardPresenter {
     }
 
     public void onNewData(long timestamp, Bundle bundle) {
+        if (ScalarSensor.hasValue(bundle)) {
+            updateLiveData(timestamp, true, ScalarSensor.getValue(bundle));
+        } else {
+            updateLiveData(timestamp, false, 0);
+        }
+    }
+
+    public void onNewData(long timestamp, double value) {
+        updateLiveData(timestamp, true, value);
+    }
+
+    private void updateLiveData(long timestamp, boolean hasValue, double value) {
         boolean iconTimeHasElapsed =
                 timestamp > mLastUpdatedIconTimestamp + MAX_ICON_UPDATE_TIME_MS;
         boolean textTimeHasElapsed =
@@ -218,8 +231,7 @@ public class SensorCardPresenter {
         if (mCardViewHolder == null) {
             return;
         }
-        if (ScalarSensor.hasValue(bundle)) {
-            double value = ScalarSensor.getValue(bundle);
+        if (hasValue) {
             if (textTimeHasElapsed) {
                 String valueString = mNumberFormat.format(value);
                 SpannableString spannable = new SpannableString(valueString);
@@ -356,12 +368,23 @@ public class SensorCardPresenter {
             final SensorObserver recordFragmentObserver, List<SensorTrigger> triggers) {
         mCardTriggerPresenter.setSensorTriggers(triggers);
         mObserverId = mRecorderController.startObserving(mCurrentSource.getId(), triggers,
-                new SensorObserver() {
+                new ScalarSensorObserver() {
+                    // For a recordFragmentObserver that only takes Bundles
+                    private final Bundle mBundle = new Bundle();
+
                     @Override
                     public void onNewData(long timestamp, Bundle value) {
                         SensorCardPresenter.this.onNewData(timestamp, value);
                         recordFragmentObserver.onNewData(timestamp, value);
                     }
+
+                    @Override
+                    public void onNewScalarData(long timestamp, double value, double min,
+                            double max, double average) {
+                        SensorCardPresenter.this.onNewData(timestamp, value);
+                        ScalarSensor.notifyObserver(recordFragmentObserver, mBundle, timestamp,
+                                value, min, max, average);
+                    }
                 }, getSensorStatusListener(),
                 AbstractReadableSensorOptions.makeTransportable(readOptions));
         if (mSourceStatus == SensorStatusListener.STATUS_CONNECTED && mParentFragment != null) {
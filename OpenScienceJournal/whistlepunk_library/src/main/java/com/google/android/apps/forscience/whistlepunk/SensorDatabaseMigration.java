@@ -0,0 +1,257 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarBlockCache;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies the readings recorded with {@link SensorDatabaseImpl} into the storage engine chosen in
+ * the developer options, so that switching engines doesn't hide what was recorded before.  Only
+ * an engine with nothing stored in it yet is copied into.
+ *
+ * The readings are copied a batch at a time (see {@link SensorDatabaseImpl#readCopyBatch}) on
+ * the sensor data thread, with a pause between batches, and nothing at all while a sensor is
+ * recording.  Where the copy has got to is saved after each batch, and the next time the app
+ * starts, an unfinished copy goes on from there.  The span of each batch is saved before it is
+ * written, so that if the app stops part way through writing it, whatever was written can be
+ * deleted before the batch is written again.
+ */
+public class SensorDatabaseMigration {
+    private static final String TAG = "SensorDbMigration";
+
+    // How many readings of each tier to copy in each step
+    private static final int READINGS_PER_TIER_PER_STEP = 1000;
+
+    // Pause between steps
+    private static final long STEP_DELAY_MILLIS = 100;
+
+    // How long to wait before checking again whether recording has stopped
+    private static final long RECORDING_RETRY_DELAY_MILLIS = 10000;
+
+    // Each key is prefixed with the name of the engine being copied into.
+    private static final String KEY_POSITION = ":position";
+    private static final String KEY_PENDING_TAG = ":pendingTag";
+    private static final String KEY_PENDING_AFTER = ":pendingAfter";
+    private static final String KEY_PENDING_LAST = ":pendingLast";
+
+    // Saved as the position once there is nothing (more) to copy
+    private static final String POSITION_DONE = "done";
+
+    public interface ProgressListener {
+        /**
+         * Called on the UI thread after each batch of readings is copied, or just once if there
+         * is nothing to copy.  If the copy fails, it is never called with {@code finished}; the
+         * copy is tried again the next time the app starts.
+         *
+         * @param copied   how many readings have been copied since the app started
+         * @param finished true once every reading has been copied
+         */
+        void onProgress(long copied, boolean finished);
+    }
+
+    private final DataControllerImpl mDataController;
+    private final SensorDatabaseImpl mSource;
+    private final SensorDatabase mDestination;
+    private final ScalarBlockCache mReadingCache;
+    private final SharedPreferences mPrefs;
+    private final String mEngine;
+    private final Executor mUiThread;
+    private final Executor mSensorDataThread;
+    private final ScheduledExecutorService mScheduler;
+    private final ProgressListener mListener;
+
+    // Only touched on the sensor data thread
+    private SensorDatabaseImpl.CopyPosition mPosition;
+    private long mCopied = 0;
+
+    /**
+     * @param prefs  where to save how far the copy has got
+     * @param engine the name of the engine being copied into, so that copies into each engine
+     *               are tracked apart
+     */
+    SensorDatabaseMigration(DataControllerImpl dataController, SensorDatabaseImpl source,
+            SensorDatabase destination, ScalarBlockCache readingCache, SharedPreferences prefs,
+            String engine, Executor uiThread, Executor sensorDataThread,
+            ScheduledExecutorService scheduler, ProgressListener listener) {
+        mDataController = dataController;
+        mSource = source;
+        mDestination = destination;
+        mReadingCache = readingCache;
+        mPrefs = prefs;
+        mEngine = engine;
+        mUiThread = uiThread;
+        mSensorDataThread = sensorDataThread;
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    /**
+     * Decides whether there is anything to copy before any other work reaches the sensor data
+     * thread, so that readings recorded into the destination don't stop the copy from starting.
+     */
+    public void start() {
+        mSensorDataThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mPosition = loadPosition();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not resume copying sensor readings", e);
+                    mScheduler.shutdown();
+                    return;
+                }
+                if (mPosition == null) {
+                    reportProgress(true);
+                    mScheduler.shutdown();
+                } else {
+                    scheduleStep(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return where to copy from, or null if there is nothing to copy
+     */
+    private SensorDatabaseImpl.CopyPosition loadPosition() {
+        String saved = mPrefs.getString(mEngine + KEY_POSITION, null);
+        if (saved == null) {
+            if (mDestination.getFirstDatabaseTagAfter(Long.MIN_VALUE) != null) {
+                // Recorded into directly, so copying older readings in now would only mix them up.
+                savePosition(null);
+                return null;
+            }
+            savePosition(SensorDatabaseImpl.CopyPosition.START);
+            return SensorDatabaseImpl.CopyPosition.START;
+        }
+        if (POSITION_DONE.equals(saved)) {
+            return null;
+        }
+        String[] split = saved.split(",", 2);
+        SensorDatabaseImpl.CopyPosition position = new SensorDatabaseImpl.CopyPosition(
+                Long.parseLong(split[0]), Long.parseLong(split[1]));
+
+        String pendingTag = mPrefs.getString(mEngine + KEY_PENDING_TAG, null);
+        if (pendingTag != null) {
+            // The app stopped while writing a batch: delete whatever part of it was written.
+            long after = mPrefs.getLong(mEngine + KEY_PENDING_AFTER, Long.MIN_VALUE);
+            long last = mPrefs.getLong(mEngine + KEY_PENDING_LAST, Long.MAX_VALUE);
+            mDestination.deleteScalarReadings(pendingTag,
+                    TimeRange.oldest(Range.openClosed(after, last)));
+            mReadingCache.invalidate(pendingTag, after, last);
+            savePosition(position);
+        }
+        return position;
+    }
+
+    private void scheduleStep(long delayMillis) {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mDataController.isRecording()) {
+                    scheduleStep(RECORDING_RETRY_DELAY_MILLIS);
+                    return;
+                }
+                mSensorDataThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        step();
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // On the sensor data thread
+    private void step() {
+        try {
+            SensorDatabaseImpl.CopyBatch batch = mSource.readCopyBatch(mPosition,
+                    READINGS_PER_TIER_PER_STEP);
+            ScalarReadingBuffer readings = batch.getReadings();
+            if (readings != null) {
+                mPrefs.edit()
+                        .putString(mEngine + KEY_PENDING_TAG, readings.getSensorTag())
+                        .putLong(mEngine + KEY_PENDING_AFTER, mPosition.getTimestampMillis())
+                        .putLong(mEngine + KEY_PENDING_LAST, getLastTimestamp(readings))
+                        .commit();
+                mDestination.addScalarReadings(readings);
+                mReadingCache.invalidate(readings);
+                mCopied += readings.size();
+            }
+            mPosition = batch.getNext();
+            savePosition(mPosition);
+        } catch (RuntimeException e) {
+            // Leave it for next time, rather than trying it again and again.
+            Log.e(TAG, "Could not copy sensor readings", e);
+            mScheduler.shutdown();
+            return;
+        }
+        reportProgress(mPosition == null);
+        if (mPosition == null) {
+            mScheduler.shutdown();
+        } else {
+            scheduleStep(STEP_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Saves {@code position}, or that the copy is done if it is null, and that no batch is
+     * being written.  Committed right away, since a batch may be written straight after.
+     */
+    private void savePosition(SensorDatabaseImpl.CopyPosition position) {
+        mPrefs.edit()
+                .putString(mEngine + KEY_POSITION, position == null ? POSITION_DONE
+                        : position.getSensorId() + "," + position.getTimestampMillis())
+                .remove(mEngine + KEY_PENDING_TAG)
+                .remove(mEngine + KEY_PENDING_AFTER)
+                .remove(mEngine + KEY_PENDING_LAST)
+                .commit();
+    }
+
+    private static long getLastTimestamp(ScalarReadingBuffer readings) {
+        long last = Long.MIN_VALUE;
+        for (int tier = 0; tier < readings.getTierCount(); tier++) {
+            int size = readings.getTierSize(tier);
+            if (size > 0) {
+                last = Math.max(last, readings.getTimestamp(tier, size - 1));
+            }
+        }
+        return last;
+    }
+
+    private void reportProgress(final boolean finished) {
+        final long copied = mCopied;
+        mUiThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(copied, finished);
+            }
+        });
+    }
+}
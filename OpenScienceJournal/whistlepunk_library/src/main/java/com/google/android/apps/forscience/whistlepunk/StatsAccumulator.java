@@ -21,6 +21,7 @@ import android.support.annotation.IntDef;
 
 import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
 import com.google.android.apps.forscience.whistlepunk.wireapi.RecordingMetadata;
 
 import java.lang.annotation.Retention;
@@ -158,7 +159,61 @@ public class StatsAccumulator {
         }
     }
 
-    private double getAverage() {
+    // Update the stream stats based on count new timestamps and values starting at offset, as if
+    // each were passed to updateRecordingStreamStats in turn.
+    public void updateRecordingStreamStats(long[] timestampsMillis, double[] values, int offset,
+            int count) {
+        if (count == 0) {
+            return;
+        }
+        int i = offset;
+        int end = offset + count;
+        if (mStartTimestamp == RecordingMetadata.NOT_RECORDING) {
+            updateRecordingStreamStats(timestampsMillis[i], values[i]);
+            i++;
+        }
+        mStatSize += end - i;
+        double min = mMin;
+        double max = mMax;
+        double sum = mSum;
+        for (; i < end; i++) {
+            double value = values[i];
+            if (value > max) {
+                max = value;
+            } else if (value < min) {
+                min = value;
+            }
+            sum = sum + value;
+        }
+        mMin = min;
+        mMax = max;
+        mSum = sum;
+        mLatestTimestamp = timestampsMillis[end - 1];
+    }
+
+    // Replaces the stream stats with those of the readings summarized by aggregate.
+    public void setFromAggregate(ScalarAggregate aggregate) {
+        clearStats();
+        if (aggregate.isEmpty()) {
+            return;
+        }
+        mMin = aggregate.getMin();
+        mMax = aggregate.getMax();
+        mSum = aggregate.getSum();
+        mStartTimestamp = aggregate.getFirstTimestampMillis();
+        mLatestTimestamp = aggregate.getLastTimestampMillis();
+        mStatSize = (int) aggregate.getCount();
+    }
+
+    public double getMin() {
+        return mMin;
+    }
+
+    public double getMax() {
+        return mMax;
+    }
+
+    public double getAverage() {
         return mSum / mStatSize;
     }
 
@@ -167,9 +222,13 @@ public class StatsAccumulator {
     }
 
     public void addStatsToBundle(Bundle data) {
-        data.putDouble(KEY_MIN, mMin);
-        data.putDouble(KEY_MAX, mMax);
-        data.putDouble(KEY_AVERAGE, getAverage());
+        addStatsToBundle(data, mMin, mMax, getAverage());
+    }
+
+    public static void addStatsToBundle(Bundle data, double min, double max, double average) {
+        data.putDouble(KEY_MIN, min);
+        data.putDouble(KEY_MAX, max);
+        data.putDouble(KEY_AVERAGE, average);
     }
 
     public void updateDisplayDirectly(StatsDisplay display) {
@@ -0,0 +1,403 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.util.Pair;
+import android.util.Log;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.javalib.Success;
+import com.google.android.apps.forscience.whistlepunk.metadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentRun;
+import com.google.android.apps.forscience.whistlepunk.metadata.MetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.metadata.Project;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.review.ZoomPresenter;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SummaryRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarBlockCache;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes zoom tiers (see {@link ZoomRecorder}), and the run stats that {@link ZoomPresenter} needs
+ * to use them, for runs that were recorded or imported without them.  Without tiers, a chart of
+ * such a run loads every data point however far it is zoomed out.
+ *
+ * The tier-0 readings of each run are read a window at a time on the sensor data thread, with a
+ * pause between windows so that other database work isn't held up, and nothing is read at all
+ * while a sensor is recording.  A run's tiers are only written once it has been read completely,
+ * and its stats after that, on the metadata thread.  If the app stops in between, the run still
+ * has no tier stats, so the next time the job starts it reads the run again; the tiers and
+ * summaries written the first time are deleted as the new ones are written, rather than being
+ * stored twice.
+ */
+public class ZoomTierBackfill {
+    private static final String TAG = "ZoomTierBackfill";
+
+    // How many tier-0 readings to read in each step
+    private static final int READINGS_PER_STEP = 2000;
+
+    // Pause between steps
+    private static final long STEP_DELAY_MILLIS = 100;
+
+    // How long to wait before checking again whether recording has stopped
+    private static final long RECORDING_RETRY_DELAY_MILLIS = 10000;
+
+    public interface ProgressListener {
+        /**
+         * Called on the UI thread once the runs to backfill have been found, and again after each
+         * sensor in each of them has been backfilled.
+         *
+         * @param completed how many sensors, across all runs, have been backfilled
+         * @param total     how many sensors, across all runs, needed backfilling
+         */
+        void onProgress(int completed, int total);
+    }
+
+    private final DataControllerImpl mDataController;
+    private final SensorDatabase mSensorDatabase;
+    private final ScalarBlockCache mReadingCache;
+    private final MetaDataManager mMetaDataManager;
+    private final Executor mUiThread;
+    private final Executor mMetaDataThread;
+    private final Executor mSensorDataThread;
+    private final ScheduledExecutorService mScheduler;
+    private final ProgressListener mListener;
+
+    // Only touched on the sensor data thread, once the runs have been found
+    private final Queue<RunBackfill> mPending = new LinkedList<>();
+    private int mTotal = 0;
+    private int mCompleted = 0;
+
+    ZoomTierBackfill(DataControllerImpl dataController, SensorDatabase sensorDatabase,
+            ScalarBlockCache readingCache, MetaDataManager metaDataManager, Executor uiThread,
+            Executor metaDataThread, Executor sensorDataThread, ScheduledExecutorService scheduler,
+            ProgressListener listener) {
+        mDataController = dataController;
+        mSensorDatabase = sensorDatabase;
+        mReadingCache = readingCache;
+        mMetaDataManager = metaDataManager;
+        mUiThread = uiThread;
+        mMetaDataThread = metaDataThread;
+        mSensorDataThread = sensorDataThread;
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    public void start() {
+        mMetaDataThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<RunBackfill> runs = findRunsWithoutTiers();
+                mSensorDataThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPending.addAll(runs);
+                        mTotal = runs.size();
+                        reportProgress();
+                        scheduleStep(0);
+                    }
+                });
+            }
+        });
+    }
+
+    private List<RunBackfill> findRunsWithoutTiers() {
+        List<RunBackfill> runs = new ArrayList<>();
+        for (Project project : mMetaDataManager.getProjects(Integer.MAX_VALUE, true)) {
+            for (Experiment experiment : mMetaDataManager.getExperimentsForProject(project,
+                    true)) {
+                for (String runId : mMetaDataManager.getExperimentRunIds(
+                        experiment.getExperimentId(), true)) {
+                    ExperimentRun run = ExperimentRun.fromLabels(mMetaDataManager.getRun(runId),
+                            mMetaDataManager.getLabelsWithStartId(runId));
+                    if (!run.isValidRun()) {
+                        continue;
+                    }
+                    for (String sensorId : run.getSensorTags()) {
+                        if (!ZoomPresenter.hasRequiredStats(
+                                mMetaDataManager.getStats(runId, sensorId))) {
+                            runs.add(new RunBackfill(sensorId, runId,
+                                    Range.closed(run.getOriginalFirstTimestamp(),
+                                            run.getOriginalLastTimestamp()),
+                                    Range.closed(run.getFirstTimestamp(),
+                                            run.getLastTimestamp())));
+                        }
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    private void scheduleStep(long delayMillis) {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mDataController.isRecording()) {
+                    scheduleStep(RECORDING_RETRY_DELAY_MILLIS);
+                    return;
+                }
+                mSensorDataThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        step();
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // On the sensor data thread
+    private void step() {
+        final RunBackfill run = mPending.peek();
+        if (run == null) {
+            mScheduler.shutdown();
+            return;
+        }
+        try {
+            if (!run.step(mSensorDatabase, READINGS_PER_STEP)) {
+                scheduleStep(STEP_DELAY_MILLIS);
+                return;
+            }
+            run.writeTiers(mSensorDatabase);
+            run.invalidateTiers(mReadingCache);
+        } catch (Exception e) {
+            // Leave it for next time, rather than trying it again and again.
+            Log.e(TAG, "Could not backfill zoom tiers for run " + run.getRunId(), e);
+            mPending.remove();
+            scheduleStep(STEP_DELAY_MILLIS);
+            return;
+        }
+        mPending.remove();
+        mMetaDataThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMetaDataManager.setStats(run.getRunId(), run.getSensorId(), run.getStats());
+                mSensorDataThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCompleted++;
+                        reportProgress();
+                        scheduleStep(STEP_DELAY_MILLIS);
+                    }
+                });
+            }
+        });
+    }
+
+    private void reportProgress() {
+        final int completed = mCompleted;
+        final int total = mTotal;
+        mUiThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(completed, total);
+            }
+        });
+    }
+
+    /**
+     * Reads the tier-0 readings of one sensor in one run, a window at a time, and computes the
+     * tiers and stats that would have been recorded with them.
+     */
+    @VisibleForTesting
+    static class RunBackfill {
+        private final String mSensorId;
+        private final String mRunId;
+        private final Range<Long> mTimes;
+        private final Range<Long> mCroppedTimes;
+        private final long mLastTimestamp;
+        private Range<Long> mRemainingTimes;
+        private int mReadingCount = 0;
+        private int mTierCount;
+        private final ZoomRecorder mZoomRecorder;
+        private final SummaryRecorder mSummaryRecorder;
+        private final StatsAccumulator mStatsAccumulator = new StatsAccumulator();
+        private final ScalarReadingBuffer mTiers;
+        private final List<Pair<Integer, ScalarAggregate>> mSummaries = new ArrayList<>();
+
+        // Collects what the zoom and summary recorders would have written while recording
+        private final RecordingDataController mCollector = new RecordingDataController() {
+            @Override
+            public void addScalarReading(String sensorId, int resolutionTier,
+                    long timestampMillis, double value) {
+                mTiers.add(resolutionTier, timestampMillis, value);
+            }
+
+            @Override
+            public void addScalarReadings(ScalarReadingBuffer readings) {
+                mTiers.addAll(readings);
+            }
+
+            @Override
+            public void addScalarSummary(String sensorId, int level, ScalarAggregate summary) {
+                mSummaries.add(new Pair<>(level, summary));
+            }
+
+            @Override
+            public void flushScalarReadings(String sensorId) {
+            }
+
+            @Override
+            public void setCurrentRun(String sensorId, String runId) {
+            }
+
+            @Override
+            public void setStats(String runId, String sensorId, RunStats runStats,
+                    MaybeConsumer<Success> onSuccess) {
+            }
+
+            @Override
+            public void setDataErrorListenerForSensor(String sensorId,
+                    FailureListener listener) {
+            }
+
+            @Override
+            public void clearDataErrorListenerForSensor(String sensorId) {
+            }
+        };
+
+        // The readings of the current step, copied out of the database together
+        private long[] mTimestamps = new long[0];
+        private double[] mValues = new double[0];
+
+        /**
+         * @param times        the timestamps of every reading in the run
+         * @param croppedTimes the timestamps that the run's stats should cover
+         */
+        RunBackfill(String sensorId, String runId, Range<Long> times, Range<Long> croppedTimes) {
+            mSensorId = sensorId;
+            mRunId = runId;
+            mTimes = times;
+            mCroppedTimes = croppedTimes;
+            mLastTimestamp = times.upperEndpoint();
+            mRemainingTimes = times;
+            mZoomRecorder = new ZoomRecorder(sensorId,
+                    ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS * 2, 1);
+            mSummaryRecorder = new SummaryRecorder(sensorId);
+            mTiers = new ScalarReadingBuffer(sensorId, runId);
+        }
+
+        public String getSensorId() {
+            return mSensorId;
+        }
+
+        public String getRunId() {
+            return mRunId;
+        }
+
+        /**
+         * Reads up to {@code maxReadings} more readings.
+         *
+         * @return true once every reading has been read.
+         */
+        public boolean step(SensorDatabase db, int maxReadings) {
+            ScalarReadingList readings = db.getScalarReadings(mSensorId,
+                    TimeRange.oldest(mRemainingTimes), 0, maxReadings);
+            int size = readings.size();
+            if (mTimestamps.length < size) {
+                mTimestamps = new long[size];
+                mValues = new double[size];
+            }
+            addReadings(readings.copyTo(mTimestamps, mValues, 0));
+            if (size < maxReadings) {
+                // As in ScalarSensor, count the tiers before the last partial windows are
+                // flushed.
+                mTierCount = mZoomRecorder.countTiers();
+                mZoomRecorder.flushAllTiers(mCollector);
+                mSummaryRecorder.flushAllLevels(mCollector);
+                return true;
+            }
+            return false;
+        }
+
+        private void addReadings(int count) {
+            mZoomRecorder.addData(mTimestamps, mValues, 0, count, mCollector);
+            for (int i = 0; i < count; i++) {
+                mSummaryRecorder.addData(mTimestamps[i], mValues[i], mCollector);
+            }
+
+            // The readings are in order, so the ones that the stats cover are all together.
+            int start = 0;
+            while (start < count && !mCroppedTimes.contains(mTimestamps[start])) {
+                start++;
+            }
+            int end = start;
+            while (end < count && mCroppedTimes.contains(mTimestamps[end])) {
+                end++;
+            }
+            mStatsAccumulator.updateRecordingStreamStats(mTimestamps, mValues, start, end - start);
+            mReadingCount += end - start;
+
+            if (count > 0) {
+                mRemainingTimes = Range.openClosed(mTimestamps[count - 1], mLastTimestamp);
+            }
+        }
+
+        /**
+         * Stores the tiers and summaries computed by {@link #step}, once it has returned true, in
+         * place of any that an earlier, interrupted backfill of the run stored.
+         */
+        public void writeTiers(SensorDatabase db) {
+            db.deleteZoomTiers(mSensorId, TimeRange.oldest(mTimes));
+            db.addScalarReadings(mTiers);
+            for (Pair<Integer, ScalarAggregate> summary : mSummaries) {
+                db.addScalarSummary(mSensorId, summary.first, summary.second);
+            }
+        }
+
+        /**
+         * Drops any cached readings that {@link #writeTiers} has made out of date, including any
+         * tiers that it replaced.
+         */
+        public void invalidateTiers(ScalarBlockCache cache) {
+            cache.invalidate(mSensorId, mTimes.lowerEndpoint(), mTimes.upperEndpoint());
+        }
+
+        public RunStats getStats() {
+            RunStats runStats;
+            if (mReadingCount > 0) {
+                runStats = mStatsAccumulator.makeSaveableStats();
+            } else {
+                // Nothing to show, but don't look at this run again.
+                runStats = new RunStats();
+                runStats.putStat(StatsAccumulator.KEY_NUM_DATA_POINTS, 0);
+                runStats.putStat(StatsAccumulator.KEY_TOTAL_DURATION, 0);
+            }
+            ZoomRecorder.putTierStats(runStats, mTierCount,
+                    ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS, mZoomRecorder.getAlgorithm());
+            return runStats;
+        }
+    }
+}
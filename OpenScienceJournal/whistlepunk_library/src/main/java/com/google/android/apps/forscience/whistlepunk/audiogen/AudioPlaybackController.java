@@ -17,20 +17,17 @@
 package com.google.android.apps.forscience.whistlepunk.audiogen;
 
 import android.os.Handler;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.RunReviewOverlay;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartController;
-import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.Range;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class AudioPlaybackController {
 
     public interface AudioPlaybackListener {
@@ -61,9 +58,13 @@ public class AudioPlaybackController {
         mAudioPlaybackListener = listener;
     }
 
+    /**
+     * @param resolutionTier the tier to play: 0, unless the run's raw readings have been
+     *                       compacted away
+     */
     public void startPlayback(ChartController chartController,
             final DataController dataController, long firstTimestamp, long lastTimestamp,
-            long xMinToLoad, final String sensorId) {
+            long xMinToLoad, final String sensorId, final int resolutionTier) {
         if (!chartController.hasDrawnChart() || mPlaybackStatus != PLAYBACK_STATUS_NOT_PLAYING) {
             return;
         }
@@ -71,7 +72,7 @@ public class AudioPlaybackController {
         final double yMin = chartController.getRenderedYMin();
         final double yMax = chartController.getRenderedYMax();
         final long xMax = lastTimestamp;
-        final List<ChartData.DataPoint> audioData = new ArrayList<>();
+        final ReadingQueue audioData = new ReadingQueue();
 
         if (xMinToLoad == RunReviewOverlay.NO_TIMESTAMP_SELECTED) {
             xMinToLoad = firstTimestamp;
@@ -96,26 +97,27 @@ public class AudioPlaybackController {
                     return;
                 }
 
-                // Every time we play a data point, we remove it from the list.
-                ChartData.DataPoint point = audioData.remove(0);
-                long timestamp = point.getX();
+                // Every time we play a data point, we remove it from the queue.
+                long timestamp = audioData.getFirstTimestamp();
+                double value = audioData.getFirstValue();
+                audioData.removeFirst();
 
                 // Load more data when needed, i.e. when we are within a given duration away from
                 // the last loaded timestamp, and we aren't fully loaded yet.
                 long lastTimestamp = audioData.size() == 0 ? timestamp :
-                        audioData.get(audioData.size() - 1).getX();
+                        audioData.getLastTimestamp();
                 if (timestamp + DURATION_MS_PER_AUDIO_PLAYBACK_LOAD / 2 > lastTimestamp &&
                         !mFullyLoaded) {
                     long xMaxToLoad =
                             Math.min(lastTimestamp + DURATION_MS_PER_AUDIO_PLAYBACK_LOAD, xMax);
                     mFullyLoaded = xMaxToLoad == xMax;
-                    dataController.getScalarReadings(sensorId, /* tier 0 */ 0,
+                    dataController.getScalarReadings(sensorId, resolutionTier,
                             TimeRange.oldest(Range.openClosed(lastTimestamp, xMaxToLoad)),
                             DATAPOINTS_PER_AUDIO_PLAYBACK_LOAD,
                             new MaybeConsumer<ScalarReadingList>() {
                                 @Override
                                 public void success(ScalarReadingList list) {
-                                    audioData.addAll(list.asDataPoints());
+                                    audioData.addAll(list);
                                 }
 
                                 @Override
@@ -128,7 +130,7 @@ public class AudioPlaybackController {
 
                 // Now play the tone, and get set up for the next callback, if one is needed.
                 try {
-                    mAudioGenerator.addData(timestamp, point.getY(), yMin, yMax);
+                    mAudioGenerator.addData(timestamp, value, yMin, yMax);
                     mAudioPlaybackListener.onTimestampUpdated(timestamp);
                 } finally {
                     // If this is the second to last point, some special handling
@@ -138,7 +140,7 @@ public class AudioPlaybackController {
                         // next point has elapsed.
                         // mPlaybackIndex is now the index of the next point.
                         mHandler.postDelayed(mPlaybackRunnable,
-                                audioData.get(0).getX() - timestamp);
+                                audioData.getFirstTimestamp() - timestamp);
                     } else {
                         // The last note gets some duration.
                         mHandler.postDelayed(mPlaybackRunnable, LAST_TONE_DURATION_MS);
@@ -148,12 +150,12 @@ public class AudioPlaybackController {
         };
 
         // Load the first set of scalar readings, and start playing as soon as they are loaded.
-        dataController.getScalarReadings(sensorId, /* tier 0 */ 0,
+        dataController.getScalarReadings(sensorId, resolutionTier,
                 TimeRange.oldest(Range.closed(xMinToLoad, xMaxToLoad)),
                 DATAPOINTS_PER_AUDIO_PLAYBACK_LOAD, new MaybeConsumer<ScalarReadingList>() {
                     @Override
                     public void success(ScalarReadingList list) {
-                        audioData.addAll(list.asDataPoints());
+                        audioData.addAll(list);
                         mAudioGenerator.startPlaying();
                         mPlaybackRunnable.run();
                         mPlaybackStatus = PLAYBACK_STATUS_PLAYING;
@@ -193,4 +195,58 @@ public class AudioPlaybackController {
     public void setSonificationType(String sonificationType) {
         mAudioGenerator.setSonificationType(sonificationType);
     }
+
+    /**
+     * A first-in, first-out queue of the readings waiting to be played.  Readings are kept in
+     * primitive arrays, so loading more of them doesn't allocate an object per reading.
+     */
+    @VisibleForTesting
+    static class ReadingQueue {
+        private long[] mTimestamps = new long[DATAPOINTS_PER_AUDIO_PLAYBACK_LOAD];
+        private double[] mValues = new double[DATAPOINTS_PER_AUDIO_PLAYBACK_LOAD];
+        private int mStart = 0;
+        private int mEnd = 0;
+
+        public void addAll(ScalarReadingList list) {
+            int adding = list.size();
+            if (mEnd + adding > mTimestamps.length) {
+                // Move the unplayed readings back to the start, growing the arrays if needed.
+                int size = size();
+                long[] timestamps = mTimestamps;
+                double[] values = mValues;
+                if (size + adding > mTimestamps.length) {
+                    int capacity = Math.max(mTimestamps.length * 2, size + adding);
+                    timestamps = new long[capacity];
+                    values = new double[capacity];
+                }
+                System.arraycopy(mTimestamps, mStart, timestamps, 0, size);
+                System.arraycopy(mValues, mStart, values, 0, size);
+                mTimestamps = timestamps;
+                mValues = values;
+                mStart = 0;
+                mEnd = size;
+            }
+            mEnd += list.copyTo(mTimestamps, mValues, mEnd);
+        }
+
+        public int size() {
+            return mEnd - mStart;
+        }
+
+        public long getFirstTimestamp() {
+            return mTimestamps[mStart];
+        }
+
+        public double getFirstValue() {
+            return mValues[mStart];
+        }
+
+        public long getLastTimestamp() {
+            return mTimestamps[mEnd - 1];
+        }
+
+        public void removeFirst() {
+            mStart++;
+        }
+    }
 }
@@ -25,11 +25,11 @@ import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.LoggingConsumer;
 import com.google.android.apps.forscience.whistlepunk.StatsAccumulator;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.Range;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -39,7 +39,6 @@ import java.util.concurrent.ThreadFactory;
  */
 public class CropHelper {
     public static final String TAG = "CropHelper";
-    private static final int DATAPOINTS_PER_LOAD = 500;
 
     public static class CropLabels {
         public ApplicationLabel cropStartLabel;
@@ -187,64 +186,43 @@ public class CropHelper {
     private class StatsAdjuster {
         private final String mSensorId;
         private StatsAccumulator mStatsAccumulator;
-        StreamConsumer mStreamConsumer;
 
         public StatsAdjuster(String sensorId) {
             mStatsAccumulator = new StatsAccumulator();
             mSensorId = sensorId;
-            mStreamConsumer = new StreamConsumer() {
-                @Override
-                public void addData(long timestampMillis, double value) {
-                    mStatsAccumulator.updateRecordingStreamStats(timestampMillis, value);
-                }
-            };
         }
 
-        public void recalculateStats(DataController dc, ExperimentRun run) {
+        public void recalculateStats(final DataController dc, final ExperimentRun run) {
             TimeRange range = TimeRange.oldest(Range.closed(run.getFirstTimestamp() - 1,
                     run.getLastTimestamp()));
-            addReadingsToStats(dc, run, range);
-        }
-
-        private void addReadingsToStats(final DataController dc, final ExperimentRun run,
-                final TimeRange range) {
-            dc.getScalarReadings(mSensorId, /* tier 0 */ 0, range,
-                    DATAPOINTS_PER_LOAD, new MaybeConsumer<ScalarReadingList>() {
-                        @Override
-                        public void success(ScalarReadingList list) {
-                            list.deliver(mStreamConsumer);
-                            if (list.size() == 0 || list.size() < DATAPOINTS_PER_LOAD ||
-                                    mStatsAccumulator.getLatestTimestamp() >=
-                                            run.getLastTimestamp()) {
-                                // Done! Save back to the database.
-                                // Note that we only need to save the stats we have changed, because
-                                // each stat is stored seperately. We do not need to update stats
-                                // like zoom tiers and zoom levels.
-                                RunStats runStats = mStatsAccumulator.makeSaveableStats();
-                                runStats.putStat(StatsAccumulator.KEY_STATUS,
-                                        StatsAccumulator.STATUS_VALID);
-                                dc.updateRunStats(run.getRunId(), mSensorId, runStats,
-                                        new LoggingConsumer<Success>(TAG, "update stats") {
-                                            @Override
-                                            public void success(Success value) {
-                                                // TODO: Use a Broadcast to tell RunReviewFragment
-                                                // or ExperimentDetailsFragment or anyone who uses
-                                                // stats that the stats are updated!
-                                            }
-                                        });
-                            } else {
-                                TimeRange nextRange = TimeRange.oldest(
-                                        Range.openClosed(mStatsAccumulator.getLatestTimestamp(),
-                                                run.getLastTimestamp()));
-                                addReadingsToStats(dc, run, nextRange);
-                            }
-                        }
+            // A single bucket covering the whole cropped run, which the database can build from
+            // stored summaries rather than by reading every data point.
+            dc.getAggregates(mSensorId, range, 1, new MaybeConsumer<List<ScalarAggregate>>() {
+                @Override
+                public void success(List<ScalarAggregate> aggregates) {
+                    mStatsAccumulator.setFromAggregate(aggregates.get(0));
+                    // Done! Save back to the database.
+                    // Note that we only need to save the stats we have changed, because
+                    // each stat is stored seperately. We do not need to update stats
+                    // like zoom tiers and zoom levels.
+                    RunStats runStats = mStatsAccumulator.makeSaveableStats();
+                    runStats.putStat(StatsAccumulator.KEY_STATUS, StatsAccumulator.STATUS_VALID);
+                    dc.updateRunStats(run.getRunId(), mSensorId, runStats,
+                            new LoggingConsumer<Success>(TAG, "update stats") {
+                                @Override
+                                public void success(Success value) {
+                                    // TODO: Use a Broadcast to tell RunReviewFragment
+                                    // or ExperimentDetailsFragment or anyone who uses
+                                    // stats that the stats are updated!
+                                }
+                            });
+                }
 
-                        @Override
-                        public void fail(Exception e) {
-                            Log.e(TAG, "Error loading data to adjust stats after crop");
-                        }
-                    });
+                @Override
+                public void fail(Exception e) {
+                    Log.e(TAG, "Error loading data to adjust stats after crop");
+                }
+            });
         }
     }
 
@@ -26,8 +26,11 @@ import android.util.Log;
 
 import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.whistlepunk.DataController;
+import com.google.android.apps.forscience.whistlepunk.ScalarReadingPager;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentRun;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.Range;
@@ -58,6 +61,7 @@ public class RunReviewExporter implements Handler.Callback {
     private HandlerThread mHandlerThread;
     private Handler mHandler;
     private String mSensorTag;
+    private ScalarReadingPager mPager;
 
     public interface Listener {
         /**
@@ -161,8 +165,22 @@ public class RunReviewExporter implements Handler.Callback {
 
         mListener.onExportStarted();
 
-        Range<Long> times = Range.closed(mRun.getFirstTimestamp(), mRun.getLastTimestamp());
-        getReadings(TimeRange.oldest(times));
+        final Range<Long> times = Range.closed(mRun.getFirstTimestamp(),
+                mRun.getLastTimestamp());
+        mDataController.getStats(mRun.getRunId(), mSensorTag, new MaybeConsumer<RunStats>() {
+            @Override
+            public void success(RunStats stats) {
+                // If the raw readings have been compacted away, export the lowest tier left.
+                mPager = new ScalarReadingPager(mDataController, mSensorTag,
+                        ZoomRecorder.getLowestTier(stats), TimeRange.oldest(times), MAX_RECORDS);
+                getNextReadings();
+            }
+
+            @Override
+            public void fail(Exception e) {
+                mListener.onExportError(e);
+            }
+        });
     }
 
     @NonNull
@@ -170,19 +188,18 @@ public class RunReviewExporter implements Handler.Callback {
         return new File(context.getFilesDir().getPath() + "/exported_run_files");
     }
 
-    private void getReadings(TimeRange range) {
-        mDataController.getScalarReadings(mSensorTag, 0, range, MAX_RECORDS,
-                new MaybeConsumer<ScalarReadingList>() {
-                    @Override
-                    public void success(ScalarReadingList value) {
-                        addReadings(value);
-                    }
+    private void getNextReadings() {
+        mPager.loadNextPage(new MaybeConsumer<ScalarReadingList>() {
+            @Override
+            public void success(ScalarReadingList value) {
+                addReadings(value);
+            }
 
-                    @Override
-                    public void fail(Exception e) {
-                        mListener.onExportError(e);
-                    }
-                });
+            @Override
+            public void fail(Exception e) {
+                mListener.onExportError(e);
+            }
+        });
     }
 
     /**
@@ -263,11 +280,10 @@ public class RunReviewExporter implements Handler.Callback {
             final long end = mRun.getLastTimestamp();
             int progress = (int) (((mLastTimeStampWritten - start) / (double) (end - start)) * 100);
             mListener.onExportProgress(progress);
-            if (list.size() == 0 || list.size() < MAX_RECORDS || mLastTimeStampWritten >= end) {
+            if (mPager.isFinished()) {
                 endExport();
             } else {
-                Range<Long> times = Range.openClosed(mLastTimeStampWritten, end);
-                getReadings(TimeRange.oldest(times));
+                getNextReadings();
             }
             return true;
         }
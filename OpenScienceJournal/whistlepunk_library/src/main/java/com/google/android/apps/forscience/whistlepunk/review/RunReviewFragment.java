@@ -91,6 +91,7 @@ import com.google.android.apps.forscience.whistlepunk.scalarchart.GraphOptionsCo
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ScalarDisplayOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.NewOptionsStorage;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
 
 import java.text.NumberFormat;
 import java.util.Collections;
@@ -345,7 +346,7 @@ public class RunReviewFragment extends Fragment implements AddNoteDialog.AddNote
                                     mExperimentRun.getLastTimestamp(),
                                     mRunReviewOverlay.getTimestamp(),
                                     mExperimentRun.getSensorLayouts().get(mSelectedSensorIndex)
-                                            .sensorId);
+                                            .sensorId, getLowestStoredTier());
                         }
                     }
                 });
@@ -375,7 +376,7 @@ public class RunReviewFragment extends Fragment implements AddNoteDialog.AddNote
                             mExperimentRun.getLastTimestamp(),
                             mRunReviewOverlay.getTimestamp(),
                             mExperimentRun.getSensorLayouts().get(mSelectedSensorIndex)
-                                    .sensorId);
+                                    .sensorId, getLowestStoredTier());
                 }
             }
         });
@@ -1241,6 +1242,13 @@ public class RunReviewFragment extends Fragment implements AddNoteDialog.AddNote
         // RunReview does not have audio preview.
     }
 
+    /**
+     * @return the lowest tier of the selected sensor's readings that hasn't been compacted away
+     */
+    private int getLowestStoredTier() {
+        return mCurrentSensorStats == null ? 0 : ZoomRecorder.getLowestTier(mCurrentSensorStats);
+    }
+
     private DataController getDataController() {
         return AppSingleton.getInstance(getActivity()).getDataController();
     }
@@ -28,8 +28,11 @@ import com.google.common.base.Preconditions;
  * available and the ideal number of data points to display
  */
 public class ZoomPresenter {
-    // Experimentally, this seems to produce decent results on Nexus 5x.  We could adjust.
-    private static final int IDEAL_NUMBER_OF_DISPLAYED_DATAPOINTS = 500;
+    /**
+     * Experimentally, this seems to produce decent results on Nexus 5x.  We could adjust.
+     * Adaptive zoom recorders also use it to decide how many tiers a run needs.
+     */
+    public static final int IDEAL_NUMBER_OF_DISPLAYED_DATAPOINTS = 500;
 
     /**
      * How far does our ideal zoom level need to be from the current zoom level before we change?
@@ -83,7 +86,10 @@ public class ZoomPresenter {
         double idealTier = computeIdealTier(idealNumberOfDisplayedDatapoints, runStats,
                 loadedRange);
 
-        if (Math.abs(idealTier - currentTier) < THRESHOLD_TO_CHANGE_ZOOM_LEVEL) {
+        // Tiers below this one have been deleted.
+        int lowestTier = ZoomRecorder.getLowestTier(runStats);
+        if (Math.abs(idealTier - currentTier) < THRESHOLD_TO_CHANGE_ZOOM_LEVEL
+                && currentTier >= lowestTier) {
             return currentTier;
         }
 
@@ -95,6 +101,9 @@ public class ZoomPresenter {
         if (actualTier > maxTier) {
             actualTier = maxTier;
         }
+        if (actualTier < lowestTier) {
+            actualTier = lowestTier;
+        }
 
         return actualTier;
     }
@@ -115,7 +124,7 @@ public class ZoomPresenter {
                 zoomLevelBetweenTiers);
     }
 
-    private static boolean hasRequiredStats(RunStats stats) {
+    public static boolean hasRequiredStats(RunStats stats) {
         return stats.hasStat(StatsAccumulator.KEY_TOTAL_DURATION) && stats.hasStat(
                 StatsAccumulator.KEY_NUM_DATA_POINTS) && stats.hasStat(
                 ZoomRecorder.STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS) && stats.hasStat(
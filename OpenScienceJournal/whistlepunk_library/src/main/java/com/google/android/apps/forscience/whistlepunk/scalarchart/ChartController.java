@@ -40,6 +40,7 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.wireapi.RecordingMetadata;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -109,7 +110,11 @@ public class ChartController {
     private long mMaxLoadedX;
     private boolean mNeedsForwardLoad = false;
     private List<Long> mCurrentLoadIds = new ArrayList<>();
+    // Scratch space for copying loaded readings into mChartData, reused between loads.
+    private long[] mLoadedTimestamps = new long[0];
+    private double[] mLoadedValues = new double[0];
     private final Clock mUptimeClock;
+    private final PanPrefetcher mPanPrefetcher;
     private List<ChartDataLoadedCallback> mChartDataLoadedCallbacks = new ArrayList<>();
 
     public ChartController(ChartOptions.ChartPlacementType type,
@@ -144,6 +149,7 @@ public class ChartController {
         mDataFailureListener = dataFailureListener;
         mDefaultGraphRange = ExternalAxisController.DEFAULT_GRAPH_RANGE_IN_MILLIS;
         mDataLoadBuffer = dataLoadBuffer;
+        mPanPrefetcher = new PanPrefetcher(uptimeClock, dataFailureListener);
     }
 
     public void setDefaultGraphRange(long defaultGraphRange) {
@@ -201,10 +207,21 @@ public class ChartController {
         mChartOptions.setPinnedToNow(false);
     }
 
-    private void addOrderedGroupOfPoints(List<ChartData.DataPoint> points, long requestId) {
-        if (mCurrentLoadIds.contains(requestId)) {
-            mChartData.addOrderedGroupOfPoints(points);
+    private void addOrderedGroupOfPoints(ScalarReadingList observations, long requestId) {
+        if (!mCurrentLoadIds.contains(requestId)) {
+            return;
+        }
+        addOrderedGroupOfPoints(observations);
+    }
+
+    private void addOrderedGroupOfPoints(ScalarReadingList observations) {
+        int size = observations.size();
+        if (mLoadedTimestamps.length < size) {
+            mLoadedTimestamps = new long[size];
+            mLoadedValues = new double[size];
         }
+        int count = observations.copyTo(mLoadedTimestamps, mLoadedValues, 0);
+        mChartData.addOrderedGroupOfPoints(mLoadedTimestamps, mLoadedValues, count);
     }
 
     // Clears just the line data, but does not reset the options. This is useful if we need
@@ -212,6 +229,7 @@ public class ChartController {
     private void clearLineData() {
         mChartData.clear();
         mCurrentLoadIds.clear();
+        mPanPrefetcher.clear();
         if (mChartView != null) {
             mChartView.clear();
         }
@@ -220,6 +238,7 @@ public class ChartController {
     public void clearData() {
         mChartData.clear();
         mCurrentLoadIds.clear();
+        mPanPrefetcher.clear();
         mChartOptions.reset();
         if (mChartView != null) {
             mChartView.clear();
@@ -477,7 +496,7 @@ public class ChartController {
         GraphPopulator graphPopulator = new GraphPopulator(new GraphPopulator.ObservationDisplay() {
             @Override
             public void addRange(ScalarReadingList observations, long requestId) {
-                addOrderedGroupOfPoints(observations.asDataPoints(), requestId);
+                addOrderedGroupOfPoints(observations, requestId);
             }
 
             @Override
@@ -589,6 +608,12 @@ public class ChartController {
         setXAxis(xMin, xMax);
 
         if (isRunReview) {
+            if (mSensorId != null && mMinLoadedX != NOTHING_LOADED && mMinLoadedX <= mMaxLoadedX) {
+                mPanPrefetcher.onXAxisChanged(xMin, xMax, Range.closed(mMinLoadedX, mMaxLoadedX),
+                        Range.closed(mChartOptions.getRecordingStartTime(),
+                                mChartOptions.getRecordingEndTime()),
+                        mSensorId, mZoomPresenter.getCurrentTier(), dataController);
+            }
             mChartData.throwAwayBefore(mMinLoadedX);
             mChartData.throwAwayAfter(mMaxLoadedX);
         } else {
@@ -628,10 +653,18 @@ public class ChartController {
     public void loadReadings(DataController dataController, final long minToLoad,
             final long maxToLoad) {
         int currentTier = mZoomPresenter == null ? 0 : mZoomPresenter.getCurrentTier();
+        ScalarReadingList prefetched = mSensorId == null ? null
+                : mPanPrefetcher.take(mSensorId, currentTier, minToLoad, maxToLoad);
+        if (prefetched != null) {
+            addOrderedGroupOfPoints(prefetched);
+            callChartDataStartLoadingCallbacks();
+            onLoadFinished(minToLoad, maxToLoad);
+            return;
+        }
         GraphPopulator graphPopulator = new GraphPopulator(new GraphPopulator.ObservationDisplay() {
             @Override
             public void addRange(ScalarReadingList observations, long requestId) {
-                addOrderedGroupOfPoints(observations.asDataPoints(), requestId);
+                addOrderedGroupOfPoints(observations, requestId);
             }
 
             @Override
@@ -639,12 +672,7 @@ public class ChartController {
                 if (mCurrentLoadIds.contains(requestId)) {
                     mCurrentLoadIds.remove(requestId);
                 }
-                if (mCurrentLoadIds.size() == 0) {
-                    refreshLabels();
-                }
-                setShowProgress(false);
-                refreshChartView();
-                callChartDataLoadedCallbacks(minToLoad, maxToLoad);
+                onLoadFinished(minToLoad, maxToLoad);
             }
         }, mUptimeClock);
         mCurrentLoadIds.add(graphPopulator.getRequestId());
@@ -654,6 +682,15 @@ public class ChartController {
         callChartDataStartLoadingCallbacks();
     }
 
+    private void onLoadFinished(long minLoaded, long maxLoaded) {
+        if (mCurrentLoadIds.size() == 0) {
+            refreshLabels();
+        }
+        setShowProgress(false);
+        refreshChartView();
+        callChartDataLoadedCallbacks(minLoaded, maxLoaded);
+    }
+
     public void addChartDataLoadedCallback(ChartDataLoadedCallback callback) {
         mChartDataLoadedCallbacks.add(callback);
     }
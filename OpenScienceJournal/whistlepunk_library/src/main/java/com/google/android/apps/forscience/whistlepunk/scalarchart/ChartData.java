@@ -119,6 +119,28 @@ public class ChartData {
         Collections.sort(mData, DATA_POINT_COMPARATOR);
     }
 
+    /**
+     * Adds the first {@code count} points from the given arrays, which must be ordered by
+     * timestamp, oldest first.  If the new points all come before or after the existing data, they
+     * are spliced in without re-sorting.
+     */
+    public void addOrderedGroupOfPoints(long[] xs, double[] ys, int count) {
+        if (count == 0) {
+            return;
+        }
+        boolean ordered = xs[0] <= xs[count - 1];
+        boolean after = ordered && (mData.isEmpty() || xs[0] >= getXMax());
+        boolean before = ordered && !after && xs[count - 1] <= getXMin();
+        for (int i = 0; i < count; i++) {
+            mData.add(new DataPoint(xs[i], ys[i]));
+        }
+        if (before) {
+            Collections.rotate(mData, count);
+        } else if (!after) {
+            Collections.sort(mData, DATA_POINT_COMPARATOR);
+        }
+    }
+
     public List<DataPoint> getPointsInRangeToEnd(long xMin) {
         int startIndex = approximateBinarySearch(xMin, 0, true);
         return mData.subList(startIndex, mData.size());
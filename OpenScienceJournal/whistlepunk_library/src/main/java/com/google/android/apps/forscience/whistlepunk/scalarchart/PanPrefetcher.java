@@ -0,0 +1,288 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.DataController;
+import com.google.android.apps.forscience.whistlepunk.review.ZoomPresenter;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ArrayScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Watches how fast, and which way, a run review chart is being panned, and loads the next
+ * screenful of readings beyond what the chart has loaded before it scrolls into view.  The chart
+ * then takes them from here (see {@link #take}) instead of querying for them.
+ *
+ * Call only on the UI thread.
+ */
+class PanPrefetcher {
+    // Prefetch once the edge of the screen is expected to reach the edge of the loaded data
+    // within this long, at the current speed
+    private static final long LOOKAHEAD_MILLIS = 500;
+
+    // Changes of the x axis further apart than this are treated as separate gestures
+    private static final long MAX_PAN_SAMPLE_GAP_MILLIS = 200;
+
+    // How much each new sample counts towards the pan velocity, which smooths out uneven frames
+    private static final double VELOCITY_SMOOTHING = 0.5;
+
+    // Prefetched ranges to keep: typically, one in each direction
+    private static final int MAX_PREFETCHED = 2;
+
+    // The most readings to prefetch at once.  ZoomPresenter picks a tier that puts about this
+    // many on a screen, give or take; if there are more, only those nearest the loaded data are
+    // prefetched, and the rest is loaded as usual.
+    private static final int MAX_PREFETCHED_READINGS =
+            2 * ZoomPresenter.IDEAL_NUMBER_OF_DISPLAYED_DATAPOINTS;
+
+    private static final long NO_SAMPLE = -1;
+
+    private final Clock mUptimeClock;
+    private final FailureListener mFailureListener;
+    private final List<Prefetched> mPrefetched = new ArrayList<>();
+
+    private String mSensorId;
+    private int mTier;
+    private long mLastXMin;
+    private long mLastRange;
+    private long mLastSampleTime = NO_SAMPLE;
+
+    // In x axis millis per uptime millis; positive when moving towards later readings
+    private double mVelocity = 0;
+
+    private boolean mRequestInFlight = false;
+
+    // Bumped by clear, so that a prefetch which was in flight is ignored
+    private int mGeneration = 0;
+
+    PanPrefetcher(Clock uptimeClock, FailureListener failureListener) {
+        mUptimeClock = uptimeClock;
+        mFailureListener = failureListener;
+    }
+
+    /**
+     * Call whenever the visible range of a run review chart changes, once any loads for it have
+     * been started.  May start loading the next screenful in the direction the chart is moving.
+     *
+     * @param loaded   the range that has been loaded, or is being loaded, into the chart
+     * @param recorded the range of the run, beyond which there is nothing to load
+     * @param tier     the tier that the chart is loading readings from
+     */
+    public void onXAxisChanged(long xMin, long xMax, Range<Long> loaded, Range<Long> recorded,
+            String sensorId, int tier, DataController dataController) {
+        if (!sensorId.equals(mSensorId) || tier != mTier) {
+            clear();
+            mSensorId = sensorId;
+            mTier = tier;
+        }
+        updateVelocity(xMin, xMax - xMin);
+
+        Range<Long> target = getPrefetchRange(xMin, xMax, loaded, recorded);
+        if (target == null || mRequestInFlight || isPrefetched(target)) {
+            return;
+        }
+        prefetch(target, dataController);
+    }
+
+    private void updateVelocity(long xMin, long range) {
+        long now = mUptimeClock.getNow();
+        long elapsed = now - mLastSampleTime;
+        if (mLastSampleTime != NO_SAMPLE && range == mLastRange && elapsed > 0
+                && elapsed <= MAX_PAN_SAMPLE_GAP_MILLIS) {
+            double sample = (double) (xMin - mLastXMin) / elapsed;
+            mVelocity = mVelocity * (1 - VELOCITY_SMOOTHING) + sample * VELOCITY_SMOOTHING;
+        } else {
+            // A new gesture, or a zoom: start again.
+            mVelocity = 0;
+        }
+        mLastXMin = xMin;
+        mLastRange = range;
+        mLastSampleTime = now;
+    }
+
+    /**
+     * @return the screenful just beyond the loaded data, in the direction of the pan, if the
+     * screen is about to reach it, or else null
+     */
+    private Range<Long> getPrefetchRange(long xMin, long xMax, Range<Long> loaded,
+            Range<Long> recorded) {
+        long range = xMax - xMin;
+        double lookahead = mVelocity * LOOKAHEAD_MILLIS;
+        if (range <= 0) {
+            return null;
+        }
+        if (mVelocity > 0 && xMax + lookahead >= loaded.upperEndpoint()
+                && loaded.upperEndpoint() < recorded.upperEndpoint()) {
+            return Range.closed(loaded.upperEndpoint(),
+                    Math.min(loaded.upperEndpoint() + range, recorded.upperEndpoint()));
+        }
+        if (mVelocity < 0 && xMin + lookahead <= loaded.lowerEndpoint()
+                && loaded.lowerEndpoint() > recorded.lowerEndpoint()) {
+            return Range.closed(Math.max(loaded.lowerEndpoint() - range,
+                    recorded.lowerEndpoint()), loaded.lowerEndpoint());
+        }
+        return null;
+    }
+
+    private boolean isPrefetched(Range<Long> times) {
+        for (Prefetched prefetched : mPrefetched) {
+            if (prefetched.mTimes.encloses(times)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void prefetch(final Range<Long> times, DataController dataController) {
+        mRequestInFlight = true;
+        final int generation = mGeneration;
+        // Read from the end nearest the loaded data, in case there are too many to read them all.
+        final boolean newestFirst = mVelocity < 0;
+        TimeRange range = newestFirst ? TimeRange.newest(times) : TimeRange.oldest(times);
+        dataController.getScalarReadings(mSensorId, mTier, range, MAX_PREFETCHED_READINGS,
+                new MaybeConsumer<ScalarReadingList>() {
+                    @Override
+                    public void success(ScalarReadingList readings) {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mRequestInFlight = false;
+                        Prefetched prefetched = Prefetched.create(times, readings, newestFirst);
+                        if (prefetched == null) {
+                            return;
+                        }
+                        if (mPrefetched.size() == MAX_PREFETCHED) {
+                            mPrefetched.remove(0);
+                        }
+                        mPrefetched.add(prefetched);
+                    }
+
+                    @Override
+                    public void fail(Exception e) {
+                        if (generation == mGeneration) {
+                            mRequestInFlight = false;
+                        }
+                        mFailureListener.fail(e);
+                    }
+                });
+    }
+
+    /**
+     * @return the readings from {@code minTime} to {@code maxTime} inclusive, oldest first, if
+     * they have all been prefetched for this sensor and tier, or else null
+     */
+    public ScalarReadingList take(String sensorId, int tier, long minTime, long maxTime) {
+        if (!sensorId.equals(mSensorId) || tier != mTier) {
+            return null;
+        }
+        Range<Long> times = Range.closed(minTime, maxTime);
+        for (Prefetched prefetched : mPrefetched) {
+            if (prefetched.mTimes.encloses(times)) {
+                return prefetched.getReadings(minTime, maxTime);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets everything prefetched, and ignores any prefetch in flight.  Call when the chart's
+     * data is cleared.
+     */
+    public void clear() {
+        mPrefetched.clear();
+        mRequestInFlight = false;
+        mGeneration++;
+        mLastSampleTime = NO_SAMPLE;
+        mVelocity = 0;
+    }
+
+    private static class Prefetched {
+        final Range<Long> mTimes;
+        final long[] mTimestamps;
+        final double[] mValues;
+
+        private Prefetched(Range<Long> times, long[] timestamps, double[] values) {
+            mTimes = times;
+            mTimestamps = timestamps;
+            mValues = values;
+        }
+
+        /**
+         * @param readings    at most MAX_PREFETCHED_READINGS of the readings in {@code times},
+         *                    already read into memory by the DataController
+         * @param newestFirst whether {@code readings} start from the end of {@code times}
+         * @return the readings, oldest first, and the part of {@code times} that they cover, or
+         * null if they cover none of it
+         */
+        static Prefetched create(Range<Long> times, ScalarReadingList readings,
+                boolean newestFirst) {
+            long[] timestamps = new long[readings.size()];
+            double[] values = new double[readings.size()];
+            int count = readings.copyTo(timestamps, values, 0);
+            if (count < timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count);
+                values = Arrays.copyOf(values, count);
+            }
+            if (newestFirst) {
+                reverse(timestamps, values, count);
+            }
+            if (count < MAX_PREFETCHED_READINGS) {
+                return new Prefetched(times, timestamps, values);
+            }
+            // Cut short: there may be more readings at the last timestamp read.
+            Range<Long> covered = newestFirst
+                    ? Range.openClosed(timestamps[0], times.upperEndpoint())
+                    : Range.closedOpen(times.lowerEndpoint(), timestamps[count - 1]);
+            if (covered.isEmpty()) {
+                return null;
+            }
+            return new Prefetched(covered, timestamps, values);
+        }
+
+        private static void reverse(long[] timestamps, double[] values, int count) {
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                long timestamp = timestamps[i];
+                timestamps[i] = timestamps[j];
+                timestamps[j] = timestamp;
+                double value = values[i];
+                values[i] = values[j];
+                values[j] = value;
+            }
+        }
+
+        ScalarReadingList getReadings(long minTime, long maxTime) {
+            int from = 0;
+            while (from < mTimestamps.length && mTimestamps[from] < minTime) {
+                from++;
+            }
+            int to = from;
+            while (to < mTimestamps.length && mTimestamps[to] <= maxTime) {
+                to++;
+            }
+            return new ArrayScalarReadingList(Arrays.copyOfRange(mTimestamps, from, to),
+                    Arrays.copyOfRange(mValues, from, to), to - from);
+        }
+    }
+}
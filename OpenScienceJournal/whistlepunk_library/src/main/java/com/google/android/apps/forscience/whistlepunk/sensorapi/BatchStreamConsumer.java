@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * A StreamConsumer that can take many data points in one call, such as a whole packet, audio
+ * buffer or page of stored readings, and handle them together rather than one at a time.
+ * Sources that don't know what kind of consumer they have should use
+ * {@link StreamConsumers#addData}.
+ */
+public interface BatchStreamConsumer extends StreamConsumer {
+    /**
+     * {@code count} new values have been seen, in order, starting at {@code offset}.  Has the
+     * same effect as calling {@link #addData(long, double)} with each of them.  The arrays are
+     * not kept, so the caller may reuse them as soon as this returns.  Caveat implementor: this
+     * may be called from any thread.
+     */
+    void addDataBatch(long[] timestampsMillis, double[] values, int offset, int count);
+}
@@ -27,6 +27,13 @@ public class ComposeFilter {
                 double firstValue = first.filterValue(timestamp, value);
                 return second.filterValue(timestamp, firstValue);
             }
+
+            @Override
+            public void filterValues(long[] timestamps, double[] values, int offset,
+                    int count) {
+                first.filterValues(timestamps, values, offset, count);
+                second.filterValues(timestamps, values, offset, count);
+            }
         };
     }
 }
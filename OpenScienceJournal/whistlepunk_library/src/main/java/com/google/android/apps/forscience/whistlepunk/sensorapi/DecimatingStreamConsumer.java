@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Passes on one data point for every {@code factor} that it is given, so that a sensor can be
+ * read faster than its data is stored.
+ *
+ * Simply keeping every {@code factor}th point would let anything faster than the lower rate can
+ * represent alias into what is kept, so the points are low-pass filtered first: each point that
+ * is passed on is a windowed-sinc (Blackman) average of the points around it, with its cutoff at
+ * half the lower rate.  The filter is only evaluated for the points that are passed on, so each
+ * incoming point costs a few multiplications whatever the factor.  Each point passed on has the
+ * timestamp of the point at the middle of its filter, which is where a symmetric filter puts it,
+ * so points come out {@link #TAPS_PER_SIDE} times {@code factor} points late.  This assumes that
+ * points arrive at a roughly steady rate.
+ *
+ * When the points stop, {@link #flush} passes on the points still owed, each filtered over the
+ * points that there are.  Nothing is passed on for the first {@link #TAPS_PER_SIDE} times
+ * {@code factor} points, since there are no points before them to filter with.
+ */
+public class DecimatingStreamConsumer implements StreamConsumer {
+    /**
+     * How many lower-rate periods of points on each side of the middle go into each point passed
+     * on.  More makes a sharper cutoff, but a longer delay.
+     */
+    public static final int TAPS_PER_SIDE = 4;
+
+    private final StreamConsumer mOutput;
+    private final int mFactor;
+    private final double[] mCoefficients;
+
+    // The latest mCoefficients.length points; the next one goes at mNext.
+    private final long[] mTimestamps;
+    private final double[] mValues;
+    private int mNext = 0;
+    private long mCount = 0;
+
+    /**
+     * @param output gets the filtered points, on the thread that they are added on
+     * @param factor how many points are added for each one passed on to {@code output}
+     */
+    public DecimatingStreamConsumer(StreamConsumer output, int factor) {
+        Preconditions.checkArgument(factor >= 1, "factor must be at least 1");
+        mOutput = output;
+        mFactor = factor;
+        mCoefficients = makeCoefficients(factor);
+        mTimestamps = new long[mCoefficients.length];
+        mValues = new double[mCoefficients.length];
+    }
+
+    /**
+     * @return a low-pass filter with its cutoff at {@code 1 / (2 * factor)} cycles per point,
+     * scaled so that a steady value passes through unchanged.
+     */
+    static double[] makeCoefficients(int factor) {
+        int middle = TAPS_PER_SIDE * factor;
+        double[] coefficients = new double[2 * middle + 1];
+        double total = 0;
+        for (int i = 0; i < coefficients.length; i++) {
+            double x = (i - middle) / (double) factor;
+            double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+            double phase = 2 * Math.PI * i / (coefficients.length - 1);
+            double window = 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase);
+            coefficients[i] = sinc * window;
+            total += coefficients[i];
+        }
+        for (int i = 0; i < coefficients.length; i++) {
+            coefficients[i] /= total;
+        }
+        return coefficients;
+    }
+
+    @Override
+    public void addData(long timestampMillis, double value) {
+        mTimestamps[mNext] = timestampMillis;
+        mValues[mNext] = value;
+        mNext = (mNext + 1) % mValues.length;
+        mCount++;
+
+        // Nothing until the filter is full, and then every mFactor points
+        long sinceFull = mCount - mValues.length;
+        if (sinceFull < 0 || sinceFull % mFactor != 0) {
+            return;
+        }
+
+        // mNext is now the oldest point.
+        double total = 0;
+        int i = 0;
+        for (int j = mNext; j < mValues.length; j++) {
+            total += mCoefficients[i++] * mValues[j];
+        }
+        for (int j = 0; j < mNext; j++) {
+            total += mCoefficients[i++] * mValues[j];
+        }
+        int middle = (mNext + mValues.length / 2) % mValues.length;
+        mOutput.addData(mTimestamps[middle], total);
+    }
+
+    /**
+     * Passes on the points whose filters would have reached past the last point added, using only
+     * the coefficients for points that there are, scaled again so that a steady value still passes
+     * through unchanged.  Afterwards, points are taken as the start of a new stream.
+     */
+    public void flush() {
+        int halfWidth = mValues.length / 2;
+        // Points are passed on for the middles at halfWidth + k * mFactor; those at or after
+        // mCount - halfWidth haven't been yet.
+        long firstOwed = Math.max(0, mCount - 2 * halfWidth);
+        long middle = halfWidth + (firstOwed + mFactor - 1) / mFactor * mFactor;
+        for (; middle < mCount; middle += mFactor) {
+            double total = 0;
+            double weight = 0;
+            for (long j = middle - halfWidth; j < mCount; j++) {
+                double coefficient = mCoefficients[(int) (j - middle + halfWidth)];
+                total += coefficient * mValues[(int) (j % mValues.length)];
+                weight += coefficient;
+            }
+            mOutput.addData(mTimestamps[(int) (middle % mValues.length)], total / weight);
+        }
+        mNext = 0;
+        mCount = 0;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * Chooses the data points that represent each window of data points in the next zoom tier up
+ * (see {@link ZoomRecorder}).  Data points arrive one at a time, oldest first, as they are
+ * recorded.
+ *
+ * Implementations keep state, so each tier of each recording needs its own instance
+ * (see {@link #newInstance}).
+ */
+public interface Downsampler {
+    /**
+     * The min and max of each window.  Tiers recorded before the algorithm was stored in the run
+     * stats were made this way.
+     */
+    int ALGORITHM_MIN_MAX = 0;
+
+    /**
+     * The first, min, max and last of each window.
+     */
+    int ALGORITHM_M4 = 1;
+
+    /**
+     * Largest-Triangle-Three-Buckets: one point from each window.
+     */
+    int ALGORITHM_LTTB = 2;
+
+    /**
+     * @return one of the ALGORITHM_ constants, to be stored in the run stats
+     */
+    int getAlgorithm();
+
+    /**
+     * @return how many points each window is reduced to.  The window size should be this times
+     * the zoom level between tiers.
+     */
+    int getPointsPerWindow();
+
+    /**
+     * @return the most points that one call to {@link #endWindow} or {@link #finish} can return
+     */
+    int getMaxPointsPerFlush();
+
+    void addData(long timestampMillis, double value);
+
+    /**
+     * Called once each window is full.  Fills the given arrays with the points chosen so far, in
+     * order of timestamp (except that {@link #ALGORITHM_MIN_MAX} puts the min first), and starts
+     * a new window.
+     *
+     * @return the number of points chosen
+     */
+    int endWindow(long[] timestamps, double[] values);
+
+    /**
+     * Called at the end of the recording, with the last window possibly only partly full.  Like
+     * {@link #endWindow}, but also returns any points that were held back, and then clears.
+     */
+    int finish(long[] timestamps, double[] values);
+
+    /**
+     * Forgets all data points seen.
+     */
+    void clear();
+
+    /**
+     * @return a new, empty downsampler using the same algorithm
+     */
+    Downsampler newInstance();
+}
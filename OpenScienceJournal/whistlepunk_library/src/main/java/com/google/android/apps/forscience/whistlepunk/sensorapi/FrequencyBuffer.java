@@ -16,18 +16,56 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
-
-import java.util.LinkedList;
-import java.util.List;
-
+/**
+ * Estimates the frequency of a signal from how often it crosses its average over a window of
+ * time.
+ *
+ * Rather than going over the whole window for each data point, everything is kept up to date as
+ * readings come and go: the readings themselves, in ring arrays that grow as needed; the sum of
+ * their values; and which of them are above the average, and where it is crossed.  When the
+ * average moves, only the readings between the old and new average change sides, and those are
+ * found in an index of the readings sorted by value.  So a data point costs a binary search, a
+ * copy within that index, and a step for each reading that changes sides.
+ */
 public class FrequencyBuffer implements ValueFilter {
-    private List<ScalarReading> mReadings = new LinkedList<>();
+    private static final int INITIAL_CAPACITY = 16;
 
     private long mWindow;
     private final double mDenominatorInMillis;
     private double mFilter;
 
+    // Reading number n is at index (n & mMask).
+    private long[] mTimestamps;
+    private double[] mValues;
+    // Whether each reading is above mThreshold
+    private boolean[] mAbove;
+    // Whether each reading is on the other side of mThreshold from the reading before it
+    private boolean[] mCrossing;
+    private int mMask;
+
+    // Number of the oldest reading, and of the next one to be added
+    private long mOldest = 0;
+    private long mNext = 0;
+
+    // Indexes of the readings that aren't NaN, sorted by value, and then by age
+    private int[] mByValue;
+    private int mByValueSize = 0;
+
+    // Sum of the finite values, and how many values aren't finite
+    private double mSum = 0;
+    private int mNonFiniteCount = 0;
+    // So that rounding errors don't build up, mSum is added up from scratch once this reaches
+    // the size of the window.
+    private int mRemovedSinceSum = 0;
+
+    // What mAbove and mCrossing are relative to.  Nothing is above the starting value.
+    private double mThreshold = Double.POSITIVE_INFINITY;
+    private int mCrossingCount = 0;
+
+    // No crossing is older than mFirstCrossing, or newer than mLastCrossing
+    private long mFirstCrossing = 0;
+    private long mLastCrossing = 0;
+
     /**
      * @param windowMillis how many milliseconds of data to keep for frequency detection
      * @param denominatorInMillis how many milliseconds are in the display unit (for Hz, this
@@ -38,59 +76,106 @@ public class FrequencyBuffer implements ValueFilter {
         mWindow = windowMillis;
         mDenominatorInMillis = denominatorInMillis;
         mFilter = filter;
+        mTimestamps = new long[INITIAL_CAPACITY];
+        mValues = new double[INITIAL_CAPACITY];
+        mAbove = new boolean[INITIAL_CAPACITY];
+        mCrossing = new boolean[INITIAL_CAPACITY];
+        mByValue = new int[INITIAL_CAPACITY];
+        mMask = INITIAL_CAPACITY - 1;
     }
 
     public void changeWindow(long newWindowMillis) {
         mWindow = newWindowMillis;
-        if (!mReadings.isEmpty()) {
+        if (size() > 0) {
             prune(getNewestTimestamp());
         }
     }
 
     @Override
     public double filterValue(long timestamp, double value) {
-        mReadings.add(new ScalarReading(timestamp, value));
+        add(timestamp, value);
         prune(timestamp);
         return getLatestFrequency();
     }
 
+    @Override
+    public void filterValues(long[] timestamps, double[] values, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            values[i] = filterValue(timestamps[i], values[i]);
+        }
+    }
+
+    private void add(long timestamp, double value) {
+        if (size() == mTimestamps.length) {
+            grow();
+        }
+        long number = mNext++;
+        int index = indexOf(number);
+        mTimestamps[index] = timestamp;
+        mValues[index] = value;
+        mAbove[index] = value > mThreshold;
+        mCrossing[index] = false;
+        if (number > mOldest && mAbove[index] != mAbove[indexOf(number - 1)]) {
+            toggleCrossing(number);
+        }
+        if (!Double.isNaN(value)) {
+            insertByValue(index, value);
+        }
+        if (isFinite(value)) {
+            mSum += value;
+        } else {
+            mNonFiniteCount++;
+        }
+    }
+
     private void prune(long timestamp) {
         long oldestRemaining = timestamp - mWindow;
-        while (mReadings.get(0).getCollectedTimeMillis() < oldestRemaining) {
-            mReadings.remove(0);
+        while (size() > 0 && mTimestamps[indexOf(mOldest)] < oldestRemaining) {
+            removeOldest();
+        }
+    }
+
+    private void removeOldest() {
+        long number = mOldest;
+        double value = mValues[indexOf(number)];
+        if (number + 1 < mNext && mCrossing[indexOf(number + 1)]) {
+            // The new oldest reading has nothing before it to cross from.
+            toggleCrossing(number + 1);
+        }
+        if (!Double.isNaN(value)) {
+            removeByValue(value);
+        }
+        if (isFinite(value)) {
+            mSum -= value;
+        } else {
+            mNonFiniteCount--;
+        }
+        mOldest++;
+        if (++mRemovedSinceSum >= size()) {
+            recomputeSum();
         }
     }
 
     public double getLatestFrequency() {
-        if (mReadings.size() < 2) {
+        if (size() < 2) {
             return 0.0;
         }
 
-        double average = computeAverageValue();
-        int crossings = 0;
-        long firstCrossingTime = -1;
-        long lastCrossingTime = -1;
-
-        boolean higherThanAverage = mReadings.get(0).getValue() > average;
-        for (ScalarReading reading : mReadings.subList(1, mReadings.size())) {
-            boolean thisReadingHigher = reading.getValue() > average;
-            if (higherThanAverage != thisReadingHigher) {
-                higherThanAverage = thisReadingHigher;
-                crossings++;
-                if (firstCrossingTime == -1) {
-                    firstCrossingTime = reading.getCollectedTimeMillis();
-                } else {
-                    lastCrossingTime = reading.getCollectedTimeMillis();
-                }
-            }
+        double threshold = computeAverageValue();
+        if (Double.isNaN(threshold)) {
+            // No reading is above NaN, so there are no crossings.
+            return 0.0;
         }
-        // Drop the leading cross because that's where time starts
-        crossings--;
-
-        if (firstCrossingTime == -1 || lastCrossingTime == -1) {
+        moveThreshold(threshold);
+        if (mCrossingCount < 2) {
             return 0.0;
         }
 
+        // Drop the leading cross because that's where time starts
+        int crossings = mCrossingCount - 1;
+        long firstCrossingTime = mTimestamps[indexOf(findFirstCrossing())];
+        long lastCrossingTime = mTimestamps[indexOf(findLastCrossing())];
+
         long adjustedWindowMillis = lastCrossingTime - firstCrossingTime;
 
         if (adjustedWindowMillis < mWindow / 4) {
@@ -112,17 +197,182 @@ public class FrequencyBuffer implements ValueFilter {
         // low-sampling-rate readings more heavily than high-sampling-rate.  But we'll just
         // assume for now that doesn't happen.
 
-        double total = 0;
-        for (ScalarReading reading : mReadings) {
-            total += reading.getValue();
+        double total = mSum;
+        if (mNonFiniteCount > 0) {
+            // Rare enough to add up the long way, which gets infinities and NaN right.
+            total = 0;
+            for (long number = mOldest; number < mNext; number++) {
+                total += mValues[indexOf(number)];
+            }
         }
         // Adding mFilter means that variations of less than mFilter won't register as cycles.
-        return total / mReadings.size() + mFilter;
+        return total / size() + mFilter;
+    }
+
+    private void recomputeSum() {
+        mSum = 0;
+        for (long number = mOldest; number < mNext; number++) {
+            double value = mValues[indexOf(number)];
+            if (isFinite(value)) {
+                mSum += value;
+            }
+        }
+        mRemovedSinceSum = 0;
+    }
+
+    /**
+     * Moves the readings with values between the current threshold and {@code threshold} to the
+     * other side of it.
+     */
+    private void moveThreshold(double threshold) {
+        if (threshold > mThreshold) {
+            flip(upperBound(mThreshold), upperBound(threshold));
+        } else if (threshold < mThreshold) {
+            flip(upperBound(threshold), upperBound(mThreshold));
+        }
+        mThreshold = threshold;
+    }
+
+    private void flip(int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            int index = mByValue[i];
+            long number = numberAt(index);
+            mAbove[index] = !mAbove[index];
+            if (number > mOldest) {
+                toggleCrossing(number);
+            }
+            if (number + 1 < mNext) {
+                toggleCrossing(number + 1);
+            }
+        }
+    }
+
+    private void toggleCrossing(long number) {
+        int index = indexOf(number);
+        mCrossing[index] = !mCrossing[index];
+        if (mCrossing[index]) {
+            mCrossingCount++;
+            mFirstCrossing = Math.min(mFirstCrossing, number);
+            mLastCrossing = Math.max(mLastCrossing, number);
+        } else {
+            mCrossingCount--;
+        }
+    }
+
+    // Only called when there is a crossing
+    private long findFirstCrossing() {
+        mFirstCrossing = Math.max(mFirstCrossing, mOldest + 1);
+        while (!mCrossing[indexOf(mFirstCrossing)]) {
+            mFirstCrossing++;
+        }
+        return mFirstCrossing;
+    }
+
+    // Only called when there is a crossing
+    private long findLastCrossing() {
+        mLastCrossing = Math.min(mLastCrossing, mNext - 1);
+        while (!mCrossing[indexOf(mLastCrossing)]) {
+            mLastCrossing--;
+        }
+        return mLastCrossing;
+    }
+
+    private void insertByValue(int index, double value) {
+        // After any equal values, which are all older
+        int i = upperBound(value);
+        System.arraycopy(mByValue, i, mByValue, i + 1, mByValueSize - i);
+        mByValue[i] = index;
+        mByValueSize++;
+    }
+
+    // Only called for the oldest reading, which comes first among those with the same value
+    private void removeByValue(double value) {
+        int i = lowerBound(value);
+        System.arraycopy(mByValue, i + 1, mByValue, i, mByValueSize - i - 1);
+        mByValueSize--;
+    }
+
+    /**
+     * @return the position in mByValue of the first reading with a value greater than
+     * {@code value}
+     */
+    private int upperBound(double value) {
+        int low = 0;
+        int high = mByValueSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mValues[mByValue[mid]] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position in mByValue of the first reading with a value of at least
+     * {@code value}
+     */
+    private int lowerBound(double value) {
+        int low = 0;
+        int high = mByValueSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mValues[mByValue[mid]] >= value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private void grow() {
+        int capacity = mTimestamps.length * 2;
+        int mask = capacity - 1;
+        long[] timestamps = new long[capacity];
+        double[] values = new double[capacity];
+        boolean[] above = new boolean[capacity];
+        boolean[] crossing = new boolean[capacity];
+        for (long number = mOldest; number < mNext; number++) {
+            int from = indexOf(number);
+            int to = (int) (number & mask);
+            timestamps[to] = mTimestamps[from];
+            values[to] = mValues[from];
+            above[to] = mAbove[from];
+            crossing[to] = mCrossing[from];
+        }
+        int[] byValue = new int[capacity];
+        for (int i = 0; i < mByValueSize; i++) {
+            byValue[i] = (int) (numberAt(mByValue[i]) & mask);
+        }
+        mTimestamps = timestamps;
+        mValues = values;
+        mAbove = above;
+        mCrossing = crossing;
+        mByValue = byValue;
+        mMask = mask;
+    }
+
+    private int size() {
+        return (int) (mNext - mOldest);
+    }
+
+    private int indexOf(long number) {
+        return (int) (number & mMask);
+    }
+
+    private long numberAt(int index) {
+        return mOldest + ((index - mOldest) & mMask);
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
     }
 
     private long getNewestTimestamp() {
-        final ScalarReading mostRecentReading = mReadings.get(mReadings.size() - 1);
-        return mostRecentReading.getCollectedTimeMillis();
+        return mTimestamps[indexOf(mNext - 1)];
     }
 
     public void changeFilter(double newFilter) {
@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import java.util.Arrays;
+
+/**
+ * Keeps one data point from each window, chosen by Largest-Triangle-Three-Buckets: the point
+ * that makes the largest triangle with the point kept from the window before and the average of
+ * the window after.  This keeps the points that most change the shape of the line.
+ *
+ * Since it needs the window after, each window's point is only returned when the next window
+ * ends, and the last window's is returned by {@link #finish}.  As in the original algorithm, the
+ * very first and last data points are always kept.
+ */
+public class LttbDownsampler implements Downsampler {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The window whose point has not been chosen yet
+    private long[] mPendingTimestamps = new long[INITIAL_CAPACITY];
+    private double[] mPendingValues = new double[INITIAL_CAPACITY];
+    private int mPendingSize;
+
+    // The window being filled
+    private long[] mTimestamps = new long[INITIAL_CAPACITY];
+    private double[] mValues = new double[INITIAL_CAPACITY];
+    private int mSize;
+    private double mTimestampSum;
+    private double mValueSum;
+
+    // The last point chosen
+    private boolean mHasChosen;
+    private long mChosenTimestamp;
+    private double mChosenValue;
+
+    public LttbDownsampler() {
+        clear();
+    }
+
+    @Override
+    public int getAlgorithm() {
+        return ALGORITHM_LTTB;
+    }
+
+    @Override
+    public int getPointsPerWindow() {
+        return 1;
+    }
+
+    @Override
+    public int getMaxPointsPerFlush() {
+        // The pending window's point, and then the first and last points of the last window
+        return 3;
+    }
+
+    @Override
+    public void addData(long timestampMillis, double value) {
+        if (mSize == mTimestamps.length) {
+            mTimestamps = Arrays.copyOf(mTimestamps, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        mTimestamps[mSize] = timestampMillis;
+        mValues[mSize] = value;
+        mSize++;
+        mTimestampSum += timestampMillis;
+        mValueSum += value;
+    }
+
+    @Override
+    public int endWindow(long[] timestamps, double[] values) {
+        if (mSize == 0) {
+            return 0;
+        }
+        int count = 0;
+        if (mPendingSize > 0) {
+            int chosen = mHasChosen ? choosePending(mTimestampSum / mSize, mValueSum / mSize) : 0;
+            count = emitPending(chosen, timestamps, values, count);
+        }
+
+        // The window just filled becomes the pending one; reuse the old pending arrays.
+        long[] swapTimestamps = mPendingTimestamps;
+        double[] swapValues = mPendingValues;
+        mPendingTimestamps = mTimestamps;
+        mPendingValues = mValues;
+        mPendingSize = mSize;
+        mTimestamps = swapTimestamps;
+        mValues = swapValues;
+        mSize = 0;
+        mTimestampSum = 0;
+        mValueSum = 0;
+        return count;
+    }
+
+    /**
+     * @return the index of the pending point making the largest triangle with the last chosen
+     * point and ({@code nextTimestamp}, {@code nextValue})
+     */
+    private int choosePending(double nextTimestamp, double nextValue) {
+        int best = 0;
+        double bestArea = -1;
+        for (int i = 0; i < mPendingSize; i++) {
+            // Twice the area, which is just as good for comparing.
+            double area = Math.abs(
+                    (mChosenTimestamp - nextTimestamp) * (mPendingValues[i] - mChosenValue)
+                            - (mChosenTimestamp - mPendingTimestamps[i])
+                            * (nextValue - mChosenValue));
+            if (area > bestArea) {
+                bestArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int emitPending(int index, long[] timestamps, double[] values, int count) {
+        mHasChosen = true;
+        mChosenTimestamp = mPendingTimestamps[index];
+        mChosenValue = mPendingValues[index];
+        timestamps[count] = mChosenTimestamp;
+        values[count] = mChosenValue;
+        return count + 1;
+    }
+
+    @Override
+    public int finish(long[] timestamps, double[] values) {
+        int count = endWindow(timestamps, values);
+        if (mPendingSize > 0) {
+            if (!mHasChosen) {
+                count = emitPending(0, timestamps, values, count);
+            }
+            if (mPendingTimestamps[mPendingSize - 1] != mChosenTimestamp) {
+                count = emitPending(mPendingSize - 1, timestamps, values, count);
+            }
+        }
+        clear();
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        mPendingSize = 0;
+        mSize = 0;
+        mTimestampSum = 0;
+        mValueSum = 0;
+        mHasChosen = false;
+    }
+
+    @Override
+    public Downsampler newInstance() {
+        return new LttbDownsampler();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * Keeps the first, min, max and last data points of each window (M4 aggregation).  A line drawn
+ * through them covers the same pixels as one through the whole window, when the window is no
+ * wider than a pixel column, so it keeps the edges of steps and spikes that min and max alone
+ * would move.
+ *
+ * A point that is more than one of these is only kept once, so a window can become fewer than
+ * four points.
+ */
+public class M4Downsampler implements Downsampler {
+    private static final int POINTS_PER_WINDOW = 4;
+
+    private int mSeenThisWindow;
+    private long mFirstTimestamp;
+    private double mFirstValue;
+    private long mLastTimestamp;
+    private double mLastValue;
+    private long mTimestampOfMinSeen;
+    private double mValueOfMinSeen;
+    private long mTimestampOfMaxSeen;
+    private double mValueOfMaxSeen;
+
+    public M4Downsampler() {
+        clear();
+    }
+
+    @Override
+    public int getAlgorithm() {
+        return ALGORITHM_M4;
+    }
+
+    @Override
+    public int getPointsPerWindow() {
+        return POINTS_PER_WINDOW;
+    }
+
+    @Override
+    public int getMaxPointsPerFlush() {
+        return POINTS_PER_WINDOW;
+    }
+
+    @Override
+    public void addData(long timestampMillis, double value) {
+        if (mSeenThisWindow == 0) {
+            mFirstTimestamp = timestampMillis;
+            mFirstValue = value;
+        }
+        mSeenThisWindow++;
+        mLastTimestamp = timestampMillis;
+        mLastValue = value;
+        if (value > mValueOfMaxSeen) {
+            mValueOfMaxSeen = value;
+            mTimestampOfMaxSeen = timestampMillis;
+        }
+        if (value < mValueOfMinSeen) {
+            mValueOfMinSeen = value;
+            mTimestampOfMinSeen = timestampMillis;
+        }
+    }
+
+    @Override
+    public int endWindow(long[] timestamps, double[] values) {
+        if (mSeenThisWindow == 0) {
+            return 0;
+        }
+        int count = 0;
+        count = insert(timestamps, values, count, mFirstTimestamp, mFirstValue);
+        count = insert(timestamps, values, count, mTimestampOfMinSeen, mValueOfMinSeen);
+        count = insert(timestamps, values, count, mTimestampOfMaxSeen, mValueOfMaxSeen);
+        count = insert(timestamps, values, count, mLastTimestamp, mLastValue);
+        clear();
+        return count;
+    }
+
+    /**
+     * Adds a point to the first {@code count} points, keeping them in order of timestamp, unless
+     * one of them already has its timestamp.
+     *
+     * @return the new number of points
+     */
+    private static int insert(long[] timestamps, double[] values, int count, long timestamp,
+            double value) {
+        int i = count;
+        while (i > 0 && timestamps[i - 1] > timestamp) {
+            i--;
+        }
+        if (i > 0 && timestamps[i - 1] == timestamp) {
+            return count;
+        }
+        System.arraycopy(timestamps, i, timestamps, i + 1, count - i);
+        System.arraycopy(values, i, values, i + 1, count - i);
+        timestamps[i] = timestamp;
+        values[i] = value;
+        return count + 1;
+    }
+
+    @Override
+    public int finish(long[] timestamps, double[] values) {
+        return endWindow(timestamps, values);
+    }
+
+    @Override
+    public void clear() {
+        mSeenThisWindow = 0;
+        mValueOfMinSeen = Double.MAX_VALUE;
+        mValueOfMaxSeen = -Double.MAX_VALUE;
+    }
+
+    @Override
+    public Downsampler newInstance() {
+        return new M4Downsampler();
+    }
+}
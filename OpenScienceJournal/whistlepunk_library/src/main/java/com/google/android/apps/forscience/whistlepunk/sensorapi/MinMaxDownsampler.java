@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * Keeps the min and max data points of each window, min first.  Both are kept even if they are
+ * the same point, so each window always becomes two points.
+ *
+ * This seems to allow us to capture the general shape of the graph better than trying to, for
+ * example, synthesize an "average" data point for the window.
+ */
+public class MinMaxDownsampler implements Downsampler {
+    private int mSeenThisWindow;
+    private long mTimestampOfMinSeen;
+    private double mValueOfMinSeen;
+    private long mTimestampOfMaxSeen;
+    private double mValueOfMaxSeen;
+
+    public MinMaxDownsampler() {
+        clear();
+    }
+
+    @Override
+    public int getAlgorithm() {
+        return ALGORITHM_MIN_MAX;
+    }
+
+    @Override
+    public int getPointsPerWindow() {
+        return 2;
+    }
+
+    @Override
+    public int getMaxPointsPerFlush() {
+        return 2;
+    }
+
+    @Override
+    public void addData(long timestampMillis, double value) {
+        mSeenThisWindow++;
+        if (value > mValueOfMaxSeen) {
+            mValueOfMaxSeen = value;
+            mTimestampOfMaxSeen = timestampMillis;
+        }
+        if (value < mValueOfMinSeen) {
+            mValueOfMinSeen = value;
+            mTimestampOfMinSeen = timestampMillis;
+        }
+    }
+
+    @Override
+    public int endWindow(long[] timestamps, double[] values) {
+        if (mSeenThisWindow == 0) {
+            return 0;
+        }
+        timestamps[0] = mTimestampOfMinSeen;
+        values[0] = mValueOfMinSeen;
+        timestamps[1] = mTimestampOfMaxSeen;
+        values[1] = mValueOfMaxSeen;
+        clear();
+        return 2;
+    }
+
+    @Override
+    public int finish(long[] timestamps, double[] values) {
+        return endWindow(timestamps, values);
+    }
+
+    @Override
+    public void clear() {
+        mSeenThisWindow = 0;
+        mValueOfMinSeen = Double.MAX_VALUE;
+        mValueOfMaxSeen = -Double.MAX_VALUE;
+        mTimestampOfMaxSeen = mTimestampOfMinSeen = -1;
+    }
+
+    @Override
+    public Downsampler newInstance() {
+        return new MinMaxDownsampler();
+    }
+}
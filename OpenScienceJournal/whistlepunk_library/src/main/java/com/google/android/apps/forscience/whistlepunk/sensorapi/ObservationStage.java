@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands the data points of a sensor, and the stats as of each of them, to an observer on another
+ * thread (usually the UI thread).  The thread that the data points arrive on only copies each one
+ * into a buffer; the first point after a delivery posts a single runnable to {@code executor},
+ * which then delivers every point buffered by the time it runs, in order.  A sensor that produces
+ * many points a frame therefore costs one message a frame, not one a point.
+ *
+ * The observer may be firing triggers or feeding a recording service, not just drawing, so no
+ * point is ever dropped: if the executor falls behind, the buffer grows until it catches up.
+ * Once it has grown, adding points doesn't allocate.
+ */
+public class ObservationStage {
+    /**
+     * How many data points can wait for delivery before the buffer has to grow, by default
+     */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private final ScalarObserver mObserver;
+    private final Executor mExecutor;
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private Points mPending;
+    private boolean mDrainScheduled = false;
+
+    // Only touched on the executor; swapped with mPending each drain
+    private Points mDelivering;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            Points delivering;
+            synchronized (mLock) {
+                delivering = mPending;
+                mPending = mDelivering;
+                mDelivering = delivering;
+                // Cleared here, so that points added while delivering schedule another drain.
+                mDrainScheduled = false;
+            }
+            for (int i = 0; i < delivering.mSize; i++) {
+                mObserver.onNewScalarData(delivering.mTimestamps[i], delivering.mValues[i],
+                        delivering.mMins[i], delivering.mMaxes[i], delivering.mAverages[i]);
+            }
+            delivering.mSize = 0;
+        }
+    };
+
+    /**
+     * @param observer called on {@code executor}, once for each data point, in the order they
+     *                 were added
+     * @param capacity how many data points can wait before the buffer has to grow
+     */
+    public ObservationStage(ScalarObserver observer, Executor executor, int capacity) {
+        mObserver = observer;
+        mExecutor = executor;
+        mPending = new Points(Math.max(1, capacity));
+        mDelivering = new Points(Math.max(1, capacity));
+    }
+
+    public void addData(long timestampMillis, double value, double min, double max,
+            double average) {
+        synchronized (mLock) {
+            Points pending = mPending;
+            pending.ensureCapacity(pending.mSize + 1);
+            int i = pending.mSize;
+            pending.mTimestamps[i] = timestampMillis;
+            pending.mValues[i] = value;
+            pending.mMins[i] = min;
+            pending.mMaxes[i] = max;
+            pending.mAverages[i] = average;
+            pending.mSize = i + 1;
+            if (!scheduleDrain()) {
+                return;
+            }
+        }
+        mExecutor.execute(mDrain);
+    }
+
+    /**
+     * Adds {@code count} data points, starting at {@code offset}, all with the same stats
+     * (typically those as of the last of them).
+     */
+    public void addData(long[] timestampsMillis, double[] values, int offset, int count,
+            double min, double max, double average) {
+        if (count == 0) {
+            return;
+        }
+        synchronized (mLock) {
+            Points pending = mPending;
+            pending.ensureCapacity(pending.mSize + count);
+            int start = pending.mSize;
+            int end = start + count;
+            System.arraycopy(timestampsMillis, offset, pending.mTimestamps, start, count);
+            System.arraycopy(values, offset, pending.mValues, start, count);
+            Arrays.fill(pending.mMins, start, end, min);
+            Arrays.fill(pending.mMaxes, start, end, max);
+            Arrays.fill(pending.mAverages, start, end, average);
+            pending.mSize = end;
+            if (!scheduleDrain()) {
+                return;
+            }
+        }
+        mExecutor.execute(mDrain);
+    }
+
+    /**
+     * Call holding mLock.
+     *
+     * @return true if a drain needs to be posted
+     */
+    private boolean scheduleDrain() {
+        if (mDrainScheduled) {
+            return false;
+        }
+        mDrainScheduled = true;
+        return true;
+    }
+
+    private static class Points {
+        long[] mTimestamps;
+        double[] mValues;
+        double[] mMins;
+        double[] mMaxes;
+        double[] mAverages;
+        int mSize = 0;
+
+        Points(int capacity) {
+            mTimestamps = new long[capacity];
+            mValues = new double[capacity];
+            mMins = new double[capacity];
+            mMaxes = new double[capacity];
+            mAverages = new double[capacity];
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity <= mTimestamps.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, mTimestamps.length * 2);
+            mTimestamps = Arrays.copyOf(mTimestamps, newCapacity);
+            mValues = Arrays.copyOf(mValues, newCapacity);
+            mMins = Arrays.copyOf(mMins, newCapacity);
+            mMaxes = Arrays.copyOf(mMaxes, newCapacity);
+            mAverages = Arrays.copyOf(mAverages, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * Observes the data points of a scalar sensor, without packing them into a {@link
+ * android.os.Bundle}.  {@link SensorObserver}s in this process that also implement this (usually
+ * by extending {@link ScalarSensorObserver}) are given scalar data this way; see
+ * {@link ScalarSensor#notifyObserver}.
+ *
+ * Assume all calls are on the main thread
+ */
+public interface ScalarObserver {
+    /**
+     * Called when a new data point arrives.
+     *
+     * @param min     the smallest value since recording started, or since observing started if
+     *                not recording
+     * @param max     the largest value over the same time
+     * @param average the average value over the same time
+     */
+    void onNewScalarData(long timestamp, double value, double min, double max, double average);
+}
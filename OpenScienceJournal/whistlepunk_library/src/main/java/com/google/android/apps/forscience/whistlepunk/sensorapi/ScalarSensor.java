@@ -43,6 +43,7 @@ import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorConfig;
 import com.google.android.apps.forscience.whistlepunk.metadata.Label;
 import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.review.ZoomPresenter;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartController;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartOptions;
@@ -50,7 +51,9 @@ import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartView;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.UptimeClock;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.FrequencyOptionsPresenter
         .FilterChangeListener;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.text.NumberFormat;
 import java.util.List;
@@ -67,6 +70,12 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
      */
     public static final int DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS = 20;
 
+    /**
+     * Pass as the zoom level between tiers to have each run choose one from its sample rate;
+     * see {@link ZoomRecorder#createAdaptive}.
+     */
+    public static final int ADAPTIVE_ZOOM_LEVEL = 0;
+
     private static final String TAG = "ScalarSensor";
     protected static final double DENOMINATOR_FOR_RPMS = 60 * 1000.0;
     private static final String BUNDLE_KEY_SENSOR_VALUE = "key_sensor_value";
@@ -76,27 +85,49 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
 
     private final long mDefaultGraphRange;
     private Executor mUiThreadExecutor;
+    private final Executor mObserverExecutor;
     private ValueFilter mValueFilter = null;
+    private Downsampler mDownsampler = new MinMaxDownsampler();
     private ChartController mChartController;
     private AudioGenerator mAudioGenerator;
     private final Clock mClock;
+    private final Executor mZoomTierExecutor;
+    private final int mZoomTierBatchSize;
 
     public ScalarSensor(String id) {
-        this(id, AppSingleton.getUiThreadExecutor());
+        this(id, ExternalAxisController.DEFAULT_GRAPH_RANGE_IN_MILLIS,
+                AppSingleton.getUiThreadExecutor(), AppSingleton.getUiFrameExecutor(),
+                ADAPTIVE_ZOOM_LEVEL, new UptimeClock(), ZoomTierStage.getSharedExecutor(),
+                ZoomTierStage.DEFAULT_BATCH_SIZE);
     }
 
+    /**
+     * @param uiThreadExecutor runs status updates, and delivers data points to observers
+     */
     @VisibleForTesting
     public ScalarSensor(String id, Executor uiThreadExecutor) {
         this(id, ExternalAxisController.DEFAULT_GRAPH_RANGE_IN_MILLIS, uiThreadExecutor,
-                DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS, new UptimeClock());
+                uiThreadExecutor, ADAPTIVE_ZOOM_LEVEL, new UptimeClock(),
+                ZoomTierStage.getSharedExecutor(), ZoomTierStage.DEFAULT_BATCH_SIZE);
     }
 
+    /**
+     * Computes zoom tiers as each data point arrives, so that tests can see them straight away.
+     */
     @VisibleForTesting
     ScalarSensor(String id, long defaultGraphRange, Executor uiThreadExecutor,
             int zoomLevelBetweenTiers, Clock clock) {
+        this(id, defaultGraphRange, uiThreadExecutor, uiThreadExecutor, zoomLevelBetweenTiers,
+                clock, MoreExecutors.directExecutor(), 1);
+    }
+
+    private ScalarSensor(String id, long defaultGraphRange, Executor uiThreadExecutor,
+            Executor observerExecutor, int zoomLevelBetweenTiers, Clock clock,
+            Executor zoomTierExecutor, int zoomTierBatchSize) {
         super(id);
         mDefaultGraphRange = defaultGraphRange;
         mUiThreadExecutor = uiThreadExecutor;
+        mObserverExecutor = observerExecutor;
         mZoomLevelBetweenTiers = zoomLevelBetweenTiers;
         mDataFailureListener = new FailureListener() {
             @Override
@@ -107,6 +138,8 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             }
         };
         mClock = clock;
+        mZoomTierExecutor = zoomTierExecutor;
+        mZoomTierBatchSize = zoomTierBatchSize;
     }
 
     @Override
@@ -121,7 +154,7 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
                 new StatsAccumulator.StatsDisplay(statsNumberFormat);
         statsDisplay.addStatsListener(statsListener);
 
-        return new SensorPresenter() {
+        return new ScalarSensorPresenter() {
             private boolean mAudioEnabled;
 
             @Override
@@ -146,12 +179,12 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             }
 
             @Override
-            public void onNewData(long timestamp, Bundle bundle) {
-                double value = getValue(bundle);
+            public void onNewScalarData(long timestamp, double value, double min, double max,
+                    double average) {
                 chartController.addPoint(new ChartData.DataPoint(timestamp, value));
                 audioGenerator.addData(timestamp, value, chartController.getRenderedYMin(),
                         chartController.getRenderedYMax());
-                statsDisplay.updateFromBundle(bundle);
+                statsDisplay.updateStreamStats(min, max, average);
             }
 
             @Override
@@ -349,6 +382,23 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         return bundle.containsKey(BUNDLE_KEY_SENSOR_VALUE);
     }
 
+    /**
+     * Passes a scalar data point to {@code observer}: as primitives if it is a
+     * {@link ScalarObserver}, and otherwise packed into {@code bundle}, as for another process.
+     *
+     * @param bundle reused for every data point, so it must only be touched by the calling thread
+     */
+    public static void notifyObserver(SensorObserver observer, Bundle bundle, long timestamp,
+            double value, double min, double max, double average) {
+        if (observer instanceof ScalarObserver) {
+            ((ScalarObserver) observer).onNewScalarData(timestamp, value, min, max, average);
+        } else {
+            bundle.putDouble(BUNDLE_KEY_SENSOR_VALUE, value);
+            StatsAccumulator.addStatsToBundle(bundle, min, max, average);
+            observer.onNewData(timestamp, bundle);
+        }
+    }
+
     @Override
     public SensorRecorder createRecorder(final Context context,
             final SensorObserver observer, SensorStatusListener listener,
@@ -356,13 +406,31 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         final StatsAccumulator statsAccumulator = new StatsAccumulator();
         final RecordingDataController dataController = environment.getDataController();
 
-        // We need twice the buffer as the zoom level, because in this implementation of zoom, we
-        // decided to store min and max data points at each level.
-        // TODO: make this configurable?
-        int zoomBufferSize = mZoomLevelBetweenTiers * 2;
-        final ZoomRecorder zoomRecorder = new ZoomRecorder(getId(), zoomBufferSize, 1);
-        final ScalarStreamConsumer consumer = new ScalarStreamConsumer(statsAccumulator, observer,
-                dataController, zoomRecorder);
+        final ZoomRecorder zoomRecorder;
+        if (mZoomLevelBetweenTiers == ADAPTIVE_ZOOM_LEVEL) {
+            zoomRecorder = ZoomRecorder.createAdaptive(getId(), mDownsampler,
+                    ZoomPresenter.IDEAL_NUMBER_OF_DISPLAYED_DATAPOINTS);
+        } else {
+            // The buffer is a multiple of the zoom level, because the downsampler may store
+            // several data points (by default, the min and max) from each buffer at each level.
+            int zoomBufferSize = mZoomLevelBetweenTiers * mDownsampler.getPointsPerWindow();
+            zoomRecorder = new ZoomRecorder(getId(), zoomBufferSize, 1, mDownsampler);
+        }
+        final ZoomTierStage zoomTierStage = new ZoomTierStage(getId(), zoomRecorder,
+                new SummaryRecorder(getId()), dataController, mZoomTierExecutor,
+                ZoomTierStage.DEFAULT_CAPACITY, mZoomTierBatchSize);
+        final ObservationStage observationStage = new ObservationStage(new ScalarObserver() {
+            // Only touched on the observer's thread, so it can be reused for every point
+            private final Bundle mBundle = new Bundle();
+
+            @Override
+            public void onNewScalarData(long timestamp, double value, double min, double max,
+                    double average) {
+                notifyObserver(observer, mBundle, timestamp, value, min, max, average);
+            }
+        }, mObserverExecutor, ObservationStage.DEFAULT_CAPACITY);
+        final ScalarStreamConsumer consumer = new ScalarStreamConsumer(statsAccumulator,
+                observationStage, dataController, zoomTierStage);
         final SensorRecorder recorder = makeScalarControl(consumer, environment, context, listener);
         return new DelegatingSensorRecorder(recorder) {
             private String mRunId;
@@ -383,7 +451,8 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             public void startRecording(String runId) {
                 mRunId = runId;
                 statsAccumulator.clearStats();
-                zoomRecorder.clear();
+                zoomTierStage.clear();
+                dataController.setCurrentRun(getId(), runId);
                 consumer.startRecording();
                 super.startRecording(runId);
             }
@@ -393,10 +462,9 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
                 super.stopRecording(onSuccess);
 
                 RunStats runStats = statsAccumulator.makeSaveableStats();
-                runStats.putStat(ZoomRecorder.STATS_KEY_TIER_COUNT, zoomRecorder.countTiers());
-                runStats.putStat(ZoomRecorder.STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS,
-                        mZoomLevelBetweenTiers);
+                zoomTierStage.putTierStats(runStats);
                 consumer.stopRecording();
+                dataController.setCurrentRun(getId(), null);
                 environment.getDataController().setStats(mRunId, getId(), runStats, onSuccess);
                 statsAccumulator.clearStats();
             }
@@ -432,6 +500,14 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         mValueFilter = filter;
     }
 
+    /**
+     * Sets how the data points of each zoom tier are chosen, for recorders created after this.
+     * The default is {@link MinMaxDownsampler}.
+     */
+    public void setDownsampler(Downsampler downsampler) {
+        mDownsampler = downsampler;
+    }
+
     /**
      * @param c           whenever you have a new value, call c.addData(long timestampMillis, double
      *                    value).
@@ -449,26 +525,30 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
     protected abstract SensorRecorder makeScalarControl(StreamConsumer c,
             SensorEnvironment environment, Context context, SensorStatusListener listener);
 
-    private class ScalarStreamConsumer implements StreamConsumer {
+    private class ScalarStreamConsumer implements BatchStreamConsumer {
         private static final int NO_DATA_RECORDED = -1;
+        private static final int INITIAL_BATCH_CAPACITY = 64;
 
-        private final Bundle mBundle;
         private final StatsAccumulator mStatsAccumulator;
-        private final SensorObserver mObserver;
+        private final ObservationStage mObservationStage;
         private final RecordingDataController mDataController;
-        private final ZoomRecorder mZoomRecorder;
+        private final ZoomTierStage mZoomTierStage;
         private boolean mIsRecording = false;
         private long mLastDataTimestampMillis = NO_DATA_RECORDED;
         private long mTimestampBeforeRecordingStart = NO_DATA_RECORDED;
 
+        // The data points of the current batch that maintain the time series, after filtering
+        private long[] mBatchTimestamps = new long[INITIAL_BATCH_CAPACITY];
+        private double[] mBatchValues = new double[INITIAL_BATCH_CAPACITY];
+        private final ScalarReadingBuffer mBatchReadings = new ScalarReadingBuffer(getId());
+
         public ScalarStreamConsumer(StatsAccumulator statsAccumulator,
-                SensorObserver observer, RecordingDataController dataController,
-                ZoomRecorder zoomRecorder) {
+                ObservationStage observationStage, RecordingDataController dataController,
+                ZoomTierStage zoomTierStage) {
             mStatsAccumulator = statsAccumulator;
-            mObserver = observer;
+            mObservationStage = observationStage;
             mDataController = dataController;
-            mBundle = new Bundle();
-            mZoomRecorder = zoomRecorder;
+            mZoomTierStage = zoomTierStage;
         }
 
         public void startRecording() {
@@ -478,7 +558,8 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
 
         public void stopRecording() {
             mIsRecording = false;
-            mZoomRecorder.flushAllTiers(mDataController);
+            mZoomTierStage.flushAllTiers();
+            mDataController.flushScalarReadings(getId());
         }
 
         public boolean maintainsTimeSeries(final long timestampMillis) {
@@ -500,23 +581,53 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             mLastDataTimestampMillis = timestampMillis;
         }
 
-        public void observeData(final long timestampMillis, double value) {
-            final Bundle data = makeBundle(value);
-            mStatsAccumulator.updateRecordingStreamStats(timestampMillis, value);
-            mStatsAccumulator.addStatsToBundle(data);
-
-            // TODO: try to remove this allocation
-            runOnMainThread(new Runnable() {
-                @Override
-                public void run() {
-                    mObserver.onNewData(timestampMillis, data);
+        @Override
+        public void addDataBatch(long[] timestampsMillis, double[] values, int offset,
+                int count) {
+            if (mBatchTimestamps.length < count) {
+                mBatchTimestamps = new long[count];
+                mBatchValues = new double[count];
+            }
+            // Copied, so that filtering doesn't change the caller's values
+            long lastTimestamp = mLastDataTimestampMillis;
+            int kept = 0;
+            for (int i = offset; i < offset + count; i++) {
+                if (timestampsMillis[i] > lastTimestamp) {
+                    lastTimestamp = timestampsMillis[i];
+                    mBatchTimestamps[kept] = lastTimestamp;
+                    mBatchValues[kept] = values[i];
+                    kept++;
                 }
-            });
+            }
+            if (kept == 0) {
+                return;
+            }
+            ValueFilter valueFilter = mValueFilter;
+            if (valueFilter != null) {
+                valueFilter.filterValues(mBatchTimestamps, mBatchValues, 0, kept);
+            }
+            mStatsAccumulator.updateRecordingStreamStats(mBatchTimestamps, mBatchValues, 0, kept);
+            mObservationStage.addData(mBatchTimestamps, mBatchValues, 0, kept,
+                    mStatsAccumulator.getMin(), mStatsAccumulator.getMax(),
+                    mStatsAccumulator.getAverage());
+            if (mIsRecording) {
+                mZoomTierStage.addData(mBatchTimestamps, mBatchValues, 0, kept);
+                mBatchReadings.clear();
+                mBatchReadings.addAll(0, mBatchTimestamps, mBatchValues, 0, kept);
+                mDataController.addScalarReadings(mBatchReadings);
+            }
+            mLastDataTimestampMillis = lastTimestamp;
+        }
+
+        public void observeData(long timestampMillis, double value) {
+            mStatsAccumulator.updateRecordingStreamStats(timestampMillis, value);
+            mObservationStage.addData(timestampMillis, value, mStatsAccumulator.getMin(),
+                    mStatsAccumulator.getMax(), mStatsAccumulator.getAverage());
         }
 
         public void recordData(long timestampMillis, double value) {
             if (mIsRecording) {
-                mZoomRecorder.addData(timestampMillis, value, mDataController);
+                mZoomTierStage.addData(timestampMillis, value);
                 mDataController.addScalarReading(getId(), 0, timestampMillis, value);
             }
         }
@@ -531,13 +642,13 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         public boolean hasRecordedData() {
             return mLastDataTimestampMillis > mTimestampBeforeRecordingStart;
         }
+    }
 
-        // TODO: profile this to make sure Bundles don't add extravagant memory and
-        // CPU overhead
-        private Bundle makeBundle(double value) {
-            mBundle.putDouble(BUNDLE_KEY_SENSOR_VALUE, value);
-            return mBundle;
-        }
+    /**
+     * Shows the data of a scalar sensor, which it is given as primitives by this process.
+     */
+    private abstract static class ScalarSensorPresenter extends ScalarSensorObserver
+            implements SensorPresenter {
     }
 
     protected void runOnMainThread(Runnable runnable) {
@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import android.os.Bundle;
+
+import com.google.android.apps.forscience.whistlepunk.StatsAccumulator;
+
+/**
+ * A SensorObserver that takes scalar data points as primitives.  Data that still arrives as a
+ * Bundle, such as from another process, is unpacked and passed to {@link #onNewScalarData};
+ * Bundles without a scalar value are ignored, unless {@link #onNewData} is overridden.
+ */
+public abstract class ScalarSensorObserver implements SensorObserver, ScalarObserver {
+    @Override
+    public void onNewData(long timestamp, Bundle data) {
+        if (!ScalarSensor.hasValue(data)) {
+            return;
+        }
+        onNewScalarData(timestamp, ScalarSensor.getValue(data),
+                data.getDouble(StatsAccumulator.KEY_MIN),
+                data.getDouble(StatsAccumulator.KEY_MAX),
+                data.getDouble(StatsAccumulator.KEY_AVERAGE));
+    }
+}
@@ -42,4 +42,10 @@ public class ScaleFilter implements ValueFilter {
         return transformed;
     }
 
+    @Override
+    public void filterValues(long[] timestamps, double[] values, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            values[i] = ((values[i] - mSourceBottom) / mSourceRange * mDestRange) + mDestBottom;
+        }
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * Helpers for passing data points to a {@link StreamConsumer}.
+ */
+public class StreamConsumers {
+    private StreamConsumers() {
+        // static methods only
+    }
+
+    /**
+     * Passes {@code count} data points, starting at {@code offset}, to {@code c}: all at once if
+     * it is a {@link BatchStreamConsumer}, and otherwise one at a time.
+     */
+    public static void addData(StreamConsumer c, long[] timestampsMillis, double[] values,
+            int offset, int count) {
+        if (c instanceof BatchStreamConsumer) {
+            ((BatchStreamConsumer) c).addDataBatch(timestampsMillis, values, offset, count);
+        } else {
+            for (int i = offset; i < offset + count; i++) {
+                c.addData(timestampsMillis[i], values[i]);
+            }
+        }
+    }
+}
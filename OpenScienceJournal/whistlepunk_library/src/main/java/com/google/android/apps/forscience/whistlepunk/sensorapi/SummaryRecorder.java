@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
+
+/**
+ * Records summaries of the tier-0 data as it is recorded, alongside {@link ZoomRecorder}.  Each
+ * summary at level 0 covers a run of consecutive data points, and each summary at level X+1
+ * covers a run of consecutive summaries at level X.  Range statistics can then be computed from a
+ * few summaries instead of every data point in the range.
+ */
+public class SummaryRecorder {
+    /**
+     * How many data points each level 0 summary covers
+     */
+    public static final int DEFAULT_POINTS_PER_SUMMARY = 100;
+
+    /**
+     * How many summaries from the level below each higher-level summary covers
+     */
+    public static final int DEFAULT_SUMMARIES_PER_LEVEL = 10;
+
+    private final String mSensorId;
+    private final int mPointsPerSummary;
+    private final int mSummariesPerLevel;
+    private final int mLevel;
+
+    private int mSeenThisPass = 0;
+    private ScalarAggregate mSummary = new ScalarAggregate();
+    private SummaryRecorder mNextLevelUp = null;
+
+    public SummaryRecorder(String sensorId) {
+        this(sensorId, DEFAULT_POINTS_PER_SUMMARY, DEFAULT_SUMMARIES_PER_LEVEL, 0);
+    }
+
+    /**
+     * @param pointsPerSummary  how many data points each level 0 summary covers
+     * @param summariesPerLevel how many summaries each summary on the next level up covers
+     */
+    public SummaryRecorder(String sensorId, int pointsPerSummary, int summariesPerLevel,
+            int level) {
+        mSensorId = sensorId;
+        mPointsPerSummary = pointsPerSummary;
+        mSummariesPerLevel = summariesPerLevel;
+        mLevel = level;
+    }
+
+    public void clear() {
+        mNextLevelUp = null;
+        resetSummary();
+    }
+
+    private void resetSummary() {
+        mSeenThisPass = 0;
+        mSummary = new ScalarAggregate();
+    }
+
+    public void addData(long timestampMillis, double value, RecordingDataController dc) {
+        mSummary.add(timestampMillis, value);
+        countAndMaybeFlush(mPointsPerSummary, dc);
+    }
+
+    private void addSummary(ScalarAggregate summary, RecordingDataController dc) {
+        mSummary.merge(summary);
+        countAndMaybeFlush(mSummariesPerLevel, dc);
+    }
+
+    private void countAndMaybeFlush(int perSummary, RecordingDataController dc) {
+        mSeenThisPass++;
+        if (mSeenThisPass == perSummary) {
+            getNextLevelUp().addSummary(mSummary, dc);
+            storeSummary(dc);
+        }
+    }
+
+    private SummaryRecorder getNextLevelUp() {
+        if (mNextLevelUp == null) {
+            mNextLevelUp = new SummaryRecorder(mSensorId, mPointsPerSummary, mSummariesPerLevel,
+                    mLevel + 1);
+        }
+        return mNextLevelUp;
+    }
+
+    private void storeSummary(RecordingDataController dc) {
+        // The summary object is handed off to the data controller, so start a new one.
+        dc.addScalarSummary(mSensorId, mLevel, mSummary);
+        resetSummary();
+    }
+
+    /**
+     * Stores the partial summaries at every level, for when recording stops.  Partial summaries
+     * are only passed up to levels that already exist, so this doesn't add new levels.
+     */
+    public void flushAllLevels(RecordingDataController dc) {
+        if (mSeenThisPass > 0) {
+            if (mNextLevelUp != null) {
+                mNextLevelUp.addSummary(mSummary, dc);
+            }
+            storeSummary(dc);
+        }
+        if (mNextLevelUp != null) {
+            mNextLevelUp.flushAllLevels(dc);
+            mNextLevelUp = null;
+        }
+    }
+}
@@ -26,7 +26,17 @@ public interface ValueFilter {
         public double filterValue(long timestamp, double value) {
             return value;
         }
+
+        @Override
+        public void filterValues(long[] timestamps, double[] values, int offset, int count) {
+        }
     };
 
     double filterValue(long timestamp, double value);
+
+    /**
+     * Filters {@code count} values starting at {@code offset}, in order, as if each were passed
+     * to {@link #filterValue}, replacing each with its filtered value.
+     */
+    void filterValues(long[] timestamps, double[] values, int offset, int count);
 }
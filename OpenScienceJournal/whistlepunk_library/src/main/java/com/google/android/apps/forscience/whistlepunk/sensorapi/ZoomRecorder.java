@@ -17,13 +17,20 @@
 package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
 import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.common.annotations.VisibleForTesting;
 
 /**
- * Stores data at multiple granularities.  For each run of N*2 data points in tier X, there are 2
- * data points in tier X+1, and those are the max and min data points over that run.
+ * Stores data at multiple granularities.  For each window of data points in tier X, a
+ * {@link Downsampler} chooses the few data points that represent it in tier X+1.  By default,
+ * those are the max and min data points over each run of N*2 data points.
  *
  * This seems to allow us to capture the general shape of the graph better than trying to, for
  * example, synthesize an "average" data point for the run.
+ *
+ * A recorder made by {@link #createAdaptive} chooses the zoom level from the sample rate seen at
+ * the start of the run, and only adds a tier once the tier below has too many data points to
+ * show the whole run at once.
  */
 public class ZoomRecorder {
     /**
@@ -38,75 +45,298 @@ public class ZoomRecorder {
      */
     public static final String STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS = "stats_zoom_level";
 
+    /**
+     * Prefix of the statistics keys for the {@link Downsampler} algorithm that made each tier
+     * above tier 0; see {@link #getAlgorithmStatsKey}.
+     */
+    public static final String STATS_KEY_TIER_ALGORITHM_PREFIX = "stats_tier_algorithm_";
+
+    /**
+     * Statistics key for the lowest resolution tier that still has stored data.  Tiers below it
+     * have been deleted to save space (see ReadingCompaction); runs without it still have tier 0.
+     */
+    public static final String STATS_KEY_LOWEST_TIER = "stats_lowest_tier";
+
+    // How many data points the adaptive zoom level's sample rate is measured over, at most
+    private static final int RATE_SAMPLE_COUNT = 100;
+
+    // How long the adaptive zoom level's sample rate is measured over, at most
+    private static final long RATE_SAMPLE_MILLIS = 10000;
+
+    // The sample rate that gets ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS
+    private static final double REFERENCE_SAMPLES_PER_SECOND = 10;
+
+    private static final int MIN_ADAPTIVE_ZOOM_LEVEL = 4;
+    private static final int MAX_ADAPTIVE_ZOOM_LEVEL = 200;
+
+    private static final int ZOOM_LEVEL_NOT_CHOSEN = 0;
+    private static final int NO_TOP_TIER_LIMIT = 0;
+
     private final String mSensorId;
-    private final int mZoomBufferSize;
     private final int mTier;
+    private final Downsampler mDownsampler;
+    private final boolean mAdaptive;
+    private final int mMaxPointsInTopTier;
+    private int mZoomLevel;
+    private int mZoomBufferSize;
+
+    // Where the downsampler puts the data points it chooses
+    private final long[] mChosenTimestamps;
+    private final double[] mChosenValues;
+
+    // Data points written at this tier that haven't been sent up, because there's no tier above
+    // yet
+    private long[] mHeldTimestamps;
+    private double[] mHeldValues;
+    private int mHeldCount = 0;
+    private boolean mHasWritten = false;
 
     private int mSeenThisPass = 0;
-    private long mTimestampOfMinSeen;
-    private double mValueOfMinSeen;
-    private long mTimestampOfMaxSeen;
-    private double mValueOfMaxSeen;
+    private long mFirstTimestamp;
+    private long mLastTimestamp;
+    private int mSeenForRate = 0;
     private ZoomRecorder mNextTierUp = null;
 
     /**
+     * Stores the min and max of each run of {@code zoomBufferSize} data points.
+     *
      * @param zoomBufferSize how many data points we can store before sending summary data points to
      *                       the next tier up.  Note that since we send 2 summary points per buffer,
      *                       (max and min), each tier will hold (2 / zoomBufferSize) as many data
      *                       points as the next tier down.
      */
     public ZoomRecorder(String id, int zoomBufferSize, int tier) {
+        this(id, zoomBufferSize, tier, new MinMaxDownsampler());
+    }
+
+    /**
+     * @param zoomBufferSize how many data points we can store before sending summary data points to
+     *                       the next tier up.  For the ratio between tiers to be the zoom level,
+     *                       this should be the zoom level times
+     *                       {@link Downsampler#getPointsPerWindow()}.
+     * @param downsampler    chooses the summary data points.  Each tier uses a new instance.
+     */
+    public ZoomRecorder(String id, int zoomBufferSize, int tier, Downsampler downsampler) {
+        this(id, tier, downsampler, false,
+                Math.max(1, zoomBufferSize / downsampler.getPointsPerWindow()), zoomBufferSize,
+                NO_TOP_TIER_LIMIT);
+    }
+
+    private ZoomRecorder(String id, int tier, Downsampler downsampler, boolean adaptive,
+            int zoomLevel, int zoomBufferSize, int maxPointsInTopTier) {
         mSensorId = id;
         mTier = tier;
+        mDownsampler = downsampler.newInstance();
+        mAdaptive = adaptive;
+        mZoomLevel = zoomLevel;
         mZoomBufferSize = zoomBufferSize;
-        resetBuffer();
+        mMaxPointsInTopTier = maxPointsInTopTier;
+        mChosenTimestamps = new long[downsampler.getMaxPointsPerFlush()];
+        mChosenValues = new double[downsampler.getMaxPointsPerFlush()];
+        if (maxPointsInTopTier != NO_TOP_TIER_LIMIT) {
+            mHeldTimestamps = new long[maxPointsInTopTier];
+            mHeldValues = new double[maxPointsInTopTier];
+        }
+    }
+
+    /**
+     * Makes a recorder for tier 1 that chooses the zoom level between tiers from the sample rate
+     * of the first data points of each run (see {@link #chooseZoomLevel}), and that stops adding
+     * tiers once the top one has at most {@code maxPointsInTopTier} data points.
+     *
+     * @param maxPointsInTopTier how many data points a chart should show at once, typically
+     *                           ZoomPresenter.IDEAL_NUMBER_OF_DISPLAYED_DATAPOINTS.  There's no
+     *                           use in a tier above one with fewer points than that.
+     */
+    public static ZoomRecorder createAdaptive(String id, Downsampler downsampler,
+            int maxPointsInTopTier) {
+        return new ZoomRecorder(id, 1, downsampler, true, ZOOM_LEVEL_NOT_CHOSEN,
+                ZOOM_LEVEL_NOT_CHOSEN, maxPointsInTopTier);
+    }
+
+    /**
+     * Slower sensors get a smaller zoom level, so that each tier is closer to the number of data
+     * points a chart wants; faster ones get a bigger one, so that there are fewer tiers, each
+     * holding a smaller fraction of the data points below.  The zoom level grows with the square
+     * root of the rate, which balances the two.
+     *
+     * @return the zoom level between tiers for a sensor sampling at {@code samplesPerSecond}
+     */
+    @VisibleForTesting
+    public static int chooseZoomLevel(double samplesPerSecond) {
+        if (!(samplesPerSecond > 0) || Double.isInfinite(samplesPerSecond)) {
+            return ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS;
+        }
+        long zoomLevel = Math.round(ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS * Math.sqrt(
+                samplesPerSecond / REFERENCE_SAMPLES_PER_SECOND));
+        return (int) Math.max(MIN_ADAPTIVE_ZOOM_LEVEL,
+                Math.min(MAX_ADAPTIVE_ZOOM_LEVEL, zoomLevel));
+    }
+
+    /**
+     * @return the key under which the run stats store the algorithm that made {@code tier}
+     */
+    public static String getAlgorithmStatsKey(int tier) {
+        return STATS_KEY_TIER_ALGORITHM_PREFIX + tier;
+    }
+
+    /**
+     * @return the {@link Downsampler} algorithm that made {@code tier}.  Runs recorded before
+     * this was stored were all made by {@link Downsampler#ALGORITHM_MIN_MAX}.
+     */
+    public static int getTierAlgorithm(RunStats runStats, int tier) {
+        return runStats.getIntStat(getAlgorithmStatsKey(tier), Downsampler.ALGORITHM_MIN_MAX);
+    }
+
+    /**
+     * Stores the tier count, the zoom level and the algorithm of each tier in {@code runStats}.
+     *
+     * @param tierCount the result of {@link #countTiers}, before the tiers were flushed
+     */
+    public static void putTierStats(RunStats runStats, int tierCount, int zoomLevelBetweenTiers,
+            int algorithm) {
+        runStats.putStat(STATS_KEY_TIER_COUNT, tierCount);
+        runStats.putStat(STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS, zoomLevelBetweenTiers);
+        for (int tier = 1; tier < tierCount; tier++) {
+            runStats.putStat(getAlgorithmStatsKey(tier), algorithm);
+        }
+    }
+
+    /**
+     * @return the lowest tier of the run that still has stored data
+     */
+    public static int getLowestTier(RunStats runStats) {
+        return runStats.getIntStat(STATS_KEY_LOWEST_TIER, 0);
+    }
+
+    public int getAlgorithm() {
+        return mDownsampler.getAlgorithm();
+    }
+
+    /**
+     * @return the ratio of data points between tiers.  For an adaptive recorder, this is a
+     * guess until enough data points have been seen to choose it.
+     */
+    public int getZoomLevelBetweenTiers() {
+        if (mZoomLevel == ZOOM_LEVEL_NOT_CHOSEN) {
+            return estimateZoomLevel();
+        }
+        return mZoomLevel;
+    }
+
+    private int estimateZoomLevel() {
+        if (mSeenForRate < 2 || mLastTimestamp <= mFirstTimestamp) {
+            return ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS;
+        }
+        return chooseZoomLevel((mSeenForRate - 1) * 1000.0 / (mLastTimestamp - mFirstTimestamp));
     }
 
     public void clear() {
         mNextTierUp = null;
+        mHeldCount = 0;
+        mHasWritten = false;
+        if (mAdaptive) {
+            mZoomLevel = ZOOM_LEVEL_NOT_CHOSEN;
+            mZoomBufferSize = ZOOM_LEVEL_NOT_CHOSEN;
+            mSeenForRate = 0;
+        }
         resetBuffer();
     }
 
     private void resetBuffer() {
         mSeenThisPass = 0;
-        mValueOfMinSeen = Double.MAX_VALUE;
-        mValueOfMaxSeen = -Double.MAX_VALUE;
-        mTimestampOfMaxSeen = mTimestampOfMinSeen = -1;
+        mDownsampler.clear();
     }
 
     public void addData(long timestampMillis, double value, RecordingDataController dc) {
         mSeenThisPass++;
-        if (value > mValueOfMaxSeen) {
-            mValueOfMaxSeen = value;
-            mTimestampOfMaxSeen = timestampMillis;
+        mDownsampler.addData(timestampMillis, value);
+        if (mZoomLevel == ZOOM_LEVEL_NOT_CHOSEN) {
+            measureRate(timestampMillis);
+            if (mZoomLevel == ZOOM_LEVEL_NOT_CHOSEN) {
+                return;
+            }
         }
-        if (value < mValueOfMinSeen) {
-            mValueOfMinSeen = value;
-            mTimestampOfMinSeen = timestampMillis;
-        }
-        if (mSeenThisPass == mZoomBufferSize) {
+        if (mSeenThisPass >= mZoomBufferSize) {
             flush(dc);
         }
     }
 
+    /**
+     * Adds {@code count} data points, starting at {@code offset}, as if each were passed to
+     * {@link #addData(long, double, RecordingDataController)} in turn, but handing each window to
+     * the downsampler without checking for its end after every point.
+     */
+    public void addData(long[] timestampsMillis, double[] values, int offset, int count,
+            RecordingDataController dc) {
+        int end = offset + count;
+        int i = offset;
+        // Until the zoom level is chosen, any data point may change the window size.
+        for (; i < end && mZoomLevel == ZOOM_LEVEL_NOT_CHOSEN; i++) {
+            addData(timestampsMillis[i], values[i], dc);
+        }
+        while (i < end) {
+            int windowEnd = Math.min(end, i + mZoomBufferSize - mSeenThisPass);
+            mSeenThisPass += windowEnd - i;
+            for (; i < windowEnd; i++) {
+                mDownsampler.addData(timestampsMillis[i], values[i]);
+            }
+            if (mSeenThisPass >= mZoomBufferSize) {
+                flush(dc);
+            }
+        }
+    }
+
+    private void measureRate(long timestampMillis) {
+        if (mSeenForRate == 0) {
+            mFirstTimestamp = timestampMillis;
+        }
+        mSeenForRate++;
+        mLastTimestamp = timestampMillis;
+        if (mSeenForRate >= RATE_SAMPLE_COUNT
+                || timestampMillis - mFirstTimestamp >= RATE_SAMPLE_MILLIS) {
+            chooseZoomLevel();
+        }
+    }
+
+    private void chooseZoomLevel() {
+        mZoomLevel = estimateZoomLevel();
+        mZoomBufferSize = mZoomLevel * mDownsampler.getPointsPerWindow();
+    }
+
     private void addReadingAtThisTier(RecordingDataController dc, long timestamp,
             double value) {
         dc.addScalarReading(mSensorId, mTier, timestamp, value);
+        mHasWritten = true;
+        if (mNextTierUp == null && mMaxPointsInTopTier != NO_TOP_TIER_LIMIT) {
+            if (mHeldCount < mMaxPointsInTopTier) {
+                mHeldTimestamps[mHeldCount] = timestamp;
+                mHeldValues[mHeldCount] = value;
+                mHeldCount++;
+                return;
+            }
+            // Too many to show at once: time for a tier above, which needs all of them.
+            for (int i = 0; i < mHeldCount; i++) {
+                getNextTierUp().addData(mHeldTimestamps[i], mHeldValues[i], dc);
+            }
+            mHeldCount = 0;
+        }
         getNextTierUp().addData(timestamp, value, dc);
     }
 
     private ZoomRecorder getNextTierUp() {
         if (mNextTierUp == null) {
-            mNextTierUp = new ZoomRecorder(mSensorId, mZoomBufferSize, mTier + 1);
+            mNextTierUp = new ZoomRecorder(mSensorId, mTier + 1, mDownsampler, false, mZoomLevel,
+                    mZoomBufferSize, mMaxPointsInTopTier);
         }
         return mNextTierUp;
     }
 
     public int countTiers() {
         if (mNextTierUp == null) {
-            // If we don't have a parent, then we haven't written anything at our level yet, so
-            // the total count is our tier number
-            return mTier;
+            // If we don't have a parent, then we only have data at our level if we're holding
+            // it back from the tier above, and otherwise the total count is our tier number
+            return mHasWritten ? mTier + 1 : mTier;
         } else {
             return mNextTierUp.countTiers();
         }
@@ -117,15 +347,23 @@ public class ZoomRecorder {
             mNextTierUp.flushAllTiers(dc);
             mNextTierUp = null;
         }
-        flush(dc);
+        if (mZoomLevel == ZOOM_LEVEL_NOT_CHOSEN) {
+            chooseZoomLevel();
+        }
+        addChosenReadings(dc, mDownsampler.finish(mChosenTimestamps, mChosenValues));
+        mSeenThisPass = 0;
     }
 
     public void flush(RecordingDataController dc) {
         if (mSeenThisPass > 0) {
-            // order of adding data to DB doesn't matter
-            addReadingAtThisTier(dc, mTimestampOfMinSeen, mValueOfMinSeen);
-            addReadingAtThisTier(dc, mTimestampOfMaxSeen, mValueOfMaxSeen);
-            resetBuffer();
+            addChosenReadings(dc, mDownsampler.endWindow(mChosenTimestamps, mChosenValues));
+            mSeenThisPass = 0;
+        }
+    }
+
+    private void addChosenReadings(RecordingDataController dc, int count) {
+        for (int i = 0; i < count; i++) {
+            addReadingAtThisTier(dc, mChosenTimestamps[i], mChosenValues[i]);
         }
     }
 }
@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.javalib.Success;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Computes the zoom tiers and summaries of a recording off the thread that the data points arrive
+ * on.  That thread only copies each data point into a ring buffer; a batch at a time, the buffered
+ * points are fed through a {@link ZoomRecorder} and a {@link SummaryRecorder} on
+ * {@code executor}, and the tier readings they produce are handed to the data controller together.
+ *
+ * Points must be added from one thread at a time.  If the buffer fills up, because the executor
+ * can't keep up, the adding thread computes the tiers itself, so nothing is lost.
+ */
+public class ZoomTierStage {
+    /**
+     * How many data points can wait for tier computation, by default
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * How many data points to wait for before computing their tiers, by default
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static Executor sSharedExecutor = null;
+
+    private final ZoomRecorder mZoomRecorder;
+    private final SummaryRecorder mSummaryRecorder;
+    private final RecordingDataController mDataController;
+    private final Executor mExecutor;
+    private final int mBatchSize;
+
+    private final long[] mTimestamps;
+    private final double[] mValues;
+    private final int mMask;
+
+    // Only changed by the adding thread
+    private volatile long mAddedCount = 0;
+
+    // Only changed while holding mLock
+    private volatile long mProcessedCount = 0;
+
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+
+    // Guards the recorders and mTierReadings
+    private final Object mLock = new Object();
+
+    // The tier readings produced by the current batch
+    private final ScalarReadingBuffer mTierReadings;
+
+    // Collects what the recorders write, so that tier readings can be handed on together
+    private final RecordingDataController mCollector = new RecordingDataController() {
+        @Override
+        public void addScalarReading(String sensorId, int resolutionTier,
+                long timestampMillis, double value) {
+            mTierReadings.add(resolutionTier, timestampMillis, value);
+        }
+
+        @Override
+        public void addScalarReadings(ScalarReadingBuffer readings) {
+            mTierReadings.addAll(readings);
+        }
+
+        @Override
+        public void addScalarSummary(String sensorId, int level, ScalarAggregate summary) {
+            mDataController.addScalarSummary(sensorId, level, summary);
+        }
+
+        @Override
+        public void flushScalarReadings(String sensorId) {
+        }
+
+        @Override
+        public void setCurrentRun(String sensorId, String runId) {
+        }
+
+        @Override
+        public void setStats(String runId, String sensorId, RunStats runStats,
+                MaybeConsumer<Success> onSuccess) {
+        }
+
+        @Override
+        public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {
+        }
+
+        @Override
+        public void clearDataErrorListenerForSensor(String sensorId) {
+        }
+    };
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared first, so that points added while draining schedule another drain.
+            mDrainScheduled.set(false);
+            synchronized (mLock) {
+                drainLocked();
+            }
+        }
+    };
+
+    /**
+     * @return a single thread shared by every sensor's stage, so that tier computation doesn't
+     * compete with the sensors or the database for more than one core
+     */
+    public static synchronized Executor getSharedExecutor() {
+        if (sSharedExecutor == null) {
+            sSharedExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sSharedExecutor;
+    }
+
+    /**
+     * @param capacity  how many data points can wait; rounded up to a power of 2
+     * @param batchSize how many data points to wait for before computing their tiers on
+     *                  {@code executor}.  The rest are computed by {@link #putTierStats}.
+     */
+    public ZoomTierStage(String sensorId, ZoomRecorder zoomRecorder,
+            SummaryRecorder summaryRecorder, RecordingDataController dataController,
+            Executor executor, int capacity, int batchSize) {
+        mZoomRecorder = zoomRecorder;
+        mSummaryRecorder = summaryRecorder;
+        mDataController = dataController;
+        mExecutor = executor;
+        mBatchSize = Math.min(batchSize, capacity);
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mTimestamps = new long[size];
+        mValues = new double[size];
+        mMask = size - 1;
+        mTierReadings = new ScalarReadingBuffer(sensorId);
+    }
+
+    /**
+     * Forgets the tiers of the previous recording.  Call before adding the first data point of a
+     * recording.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mProcessedCount = mAddedCount;
+            mZoomRecorder.clear();
+            mSummaryRecorder.clear();
+            mTierReadings.clear();
+        }
+    }
+
+    public void addData(long timestampMillis, double value) {
+        long added = mAddedCount;
+        if (added - mProcessedCount == mTimestamps.length) {
+            synchronized (mLock) {
+                drainLocked();
+            }
+        }
+        int slot = (int) (added & mMask);
+        mTimestamps[slot] = timestampMillis;
+        mValues[slot] = value;
+        mAddedCount = added + 1;
+
+        if (added + 1 - mProcessedCount >= mBatchSize && mDrainScheduled.compareAndSet(false,
+                true)) {
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    /**
+     * Adds {@code count} data points, starting at {@code offset}, as if each were passed to
+     * {@link #addData(long, double)} in turn.
+     */
+    public void addData(long[] timestampsMillis, double[] values, int offset, int count) {
+        int end = offset + count;
+        while (offset < end) {
+            long added = mAddedCount;
+            int room = (int) (mTimestamps.length - (added - mProcessedCount));
+            if (room == 0) {
+                synchronized (mLock) {
+                    drainLocked();
+                }
+                continue;
+            }
+            int slot = (int) (added & mMask);
+            int copied = Math.min(Math.min(room, end - offset), mTimestamps.length - slot);
+            System.arraycopy(timestampsMillis, offset, mTimestamps, slot, copied);
+            System.arraycopy(values, offset, mValues, slot, copied);
+            mAddedCount = added + copied;
+            offset += copied;
+        }
+
+        if (mAddedCount - mProcessedCount >= mBatchSize && mDrainScheduled.compareAndSet(false,
+                true)) {
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    /**
+     * Computes the tiers of every data point added so far, and then stores the tier count, zoom
+     * level and algorithm in {@code runStats} (see {@link ZoomRecorder#putTierStats}).  Call once
+     * the last data point of a recording has been added, and before {@link #flushAllTiers}.
+     */
+    public void putTierStats(RunStats runStats) {
+        synchronized (mLock) {
+            drainLocked();
+            ZoomRecorder.putTierStats(runStats, mZoomRecorder.countTiers(),
+                    mZoomRecorder.getZoomLevelBetweenTiers(), mZoomRecorder.getAlgorithm());
+        }
+    }
+
+    /**
+     * Computes the tiers of every data point added so far, including the last partial windows,
+     * and hands them to the data controller.
+     */
+    public void flushAllTiers() {
+        synchronized (mLock) {
+            drainLocked();
+            mZoomRecorder.flushAllTiers(mCollector);
+            mSummaryRecorder.flushAllLevels(mCollector);
+            handOnTierReadingsLocked();
+        }
+    }
+
+    private void drainLocked() {
+        long processed = mProcessedCount;
+        long added;
+        while ((added = mAddedCount) > processed) {
+            while (processed < added) {
+                // Up to the end of the ring, and then from its start
+                int start = (int) (processed & mMask);
+                int count = (int) Math.min(added - processed, mTimestamps.length - start);
+                mZoomRecorder.addData(mTimestamps, mValues, start, count, mCollector);
+                for (int slot = start; slot < start + count; slot++) {
+                    mSummaryRecorder.addData(mTimestamps[slot], mValues[slot], mCollector);
+                }
+                processed += count;
+            }
+            mProcessedCount = processed;
+        }
+        handOnTierReadingsLocked();
+    }
+
+    private void handOnTierReadingsLocked() {
+        if (!mTierReadings.isEmpty()) {
+            mDataController.addScalarReadings(mTierReadings);
+            mTierReadings.clear();
+        }
+    }
+}
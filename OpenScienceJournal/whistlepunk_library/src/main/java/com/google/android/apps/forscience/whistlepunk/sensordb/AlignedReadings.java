@@ -0,0 +1,425 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Merges the readings of several sensors onto a common timeline, for
+ * {@link SensorDatabase#getAlignedReadings}.
+ *
+ * The timeline has one row for each distinct timestamp at which any of the sensors has a reading.
+ * Each row has a value for every sensor: the value of its reading at that timestamp if it has one
+ * (the last, if it has several), or else one worked out from its readings on either side, as
+ * chosen by the {@link Alignment}.  Only readings within the requested range are used.
+ */
+public class AlignedReadings {
+    public enum Alignment {
+        /**
+         * The value of the sensor's closest reading, or of the earlier one if two are equally
+         * close.
+         */
+        NEAREST,
+
+        /**
+         * The value of the sensor's latest reading at or before the row, or NaN if there is none.
+         */
+        PREVIOUS,
+
+        /**
+         * Interpolated linearly between the sensor's readings on either side of the row, or NaN
+         * before its first reading or after its last.
+         */
+        LINEAR
+    }
+
+    public interface RowConsumer {
+        /**
+         * @param values one value per sensor, in the order that the sensor tags were given.
+         *               Reused for the next row, so copy anything that needs to be kept.
+         */
+        void addRow(long timestampMillis, double[] values);
+    }
+
+    private AlignedReadings() {
+        // static methods only
+    }
+
+    /**
+     * One sensor's readings, delivered a window at a time in the order that the rows are to be
+     * delivered, so that a merge only holds one window per sensor.
+     */
+    public interface ReadingWindows {
+        /**
+         * Delivers up to {@code maxReadings} more readings to {@code c}, carrying on from the last
+         * one delivered.
+         *
+         * @return how many readings were delivered; 0 once there are no more
+         */
+        int deliverNext(int maxReadings, StreamConsumer c);
+    }
+
+    // How many readings each sensor's cursor holds at once
+    private static final int READINGS_PER_WINDOW = 1000;
+
+    /**
+     * Implements {@link SensorDatabase#getAlignedReadings} by reading each tag's readings in
+     * {@code range} once, and then merging them all in a single pass.  Holds every reading in the
+     * range at once; databases that can read a range a window at a time should use
+     * {@link #mergeWindows} instead.
+     */
+    public static void computeFromReadings(SensorDatabase db, List<String> sensorTags,
+            TimeRange range, int resolutionTier, Alignment alignment, RowConsumer consumer) {
+        List<ScalarReadingList> readings = new ArrayList<>(sensorTags.size());
+        for (String tag : sensorTags) {
+            readings.add(db.getScalarReadings(tag, TimeRange.oldest(range.getTimes()),
+                    resolutionTier, 0));
+        }
+        merge(readings, range.getOrder(), alignment, consumer);
+    }
+
+    /**
+     * Delivers the rows of the common timeline of {@code readings} to {@code consumer}.
+     *
+     * @param readings one list per sensor, each in order from oldest to newest
+     * @param order    the order in which to deliver the rows
+     */
+    public static void merge(List<ScalarReadingList> readings, TimeRange.ObservationOrder order,
+            Alignment alignment, RowConsumer consumer) {
+        boolean newestFirst = order == TimeRange.ObservationOrder.NEWEST_FIRST;
+        List<ReadingWindows> windows = new ArrayList<>(readings.size());
+        for (ScalarReadingList list : readings) {
+            windows.add(new ListWindows(list, newestFirst));
+        }
+        mergeWindows(windows, order, alignment, consumer);
+    }
+
+    /**
+     * Delivers the rows of the common timeline of {@code windows} to {@code consumer}, as they
+     * are worked out.
+     *
+     * @param windows one per sensor, each delivering its readings in {@code order}
+     * @param order   the order in which to deliver the rows
+     */
+    public static void mergeWindows(List<ReadingWindows> windows,
+            TimeRange.ObservationOrder order, Alignment alignment, RowConsumer consumer) {
+        boolean newestFirst = order == TimeRange.ObservationOrder.NEWEST_FIRST;
+        Cursor[] cursors = new Cursor[windows.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new Cursor(windows.get(i), newestFirst);
+        }
+        double[] values = new double[cursors.length];
+        while (true) {
+            boolean found = false;
+            long timestamp = 0;
+            for (Cursor cursor : cursors) {
+                if (cursor.hasUpcoming()) {
+                    long next = cursor.peekUpcoming();
+                    if (!found || (newestFirst ? next > timestamp : next < timestamp)) {
+                        timestamp = next;
+                    }
+                    found = true;
+                }
+            }
+            if (!found) {
+                return;
+            }
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i].moveTo(timestamp);
+                values[i] = cursors[i].getValue(timestamp, alignment);
+            }
+            consumer.addRow(timestamp, values);
+        }
+    }
+
+    /**
+     * Delivers the readings of a list, which it copies once, in either order.
+     */
+    private static class ListWindows implements ReadingWindows {
+        private final long[] mTimestamps;
+        private final double[] mValues;
+        private final int mSize;
+        private final boolean mNewestFirst;
+        private int mDelivered = 0;
+
+        ListWindows(ScalarReadingList readings, boolean newestFirst) {
+            mTimestamps = new long[readings.size()];
+            mValues = new double[readings.size()];
+            // A list that reads the database as it is copied may hold fewer readings by now.
+            mSize = readings.copyTo(mTimestamps, mValues, 0);
+            mNewestFirst = newestFirst;
+        }
+
+        @Override
+        public int deliverNext(int maxReadings, StreamConsumer c) {
+            int count = Math.min(maxReadings, mSize - mDelivered);
+            for (int i = 0; i < count; i++) {
+                int index = mNewestFirst ? mSize - 1 - mDelivered : mDelivered;
+                c.addData(mTimestamps[index], mValues[index]);
+                mDelivered++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * One sensor's readings, and where the timeline has got to in them.  Readings are consumed in
+     * delivery order as the timeline passes them, one window at a time.
+     */
+    private static class Cursor implements StreamConsumer {
+        private final ReadingWindows mWindows;
+        private final boolean mNewestFirst;
+        private final long[] mTimestamps = new long[READINGS_PER_WINDOW];
+        private final double[] mValues = new double[READINGS_PER_WINDOW];
+
+        // How many readings the current window holds, and how many of them have been consumed
+        private int mSize = 0;
+        private int mConsumed = 0;
+        private boolean mExhausted = false;
+
+        // The sensor's latest reading at or before the current row, and its earliest after it
+        private boolean mHasPrevious = false;
+        private long mPreviousTimestamp;
+        private double mPreviousValue;
+        private boolean mHasNext = false;
+        private long mNextTimestamp;
+        private double mNextValue;
+
+        // The reading consumed most recently; only kept when going newest first
+        private boolean mHasLastConsumed = false;
+        private long mLastConsumedTimestamp;
+        private double mLastConsumedValue;
+
+        Cursor(ReadingWindows windows, boolean newestFirst) {
+            mWindows = windows;
+            mNewestFirst = newestFirst;
+        }
+
+        @Override
+        public void addData(long timestampMillis, double value) {
+            if (mSize < mTimestamps.length) {
+                mTimestamps[mSize] = timestampMillis;
+                mValues[mSize] = value;
+                mSize++;
+            }
+        }
+
+        /**
+         * @return true if there are readings that the timeline hasn't reached yet
+         */
+        boolean hasUpcoming() {
+            if (mConsumed == mSize && !mExhausted) {
+                mSize = 0;
+                mConsumed = 0;
+                mExhausted = mWindows.deliverNext(mTimestamps.length, this) == 0;
+            }
+            return mConsumed < mSize;
+        }
+
+        /**
+         * @return the timestamp of the next reading in delivery order, after the current row
+         */
+        long peekUpcoming() {
+            return mTimestamps[mConsumed];
+        }
+
+        void moveTo(long timestamp) {
+            if (mNewestFirst) {
+                // Every reading consumed for earlier rows is after this one, and the last of them
+                // is the closest.  The first reading delivered at the row is the last one stored
+                // there.
+                mHasNext = mHasLastConsumed;
+                mNextTimestamp = mLastConsumedTimestamp;
+                mNextValue = mLastConsumedValue;
+                boolean atRow = false;
+                while (hasUpcoming() && peekUpcoming() >= timestamp) {
+                    if (peekUpcoming() > timestamp) {
+                        mHasNext = true;
+                        mNextTimestamp = peekUpcoming();
+                        mNextValue = mValues[mConsumed];
+                    } else if (!atRow) {
+                        atRow = true;
+                        mHasPrevious = true;
+                        mPreviousTimestamp = timestamp;
+                        mPreviousValue = mValues[mConsumed];
+                    }
+                    mHasLastConsumed = true;
+                    mLastConsumedTimestamp = peekUpcoming();
+                    mLastConsumedValue = mValues[mConsumed];
+                    mConsumed++;
+                }
+                if (!atRow) {
+                    mHasPrevious = hasUpcoming();
+                    if (mHasPrevious) {
+                        mPreviousTimestamp = peekUpcoming();
+                        mPreviousValue = mValues[mConsumed];
+                    }
+                }
+            } else {
+                while (hasUpcoming() && peekUpcoming() <= timestamp) {
+                    mHasPrevious = true;
+                    mPreviousTimestamp = peekUpcoming();
+                    mPreviousValue = mValues[mConsumed];
+                    mConsumed++;
+                }
+                mHasNext = hasUpcoming();
+                if (mHasNext) {
+                    mNextTimestamp = peekUpcoming();
+                    mNextValue = mValues[mConsumed];
+                }
+            }
+        }
+
+        double getValue(long timestamp, Alignment alignment) {
+            if (mHasPrevious && mPreviousTimestamp == timestamp) {
+                return mPreviousValue;
+            }
+            switch (alignment) {
+                case PREVIOUS:
+                    return mHasPrevious ? mPreviousValue : Double.NaN;
+                case NEAREST:
+                    if (!mHasPrevious) {
+                        return mHasNext ? mNextValue : Double.NaN;
+                    }
+                    if (!mHasNext || timestamp - mPreviousTimestamp
+                            <= mNextTimestamp - timestamp) {
+                        return mPreviousValue;
+                    }
+                    return mNextValue;
+                case LINEAR:
+                    if (!mHasPrevious || !mHasNext) {
+                        return Double.NaN;
+                    }
+                    double fraction = (double) (timestamp - mPreviousTimestamp)
+                            / (mNextTimestamp - mPreviousTimestamp);
+                    return mPreviousValue + (mNextValue - mPreviousValue) * fraction;
+                default:
+                    throw new IllegalArgumentException("Unexpected value for enum: " + alignment);
+            }
+        }
+    }
+
+    /**
+     * Collects the rows of a timeline into pages, and hands each one to {@code consumer} on
+     * {@code executor} as soon as it is full, so that a long timeline can be passed to another
+     * thread without holding all of it at once.  Call {@link #flush} after the last row.
+     */
+    public static class RowPages implements RowConsumer {
+        private final int mSensorCount;
+        private final int mRowsPerPage;
+        private final Executor mExecutor;
+        private final RowConsumer mConsumer;
+        private Rows mPage;
+
+        public RowPages(int sensorCount, int rowsPerPage, Executor executor,
+                RowConsumer consumer) {
+            mSensorCount = sensorCount;
+            mRowsPerPage = rowsPerPage;
+            mExecutor = executor;
+            mConsumer = consumer;
+            mPage = new Rows(sensorCount);
+        }
+
+        @Override
+        public void addRow(long timestampMillis, double[] values) {
+            mPage.addRow(timestampMillis, values);
+            if (mPage.size() >= mRowsPerPage) {
+                flush();
+            }
+        }
+
+        /**
+         * Hands over the rows added since the last full page.
+         */
+        public void flush() {
+            if (mPage.size() == 0) {
+                return;
+            }
+            final Rows page = mPage;
+            mPage = new Rows(mSensorCount);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    page.deliver(mConsumer);
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects the rows of a timeline, so that they can be handed to another thread.
+     */
+    public static class Rows implements RowConsumer {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final int mSensorCount;
+        private long[] mTimestamps = new long[INITIAL_CAPACITY];
+        private double[] mValues;
+        private int mSize = 0;
+
+        public Rows(int sensorCount) {
+            mSensorCount = sensorCount;
+            mValues = new double[INITIAL_CAPACITY * sensorCount];
+        }
+
+        @Override
+        public void addRow(long timestampMillis, double[] values) {
+            if (mSize == mTimestamps.length) {
+                mTimestamps = Arrays.copyOf(mTimestamps, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2 * mSensorCount);
+            }
+            mTimestamps[mSize] = timestampMillis;
+            System.arraycopy(values, 0, mValues, mSize * mSensorCount, mSensorCount);
+            mSize++;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public int getSensorCount() {
+            return mSensorCount;
+        }
+
+        public long getTimestamp(int row) {
+            return mTimestamps[row];
+        }
+
+        /**
+         * @param sensorIndex the position of the sensor's tag in the list that was asked for
+         */
+        public double getValue(int row, int sensorIndex) {
+            return mValues[row * mSensorCount + sensorIndex];
+        }
+
+        /**
+         * Delivers every row, in order, to {@code consumer}, on the calling thread.
+         */
+        public void deliver(RowConsumer consumer) {
+            double[] values = new double[mSensorCount];
+            for (int row = 0; row < mSize; row++) {
+                System.arraycopy(mValues, row * mSensorCount, values, 0, mSensorCount);
+                consumer.addRow(mTimestamps[row], values);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A ScalarReadingList backed by parallel arrays of timestamps and values.
+ */
+public class ArrayScalarReadingList implements ScalarReadingList {
+    private final long[] mTimestamps;
+    private final double[] mValues;
+    private final int mSize;
+
+    /**
+     * Does not copy the arrays: caller should not change them after handing them over.
+     */
+    public ArrayScalarReadingList(long[] timestamps, double[] values, int size) {
+        mTimestamps = timestamps;
+        mValues = values;
+        mSize = size;
+    }
+
+    /**
+     * Reads {@code readings} once, into arrays.  Some lists read the database every time they are
+     * used (see SensorDatabaseImpl's unlimited reads), so they are slow to use on the UI thread,
+     * and two calls to them may not see the same readings; a copy is neither.
+     *
+     * @return {@code readings} itself if it is already backed by arrays, or else a copy of
+     * everything it delivers
+     */
+    public static ArrayScalarReadingList copyOf(ScalarReadingList readings) {
+        if (readings instanceof ArrayScalarReadingList) {
+            return (ArrayScalarReadingList) readings;
+        }
+        ArrayCollector collector = new ArrayCollector();
+        readings.deliver(collector);
+        return new ArrayScalarReadingList(collector.mTimestamps, collector.mValues,
+                collector.mSize);
+    }
+
+    @Override
+    public void deliver(StreamConsumer c) {
+        StreamConsumers.addData(c, mTimestamps, mValues, 0, mSize);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public int copyTo(long[] timestamps, double[] values, int offset) {
+        System.arraycopy(mTimestamps, 0, timestamps, offset, mSize);
+        System.arraycopy(mValues, 0, values, offset, mSize);
+        return mSize;
+    }
+
+    @Override
+    public List<ChartData.DataPoint> asDataPoints() {
+        List<ChartData.DataPoint> result = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            result.add(new ChartData.DataPoint(mTimestamps[i], mValues[i]));
+        }
+        return result;
+    }
+
+    private static class ArrayCollector implements StreamConsumer {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private long[] mTimestamps = new long[INITIAL_CAPACITY];
+        private double[] mValues = new double[INITIAL_CAPACITY];
+        private int mSize = 0;
+
+        @Override
+        public void addData(long timestampMillis, double value) {
+            if (mSize == mTimestamps.length) {
+                mTimestamps = Arrays.copyOf(mTimestamps, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mTimestamps[mSize] = timestampMillis;
+            mValues[mSize] = value;
+            mSize++;
+        }
+    }
+}
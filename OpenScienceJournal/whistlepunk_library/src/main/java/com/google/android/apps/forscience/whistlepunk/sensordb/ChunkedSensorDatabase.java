@@ -0,0 +1,878 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.util.Pair;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SensorDatabase that stores readings compressed into fixed-duration chunks, rather than one row
+ * per reading.  For each tag and resolution tier, all readings whose timestamps fall in the same
+ * chunk window (windows are aligned to multiples of the chunk duration) are stored in a single
+ * row, as a blob produced by {@link ScalarChunkCodec}.  Reads only decode the chunks that overlap
+ * the requested time range.
+ *
+ * The newest chunk for each tag and tier is kept open in memory while it is being written.  Its
+ * readings are also stored uncompressed in a pending table, so that nothing is lost if the process
+ * dies.  An open chunk is sealed (compressed into the chunk table) once its tag records a reading
+ * in a later window at the same tier, or a reading more than a full chunk duration past the end
+ * of its window at any tier.  The last chunk of a recording therefore stays pending until that
+ * sensor is recorded again.
+ *
+ * To move data recorded by {@link SensorDatabaseImpl} into a ChunkedSensorDatabase, use
+ * {@link SensorDatabaseImpl#copyAllReadingsTo(SensorDatabase)}, or its batches one at a time as
+ * the app does when this engine is first chosen.
+ */
+public class ChunkedSensorDatabase implements SensorDatabase {
+    public static final long DEFAULT_CHUNK_DURATION_MILLIS = 60 * 1000;
+
+    private static class DbVersions {
+        public static final int V1_START = 1;
+        public static final int CURRENT = V1_START;
+    }
+
+    private static class ChunksTable {
+        public static final String NAME = "scalar_chunks";
+
+        public static class Column {
+            public static final String TAG = "tag";
+            public static final String RESOLUTION_TIER = "resolutionTier";
+            public static final String CHUNK_START_MILLIS = "chunkStartMillis";
+            public static final String FIRST_TIMESTAMP_MILLIS = "firstTimestampMillis";
+            public static final String LAST_TIMESTAMP_MILLIS = "lastTimestampMillis";
+            public static final String READING_COUNT = "readingCount";
+            public static final String DATA = "data";
+        }
+
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.TAG
+                + " TEXT, " + Column.RESOLUTION_TIER + " INTEGER, " + Column.CHUNK_START_MILLIS
+                + " INTEGER, " + Column.FIRST_TIMESTAMP_MILLIS + " INTEGER, "
+                + Column.LAST_TIMESTAMP_MILLIS + " INTEGER, " + Column.READING_COUNT
+                + " INTEGER, " + Column.DATA + " BLOB);";
+
+        public static final String INDEX_SQL = "CREATE UNIQUE INDEX chunk_key ON " + NAME + "("
+                + Column.TAG + ", " + Column.RESOLUTION_TIER + ", " + Column.CHUNK_START_MILLIS
+                + ");";
+    }
+
+    private static class PendingReadingsTable {
+        public static final String NAME = "pending_readings";
+
+        public static class Column {
+            public static final String TAG = "tag";
+            public static final String RESOLUTION_TIER = "resolutionTier";
+            public static final String TIMESTAMP_MILLIS = "timestampMillis";
+            public static final String VALUE = "value";
+        }
+
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.TAG
+                + " TEXT, " + Column.RESOLUTION_TIER + " INTEGER, " + Column.TIMESTAMP_MILLIS
+                + " INTEGER, " + Column.VALUE + " REAL);";
+
+        public static final String INSERT_SQL = "INSERT INTO " + NAME + " (" + Column.TAG + ", "
+                + Column.RESOLUTION_TIER + ", " + Column.TIMESTAMP_MILLIS + ", " + Column.VALUE
+                + ") VALUES (?, ?, ?, ?);";
+    }
+
+    private final SQLiteOpenHelper mOpenHelper;
+    private final long mChunkDurationMillis;
+
+    // Open chunks, by tag.  Loaded lazily from the pending table; set back to null to force a
+    // reload if a write fails partway through.
+    private Map<String, TagChunks> mOpenChunks = null;
+
+    public ChunkedSensorDatabase(Context context, String name) {
+        this(context, name, DEFAULT_CHUNK_DURATION_MILLIS);
+    }
+
+    public ChunkedSensorDatabase(Context context, String name, long chunkDurationMillis) {
+        mChunkDurationMillis = chunkDurationMillis;
+        mOpenHelper = new SQLiteOpenHelper(context, name, null, DbVersions.CURRENT) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL(ChunksTable.CREATION_SQL);
+                db.execSQL(ChunksTable.INDEX_SQL);
+                db.execSQL(PendingReadingsTable.CREATION_SQL);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                // No upgrades yet
+            }
+        };
+    }
+
+    @Override
+    public void addScalarReading(String sensorTag, int resolutionTier, long timestampMillis,
+            double value) {
+        ScalarReadingBuffer buffer = new ScalarReadingBuffer(sensorTag);
+        buffer.add(resolutionTier, timestampMillis, value);
+        addScalarReadings(buffer);
+    }
+
+    @Override
+    public void addScalarReadings(ScalarReadingBuffer readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+        ensureOpenChunksLoaded();
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteStatement insertPending = db.compileStatement(PendingReadingsTable.INSERT_SQL);
+        boolean succeeded = false;
+        db.beginTransaction();
+        try {
+            String tag = readings.getSensorTag();
+            for (int tier = 0; tier < readings.getTierCount(); tier++) {
+                int tierSize = readings.getTierSize(tier);
+                for (int i = 0; i < tierSize; i++) {
+                    addReading(db, insertPending, tag, tier, readings.getTimestamp(tier, i),
+                            readings.getValue(tier, i));
+                }
+            }
+            sealFinishedChunks(db, tag);
+            db.setTransactionSuccessful();
+            succeeded = true;
+        } finally {
+            db.endTransaction();
+            insertPending.close();
+            if (!succeeded) {
+                // In-memory chunks may no longer match what was committed
+                mOpenChunks = null;
+            }
+        }
+    }
+
+    private void addReading(SQLiteDatabase db, SQLiteStatement insertPending, String tag,
+            int tier, long timestampMillis, double value) {
+        TagChunks tagChunks = getTagChunks(tag);
+        tagChunks.mLatestTimestampMillis = Math.max(tagChunks.mLatestTimestampMillis,
+                timestampMillis);
+        long chunkStart = getChunkStart(timestampMillis);
+        OpenChunk open = tagChunks.mByTier.get(tier);
+
+        boolean belongsInOpenChunk = open != null && open.mChunkStart == chunkStart;
+        boolean isLateArrival = open != null ? chunkStart < open.mChunkStart :
+                isFinished(tagChunks, chunkStart);
+        if (!belongsInOpenChunk && isLateArrival) {
+            // Rare: a reading for a window that has already been sealed.
+            ChunkReadings stored = loadStoredChunk(db, tag, tier, chunkStart);
+            stored.add(timestampMillis, value);
+            writeStoredChunk(db, tag, tier, chunkStart, stored);
+            return;
+        }
+
+        if (!belongsInOpenChunk) {
+            if (open != null) {
+                sealChunk(db, open);
+            }
+            open = new OpenChunk(tag, tier, chunkStart);
+            reopenStoredChunk(db, insertPending, open);
+            tagChunks.mByTier.put(tier, open);
+        }
+        open.add(timestampMillis, value);
+        bindPendingReading(insertPending, tag, tier, timestampMillis, value);
+        insertPending.executeInsert();
+    }
+
+    private boolean isFinished(TagChunks tagChunks, long chunkStart) {
+        return tagChunks.mLatestTimestampMillis - chunkStart >= 2 * mChunkDurationMillis;
+    }
+
+    private void sealFinishedChunks(SQLiteDatabase db, String tag) {
+        TagChunks tagChunks = getTagChunks(tag);
+        List<OpenChunk> finished = new ArrayList<>();
+        for (OpenChunk open : tagChunks.mByTier.values()) {
+            if (isFinished(tagChunks, open.mChunkStart)) {
+                finished.add(open);
+            }
+        }
+        for (OpenChunk open : finished) {
+            sealChunk(db, open);
+        }
+    }
+
+    /**
+     * If a chunk has already been stored for {@code open}'s window, move its readings back into
+     * {@code open} (and the pending table).
+     */
+    private void reopenStoredChunk(SQLiteDatabase db, SQLiteStatement insertPending,
+            OpenChunk open) {
+        ChunkReadings stored = loadStoredChunk(db, open.mTag, open.mTier, open.mChunkStart);
+        if (stored.mSize == 0) {
+            return;
+        }
+        for (int i = 0; i < stored.mSize; i++) {
+            open.add(stored.mTimestamps[i], stored.mValues[i]);
+            bindPendingReading(insertPending, open.mTag, open.mTier, stored.mTimestamps[i],
+                    stored.mValues[i]);
+            insertPending.executeInsert();
+        }
+        stored.mSize = 0;
+        writeStoredChunk(db, open.mTag, open.mTier, open.mChunkStart, stored);
+    }
+
+    private void sealChunk(SQLiteDatabase db, OpenChunk open) {
+        // Normally nothing is stored for an open chunk's window, but merge just in case.
+        ChunkReadings stored = loadStoredChunk(db, open.mTag, open.mTier, open.mChunkStart);
+        for (int i = 0; i < stored.mSize; i++) {
+            open.add(stored.mTimestamps[i], stored.mValues[i]);
+        }
+        writeStoredChunk(db, open.mTag, open.mTier, open.mChunkStart, open);
+        db.delete(PendingReadingsTable.NAME, PendingReadingsTable.Column.TAG + "=? AND "
+                        + PendingReadingsTable.Column.RESOLUTION_TIER + "=? AND "
+                        + PendingReadingsTable.Column.TIMESTAMP_MILLIS + ">=? AND "
+                        + PendingReadingsTable.Column.TIMESTAMP_MILLIS + "<=?",
+                new String[]{open.mTag, String.valueOf(open.mTier),
+                        String.valueOf(open.mChunkStart),
+                        String.valueOf(open.mChunkStart + mChunkDurationMillis - 1)});
+        getTagChunks(open.mTag).mByTier.remove(open.mTier);
+    }
+
+    private ChunkReadings loadStoredChunk(SQLiteDatabase db, String tag, int tier,
+            long chunkStart) {
+        ChunkReadings readings = new ChunkReadings();
+        Cursor cursor = db.query(ChunksTable.NAME, new String[]{ChunksTable.Column.DATA},
+                ChunksTable.Column.TAG + "=? AND " + ChunksTable.Column.RESOLUTION_TIER
+                        + "=? AND " + ChunksTable.Column.CHUNK_START_MILLIS + "=?",
+                new String[]{tag, String.valueOf(tier), String.valueOf(chunkStart)}, null, null,
+                null);
+        try {
+            if (cursor.moveToNext()) {
+                readings.decode(cursor.getBlob(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return readings;
+    }
+
+    /**
+     * Stores {@code readings} as the chunk for the given window, replacing anything already
+     * there.  If {@code readings} is empty, deletes the chunk instead.
+     */
+    private void writeStoredChunk(SQLiteDatabase db, String tag, int tier, long chunkStart,
+            ChunkReadings readings) {
+        if (readings.mSize == 0) {
+            db.delete(ChunksTable.NAME, ChunksTable.Column.TAG + "=? AND "
+                            + ChunksTable.Column.RESOLUTION_TIER + "=? AND "
+                            + ChunksTable.Column.CHUNK_START_MILLIS + "=?",
+                    new String[]{tag, String.valueOf(tier), String.valueOf(chunkStart)});
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(ChunksTable.Column.TAG, tag);
+        values.put(ChunksTable.Column.RESOLUTION_TIER, tier);
+        values.put(ChunksTable.Column.CHUNK_START_MILLIS, chunkStart);
+        values.put(ChunksTable.Column.FIRST_TIMESTAMP_MILLIS, readings.mTimestamps[0]);
+        values.put(ChunksTable.Column.LAST_TIMESTAMP_MILLIS,
+                readings.mTimestamps[readings.mSize - 1]);
+        values.put(ChunksTable.Column.READING_COUNT, readings.mSize);
+        values.put(ChunksTable.Column.DATA, readings.encode());
+        db.insertWithOnConflict(ChunksTable.NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static void bindPendingReading(SQLiteStatement insertPending, String tag, int tier,
+            long timestampMillis, double value) {
+        insertPending.bindString(1, tag);
+        insertPending.bindLong(2, tier);
+        insertPending.bindLong(3, timestampMillis);
+        insertPending.bindDouble(4, value);
+    }
+
+    private long getChunkStart(long timestampMillis) {
+        long offset = timestampMillis % mChunkDurationMillis;
+        if (offset < 0) {
+            offset += mChunkDurationMillis;
+        }
+        return timestampMillis - offset;
+    }
+
+    private TagChunks getTagChunks(String tag) {
+        TagChunks tagChunks = mOpenChunks.get(tag);
+        if (tagChunks == null) {
+            tagChunks = new TagChunks();
+            mOpenChunks.put(tag, tagChunks);
+        }
+        return tagChunks;
+    }
+
+    private OpenChunk getOpenChunk(String tag, int tier) {
+        TagChunks tagChunks = mOpenChunks.get(tag);
+        return tagChunks == null ? null : tagChunks.mByTier.get(tier);
+    }
+
+    private void ensureOpenChunksLoaded() {
+        if (mOpenChunks != null) {
+            return;
+        }
+        mOpenChunks = new HashMap<>();
+        List<OpenChunk> superseded = new ArrayList<>();
+        String[] columns = {PendingReadingsTable.Column.TAG,
+                PendingReadingsTable.Column.RESOLUTION_TIER,
+                PendingReadingsTable.Column.TIMESTAMP_MILLIS, PendingReadingsTable.Column.VALUE};
+        String orderBy = PendingReadingsTable.Column.TIMESTAMP_MILLIS + " ASC";
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(PendingReadingsTable.NAME,
+                columns, null, null, null, null, orderBy);
+        try {
+            while (cursor.moveToNext()) {
+                String tag = cursor.getString(0);
+                int tier = cursor.getInt(1);
+                long timestamp = cursor.getLong(2);
+                TagChunks tagChunks = getTagChunks(tag);
+                tagChunks.mLatestTimestampMillis = Math.max(tagChunks.mLatestTimestampMillis,
+                        timestamp);
+                OpenChunk open = tagChunks.mByTier.get(tier);
+                long chunkStart = getChunkStart(timestamp);
+                if (open == null || open.mChunkStart != chunkStart) {
+                    // Should not happen, since sealing a chunk clears its pending readings in
+                    // the same transaction, but keep only the newest window open if it does.
+                    if (open != null) {
+                        superseded.add(open);
+                    }
+                    open = new OpenChunk(tag, tier, chunkStart);
+                    tagChunks.mByTier.put(tier, open);
+                }
+                open.add(timestamp, cursor.getDouble(3));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (!superseded.isEmpty()) {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (OpenChunk open : superseded) {
+                    writeStoredChunk(db, open.mTag, open.mTier, open.mChunkStart, open);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    @Override
+    public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
+            int resolutionTier, int maxRecords) {
+        ensureOpenChunksLoaded();
+        long[] bounds = getInclusiveBounds(range);
+        long min = bounds[0];
+        long max = bounds[1];
+        boolean oldestFirst = range.getOrder().equals(TimeRange.ObservationOrder.OLDEST_FIRST);
+        ReadingCollector collector = new ReadingCollector(min, max, oldestFirst, maxRecords);
+        if (min > max) {
+            return collector.toList();
+        }
+
+        OpenChunk open = getOpenChunk(sensorTag, resolutionTier);
+        if (open != null && !overlaps(open, min, max)) {
+            open = null;
+        }
+
+        Pair<String, String[]> selectionAndArgs = getOverlappingChunksSelection(sensorTag,
+                resolutionTier, min, max);
+        String orderBy = ChunksTable.Column.CHUNK_START_MILLIS + (oldestFirst ? " ASC" : " DESC");
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(ChunksTable.NAME,
+                new String[]{ChunksTable.Column.CHUNK_START_MILLIS, ChunksTable.Column.DATA},
+                selectionAndArgs.first, selectionAndArgs.second, null, null, orderBy);
+        try {
+            ChunkReadings decoded = new ChunkReadings();
+            while (!collector.isFull() && cursor.moveToNext()) {
+                long chunkStart = cursor.getLong(0);
+                if (open != null && (oldestFirst ? open.mChunkStart < chunkStart :
+                        open.mChunkStart > chunkStart)) {
+                    collector.collect(open);
+                    open = null;
+                }
+                decoded.decode(cursor.getBlob(1));
+                collector.collect(decoded);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (open != null) {
+            collector.collect(open);
+        }
+        return collector.toList();
+    }
+
+    private static boolean overlaps(ChunkReadings readings, long min, long max) {
+        return readings.mSize > 0 && readings.mTimestamps[0] <= max
+                && readings.mTimestamps[readings.mSize - 1] >= min;
+    }
+
+    /**
+     * @param resolutionTier tier to select, or -1 for all tiers
+     */
+    private Pair<String, String[]> getOverlappingChunksSelection(String sensorTag,
+            int resolutionTier, long min, long max) {
+        List<String> clauses = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+
+        clauses.add(ChunksTable.Column.TAG + " = ?");
+        values.add(sensorTag);
+
+        if (resolutionTier >= 0) {
+            clauses.add(ChunksTable.Column.RESOLUTION_TIER + " = ?");
+            values.add(String.valueOf(resolutionTier));
+        }
+
+        // Bounding the chunk start lets SQLite use the chunk_key index
+        clauses.add(ChunksTable.Column.CHUNK_START_MILLIS + " <= ?");
+        values.add(String.valueOf(max));
+        if (min > Long.MIN_VALUE + mChunkDurationMillis) {
+            clauses.add(ChunksTable.Column.CHUNK_START_MILLIS + " > ?");
+            values.add(String.valueOf(min - mChunkDurationMillis));
+        }
+
+        clauses.add(ChunksTable.Column.LAST_TIMESTAMP_MILLIS + " >= ?");
+        values.add(String.valueOf(min));
+        clauses.add(ChunksTable.Column.FIRST_TIMESTAMP_MILLIS + " <= ?");
+        values.add(String.valueOf(max));
+
+        return new Pair<>(Joiner.on(" AND ").join(clauses),
+                values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * @return the smallest and largest timestamps (inclusive) contained in {@code range}.  If the
+     * range is empty, the first will be larger than the second.
+     */
+    static long[] getInclusiveBounds(TimeRange range) {
+        // Canonical ranges over longs are always closed below and open above.
+        Range<Long> times = range.getTimes().canonical(DiscreteDomain.longs());
+        long min = times.hasLowerBound() ? times.lowerEndpoint() : Long.MIN_VALUE;
+        long max = times.hasUpperBound() ? times.upperEndpoint() - 1 : Long.MAX_VALUE;
+        return new long[]{min, max};
+    }
+
+    @Override
+    public String getFirstDatabaseTagAfter(long timestamp) {
+        ensureOpenChunksLoaded();
+        String bestTag = null;
+        long bestTimestamp = Long.MAX_VALUE;
+
+        for (Map.Entry<String, TagChunks> entry : mOpenChunks.entrySet()) {
+            for (OpenChunk open : entry.getValue().mByTier.values()) {
+                int index = open.indexAfter(timestamp);
+                if (index < open.mSize && open.mTimestamps[index] < bestTimestamp) {
+                    bestTimestamp = open.mTimestamps[index];
+                    bestTag = entry.getKey();
+                }
+            }
+        }
+
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(ChunksTable.NAME,
+                new String[]{ChunksTable.Column.TAG, ChunksTable.Column.FIRST_TIMESTAMP_MILLIS,
+                        ChunksTable.Column.DATA}, ChunksTable.Column.LAST_TIMESTAMP_MILLIS + ">?",
+                new String[]{String.valueOf(timestamp)}, null, null,
+                ChunksTable.Column.FIRST_TIMESTAMP_MILLIS + " ASC");
+        try {
+            ChunkReadings decoded = new ChunkReadings();
+            while (cursor.moveToNext()) {
+                long firstTimestamp = cursor.getLong(1);
+                if (firstTimestamp >= bestTimestamp) {
+                    // Chunks are in order, so no later chunk can do better.
+                    break;
+                }
+                long candidate = firstTimestamp;
+                if (firstTimestamp <= timestamp) {
+                    decoded.decode(cursor.getBlob(2));
+                    candidate = decoded.mTimestamps[decoded.indexAfter(timestamp)];
+                }
+                if (candidate < bestTimestamp) {
+                    bestTimestamp = candidate;
+                    bestTag = cursor.getString(0);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return bestTag;
+    }
+
+    @Override
+    public void deleteScalarReadings(String sensorTag, TimeRange range) {
+        deleteReadings(sensorTag, range, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The bytes given back are the pages of the chunk table that the deletes freed, which new
+     * chunks will reuse.
+     */
+    @Override
+    public long deleteScalarReadingsBelowTier(String sensorTag, TimeRange range,
+            int lowestKeptTier) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long freeBytesBefore = SensorDatabaseImpl.getFreeBytes(db);
+        deleteReadings(sensorTag, range, 0, lowestKeptTier);
+        return Math.max(0, SensorDatabaseImpl.getFreeBytes(db) - freeBytesBefore);
+    }
+
+    @Override
+    public void deleteZoomTiers(String sensorTag, TimeRange range) {
+        deleteReadings(sensorTag, range, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Deletes the readings of {@code sensorTag} in {@code range} at every tier from
+     * {@code lowestTier} up to, but not including, {@code tierLimit}.
+     */
+    private void deleteReadings(String sensorTag, TimeRange range, int lowestTier,
+            int tierLimit) {
+        ensureOpenChunksLoaded();
+        long[] bounds = getInclusiveBounds(range);
+        long min = bounds[0];
+        long max = bounds[1];
+        if (min > max) {
+            return;
+        }
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean succeeded = false;
+        db.beginTransaction();
+        try {
+            // Chunks entirely inside the range can be dropped without decoding them...
+            db.delete(ChunksTable.NAME, ChunksTable.Column.TAG + "=? AND "
+                            + ChunksTable.Column.RESOLUTION_TIER + ">=? AND "
+                            + ChunksTable.Column.RESOLUTION_TIER + "<? AND "
+                            + ChunksTable.Column.FIRST_TIMESTAMP_MILLIS + ">=? AND "
+                            + ChunksTable.Column.LAST_TIMESTAMP_MILLIS + "<=?",
+                    new String[]{sensorTag, String.valueOf(lowestTier), String.valueOf(tierLimit),
+                            String.valueOf(min), String.valueOf(max)});
+
+            // ...which leaves at most the two chunks at the ends of the range for each tier.
+            trimStoredChunks(db, sensorTag, min, max, lowestTier, tierLimit);
+
+            TagChunks tagChunks = mOpenChunks.get(sensorTag);
+            if (tagChunks != null) {
+                List<Integer> emptied = new ArrayList<>();
+                for (OpenChunk open : tagChunks.mByTier.values()) {
+                    if (open.mTier >= lowestTier && open.mTier < tierLimit
+                            && open.removeRange(min, max)
+                            && open.mSize == 0) {
+                        emptied.add(open.mTier);
+                    }
+                }
+                for (Integer tier : emptied) {
+                    tagChunks.mByTier.remove(tier);
+                }
+            }
+            db.delete(PendingReadingsTable.NAME, PendingReadingsTable.Column.TAG + "=? AND "
+                            + PendingReadingsTable.Column.RESOLUTION_TIER + ">=? AND "
+                            + PendingReadingsTable.Column.RESOLUTION_TIER + "<? AND "
+                            + PendingReadingsTable.Column.TIMESTAMP_MILLIS + ">=? AND "
+                            + PendingReadingsTable.Column.TIMESTAMP_MILLIS + "<=?",
+                    new String[]{sensorTag, String.valueOf(lowestTier), String.valueOf(tierLimit),
+                            String.valueOf(min), String.valueOf(max)});
+            db.setTransactionSuccessful();
+            succeeded = true;
+        } finally {
+            db.endTransaction();
+            if (!succeeded) {
+                mOpenChunks = null;
+            }
+        }
+    }
+
+    /**
+     * Summaries aren't stored; {@link #getAggregates} decodes the chunks in the range instead.
+     */
+    @Override
+    public void addScalarSummary(String sensorTag, int level, ScalarAggregate summary) {
+    }
+
+    @Override
+    public List<ScalarAggregate> getAggregates(String sensorTag, TimeRange range,
+            int bucketCount) {
+        return ScalarAggregates.computeFromReadings(this, sensorTag, range, bucketCount);
+    }
+
+    @Override
+    public void getAlignedReadings(List<String> sensorTags, TimeRange range, int resolutionTier,
+            AlignedReadings.Alignment alignment, AlignedReadings.RowConsumer consumer) {
+        AlignedReadings.computeFromReadings(this, sensorTags, range, resolutionTier, alignment,
+                consumer);
+    }
+
+    /**
+     * Readings aren't stored by run, but deleting a run's range only drops the chunks inside it
+     * and rewrites the two at its ends.
+     */
+    @Override
+    public void deleteRunReadings(String runId, List<String> sensorTags, TimeRange range) {
+        for (String tag : sensorTags) {
+            deleteScalarReadings(tag, range);
+        }
+    }
+
+    /**
+     * Sealed chunks count the size of their compressed data; readings in open chunks are counted
+     * as their uncompressed timestamp, value and tag.
+     */
+    @Override
+    public List<TierUsage> getTierUsage() {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Map<Pair<String, Integer>, long[]> usage = new HashMap<>();
+        addTierUsage(db.rawQuery("SELECT " + ChunksTable.Column.TAG + ", "
+                + ChunksTable.Column.RESOLUTION_TIER + ", SUM(" + ChunksTable.Column.READING_COUNT
+                + "), SUM(LENGTH(" + ChunksTable.Column.DATA + ")) FROM " + ChunksTable.NAME
+                + " GROUP BY " + ChunksTable.Column.TAG + ", "
+                + ChunksTable.Column.RESOLUTION_TIER, null), usage);
+        addTierUsage(db.rawQuery("SELECT " + PendingReadingsTable.Column.TAG + ", "
+                + PendingReadingsTable.Column.RESOLUTION_TIER + ", COUNT(*), SUM(16 + LENGTH("
+                + PendingReadingsTable.Column.TAG + ")) FROM " + PendingReadingsTable.NAME
+                + " GROUP BY " + PendingReadingsTable.Column.TAG + ", "
+                + PendingReadingsTable.Column.RESOLUTION_TIER, null), usage);
+        List<TierUsage> result = new ArrayList<>();
+        for (Map.Entry<Pair<String, Integer>, long[]> entry : usage.entrySet()) {
+            result.add(new TierUsage(entry.getKey().first, entry.getKey().second,
+                    entry.getValue()[0], entry.getValue()[1]));
+        }
+        return result;
+    }
+
+    /**
+     * Adds the (tag, tier, count, bytes) rows of {@code cursor} to {@code usage}, and closes it.
+     */
+    private static void addTierUsage(Cursor cursor, Map<Pair<String, Integer>, long[]> usage) {
+        try {
+            while (cursor.moveToNext()) {
+                Pair<String, Integer> key = new Pair<>(cursor.getString(0), cursor.getInt(1));
+                long[] counts = usage.get(key);
+                if (counts == null) {
+                    counts = new long[2];
+                    usage.put(key, counts);
+                }
+                counts[0] += cursor.getLong(2);
+                counts[1] += cursor.getLong(3);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void trimStoredChunks(SQLiteDatabase db, String sensorTag, long min, long max,
+            int lowestTier, int tierLimit) {
+        Pair<String, String[]> selectionAndArgs = getOverlappingChunksSelection(sensorTag,
+                -1 /* all tiers */, min, max);
+        List<Integer> tiers = new ArrayList<>();
+        List<Long> chunkStarts = new ArrayList<>();
+        List<byte[]> chunks = new ArrayList<>();
+        Cursor cursor = db.query(ChunksTable.NAME, new String[]{
+                        ChunksTable.Column.RESOLUTION_TIER, ChunksTable.Column.CHUNK_START_MILLIS,
+                        ChunksTable.Column.DATA}, selectionAndArgs.first, selectionAndArgs.second,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                tiers.add(cursor.getInt(0));
+                chunkStarts.add(cursor.getLong(1));
+                chunks.add(cursor.getBlob(2));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ChunkReadings decoded = new ChunkReadings();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (tiers.get(i) < lowestTier || tiers.get(i) >= tierLimit) {
+                continue;
+            }
+            decoded.decode(chunks.get(i));
+            if (decoded.removeRange(min, max)) {
+                writeStoredChunk(db, sensorTag, tiers.get(i), chunkStarts.get(i), decoded);
+            }
+        }
+    }
+
+    /**
+     * Readings in increasing timestamp order, in growable parallel arrays.
+     */
+    private static class ChunkReadings {
+        long[] mTimestamps = new long[16];
+        double[] mValues = new double[16];
+        int mSize = 0;
+
+        /**
+         * Inserts a reading in timestamp order.  Cheap when readings arrive in order, or nearly
+         * so.
+         */
+        void add(long timestampMillis, double value) {
+            ensureCapacity(mSize + 1);
+            int index = mSize;
+            while (index > 0 && mTimestamps[index - 1] > timestampMillis) {
+                index--;
+            }
+            if (index < mSize) {
+                System.arraycopy(mTimestamps, index, mTimestamps, index + 1, mSize - index);
+                System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+            }
+            mTimestamps[index] = timestampMillis;
+            mValues[index] = value;
+            mSize++;
+        }
+
+        /**
+         * Replaces the contents with the readings in {@code chunk}.
+         */
+        void decode(byte[] chunk) {
+            ensureCapacity(ScalarChunkCodec.readCount(chunk));
+            mSize = ScalarChunkCodec.decode(chunk, mTimestamps, mValues);
+        }
+
+        byte[] encode() {
+            return ScalarChunkCodec.encode(mTimestamps, mValues, 0, mSize);
+        }
+
+        /**
+         * @return the index of the first reading later than {@code timestamp}, or {@code mSize}
+         * if there is none.
+         */
+        int indexAfter(long timestamp) {
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mTimestamps[mid] <= timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Removes readings with timestamps between {@code min} and {@code max}, inclusive.
+         *
+         * @return true if anything was removed
+         */
+        boolean removeRange(long min, long max) {
+            int kept = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (mTimestamps[i] < min || mTimestamps[i] > max) {
+                    mTimestamps[kept] = mTimestamps[i];
+                    mValues[kept] = mValues[i];
+                    kept++;
+                }
+            }
+            boolean removed = kept < mSize;
+            mSize = kept;
+            return removed;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > mTimestamps.length) {
+                int newCapacity = Math.max(capacity, mTimestamps.length * 2);
+                mTimestamps = Arrays.copyOf(mTimestamps, newCapacity);
+                mValues = Arrays.copyOf(mValues, newCapacity);
+            }
+        }
+    }
+
+    private static class OpenChunk extends ChunkReadings {
+        private final String mTag;
+        private final int mTier;
+        private final long mChunkStart;
+
+        OpenChunk(String tag, int tier, long chunkStart) {
+            mTag = tag;
+            mTier = tier;
+            mChunkStart = chunkStart;
+        }
+    }
+
+    private static class TagChunks {
+        // Latest timestamp recorded for this tag, at any tier, used to decide when open chunks
+        // are finished.
+        long mLatestTimestampMillis = Long.MIN_VALUE;
+        final Map<Integer, OpenChunk> mByTier = new HashMap<>();
+    }
+
+    /**
+     * Gathers readings within a time range from successive chunks, in the requested order, up to
+     * an optional limit.
+     */
+    private static class ReadingCollector {
+        private final long mMin;
+        private final long mMax;
+        private final boolean mOldestFirst;
+        private final int mMaxRecords;
+        private long[] mTimestamps = new long[16];
+        private double[] mValues = new double[16];
+        private int mSize = 0;
+
+        /**
+         * @param maxRecords 0 to collect everything in range
+         */
+        ReadingCollector(long min, long max, boolean oldestFirst, int maxRecords) {
+            mMin = min;
+            mMax = max;
+            mOldestFirst = oldestFirst;
+            mMaxRecords = maxRecords;
+        }
+
+        boolean isFull() {
+            return mMaxRecords > 0 && mSize >= mMaxRecords;
+        }
+
+        void collect(ChunkReadings readings) {
+            if (mOldestFirst) {
+                for (int i = 0; i < readings.mSize && !isFull(); i++) {
+                    maybeAdd(readings.mTimestamps[i], readings.mValues[i]);
+                }
+            } else {
+                for (int i = readings.mSize - 1; i >= 0 && !isFull(); i--) {
+                    maybeAdd(readings.mTimestamps[i], readings.mValues[i]);
+                }
+            }
+        }
+
+        private void maybeAdd(long timestamp, double value) {
+            if (timestamp < mMin || timestamp > mMax) {
+                return;
+            }
+            if (mSize == mTimestamps.length) {
+                mTimestamps = Arrays.copyOf(mTimestamps, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mTimestamps[mSize] = timestamp;
+            mValues[mSize] = value;
+            mSize++;
+        }
+
+        ScalarReadingList toList() {
+            return new ArrayScalarReadingList(mTimestamps, mValues, mSize);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+import java.util.List;
+
+/**
+ * Passes everything through to another SensorDatabase, timing each write of readings and each
+ * read of scalar readings into a {@link StorageMetrics}.
+ *
+ * A read that returns its readings already in memory is timed until it returns.  A list that
+ * reads them only as they are delivered (as {@link SensorDatabaseImpl} does for unlimited reads)
+ * is timed each time its readings are read out, so that the time spent in the database counts.
+ */
+public class InstrumentedSensorDatabase implements SensorDatabase {
+    private final SensorDatabase mDelegate;
+    private final StorageMetrics mMetrics;
+
+    public InstrumentedSensorDatabase(SensorDatabase delegate, StorageMetrics metrics) {
+        mDelegate = delegate;
+        mMetrics = metrics;
+    }
+
+    public StorageMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    @Override
+    public void addScalarReading(String sensorTag, int resolutionTier, long timestampMillis,
+            double value) {
+        long start = System.nanoTime();
+        mDelegate.addScalarReading(sensorTag, resolutionTier, timestampMillis, value);
+        mMetrics.recordInsert(1, System.nanoTime() - start);
+    }
+
+    @Override
+    public void addScalarReadings(ScalarReadingBuffer readings) {
+        long start = System.nanoTime();
+        mDelegate.addScalarReadings(readings);
+        mMetrics.recordInsert(readings.size(), System.nanoTime() - start);
+    }
+
+    @Override
+    public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
+            int resolutionTier, int maxRecords) {
+        long start = System.nanoTime();
+        ScalarReadingList readings = mDelegate.getScalarReadings(sensorTag, range,
+                resolutionTier, maxRecords);
+        long nanos = System.nanoTime() - start;
+        if (readings instanceof ArrayScalarReadingList) {
+            mMetrics.recordQuery(range, nanos);
+            return readings;
+        }
+        return new TimedReadingList(readings, range, nanos);
+    }
+
+    /**
+     * Records a read each time the readings of a list are read out.  The time taken to create the
+     * list, and to count its readings, is added to the next one.
+     */
+    private class TimedReadingList implements ScalarReadingList {
+        private final ScalarReadingList mReadings;
+        private final TimeRange mRange;
+
+        // Time spent on the list that hasn't been recorded yet
+        private long mUnrecordedNanos;
+
+        TimedReadingList(ScalarReadingList readings, TimeRange range, long creationNanos) {
+            mReadings = readings;
+            mRange = range;
+            mUnrecordedNanos = creationNanos;
+        }
+
+        @Override
+        public void deliver(StreamConsumer c) {
+            long start = System.nanoTime();
+            mReadings.deliver(c);
+            recordRead(start);
+        }
+
+        @Override
+        public int size() {
+            long start = System.nanoTime();
+            int size = mReadings.size();
+            mUnrecordedNanos += System.nanoTime() - start;
+            return size;
+        }
+
+        @Override
+        public int copyTo(long[] timestamps, double[] values, int offset) {
+            long start = System.nanoTime();
+            int copied = mReadings.copyTo(timestamps, values, offset);
+            recordRead(start);
+            return copied;
+        }
+
+        @Override
+        public List<ChartData.DataPoint> asDataPoints() {
+            long start = System.nanoTime();
+            List<ChartData.DataPoint> points = mReadings.asDataPoints();
+            recordRead(start);
+            return points;
+        }
+
+        private void recordRead(long start) {
+            mMetrics.recordQuery(mRange, mUnrecordedNanos + System.nanoTime() - start);
+            mUnrecordedNanos = 0;
+        }
+    }
+
+    @Override
+    public void addScalarSummary(String sensorTag, int level, ScalarAggregate summary) {
+        mDelegate.addScalarSummary(sensorTag, level, summary);
+    }
+
+    @Override
+    public List<ScalarAggregate> getAggregates(String sensorTag, TimeRange range,
+            int bucketCount) {
+        return mDelegate.getAggregates(sensorTag, range, bucketCount);
+    }
+
+    @Override
+    public void getAlignedReadings(List<String> sensorTags, TimeRange range, int resolutionTier,
+            AlignedReadings.Alignment alignment, AlignedReadings.RowConsumer consumer) {
+        mDelegate.getAlignedReadings(sensorTags, range, resolutionTier, alignment, consumer);
+    }
+
+    @Override
+    public String getFirstDatabaseTagAfter(long timestamp) {
+        return mDelegate.getFirstDatabaseTagAfter(timestamp);
+    }
+
+    @Override
+    public void deleteScalarReadings(String sensorTag, TimeRange range) {
+        mDelegate.deleteScalarReadings(sensorTag, range);
+    }
+
+    @Override
+    public long deleteScalarReadingsBelowTier(String sensorTag, TimeRange range,
+            int lowestKeptTier) {
+        return mDelegate.deleteScalarReadingsBelowTier(sensorTag, range, lowestKeptTier);
+    }
+
+    @Override
+    public void deleteZoomTiers(String sensorTag, TimeRange range) {
+        mDelegate.deleteZoomTiers(sensorTag, range);
+    }
+
+    @Override
+    public void deleteRunReadings(String runId, List<String> sensorTags, TimeRange range) {
+        mDelegate.deleteRunReadings(runId, sensorTags, range);
+    }
+
+    @Override
+    public List<TierUsage> getTierUsage() {
+        return mDelegate.getTierUsage();
+    }
+}
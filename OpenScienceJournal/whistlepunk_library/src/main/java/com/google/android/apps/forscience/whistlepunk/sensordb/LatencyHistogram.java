@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+/**
+ * Counts durations in buckets whose bounds double, from a microsecond up, so that percentiles can
+ * be read off to within a factor of two without keeping every sample.  Not thread-safe.
+ */
+public class LatencyHistogram {
+    // Bucket i counts durations shorter than 2^i microseconds; the last also counts anything longer
+    private static final int BUCKET_COUNT = 32;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount = 0;
+    private long mTotalNanos = 0;
+
+    public LatencyHistogram() {
+    }
+
+    public LatencyHistogram(LatencyHistogram other) {
+        System.arraycopy(other.mCounts, 0, mCounts, 0, BUCKET_COUNT);
+        mCount = other.mCount;
+        mTotalNanos = other.mTotalNanos;
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        mCounts[Math.min(bucket, BUCKET_COUNT - 1)]++;
+        mCount++;
+        mTotalNanos += Math.max(0, nanos);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getMeanMicros() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount / 1000;
+    }
+
+    /**
+     * @param fraction between 0 and 1: 0.5 for the median, 0.99 for the 99th percentile
+     * @return the upper bound, in microseconds, of the bucket holding that fraction of the
+     * durations, or 0 if none have been recorded
+     */
+    public long getPercentileMicros(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * mCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+}
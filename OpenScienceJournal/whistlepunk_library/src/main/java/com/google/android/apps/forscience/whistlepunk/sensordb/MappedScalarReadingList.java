@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ScalarReadingList that reads directly from the memory-mapped segment files of a
+ * {@link MappedSegmentSensorDatabase}, without copying the readings.
+ *
+ * Each slice is a run of consecutive fixed-width records in one segment.  Records are read when
+ * they are delivered, so an out-of-order insert or a delete that later shifts records within a
+ * slice will show through.
+ */
+class MappedScalarReadingList implements ScalarReadingList {
+    private final ByteBuffer[] mBuffers;
+    private final int[] mStarts;
+    private final int[] mCounts;
+    private final boolean mNewestFirst;
+    private final int mSize;
+
+    /**
+     * @param buffers     one read-only view per slice, positioned at the start of the mapped file
+     * @param starts      the first record of each slice
+     * @param counts      the number of records in each slice
+     * @param newestFirst if true, deliver slices and records in reverse order
+     */
+    MappedScalarReadingList(ByteBuffer[] buffers, int[] starts, int[] counts,
+            boolean newestFirst) {
+        mBuffers = buffers;
+        mStarts = starts;
+        mCounts = counts;
+        mNewestFirst = newestFirst;
+        int size = 0;
+        for (int count : counts) {
+            size += count;
+        }
+        mSize = size;
+    }
+
+    @Override
+    public void deliver(StreamConsumer c) {
+        if (mNewestFirst) {
+            for (int s = mBuffers.length - 1; s >= 0; s--) {
+                for (int i = mStarts[s] + mCounts[s] - 1; i >= mStarts[s]; i--) {
+                    c.addData(getTimestamp(s, i), getValue(s, i));
+                }
+            }
+        } else {
+            for (int s = 0; s < mBuffers.length; s++) {
+                for (int i = mStarts[s]; i < mStarts[s] + mCounts[s]; i++) {
+                    c.addData(getTimestamp(s, i), getValue(s, i));
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public int copyTo(long[] timestamps, double[] values, int offset) {
+        int copied = 0;
+        if (mNewestFirst) {
+            for (int s = mBuffers.length - 1; s >= 0; s--) {
+                for (int i = mStarts[s] + mCounts[s] - 1; i >= mStarts[s]; i--) {
+                    timestamps[offset + copied] = getTimestamp(s, i);
+                    values[offset + copied] = getValue(s, i);
+                    copied++;
+                }
+            }
+        } else {
+            for (int s = 0; s < mBuffers.length; s++) {
+                for (int i = mStarts[s]; i < mStarts[s] + mCounts[s]; i++) {
+                    timestamps[offset + copied] = getTimestamp(s, i);
+                    values[offset + copied] = getValue(s, i);
+                    copied++;
+                }
+            }
+        }
+        return copied;
+    }
+
+    @Override
+    public List<ChartData.DataPoint> asDataPoints() {
+        final List<ChartData.DataPoint> result = new ArrayList<>(mSize);
+        deliver(new StreamConsumer() {
+            @Override
+            public void addData(long timestampMillis, double value) {
+                result.add(new ChartData.DataPoint(timestampMillis, value));
+            }
+        });
+        return result;
+    }
+
+    private long getTimestamp(int slice, int record) {
+        return mBuffers[slice].getLong(MappedSegmentSensorDatabase.getTimestampOffset(record));
+    }
+
+    private double getValue(int slice, int record) {
+        return mBuffers[slice].getDouble(MappedSegmentSensorDatabase.getValueOffset(record));
+    }
+}
@@ -0,0 +1,750 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A SensorDatabase that appends readings to memory-mapped segment files, rather than to SQLite.
+ *
+ * Each tag and resolution tier has its own directory of segments.  A segment is a small header
+ * followed by fixed-width (timestamp, value) records in timestamp order, and holds up to a fixed
+ * number of records; once it is full, a new segment is started.  Writes are plain stores into the
+ * mapped file, so the OS takes care of getting them to disk (they survive the process dying, but
+ * not the device losing power before the pages are written back).
+ *
+ * For each segment, the timestamp of every {@link #INDEX_STRIDE}th record is kept in memory, so
+ * that a range lookup only touches a handful of mapped pages.  {@link #getScalarReadings} returns a
+ * list that reads straight from the mapped segments, without copying.
+ *
+ * Readings that arrive out of order (the zoom tiers write min/max pairs that can be swapped) are
+ * inserted in place, which shifts later records in that segment.
+ */
+public class MappedSegmentSensorDatabase implements SensorDatabase {
+    private static final String TAG = "MappedSegmentDb";
+
+    public static final int DEFAULT_SEGMENT_CAPACITY = 64 * 1024;
+
+    /**
+     * Every INDEX_STRIDE-th timestamp in a segment is kept in its in-memory index.
+     */
+    static final int INDEX_STRIDE = 64;
+
+    // New segments are mapped with room for this many records, and grown as needed.
+    private static final int INITIAL_MAPPED_RECORDS = 1024;
+
+    private static class SegmentFormat {
+        public static final int MAGIC = 0x57505347;
+        public static final int VERSION = 1;
+
+        public static final int MAGIC_OFFSET = 0;
+        public static final int VERSION_OFFSET = 4;
+        public static final int COUNT_OFFSET = 8;
+        public static final int HEADER_BYTES = 16;
+
+        public static final int RECORD_BYTES = 16;
+        public static final int VALUE_OFFSET_IN_RECORD = 8;
+
+        public static final String FILE_SUFFIX = ".seg";
+    }
+
+    private static final BaseEncoding TAG_ENCODING = BaseEncoding.base16().lowerCase();
+
+    private final File mRoot;
+    private final int mSegmentCapacity;
+
+    // tag -> tier -> stream.  Loaded from disk on first use.
+    private Map<String, Map<Integer, Stream>> mStreams = null;
+
+    public MappedSegmentSensorDatabase(Context context, String name) {
+        this(new File(context.getFilesDir(), name), DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    public MappedSegmentSensorDatabase(File root, int segmentCapacity) {
+        mRoot = root;
+        mSegmentCapacity = segmentCapacity;
+    }
+
+    static int getTimestampOffset(int record) {
+        return SegmentFormat.HEADER_BYTES + record * SegmentFormat.RECORD_BYTES;
+    }
+
+    static int getValueOffset(int record) {
+        return getTimestampOffset(record) + SegmentFormat.VALUE_OFFSET_IN_RECORD;
+    }
+
+    @Override
+    public void addScalarReading(String sensorTag, int resolutionTier, long timestampMillis,
+            double value) {
+        getStream(sensorTag, resolutionTier, true).insert(timestampMillis, value);
+    }
+
+    @Override
+    public void addScalarReadings(ScalarReadingBuffer readings) {
+        String tag = readings.getSensorTag();
+        for (int tier = 0; tier < readings.getTierCount(); tier++) {
+            int size = readings.getTierSize(tier);
+            if (size == 0) {
+                continue;
+            }
+            Stream stream = getStream(tag, tier, true);
+            for (int i = 0; i < size; i++) {
+                stream.insert(readings.getTimestamp(tier, i), readings.getValue(tier, i));
+            }
+        }
+    }
+
+    @Override
+    public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
+            int resolutionTier, int maxRecords) {
+        boolean newestFirst = range.getOrder().equals(TimeRange.ObservationOrder.NEWEST_FIRST);
+        long[] bounds = ChunkedSensorDatabase.getInclusiveBounds(range);
+        long min = bounds[0];
+        long max = bounds[1];
+
+        List<Segment> matching = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        Stream stream = getStream(sensorTag, resolutionTier, false);
+        if (stream != null && min <= max) {
+            for (Segment segment : stream.mSegments) {
+                int from = segment.lowerBound(min);
+                int to = segment.upperBound(max);
+                if (to > from) {
+                    matching.add(segment);
+                    starts.add(from);
+                    counts.add(to - from);
+                }
+            }
+        }
+
+        if (maxRecords > 0) {
+            limitSlices(starts, counts, maxRecords, newestFirst);
+        }
+
+        int sliceCount = matching.size();
+        ByteBuffer[] buffers = new ByteBuffer[sliceCount];
+        int[] startArray = new int[sliceCount];
+        int[] countArray = new int[sliceCount];
+        int slice = 0;
+        for (int i = 0; i < sliceCount; i++) {
+            if (counts.get(i) == 0) {
+                continue;
+            }
+            buffers[slice] = matching.get(i).mBuffer.asReadOnlyBuffer();
+            startArray[slice] = starts.get(i);
+            countArray[slice] = counts.get(i);
+            slice++;
+        }
+        if (slice < sliceCount) {
+            buffers = Arrays.copyOf(buffers, slice);
+            startArray = Arrays.copyOf(startArray, slice);
+            countArray = Arrays.copyOf(countArray, slice);
+        }
+        return new MappedScalarReadingList(buffers, startArray, countArray, newestFirst);
+    }
+
+    /**
+     * Shrinks {@code counts} (and moves {@code starts} as needed) so that only the
+     * {@code maxRecords} oldest (or newest) records remain.  Slices that end up empty are left
+     * with a count of 0.
+     */
+    private static void limitSlices(List<Integer> starts, List<Integer> counts, int maxRecords,
+            boolean newestFirst) {
+        int remaining = maxRecords;
+        int size = counts.size();
+        for (int n = 0; n < size; n++) {
+            int i = newestFirst ? size - 1 - n : n;
+            int count = counts.get(i);
+            int kept = Math.min(count, remaining);
+            if (newestFirst) {
+                starts.set(i, starts.get(i) + count - kept);
+            }
+            counts.set(i, kept);
+            remaining -= kept;
+        }
+    }
+
+    @Override
+    public String getFirstDatabaseTagAfter(long timestamp) {
+        if (timestamp == Long.MAX_VALUE) {
+            return null;
+        }
+        String bestTag = null;
+        long bestTimestamp = Long.MAX_VALUE;
+        for (Map.Entry<String, Map<Integer, Stream>> tagEntry : getStreams().entrySet()) {
+            for (Stream stream : tagEntry.getValue().values()) {
+                for (Segment segment : stream.mSegments) {
+                    int index = segment.lowerBound(timestamp + 1);
+                    if (index < segment.size()) {
+                        long found = segment.getTimestamp(index);
+                        if (bestTag == null || found < bestTimestamp) {
+                            bestTag = tagEntry.getKey();
+                            bestTimestamp = found;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return bestTag;
+    }
+
+    @Override
+    public void deleteScalarReadings(String sensorTag, TimeRange range) {
+        Map<Integer, Stream> tiers = getStreams().get(sensorTag);
+        if (tiers == null) {
+            return;
+        }
+        long[] bounds = ChunkedSensorDatabase.getInclusiveBounds(range);
+        long min = bounds[0];
+        long max = bounds[1];
+        if (min > max) {
+            return;
+        }
+        for (Stream stream : tiers.values()) {
+            stream.delete(min, max);
+        }
+    }
+
+    /**
+     * Segments keep their size when readings are removed from the middle of them, so the bytes
+     * given back are those of the segment files deleted outright.
+     */
+    @Override
+    public long deleteScalarReadingsBelowTier(String sensorTag, TimeRange range,
+            int lowestKeptTier) {
+        Map<Integer, Stream> tiers = getStreams().get(sensorTag);
+        if (tiers == null) {
+            return 0;
+        }
+        long[] bounds = ChunkedSensorDatabase.getInclusiveBounds(range);
+        long min = bounds[0];
+        long max = bounds[1];
+        if (min > max) {
+            return 0;
+        }
+        long freedBytes = 0;
+        for (Map.Entry<Integer, Stream> entry : tiers.entrySet()) {
+            if (entry.getKey() < lowestKeptTier) {
+                freedBytes += entry.getValue().delete(min, max);
+            }
+        }
+        return freedBytes;
+    }
+
+    @Override
+    public void deleteZoomTiers(String sensorTag, TimeRange range) {
+        Map<Integer, Stream> tiers = getStreams().get(sensorTag);
+        if (tiers == null) {
+            return;
+        }
+        long[] bounds = ChunkedSensorDatabase.getInclusiveBounds(range);
+        long min = bounds[0];
+        long max = bounds[1];
+        if (min > max) {
+            return;
+        }
+        for (Map.Entry<Integer, Stream> entry : tiers.entrySet()) {
+            if (entry.getKey() > 0) {
+                entry.getValue().delete(min, max);
+            }
+        }
+    }
+
+    /**
+     * Summaries aren't stored; {@link #getAggregates} scans the mapped readings instead.
+     */
+    @Override
+    public void addScalarSummary(String sensorTag, int level, ScalarAggregate summary) {
+    }
+
+    @Override
+    public List<ScalarAggregate> getAggregates(String sensorTag, TimeRange range,
+            int bucketCount) {
+        return ScalarAggregates.computeFromReadings(this, sensorTag, range, bucketCount);
+    }
+
+    @Override
+    public void getAlignedReadings(List<String> sensorTags, TimeRange range, int resolutionTier,
+            AlignedReadings.Alignment alignment, AlignedReadings.RowConsumer consumer) {
+        AlignedReadings.computeFromReadings(this, sensorTags, range, resolutionTier, alignment,
+                consumer);
+    }
+
+    /**
+     * Readings aren't stored by run; this deletes the range from each tag's segments.
+     */
+    @Override
+    public void deleteRunReadings(String runId, List<String> sensorTags, TimeRange range) {
+        for (String tag : sensorTags) {
+            deleteScalarReadings(tag, range);
+        }
+    }
+
+    /**
+     * Counts the whole length of each segment file, including the room mapped for records that
+     * haven't been written yet.
+     */
+    @Override
+    public List<TierUsage> getTierUsage() {
+        List<TierUsage> usage = new ArrayList<>();
+        for (Map.Entry<String, Map<Integer, Stream>> tagEntry : getStreams().entrySet()) {
+            for (Map.Entry<Integer, Stream> tierEntry : tagEntry.getValue().entrySet()) {
+                long count = 0;
+                long bytes = 0;
+                for (Segment segment : tierEntry.getValue().mSegments) {
+                    count += segment.size();
+                    bytes += segment.getFileLength();
+                }
+                usage.add(new TierUsage(tagEntry.getKey(), tierEntry.getKey(), count, bytes));
+            }
+        }
+        return usage;
+    }
+
+    private Stream getStream(String tag, int tier, boolean create) {
+        Map<Integer, Stream> tiers = getStreams().get(tag);
+        if (tiers == null) {
+            if (!create) {
+                return null;
+            }
+            tiers = new TreeMap<>();
+            mStreams.put(tag, tiers);
+        }
+        Stream stream = tiers.get(tier);
+        if (stream == null && create) {
+            File dir = new File(new File(mRoot, encodeTag(tag)), String.valueOf(tier));
+            stream = new Stream(dir);
+            tiers.put(tier, stream);
+        }
+        return stream;
+    }
+
+    private Map<String, Map<Integer, Stream>> getStreams() {
+        if (mStreams == null) {
+            mStreams = loadStreams();
+        }
+        return mStreams;
+    }
+
+    private Map<String, Map<Integer, Stream>> loadStreams() {
+        Map<String, Map<Integer, Stream>> streams = new HashMap<>();
+        File[] tagDirs = mRoot.listFiles();
+        if (tagDirs == null) {
+            return streams;
+        }
+        for (File tagDir : tagDirs) {
+            String tag = decodeTag(tagDir.getName());
+            File[] tierDirs = tagDir.listFiles();
+            if (tag == null || tierDirs == null) {
+                Log.w(TAG, "Ignoring unexpected file " + tagDir);
+                continue;
+            }
+            Map<Integer, Stream> tiers = new TreeMap<>();
+            for (File tierDir : tierDirs) {
+                try {
+                    int tier = Integer.parseInt(tierDir.getName());
+                    Stream stream = new Stream(tierDir);
+                    stream.load();
+                    if (!stream.mSegments.isEmpty()) {
+                        tiers.put(tier, stream);
+                    }
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring unexpected file " + tierDir);
+                }
+            }
+            if (!tiers.isEmpty()) {
+                streams.put(tag, tiers);
+            }
+        }
+        return streams;
+    }
+
+    private static String encodeTag(String tag) {
+        return TAG_ENCODING.encode(tag.getBytes(Charsets.UTF_8));
+    }
+
+    private static String decodeTag(String directoryName) {
+        try {
+            return new String(TAG_ENCODING.decode(directoryName), Charsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The segments for a single tag and tier, oldest first.
+     */
+    private class Stream {
+        private final File mDir;
+        private final List<Segment> mSegments = new ArrayList<>();
+
+        Stream(File dir) {
+            mDir = dir;
+        }
+
+        void load() {
+            File[] files = mDir.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(SegmentFormat.FILE_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    long number = Long.parseLong(name.substring(0,
+                            name.length() - SegmentFormat.FILE_SUFFIX.length()));
+                    Segment segment = Segment.open(file, number, mSegmentCapacity);
+                    if (segment.size() == 0) {
+                        segment.delete();
+                    } else {
+                        mSegments.add(segment);
+                    }
+                } catch (NumberFormatException | IOException e) {
+                    Log.w(TAG, "Could not open segment " + file, e);
+                }
+            }
+            Collections.sort(mSegments, new Comparator<Segment>() {
+                @Override
+                public int compare(Segment lhs, Segment rhs) {
+                    return Long.compare(lhs.mNumber, rhs.mNumber);
+                }
+            });
+        }
+
+        void insert(long timestampMillis, double value) {
+            if (mSegments.isEmpty()) {
+                addSegment();
+            }
+            int last = mSegments.size() - 1;
+            Segment lastSegment = mSegments.get(last);
+            if (lastSegment.size() == 0 || timestampMillis >= lastSegment.getLastTimestamp()) {
+                insertAt(last, lastSegment.size(), timestampMillis, value);
+                return;
+            }
+
+            // Out of order: find the last segment that starts at or before this timestamp.
+            int s = last;
+            while (s > 0 && mSegments.get(s).getFirstTimestamp() > timestampMillis) {
+                s--;
+            }
+            insertAt(s, mSegments.get(s).upperBound(timestampMillis), timestampMillis, value);
+        }
+
+        /**
+         * Inserts the reading at the given position.  If the segment is full, its last record is
+         * carried over to the start of the next segment, and so on.
+         */
+        private void insertAt(int segmentIndex, int position, long timestampMillis,
+                double value) {
+            while (true) {
+                Segment segment = mSegments.get(segmentIndex);
+                if (!segment.isFull()) {
+                    segment.insert(position, timestampMillis, value);
+                    return;
+                }
+                if (position < segment.size()) {
+                    int lastRecord = segment.size() - 1;
+                    long carriedTimestamp = segment.getTimestamp(lastRecord);
+                    double carriedValue = segment.getValue(lastRecord);
+                    segment.removeRange(lastRecord, lastRecord + 1);
+                    segment.insert(position, timestampMillis, value);
+                    timestampMillis = carriedTimestamp;
+                    value = carriedValue;
+                }
+                segmentIndex++;
+                position = 0;
+                if (segmentIndex == mSegments.size()) {
+                    addSegment();
+                }
+            }
+        }
+
+        private void addSegment() {
+            long number = mSegments.isEmpty() ? 0
+                    : mSegments.get(mSegments.size() - 1).mNumber + 1;
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                throw new IllegalStateException("Could not create " + mDir);
+            }
+            File file = new File(mDir, number + SegmentFormat.FILE_SUFFIX);
+            try {
+                mSegments.add(Segment.create(file, number, mSegmentCapacity));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create segment " + file, e);
+            }
+        }
+
+        /**
+         * @return the size of the segment files deleted
+         */
+        long delete(long min, long max) {
+            long deletedBytes = 0;
+            Iterator<Segment> iterator = mSegments.iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                int from = segment.lowerBound(min);
+                int to = segment.upperBound(max);
+                if (from == 0 && to == segment.size()) {
+                    deletedBytes += segment.getFileLength();
+                    segment.delete();
+                    iterator.remove();
+                } else if (to > from) {
+                    segment.removeRange(from, to);
+                }
+            }
+            return deletedBytes;
+        }
+    }
+
+    /**
+     * One segment file, mapped into memory.
+     */
+    private static class Segment {
+        private final File mFile;
+        private final long mNumber;
+        private final int mCapacity;
+        private MappedByteBuffer mBuffer;
+        private int mMappedRecords;
+        private int mSize;
+        private long[] mIndex = new long[0];
+
+        static Segment create(File file, long number, int capacity) throws IOException {
+            Segment segment = new Segment(file, number, capacity);
+            segment.map(Math.min(capacity, INITIAL_MAPPED_RECORDS));
+            segment.mBuffer.putInt(SegmentFormat.MAGIC_OFFSET, SegmentFormat.MAGIC);
+            segment.mBuffer.putInt(SegmentFormat.VERSION_OFFSET, SegmentFormat.VERSION);
+            segment.mBuffer.putInt(SegmentFormat.COUNT_OFFSET, 0);
+            return segment;
+        }
+
+        static Segment open(File file, long number, int capacity) throws IOException {
+            long length = file.length();
+            if (length < SegmentFormat.HEADER_BYTES) {
+                throw new IOException("Segment too short: " + length);
+            }
+            Segment segment = new Segment(file, number, capacity);
+            int records = (int) Math.min(capacity,
+                    (length - SegmentFormat.HEADER_BYTES) / SegmentFormat.RECORD_BYTES);
+            segment.map(Math.max(records, 1));
+            if (segment.mBuffer.getInt(SegmentFormat.MAGIC_OFFSET) != SegmentFormat.MAGIC
+                    || segment.mBuffer.getInt(SegmentFormat.VERSION_OFFSET)
+                    != SegmentFormat.VERSION) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            segment.mSize = Math.min(segment.mBuffer.getInt(SegmentFormat.COUNT_OFFSET), records);
+            segment.updateIndex(0);
+            return segment;
+        }
+
+        private Segment(File file, long number, int capacity) {
+            mFile = file;
+            mNumber = number;
+            mCapacity = capacity;
+        }
+
+        /**
+         * (Re)maps the file with room for {@code records} records.  Lists already handed out keep
+         * their old mapping, which still shows the same file contents.
+         */
+        private void map(int records) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                long length = getTimestampOffset(records);
+                if (file.length() < length) {
+                    file.setLength(length);
+                }
+                mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+                mMappedRecords = records;
+            } finally {
+                file.close();
+            }
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        boolean isFull() {
+            return mSize == mCapacity;
+        }
+
+        long getTimestamp(int record) {
+            return mBuffer.getLong(getTimestampOffset(record));
+        }
+
+        double getValue(int record) {
+            return mBuffer.getDouble(getValueOffset(record));
+        }
+
+        long getFirstTimestamp() {
+            return getTimestamp(0);
+        }
+
+        long getLastTimestamp() {
+            return getTimestamp(mSize - 1);
+        }
+
+        /**
+         * Inserts a record at {@code position}, shifting any later records back by one.  The
+         * segment must not be full.
+         */
+        void insert(int position, long timestampMillis, double value) {
+            if (mSize == mMappedRecords) {
+                try {
+                    map(Math.min(mCapacity, mMappedRecords * 2));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not grow segment " + mFile, e);
+                }
+            }
+            if (position < mSize) {
+                moveRecords(position, mSize, position + 1);
+            }
+            mBuffer.putLong(getTimestampOffset(position), timestampMillis);
+            mBuffer.putDouble(getValueOffset(position), value);
+            setSize(mSize + 1);
+            updateIndex(position);
+        }
+
+        /**
+         * Removes the records in [{@code from}, {@code to}), moving later records forward.
+         */
+        void removeRange(int from, int to) {
+            if (to < mSize) {
+                moveRecords(to, mSize, from);
+            }
+            setSize(mSize - (to - from));
+            updateIndex(from);
+        }
+
+        long getFileLength() {
+            return mFile.length();
+        }
+
+        void delete() {
+            if (!mFile.delete()) {
+                Log.w(TAG, "Could not delete segment " + mFile);
+            }
+        }
+
+        /**
+         * Copies records [{@code from}, {@code to}) so that they start at {@code destination}.
+         * The ranges may overlap.
+         */
+        private void moveRecords(int from, int to, int destination) {
+            byte[] moved = new byte[(to - from) * SegmentFormat.RECORD_BYTES];
+            ByteBuffer source = mBuffer.duplicate();
+            source.position(getTimestampOffset(from));
+            source.get(moved);
+            ByteBuffer target = mBuffer.duplicate();
+            target.position(getTimestampOffset(destination));
+            target.put(moved);
+        }
+
+        private void setSize(int size) {
+            mSize = size;
+            mBuffer.putInt(SegmentFormat.COUNT_OFFSET, size);
+        }
+
+        /**
+         * Refreshes the index entries for every record from {@code fromRecord} on.
+         */
+        private void updateIndex(int fromRecord) {
+            int entries = (mSize + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            if (mIndex.length < entries) {
+                mIndex = Arrays.copyOf(mIndex, Math.max(entries, mIndex.length * 2));
+            }
+            for (int entry = fromRecord / INDEX_STRIDE; entry < entries; entry++) {
+                mIndex[entry] = getTimestamp(entry * INDEX_STRIDE);
+            }
+        }
+
+        /**
+         * @return the index of the first record with a timestamp >= {@code timestamp}, or
+         * {@link #size()} if there is none.
+         */
+        int lowerBound(long timestamp) {
+            if (timestamp == Long.MIN_VALUE) {
+                return 0;
+            }
+            return search(timestamp - 1);
+        }
+
+        /**
+         * @return the index of the first record with a timestamp > {@code timestamp}, or
+         * {@link #size()} if there is none.
+         */
+        int upperBound(long timestamp) {
+            if (timestamp == Long.MAX_VALUE) {
+                return mSize;
+            }
+            return search(timestamp);
+        }
+
+        /**
+         * @return the index of the first record with a timestamp > {@code timestamp}
+         */
+        private int search(long timestamp) {
+            // First find the first indexed record past the timestamp: the answer is at or before
+            // it, and after the previous indexed record.
+            int entries = (mSize + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            int lo = 0;
+            int hi = entries;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (mIndex[mid] > timestamp) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            int low = Math.max(0, (lo - 1) * INDEX_STRIDE);
+            int high = Math.min(mSize, lo * INDEX_STRIDE);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getTimestamp(mid) > timestamp) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+}
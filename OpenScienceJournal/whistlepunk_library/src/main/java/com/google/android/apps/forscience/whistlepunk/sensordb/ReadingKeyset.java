@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.common.collect.Range;
+
+/**
+ * Remembers how far a reader has got through the readings in a {@link TimeRange}, so that they can
+ * be read a page at a time without holding them all in memory.
+ *
+ * The position is the timestamp of the last reading seen, plus how many readings at exactly that
+ * timestamp have been seen.  The next page should ask for {@link #getRemainingRange()}, and skip
+ * the first {@link #getReadingsToSkip()} readings it gets back.  That way readings that share a
+ * timestamp across a page boundary are neither dropped nor repeated, as long as the storage
+ * returns readings with the same timestamp in a consistent order.
+ */
+public class ReadingKeyset {
+    private final TimeRange mRange;
+    private boolean mStarted = false;
+    private long mLastTimestamp;
+    private int mSeenAtLastTimestamp = 0;
+
+    public ReadingKeyset(TimeRange range) {
+        mRange = range;
+    }
+
+    /**
+     * @return the part of the original range that may still hold unseen readings, in the original
+     * order.
+     */
+    public TimeRange getRemainingRange() {
+        if (!mStarted) {
+            return mRange;
+        }
+        Range<Long> times = mRange.getTimes();
+        if (mRange.getOrder().equals(TimeRange.ObservationOrder.OLDEST_FIRST)) {
+            return TimeRange.oldest(times.intersection(Range.atLeast(mLastTimestamp)));
+        } else {
+            return TimeRange.newest(times.intersection(Range.atMost(mLastTimestamp)));
+        }
+    }
+
+    /**
+     * @return how many readings at the start of {@link #getRemainingRange()} have already been
+     * seen.
+     */
+    public int getReadingsToSkip() {
+        return mSeenAtLastTimestamp;
+    }
+
+    /**
+     * Records that the next reading, in the order of the original range, has been seen.
+     */
+    public void advance(long timestampMillis) {
+        if (mStarted && timestampMillis == mLastTimestamp) {
+            mSeenAtLastTimestamp++;
+        } else {
+            mStarted = true;
+            mLastTimestamp = timestampMillis;
+            mSeenAtLastTimestamp = 1;
+        }
+    }
+}
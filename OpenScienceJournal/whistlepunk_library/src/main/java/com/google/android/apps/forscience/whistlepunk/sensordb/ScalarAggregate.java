@@ -0,0 +1,187 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+/**
+ * Summary statistics for the scalar readings in a span of time: their count, sum, min and max,
+ * and the first and last reading.  An aggregate with a count of 0 covers no readings, and its
+ * other values are meaningless.
+ */
+public class ScalarAggregate {
+    private long mCount = 0;
+    private double mSum = 0;
+    private double mMin = Double.MAX_VALUE;
+    private double mMax = -Double.MAX_VALUE;
+    private long mFirstTimestampMillis = Long.MAX_VALUE;
+    private double mFirstValue;
+    private long mLastTimestampMillis = Long.MIN_VALUE;
+    private double mLastValue;
+
+    /**
+     * Creates an empty aggregate.
+     */
+    public ScalarAggregate() {
+    }
+
+    public ScalarAggregate(long count, double sum, double min, double max,
+            long firstTimestampMillis, double firstValue, long lastTimestampMillis,
+            double lastValue) {
+        mCount = count;
+        mSum = sum;
+        mMin = min;
+        mMax = max;
+        mFirstTimestampMillis = firstTimestampMillis;
+        mFirstValue = firstValue;
+        mLastTimestampMillis = lastTimestampMillis;
+        mLastValue = lastValue;
+    }
+
+    /**
+     * Includes one more reading in this aggregate.
+     */
+    public void add(long timestampMillis, double value) {
+        mCount++;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+        if (timestampMillis < mFirstTimestampMillis) {
+            mFirstTimestampMillis = timestampMillis;
+            mFirstValue = value;
+        }
+        if (timestampMillis >= mLastTimestampMillis) {
+            mLastTimestampMillis = timestampMillis;
+            mLastValue = value;
+        }
+    }
+
+    /**
+     * Includes every reading summarized by {@code other} in this aggregate.
+     */
+    public void merge(ScalarAggregate other) {
+        if (other.isEmpty()) {
+            return;
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+        if (other.mFirstTimestampMillis < mFirstTimestampMillis) {
+            mFirstTimestampMillis = other.mFirstTimestampMillis;
+            mFirstValue = other.mFirstValue;
+        }
+        if (other.mLastTimestampMillis >= mLastTimestampMillis) {
+            mLastTimestampMillis = other.mLastTimestampMillis;
+            mLastValue = other.mLastValue;
+        }
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public double getSum() {
+        return mSum;
+    }
+
+    public double getMin() {
+        return mMin;
+    }
+
+    public double getMax() {
+        return mMax;
+    }
+
+    public double getAverage() {
+        return mSum / mCount;
+    }
+
+    public long getFirstTimestampMillis() {
+        return mFirstTimestampMillis;
+    }
+
+    public double getFirstValue() {
+        return mFirstValue;
+    }
+
+    public long getLastTimestampMillis() {
+        return mLastTimestampMillis;
+    }
+
+    public double getLastValue() {
+        return mLastValue;
+    }
+
+    /**
+     * Only use this for testing.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final ScalarAggregate that = (ScalarAggregate) o;
+
+        if (mCount != that.mCount) {
+            return false;
+        }
+        if (mCount == 0) {
+            return true;
+        }
+        return Double.compare(that.mSum, mSum) == 0
+                && Double.compare(that.mMin, mMin) == 0
+                && Double.compare(that.mMax, mMax) == 0
+                && mFirstTimestampMillis == that.mFirstTimestampMillis
+                && Double.compare(that.mFirstValue, mFirstValue) == 0
+                && mLastTimestampMillis == that.mLastTimestampMillis
+                && Double.compare(that.mLastValue, mLastValue) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        if (mCount == 0) {
+            return 0;
+        }
+        int result = (int) (mCount ^ (mCount >>> 32));
+        long temp = Double.doubleToLongBits(mSum);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + (int) (mFirstTimestampMillis ^ (mFirstTimestampMillis >>> 32));
+        result = 31 * result + (int) (mLastTimestampMillis ^ (mLastTimestampMillis >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ScalarAggregate{" +
+                "mCount=" + mCount +
+                ", mSum=" + mSum +
+                ", mMin=" + mMin +
+                ", mMax=" + mMax +
+                ", mFirstTimestampMillis=" + mFirstTimestampMillis +
+                ", mFirstValue=" + mFirstValue +
+                ", mLastTimestampMillis=" + mLastTimestampMillis +
+                ", mLastValue=" + mLastValue +
+                '}';
+    }
+}
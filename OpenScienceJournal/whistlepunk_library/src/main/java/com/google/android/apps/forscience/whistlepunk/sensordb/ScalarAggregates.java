@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for implementing {@link SensorDatabase#getAggregates}.
+ */
+public class ScalarAggregates {
+    private ScalarAggregates() {
+        // static methods only
+    }
+
+    /**
+     * @return the inclusive timestamp bounds of {@code range}, which must be bounded on both ends
+     * so that it can be split into buckets.
+     */
+    public static long[] getBucketedBounds(TimeRange range) {
+        Preconditions.checkArgument(range.getTimes() != null && range.getTimes().hasLowerBound()
+                && range.getTimes().hasUpperBound(), "Aggregates need a bounded range");
+        return ChunkedSensorDatabase.getInclusiveBounds(range);
+    }
+
+    /**
+     * @return the first timestamp in bucket {@code index} when the inclusive range
+     * {@code [min, max]} is split into {@code bucketCount} buckets of (nearly) equal length.
+     * Passing {@code bucketCount} as the index gives one past the end of the last bucket.
+     */
+    public static long getBucketStart(long min, long max, int bucketCount, int index) {
+        long span = max - min + 1;
+        return min + (span / bucketCount) * index + (span % bucketCount) * index / bucketCount;
+    }
+
+    /**
+     * Implements {@link SensorDatabase#getAggregates} for databases without stored summaries, by
+     * reading every tier-0 reading in {@code range} once.
+     */
+    public static List<ScalarAggregate> computeFromReadings(SensorDatabase db, String sensorTag,
+            TimeRange range, int bucketCount) {
+        Preconditions.checkArgument(bucketCount > 0);
+        final long[] bounds = getBucketedBounds(range);
+        final List<ScalarAggregate> buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(new ScalarAggregate());
+        }
+        if (bounds[0] > bounds[1]) {
+            return buckets;
+        }
+        final int count = bucketCount;
+        db.getScalarReadings(sensorTag, TimeRange.oldest(range.getTimes()), 0, 0).deliver(
+                new StreamConsumer() {
+                    private int mBucket = 0;
+
+                    @Override
+                    public void addData(long timestampMillis, double value) {
+                        while (timestampMillis >= getBucketStart(bounds[0], bounds[1], count,
+                                mBucket + 1)) {
+                            mBucket++;
+                        }
+                        buckets.get(mBucket).add(timestampMillis, value);
+                    }
+                });
+        return buckets;
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.BatchStreamConsumer;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-through cache of scalar readings, in front of a {@link SensorDatabase}.
+ *
+ * Time is divided into aligned blocks, and readings are loaded and kept a whole block (for one
+ * tag and tier) at a time, in primitive arrays.  How many readings there are per millisecond
+ * depends on the sensor's sample rate, and at higher tiers on each run's zoom level, so block
+ * lengths aren't fixed: each tag and tier starts out with blocks {@code firstBlockMillis} long,
+ * and once a read has shown how far apart its readings are, moves to blocks that hold about
+ * {@code readingsPerBlock} of them.  The least recently used blocks are evicted once the cache
+ * holds more than its budget of bytes.
+ *
+ * Only reads of a bounded time range, which spans at most {@link #MAX_BLOCKS_PER_READ} blocks,
+ * go through the cache; anything else goes straight to the database, as does everything if the
+ * budget is 0.
+ *
+ * The cache doesn't see writes: callers must call one of the {@code invalidate} methods once
+ * readings have been added to or deleted from the database.  A block that was being loaded while
+ * its tag was invalidated is returned, but not kept.
+ *
+ * Thread-safe.
+ */
+public class ScalarBlockCache {
+    // Longer reads are cheaper to do in one database query than block by block
+    public static final int MAX_BLOCKS_PER_READ = 64;
+
+    // No matter how high the tier, blocks don't get longer than a day
+    private static final long MAX_BLOCK_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Block lengths are only changed once they are this many times too long or too short
+    private static final int MAX_BLOCK_LENGTH_ERROR = 4;
+
+    // Rough per-block cost, beyond the arrays themselves: key, entry, block and array headers
+    private static final int BLOCK_OVERHEAD_BYTES = 96;
+
+    private static final int BYTES_PER_READING = 8 + 8;
+
+    private final long mMaxBytes;
+    private final long mFirstBlockMillis;
+    private final int mReadingsPerBlock;
+
+    // In access order, so that the eldest entry is the least recently used
+    private final LinkedHashMap<BlockKey, Block> mBlocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Bumped each time a tag is invalidated, so that a load which overlapped it isn't kept
+    private final Map<String, Integer> mGenerations = new HashMap<>();
+
+    // Block length for each tag and tier whose readings have been seen
+    private final Map<TierKey, Long> mBlockMillis = new HashMap<>();
+
+    private long mSizeBytes = 0;
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mEvictionCount = 0;
+
+    /**
+     * @return a cache that keeps nothing, and sends every read to the database
+     */
+    public static ScalarBlockCache disabled() {
+        return new ScalarBlockCache(0, 1, 1);
+    }
+
+    /**
+     * @param maxBytes         how much memory the cached readings may take up, roughly
+     * @param firstBlockMillis how long blocks are for a tag and tier none of whose readings have
+     *                         been read yet
+     * @param readingsPerBlock about how many readings each block should hold
+     */
+    public ScalarBlockCache(long maxBytes, long firstBlockMillis, int readingsPerBlock) {
+        Preconditions.checkArgument(firstBlockMillis > 0);
+        Preconditions.checkArgument(readingsPerBlock > 0);
+        mMaxBytes = maxBytes;
+        mFirstBlockMillis = firstBlockMillis;
+        mReadingsPerBlock = readingsPerBlock;
+    }
+
+    /**
+     * Returns the same readings as {@link SensorDatabase#getScalarReadings}, from the cache where
+     * possible.  Blocks that aren't cached are read from {@code db} on the calling thread.
+     */
+    public ScalarReadingList getScalarReadings(SensorDatabase db, String databaseTag,
+            TimeRange range, int resolutionTier, int maxRecords) {
+        Range<Long> times = range.getTimes();
+        if (mMaxBytes <= 0 || times == null || !times.hasLowerBound()
+                || !times.hasUpperBound()) {
+            return db.getScalarReadings(databaseTag, range, resolutionTier, maxRecords);
+        }
+        long first = times.lowerBoundType() == BoundType.CLOSED ? times.lowerEndpoint()
+                : times.lowerEndpoint() + 1;
+        long last = times.upperBoundType() == BoundType.CLOSED ? times.upperEndpoint()
+                : times.upperEndpoint() - 1;
+        long blockMillis = getBlockMillis(databaseTag, resolutionTier);
+        long firstBlock = floorDiv(first, blockMillis);
+        long lastBlock = floorDiv(last, blockMillis);
+        if (lastBlock - firstBlock >= MAX_BLOCKS_PER_READ) {
+            // Still worth learning from, since a tier's first reads often span many blocks.
+            ReadingCollector readings = new ReadingCollector(0);
+            db.getScalarReadings(databaseTag, range, resolutionTier, maxRecords).deliver(readings);
+            updateBlockMillis(databaseTag, resolutionTier, blockMillis, readings);
+            return readings.toList();
+        }
+
+        boolean newestFirst = range.getOrder() == TimeRange.ObservationOrder.NEWEST_FIRST;
+        ReadingCollector result = new ReadingCollector(maxRecords);
+        for (long i = firstBlock; i <= lastBlock && !result.isFull(); i++) {
+            long index = newestFirst ? lastBlock - (i - firstBlock) : i;
+            Block block = getBlock(db, databaseTag, resolutionTier, index, blockMillis);
+            block.copyInto(result, first, last, newestFirst);
+        }
+        updateBlockMillis(databaseTag, resolutionTier, blockMillis, result);
+        return result.toList();
+    }
+
+    private Block getBlock(SensorDatabase db, String databaseTag, int resolutionTier,
+            long index, long blockMillis) {
+        BlockKey key = new BlockKey(databaseTag, resolutionTier, blockMillis, index);
+        int generation;
+        synchronized (this) {
+            Block block = mBlocks.get(key);
+            if (block != null) {
+                mHitCount++;
+                return block;
+            }
+            mMissCount++;
+            generation = getGeneration(databaseTag);
+        }
+
+        // Read in one pass, since a write may land between a count and a copy.
+        ArrayScalarReadingList readings = ArrayScalarReadingList.copyOf(db.getScalarReadings(
+                databaseTag,
+                TimeRange.oldest(Range.closedOpen(index * blockMillis, (index + 1) * blockMillis)),
+                resolutionTier, 0));
+        long[] timestamps = new long[readings.size()];
+        double[] values = new double[readings.size()];
+        readings.copyTo(timestamps, values, 0);
+        Block block = new Block(timestamps, values);
+
+        synchronized (this) {
+            if (generation == getGeneration(databaseTag)
+                    && block.getSizeBytes() <= mMaxBytes && !mBlocks.containsKey(key)) {
+                mBlocks.put(key, block);
+                mSizeBytes += block.getSizeBytes();
+                evictToBudget();
+            }
+        }
+        return block;
+    }
+
+    private void evictToBudget() {
+        Iterator<Block> eldest = mBlocks.values().iterator();
+        while (mSizeBytes > mMaxBytes && eldest.hasNext()) {
+            mSizeBytes -= eldest.next().getSizeBytes();
+            eldest.remove();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Forgets any cached readings that {@code written} could have changed.  Call once the
+     * readings have been stored.
+     */
+    public void invalidate(ScalarReadingBuffer written) {
+        for (int tier = 0; tier < written.getTierCount(); tier++) {
+            int size = written.getTierSize(tier);
+            if (size == 0) {
+                continue;
+            }
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                long timestamp = written.getTimestamp(tier, i);
+                min = Math.min(min, timestamp);
+                max = Math.max(max, timestamp);
+            }
+            removeBlocks(written.getSensorTag(), tier, min, max);
+        }
+    }
+
+    /**
+     * Forgets any cached readings for {@code databaseTag}, at any tier, between
+     * {@code firstMillis} and {@code lastMillis} inclusive.  Call once readings in that range
+     * have been deleted.
+     */
+    public void invalidate(String databaseTag, long firstMillis, long lastMillis) {
+        removeBlocks(databaseTag, -1, firstMillis, lastMillis);
+    }
+
+    /**
+     * @param resolutionTier the tier to remove blocks from, or -1 for all tiers
+     */
+    private synchronized void removeBlocks(String databaseTag, int resolutionTier,
+            long firstMillis, long lastMillis) {
+        if (mMaxBytes <= 0) {
+            return;
+        }
+        mGenerations.put(databaseTag, getGeneration(databaseTag) + 1);
+        Iterator<Map.Entry<BlockKey, Block>> entries = mBlocks.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<BlockKey, Block> entry = entries.next();
+            BlockKey key = entry.getKey();
+            if (!key.mTag.equals(databaseTag)
+                    || (resolutionTier >= 0 && key.mTier != resolutionTier)) {
+                continue;
+            }
+            if (key.mIndex >= floorDiv(firstMillis, key.mBlockMillis)
+                    && key.mIndex <= floorDiv(lastMillis, key.mBlockMillis)) {
+                mSizeBytes -= entry.getValue().getSizeBytes();
+                entries.remove();
+            }
+        }
+    }
+
+    private int getGeneration(String databaseTag) {
+        Integer generation = mGenerations.get(databaseTag);
+        return generation == null ? 0 : generation;
+    }
+
+    private synchronized long getBlockMillis(String databaseTag, int resolutionTier) {
+        Long blockMillis = mBlockMillis.get(new TierKey(databaseTag, resolutionTier));
+        return blockMillis == null ? mFirstBlockMillis : blockMillis;
+    }
+
+    /**
+     * Moves {@code databaseTag}'s {@code resolutionTier} to blocks of about
+     * {@code mReadingsPerBlock} readings, if {@code blockMillis} is far off that for the readings
+     * just read.  Blocks already cached stay valid, and are simply no longer looked up.
+     */
+    private void updateBlockMillis(String databaseTag, int resolutionTier, long blockMillis,
+            ReadingCollector readings) {
+        long spannedMillis = readings.getSpannedMillis();
+        if (spannedMillis <= 0) {
+            return;
+        }
+        double idealMillis = (double) spannedMillis * mReadingsPerBlock / (readings.size() - 1);
+        if (idealMillis < blockMillis * MAX_BLOCK_LENGTH_ERROR
+                && idealMillis * MAX_BLOCK_LENGTH_ERROR > blockMillis) {
+            return;
+        }
+        long newBlockMillis = Math.max(1, Math.min(MAX_BLOCK_MILLIS, Math.round(idealMillis)));
+        synchronized (this) {
+            mBlockMillis.put(new TierKey(databaseTag, resolutionTier), newBlockMillis);
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    /**
+     * @return how many block lookups found the block already cached
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return how many block lookups had to read the block from the database
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return how many blocks have been dropped to stay within the budget
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return roughly how much memory the cached blocks take up now
+     */
+    public synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    private static class TierKey {
+        final String mTag;
+        final int mTier;
+
+        TierKey(String tag, int tier) {
+            mTag = tag;
+            mTier = tier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TierKey that = (TierKey) o;
+            return mTier == that.mTier && mTag.equals(that.mTag);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mTag.hashCode() + mTier;
+        }
+    }
+
+    /**
+     * Blocks of different lengths can overlap, so the length is part of the key.
+     */
+    private static class BlockKey {
+        final String mTag;
+        final int mTier;
+        final long mBlockMillis;
+        final long mIndex;
+
+        BlockKey(String tag, int tier, long blockMillis, long index) {
+            mTag = tag;
+            mTier = tier;
+            mBlockMillis = blockMillis;
+            mIndex = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BlockKey that = (BlockKey) o;
+            return mTier == that.mTier && mBlockMillis == that.mBlockMillis
+                    && mIndex == that.mIndex && mTag.equals(that.mTag);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mTag.hashCode();
+            result = 31 * result + mTier;
+            result = 31 * result + (int) (mBlockMillis ^ (mBlockMillis >>> 32));
+            result = 31 * result + (int) (mIndex ^ (mIndex >>> 32));
+            return result;
+        }
+    }
+
+    /**
+     * The readings of one block, oldest first.  Never changed once made.
+     */
+    private static class Block {
+        private final long[] mTimestamps;
+        private final double[] mValues;
+
+        Block(long[] timestamps, double[] values) {
+            mTimestamps = timestamps;
+            mValues = values;
+        }
+
+        long getSizeBytes() {
+            return BLOCK_OVERHEAD_BYTES + (long) mTimestamps.length * BYTES_PER_READING;
+        }
+
+        /**
+         * Adds the readings between {@code first} and {@code last} inclusive, until
+         * {@code collector} is full.
+         */
+        void copyInto(ReadingCollector collector, long first, long last, boolean newestFirst) {
+            if (newestFirst) {
+                for (int i = mTimestamps.length - 1; i >= 0 && !collector.isFull(); i--) {
+                    if (mTimestamps[i] >= first && mTimestamps[i] <= last) {
+                        collector.add(mTimestamps[i], mValues[i]);
+                    }
+                }
+            } else {
+                for (int i = 0; i < mTimestamps.length && !collector.isFull(); i++) {
+                    if (mTimestamps[i] >= first && mTimestamps[i] <= last) {
+                        collector.add(mTimestamps[i], mValues[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class ReadingCollector implements BatchStreamConsumer {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final int mMaxRecords;
+        private long[] mTimestamps;
+        private double[] mValues;
+        private int mSize = 0;
+
+        /**
+         * @param maxRecords the most readings to collect, or 0 for no limit
+         */
+        ReadingCollector(int maxRecords) {
+            mMaxRecords = maxRecords;
+            int capacity = maxRecords > 0 ? Math.min(maxRecords, INITIAL_CAPACITY)
+                    : INITIAL_CAPACITY;
+            mTimestamps = new long[capacity];
+            mValues = new double[capacity];
+        }
+
+        boolean isFull() {
+            return mMaxRecords > 0 && mSize >= mMaxRecords;
+        }
+
+        @Override
+        public void addData(long timestamp, double value) {
+            add(timestamp, value);
+        }
+
+        @Override
+        public void addDataBatch(long[] timestampsMillis, double[] values, int offset,
+                int count) {
+            if (mMaxRecords > 0) {
+                count = Math.max(0, Math.min(count, mMaxRecords - mSize));
+            }
+            if (mSize + count > mTimestamps.length) {
+                int capacity = Math.max(mSize + count, mTimestamps.length * 2);
+                mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+                mValues = Arrays.copyOf(mValues, capacity);
+            }
+            System.arraycopy(timestampsMillis, offset, mTimestamps, mSize, count);
+            System.arraycopy(values, offset, mValues, mSize, count);
+            mSize += count;
+        }
+
+        void add(long timestamp, double value) {
+            if (mSize == mTimestamps.length) {
+                mTimestamps = Arrays.copyOf(mTimestamps, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mTimestamps[mSize] = timestamp;
+            mValues[mSize] = value;
+            mSize++;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        /**
+         * @return how far apart the first and last readings are, in either order
+         */
+        long getSpannedMillis() {
+            return mSize < 2 ? 0 : Math.abs(mTimestamps[mSize - 1] - mTimestamps[0]);
+        }
+
+        ScalarReadingList toList() {
+            return new ArrayScalarReadingList(mTimestamps, mValues, mSize);
+        }
+    }
+}
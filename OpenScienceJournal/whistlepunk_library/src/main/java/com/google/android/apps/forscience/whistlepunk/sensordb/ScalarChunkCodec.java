@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a run of (timestamp, value) readings into a compact byte array, and back.
+ *
+ * Timestamps are stored as delta-of-deltas, so a sensor reporting at a steady rate costs about one
+ * bit per timestamp.  Values are XORed with the previous value, and only the bits that changed are
+ * stored, so slowly-changing or repeated values are cheap.  (This is the scheme described in
+ * Facebook's "Gorilla" paper.)
+ *
+ * Timestamps passed to {@link #encode} must be in non-decreasing order.
+ */
+public class ScalarChunkCodec {
+    private static final int COUNT_BITS = 32;
+    private static final int LEADING_ZEROS_BITS = 5;
+    private static final int MAX_LEADING_ZEROS = (1 << LEADING_ZEROS_BITS) - 1;
+    private static final int SIGNIFICANT_BITS_BITS = 6;
+
+    private ScalarChunkCodec() {
+        // static methods only
+    }
+
+    public static byte[] encode(long[] timestamps, double[] values, int offset, int count) {
+        BitWriter out = new BitWriter(count * 2 + 24);
+        out.writeBits(count, COUNT_BITS);
+        if (count == 0) {
+            return out.toByteArray();
+        }
+
+        long prevTimestamp = timestamps[offset];
+        long prevBits = Double.doubleToRawLongBits(values[offset]);
+        out.writeBits(prevTimestamp, 64);
+        out.writeBits(prevBits, 64);
+
+        long prevDelta = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int i = offset + 1; i < offset + count; i++) {
+            long delta = timestamps[i] - prevTimestamp;
+            writeDeltaOfDelta(out, delta - prevDelta);
+            prevDelta = delta;
+            prevTimestamp = timestamps[i];
+
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ prevBits;
+            prevBits = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                continue;
+            }
+            out.writeBit(true);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), MAX_LEADING_ZEROS);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                // Changed bits fit in the previous window: just write the window.
+                out.writeBit(false);
+                out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                out.writeBit(true);
+                out.writeBits(leading, LEADING_ZEROS_BITS);
+                out.writeBits(significant - 1, SIGNIFICANT_BITS_BITS);
+                out.writeBits(xor >>> trailing, significant);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeDeltaOfDelta(BitWriter out, long dod) {
+        if (dod == 0) {
+            out.writeBit(false);
+        } else if (fitsInSignedBits(dod, 7)) {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod, 7);
+        } else if (fitsInSignedBits(dod, 9)) {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod, 9);
+        } else if (fitsInSignedBits(dod, 12)) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod, 12);
+        } else {
+            out.writeBits(0b1111, 4);
+            out.writeBits(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (!in.readBit()) {
+            return 0;
+        } else if (!in.readBit()) {
+            return in.readSignedBits(7);
+        } else if (!in.readBit()) {
+            return in.readSignedBits(9);
+        } else if (!in.readBit()) {
+            return in.readSignedBits(12);
+        } else {
+            return in.readBits(64);
+        }
+    }
+
+    private static boolean fitsInSignedBits(long value, int bits) {
+        long limit = 1L << (bits - 1);
+        return value >= -limit && value < limit;
+    }
+
+    /**
+     * @return the number of readings stored in {@code chunk}
+     */
+    public static int readCount(byte[] chunk) {
+        return (int) new BitReader(chunk).readBits(COUNT_BITS);
+    }
+
+    /**
+     * Decodes {@code chunk} into the given arrays, which must each have room for at least
+     * {@link #readCount(byte[])} elements.
+     *
+     * @return the number of readings decoded
+     */
+    public static int decode(byte[] chunk, long[] timestamps, double[] values) {
+        BitReader in = new BitReader(chunk);
+        int count = (int) in.readBits(COUNT_BITS);
+        if (count == 0) {
+            return 0;
+        }
+
+        long timestamp = in.readBits(64);
+        long bits = in.readBits(64);
+        timestamps[0] = timestamp;
+        values[0] = Double.longBitsToDouble(bits);
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(in);
+            timestamp += delta;
+            timestamps[i] = timestamp;
+
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(LEADING_ZEROS_BITS);
+                    int significant = (int) in.readBits(SIGNIFICANT_BITS_BITS) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                bits ^= in.readBits(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(bits);
+        }
+        return count;
+    }
+
+    private static class BitWriter {
+        private byte[] mBytes;
+        private int mBitPosition = 0;
+
+        BitWriter(int initialCapacity) {
+            mBytes = new byte[Math.max(initialCapacity, 8)];
+        }
+
+        void writeBit(boolean bit) {
+            writeBits(bit ? 1 : 0, 1);
+        }
+
+        /**
+         * Writes the lowest {@code numBits} bits of {@code value}, most significant first.
+         */
+        void writeBits(long value, int numBits) {
+            while (numBits > 0) {
+                int byteIndex = mBitPosition >>> 3;
+                if (byteIndex == mBytes.length) {
+                    mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+                }
+                int available = 8 - (mBitPosition & 7);
+                int toWrite = Math.min(available, numBits);
+                int bits = (int) (value >>> (numBits - toWrite)) & ((1 << toWrite) - 1);
+                mBytes[byteIndex] |= bits << (available - toWrite);
+                mBitPosition += toWrite;
+                numBits -= toWrite;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBytes, (mBitPosition + 7) >>> 3);
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] mBytes;
+        private int mBitPosition = 0;
+
+        BitReader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        boolean readBit() {
+            return readBits(1) != 0;
+        }
+
+        long readBits(int numBits) {
+            long result = 0;
+            while (numBits > 0) {
+                int available = 8 - (mBitPosition & 7);
+                int toRead = Math.min(available, numBits);
+                int bits = ((mBytes[mBitPosition >>> 3] & 0xff) >>> (available - toRead))
+                        & ((1 << toRead) - 1);
+                result = (result << toRead) | bits;
+                mBitPosition += toRead;
+                numBits -= toRead;
+            }
+            return result;
+        }
+
+        long readSignedBits(int numBits) {
+            int shift = 64 - numBits;
+            return (readBits(numBits) << shift) >> shift;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates scalar readings for a single sensor in primitive arrays, separated by resolution
+ * tier, so that they can be handed to {@link SensorDatabase#addScalarReadings(ScalarReadingBuffer)}
+ * and stored together.
+ *
+ * Not thread-safe: callers must make sure that only one thread touches a buffer at a time.
+ */
+public class ScalarReadingBuffer {
+    private static final int INITIAL_TIER_CAPACITY = 16;
+
+    private String mSensorTag;
+    private String mRunId;
+    private long[][] mTimestamps = new long[0][];
+    private double[][] mValues = new double[0][];
+    private int[] mTierSizes = new int[0];
+    private int mSize = 0;
+
+    public ScalarReadingBuffer(String sensorTag) {
+        this(sensorTag, null);
+    }
+
+    /**
+     * @param runId the run these readings were recorded in, or null if they aren't part of a run.
+     *              Databases may store each run's readings separately, so that they can be
+     *              deleted together (see {@link SensorDatabase#deleteRunReadings}).
+     */
+    public ScalarReadingBuffer(String sensorTag, String runId) {
+        mSensorTag = sensorTag;
+        mRunId = runId;
+    }
+
+    public String getSensorTag() {
+        return mSensorTag;
+    }
+
+    /**
+     * @return the run these readings were recorded in, or null if they aren't part of a run
+     */
+    public String getRunId() {
+        return mRunId;
+    }
+
+    public void add(int resolutionTier, long timestampMillis, double value) {
+        ensureTier(resolutionTier);
+        int index = mTierSizes[resolutionTier];
+        ensureCapacity(resolutionTier, index + 1);
+        mTimestamps[resolutionTier][index] = timestampMillis;
+        mValues[resolutionTier][index] = value;
+        mTierSizes[resolutionTier]++;
+        mSize++;
+    }
+
+    /**
+     * Appends {@code count} readings to {@code resolutionTier}, in order, starting at
+     * {@code offset} in the given arrays.
+     */
+    public void addAll(int resolutionTier, long[] timestampsMillis, double[] values, int offset,
+            int count) {
+        if (count == 0) {
+            return;
+        }
+        ensureTier(resolutionTier);
+        int size = mTierSizes[resolutionTier];
+        ensureCapacity(resolutionTier, size + count);
+        System.arraycopy(timestampsMillis, offset, mTimestamps[resolutionTier], size, count);
+        System.arraycopy(values, offset, mValues[resolutionTier], size, count);
+        mTierSizes[resolutionTier] += count;
+        mSize += count;
+    }
+
+    /**
+     * Appends {@code count} of the readings in {@code resolutionTier} of {@code other}, starting
+     * at index {@code start}.
+     */
+    public void addAll(ScalarReadingBuffer other, int resolutionTier, int start, int count) {
+        addAll(resolutionTier, other.mTimestamps[resolutionTier], other.mValues[resolutionTier],
+                start, count);
+    }
+
+    private void ensureCapacity(int resolutionTier, int capacity) {
+        int oldCapacity = mTimestamps[resolutionTier].length;
+        if (capacity > oldCapacity) {
+            int newCapacity = Math.max(capacity, oldCapacity * 2);
+            mTimestamps[resolutionTier] = Arrays.copyOf(mTimestamps[resolutionTier], newCapacity);
+            mValues[resolutionTier] = Arrays.copyOf(mValues[resolutionTier], newCapacity);
+        }
+    }
+
+    private void ensureTier(int resolutionTier) {
+        if (resolutionTier < mTierSizes.length) {
+            return;
+        }
+        int oldTierCount = mTierSizes.length;
+        int newTierCount = resolutionTier + 1;
+        mTimestamps = Arrays.copyOf(mTimestamps, newTierCount);
+        mValues = Arrays.copyOf(mValues, newTierCount);
+        mTierSizes = Arrays.copyOf(mTierSizes, newTierCount);
+        for (int tier = oldTierCount; tier < newTierCount; tier++) {
+            mTimestamps[tier] = new long[INITIAL_TIER_CAPACITY];
+            mValues[tier] = new double[INITIAL_TIER_CAPACITY];
+        }
+    }
+
+    /**
+     * @return the total number of readings in this buffer, across all tiers.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return one more than the highest tier that has ever had a reading added.  Tiers below
+     * this may be empty.
+     */
+    public int getTierCount() {
+        return mTierSizes.length;
+    }
+
+    public int getTierSize(int resolutionTier) {
+        return mTierSizes[resolutionTier];
+    }
+
+    public long getTimestamp(int resolutionTier, int index) {
+        return mTimestamps[resolutionTier][index];
+    }
+
+    public double getValue(int resolutionTier, int index) {
+        return mValues[resolutionTier][index];
+    }
+
+    /**
+     * Empties the buffer, retaining the allocated arrays so that it can be reused.
+     */
+    public void clear() {
+        Arrays.fill(mTierSizes, 0);
+        mSize = 0;
+    }
+
+    /**
+     * Empties one tier, leaving the others as they are.
+     */
+    public void clearTier(int resolutionTier) {
+        if (resolutionTier < mTierSizes.length) {
+            mSize -= mTierSizes[resolutionTier];
+            mTierSizes[resolutionTier] = 0;
+        }
+    }
+
+    /**
+     * Empties the buffer, as {@link #clear}, so that it can be reused for a different sensor or
+     * run.
+     */
+    public void reset(String sensorTag, String runId) {
+        clear();
+        mSensorTag = sensorTag;
+        mRunId = runId;
+    }
+
+    /**
+     * Appends every reading in {@code other}, tier by tier.
+     */
+    public void addAll(ScalarReadingBuffer other) {
+        for (int tier = 0; tier < other.getTierCount(); tier++) {
+            addAll(other, tier, 0, other.getTierSize(tier));
+        }
+    }
+
+    /**
+     * Keeps only every other reading in {@code resolutionTier}, starting with the first.
+     *
+     * @return how many readings were removed
+     */
+    public int decimate(int resolutionTier) {
+        if (resolutionTier >= mTierSizes.length) {
+            return 0;
+        }
+        int oldSize = mTierSizes[resolutionTier];
+        int newSize = (oldSize + 1) / 2;
+        for (int i = 1; i < newSize; i++) {
+            mTimestamps[resolutionTier][i] = mTimestamps[resolutionTier][i * 2];
+            mValues[resolutionTier][i] = mValues[resolutionTier][i * 2];
+        }
+        mTierSizes[resolutionTier] = newSize;
+        mSize -= oldSize - newSize;
+        return oldSize - newSize;
+    }
+}
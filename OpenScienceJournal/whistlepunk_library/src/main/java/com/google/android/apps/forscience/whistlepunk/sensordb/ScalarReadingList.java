@@ -33,6 +33,18 @@ public interface ScalarReadingList {
      */
     int size();
 
+    /**
+     * Copies the readings in this list, in delivery order, into the given arrays, starting at
+     * {@code offset}.  Unlike {@link #asDataPoints()}, this allocates nothing per reading.
+     *
+     * @param timestamps receives the timestamps; must have room for {@link #size()} readings
+     *                   after {@code offset}
+     * @param values     receives the values; must have room for {@link #size()} readings after
+     *                   {@code offset}
+     * @return the number of readings copied, which is never more than fit in the arrays
+     */
+    int copyTo(long[] timestamps, double[] values, int offset);
+
     /**
      * Converts the ScalarReadingList into a list of data points.
      * @return The scalar reading list as a list of data points.
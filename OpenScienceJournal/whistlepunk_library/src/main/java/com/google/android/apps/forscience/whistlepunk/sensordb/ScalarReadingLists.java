@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+/**
+ * Helpers for implementing {@link ScalarReadingList}.
+ */
+public class ScalarReadingLists {
+    private ScalarReadingLists() {
+        // static methods only
+    }
+
+    /**
+     * Implements {@link ScalarReadingList#copyTo} for lists that can only deliver their readings,
+     * by delivering them straight into the arrays.  A list that reads the database as it is
+     * delivered may deliver more readings than it counted in {@link ScalarReadingList#size()};
+     * any that don't fit are left out.
+     */
+    public static int copyByDelivering(ScalarReadingList list, long[] timestamps,
+            double[] values, int offset) {
+        ArrayFiller filler = new ArrayFiller(timestamps, values, offset);
+        list.deliver(filler);
+        return filler.mCopied;
+    }
+
+    private static class ArrayFiller implements StreamConsumer {
+        private final long[] mTimestamps;
+        private final double[] mValues;
+        private final int mOffset;
+        private int mCopied = 0;
+
+        ArrayFiller(long[] timestamps, double[] values, int offset) {
+            mTimestamps = timestamps;
+            mValues = values;
+            mOffset = offset;
+        }
+
+        @Override
+        public void addData(long timestampMillis, double value) {
+            if (mOffset + mCopied >= mTimestamps.length || mOffset + mCopied >= mValues.length) {
+                return;
+            }
+            mTimestamps[mOffset + mCopied] = timestampMillis;
+            mValues[mOffset + mCopied] = value;
+            mCopied++;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
+import java.util.List;
+
 /**
  * Stores and retrieves sensor data from on-device storage.  All access should be be from a single
  * background thread; all calls are blocking, and do not perform internal synchronization.
@@ -27,6 +29,14 @@ public interface SensorDatabase {
      */
     void addScalarReading(String sensorTag, int resolutionTier, long timestampMillis, double value);
 
+    /**
+     * Stores every reading in {@code readings}, as if each had been passed to
+     * {@link #addScalarReading(String, int, long, double)}.  Implementations should store the
+     * whole batch at once (for example, in a single transaction), since that is the point of
+     * batching.  Does not modify or clear {@code readings}.
+     */
+    void addScalarReadings(ScalarReadingBuffer readings);
+
     /**
      * Get stored scalar records
      *
@@ -43,6 +53,31 @@ public interface SensorDatabase {
     ScalarReadingList getScalarReadings(String sensorTag, TimeRange range, int resolutionTier,
             int maxRecords);
 
+    /**
+     * Stores a summary of consecutive tier-0 readings that have been, or will be, stored for
+     * {@code sensorTag}, so that {@link #getAggregates} can use it instead of reading them again.
+     * Level 0 summaries cover readings directly; each higher level covers several summaries from
+     * the level below.  Implementations that can't make use of summaries may ignore them.
+     */
+    void addScalarSummary(String sensorTag, int level, ScalarAggregate summary);
+
+    /**
+     * Splits {@code range}, which must be bounded, into {@code bucketCount} buckets of equal
+     * length, and summarizes the tier-0 readings of {@code sensorTag} in each.
+     *
+     * @return one aggregate per bucket, in time order.  Buckets without readings have empty
+     * aggregates.
+     */
+    List<ScalarAggregate> getAggregates(String sensorTag, TimeRange range, int bucketCount);
+
+    /**
+     * Merges the readings of {@code sensorTags} in {@code range} onto a common timeline (see
+     * {@link AlignedReadings}), and delivers its rows to {@code consumer}, in the order given by
+     * {@code range}, before returning.
+     */
+    void getAlignedReadings(List<String> sensorTags, TimeRange range, int resolutionTier,
+            AlignedReadings.Alignment alignment, AlignedReadings.RowConsumer consumer);
+
     /**
      * Find the first sensor reading after {@code timestamp}.  Return the database tag that
      * represents the sensor corresponding to the reading.  This is likely to only be of value
@@ -54,4 +89,36 @@ public interface SensorDatabase {
      * Deletes the scalar records for the given sensor for the given time range.
      */
     void deleteScalarReadings(String sensorTag, TimeRange range);
+
+    /**
+     * Deletes the scalar records for the given sensor for the given time range at every
+     * resolution tier below {@code lowestKeptTier}, leaving the higher tiers and any summaries.
+     *
+     * @return roughly how many bytes of storage the deleted records gave back
+     */
+    long deleteScalarReadingsBelowTier(String sensorTag, TimeRange range, int lowestKeptTier);
+
+    /**
+     * Deletes the scalar records for the given sensor for the given time range at every
+     * resolution tier above 0, and its summaries that lie within the range, leaving the tier-0
+     * records.  Lets zoom tiers computed from the tier-0 records be written again without being
+     * stored twice.
+     */
+    void deleteZoomTiers(String sensorTag, TimeRange range);
+
+    /**
+     * Deletes every reading stored as part of run {@code runId} (see
+     * {@link ScalarReadingBuffer#getRunId()}), and any readings for {@code sensorTags} in
+     * {@code range} that were stored without a run, as {@link #deleteScalarReadings} would.
+     */
+    void deleteRunReadings(String runId, List<String> sensorTags, TimeRange range);
+
+    /**
+     * Reports what is stored, for diagnostics; this may read the whole database, so don't call it
+     * while recording.
+     *
+     * @return how many readings are stored for each tag at each resolution tier, and roughly how
+     * many bytes they take up, in no particular order
+     */
+    List<TierUsage> getTierUsage();
 }
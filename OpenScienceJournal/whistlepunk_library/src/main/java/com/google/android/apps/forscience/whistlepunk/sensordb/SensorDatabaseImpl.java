@@ -19,96 +19,644 @@ package com.google.android.apps.forscience.whistlepunk.sensordb;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.util.Pair;
+import android.util.Log;
 
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.BoundType;
 import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public class SensorDatabaseImpl implements SensorDatabase {
     private static class DbVersions {
         public static final int V1_START = 1;
         public static final int V2_INDEX = 2;
         public static final int V3_TIER = 3;
-        public static final int CURRENT = V3_TIER;
+        public static final int V4_COMPOSITE_INDEX = 4;
+        public static final int V5_TAG_DICTIONARY = 5;
+        public static final int V6_RUN_PARTITIONS = 6;
+        public static final int V7_SUMMARIES = 7;
+        public static final int CURRENT = V7_SUMMARIES;
     }
 
     private static class ScalarSensorsTable {
         public static final String NAME = "scalar_sensors";
 
         public static class Column {
-            public static final String TAG = "tag";
+            public static final String SENSOR_ID = "sensor_id";
             public static final String RESOLUTION_TIER = "resolutionTier";
             public static final String TIMESTAMP_MILLIS = "timestampMillis";
             public static final String VALUE = "value";
         }
 
-        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.TAG + " " +
-                " TEXT, " + Column.TIMESTAMP_MILLIS + " INTEGER, " + Column.VALUE + " REAL,"
-                + Column.RESOLUTION_TIER + " INTEGER DEFAULT 0);";
+        // Each run's readings are kept in a table of their own, with the same columns and
+        // indexes as this one (see RunPartitionsTable).
+        public static String getCreationSql(String table) {
+            return "CREATE TABLE " + table + " (" + Column.SENSOR_ID + " INTEGER, "
+                    + Column.TIMESTAMP_MILLIS + " INTEGER, " + Column.VALUE + " REAL, "
+                    + Column.RESOLUTION_TIER + " INTEGER DEFAULT 0);";
+        }
+
+        public static String getInsertSql(String table) {
+            return "INSERT INTO " + table + " (" + Column.SENSOR_ID + ", "
+                    + Column.RESOLUTION_TIER + ", " + Column.TIMESTAMP_MILLIS + ", "
+                    + Column.VALUE + ") VALUES (?, ?, ?, ?);";
+        }
+
+        public static String getIndexSql(String table, String indexName) {
+            return "CREATE INDEX " + indexName + " ON " + table + "(" + Column.TIMESTAMP_MILLIS
+                    + ");";
+        }
+
+        // Every query filters by sensor and tier before timestamp.  Including the value makes this
+        // a covering index, so range queries never need to look at the table itself.
+        public static String getCompositeIndexSql(String table, String indexName) {
+            return "CREATE INDEX " + indexName + " ON " + table + "(" + Column.SENSOR_ID + ", "
+                    + Column.RESOLUTION_TIER + ", " + Column.TIMESTAMP_MILLIS + ", "
+                    + Column.VALUE + ");";
+        }
+
+        public static final String CREATION_SQL = getCreationSql(NAME);
+
+        public static final String INDEX_SQL = getIndexSql(NAME, "sensor_timestamp");
+
+        public static final String COMPOSITE_INDEX_NAME = "sensor_tier_timestamp";
+
+        public static final String COMPOSITE_INDEX_SQL = getCompositeIndexSql(NAME,
+                COMPOSITE_INDEX_NAME);
+    }
+
+    /**
+     * Readings recorded as part of a run are stored in a separate table for each run, so that
+     * deleting the run drops its table instead of deleting its rows one by one from the indexes of
+     * a single huge table.  This lists those tables, and the range of timestamps in each, so that
+     * a query only reads the partitions that overlap its range.
+     */
+    private static class RunPartitionsTable {
+        public static final String NAME = "run_partitions";
+
+        public static class Column {
+            public static final String PARTITION_ID = "partition_id";
+            public static final String RUN_ID = "run_id";
+            public static final String FIRST_TIMESTAMP_MILLIS = "firstTimestampMillis";
+            public static final String LAST_TIMESTAMP_MILLIS = "lastTimestampMillis";
+        }
+
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " ("
+                + Column.PARTITION_ID + " INTEGER PRIMARY KEY, " + Column.RUN_ID
+                + " TEXT NOT NULL UNIQUE, " + Column.FIRST_TIMESTAMP_MILLIS + " INTEGER, "
+                + Column.LAST_TIMESTAMP_MILLIS + " INTEGER);";
+
+        // Arguments are the first and last timestamps of a batch, and the partition id.
+        public static final String EXTEND_SQL = "UPDATE " + NAME + " SET "
+                + Column.FIRST_TIMESTAMP_MILLIS + " = MIN(" + Column.FIRST_TIMESTAMP_MILLIS
+                + ", ?), " + Column.LAST_TIMESTAMP_MILLIS + " = MAX("
+                + Column.LAST_TIMESTAMP_MILLIS + ", ?) WHERE " + Column.PARTITION_ID + " = ?;";
+
+        public static String getTableName(long partitionId) {
+            return "run_readings_" + partitionId;
+        }
+
+        public static String[] getTableCreationSql(long partitionId) {
+            String table = getTableName(partitionId);
+            return new String[]{ScalarSensorsTable.getCreationSql(table),
+                    ScalarSensorsTable.getIndexSql(table, table + "_timestamp"),
+                    ScalarSensorsTable.getCompositeIndexSql(table,
+                            table + "_" + ScalarSensorsTable.COMPOSITE_INDEX_NAME)};
+        }
+    }
+
+    /**
+     * Summaries of consecutive tier-0 readings, written while recording (see
+     * {@link #addScalarSummary}).  Each level summarizes several summaries from the level below, so
+     * {@link #getAggregates} can cover most of a long range with a few rows from the highest
+     * levels, and only read readings at its edges.
+     */
+    private static class ScalarSummariesTable {
+        public static final String NAME = "scalar_summaries";
+
+        public static class Column {
+            public static final String SENSOR_ID = "sensor_id";
+            public static final String LEVEL = "level";
+            public static final String FIRST_TIMESTAMP_MILLIS = "firstTimestampMillis";
+            public static final String FIRST_VALUE = "firstValue";
+            public static final String LAST_TIMESTAMP_MILLIS = "lastTimestampMillis";
+            public static final String LAST_VALUE = "lastValue";
+            public static final String MIN = "min";
+            public static final String MAX = "max";
+            public static final String SUM = "sum";
+            public static final String COUNT = "count";
+        }
+
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.SENSOR_ID
+                + " INTEGER, " + Column.LEVEL + " INTEGER, " + Column.FIRST_TIMESTAMP_MILLIS
+                + " INTEGER, " + Column.FIRST_VALUE + " REAL, " + Column.LAST_TIMESTAMP_MILLIS
+                + " INTEGER, " + Column.LAST_VALUE + " REAL, " + Column.MIN + " REAL, "
+                + Column.MAX + " REAL, " + Column.SUM + " REAL, " + Column.COUNT + " INTEGER);";
+
+        public static final String INDEX_SQL = "CREATE INDEX sensor_level_timestamp ON " + NAME
+                + "(" + Column.SENSOR_ID + ", " + Column.LEVEL + ", "
+                + Column.FIRST_TIMESTAMP_MILLIS + ");";
+
+        // In the order that readSummary expects
+        public static final String[] ALL_COLUMNS = {Column.COUNT, Column.SUM, Column.MIN,
+                Column.MAX, Column.FIRST_TIMESTAMP_MILLIS, Column.FIRST_VALUE,
+                Column.LAST_TIMESTAMP_MILLIS, Column.LAST_VALUE};
+    }
+
+    /**
+     * Gives each sensor tag a small integer id, so that scalar_sensors doesn't repeat the tag in
+     * every row.
+     */
+    private static class SensorTagsTable {
+        public static final String NAME = "sensor_tags";
+
+        public static class Column {
+            public static final String SENSOR_ID = "sensor_id";
+            public static final String TAG = "tag";
+        }
+
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.SENSOR_ID
+                + " INTEGER PRIMARY KEY, " + Column.TAG + " TEXT NOT NULL UNIQUE);";
+    }
+
+    /**
+     * Before V5, scalar_sensors stored the full sensor tag in every row.  Upgrading renames that
+     * table to this one, and its readings are then moved into the new scalar_sensors a batch at a
+     * time (see {@link #migrateLegacyReadingBatch(int)}).  Once it is empty, it is dropped.
+     */
+    private static class LegacyScalarSensorsTable {
+        public static final String NAME = "legacy_scalar_sensors";
+
+        public static class Column {
+            public static final String TAG = "tag";
+        }
+
+        // Schema changes made before the table was renamed, when it was still scalar_sensors
+        public static final String INDEX_SQL = "CREATE INDEX timestamp ON "
+                + ScalarSensorsTable.NAME + "(" + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ");";
 
-        public static final String INDEX_SQL =
-                "CREATE INDEX timestamp ON " + NAME + "(" + Column.TIMESTAMP_MILLIS + ");";
+        public static final String COMPOSITE_INDEX_SQL = "CREATE INDEX tag_tier_timestamp ON "
+                + ScalarSensorsTable.NAME + "(" + Column.TAG + ", "
+                + ScalarSensorsTable.Column.RESOLUTION_TIER + ", "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", "
+                + ScalarSensorsTable.Column.VALUE + ");";
+
+        // The arguments to each of these are the last rowid in the batch being moved.
+        public static final String ADD_TAGS_SQL = "INSERT OR IGNORE INTO " + SensorTagsTable.NAME
+                + " (" + SensorTagsTable.Column.TAG + ") SELECT DISTINCT " + Column.TAG + " FROM "
+                + NAME + " WHERE rowid <= ? AND " + Column.TAG + " IS NOT NULL;";
+
+        public static final String MOVE_READINGS_SQL = "INSERT INTO " + ScalarSensorsTable.NAME
+                + " (" + ScalarSensorsTable.Column.SENSOR_ID + ", "
+                + ScalarSensorsTable.Column.RESOLUTION_TIER + ", "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", "
+                + ScalarSensorsTable.Column.VALUE + ") SELECT t." + SensorTagsTable.Column.SENSOR_ID
+                + ", l." + ScalarSensorsTable.Column.RESOLUTION_TIER + ", l."
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", l."
+                + ScalarSensorsTable.Column.VALUE + " FROM " + NAME + " l JOIN "
+                + SensorTagsTable.NAME + " t ON l." + Column.TAG + " = t."
+                + SensorTagsTable.Column.TAG + " WHERE l.rowid <= ?;";
+
+        public static final String DELETE_READINGS_SQL = "DELETE FROM " + NAME
+                + " WHERE rowid <= ?;";
     }
 
+    private static final String TAG = "SensorDatabaseImpl";
+
+    // Returned by getSensorId for tags that have never had a reading stored under the new schema
+    private static final long NO_SENSOR_ID = -1;
+
+    // Returned by getPartitionId for runs that have no readings stored in a partition
+    private static final long NO_PARTITION_ID = -1;
+
+    // SQLite allows at most 500 terms in a compound SELECT.  When more partitions than this overlap
+    // a query, they are read through nested compound SELECTs.
+    private static final int MAX_COMPOUND_SELECT_TERMS = 400;
+
+    // Value of "PRAGMA auto_vacuum" when free pages are only released by
+    // "PRAGMA incremental_vacuum"
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // How many free pages reclaimFreePages releases at a time
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+
+    // How many readings to hand to the destination at once in copyAllReadingsTo
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    // How many rows to read at once when a result list is delivered without a record limit
+    private static final int DEFAULT_READ_WINDOW_SIZE = 1000;
+
+    // How many legacy readings the maintenance executor moves in each transaction
+    private static final int LEGACY_MIGRATION_BATCH_SIZE = 5000;
+
+    // How many times a read is started, in all, if the tables it chose are dropped under it
+    private static final int MAX_READ_ATTEMPTS = 3;
+
     private final SQLiteOpenHelper mOpenHelper;
+    private final int mReadWindowSize;
+
+    // Sensor ids by tag.  Ids never change once assigned.  Concurrent, since reads may run on a
+    // different thread from writes.
+    private final Map<String, Long> mSensorIds = new ConcurrentHashMap<>();
+
+    // Partition ids by run id.  Only touched by writes.
+    private final Map<String, Long> mPartitionIds = new HashMap<>();
 
+    // If set, runs the legacy reading migration and space reclamation in the background
+    private Executor mMaintenanceExecutor = null;
+
+    // Whether legacy_scalar_sensors still exists.  Set whenever the database is opened.
+    private volatile boolean mHasLegacyReadings = false;
+
+    /**
+     * Writes must all be made on one thread, but reads ({@link #getScalarReadings},
+     * {@link #getAggregates}, {@link #getAlignedReadings} and {@link #getFirstDatabaseTagAfter})
+     * may be made on another thread at the same time.  The database uses write-ahead logging, so
+     * a read gets its own connection and sees the last committed state, rather than waiting for
+     * a write to finish.
+     */
     public SensorDatabaseImpl(Context context, String name) {
+        this(context, name, DEFAULT_READ_WINDOW_SIZE);
+    }
+
+    @VisibleForTesting
+    SensorDatabaseImpl(Context context, String name, int readWindowSize) {
+        mReadWindowSize = readWindowSize;
         mOpenHelper = new SQLiteOpenHelper(context, name, null, DbVersions.CURRENT) {
+            private boolean mJustCreated = false;
+
             @Override
             public void onCreate(SQLiteDatabase db) {
+                mJustCreated = true;
                 db.execSQL(ScalarSensorsTable.CREATION_SQL);
                 db.execSQL(ScalarSensorsTable.INDEX_SQL);
+                db.execSQL(ScalarSensorsTable.COMPOSITE_INDEX_SQL);
+                db.execSQL(SensorTagsTable.CREATION_SQL);
+                db.execSQL(RunPartitionsTable.CREATION_SQL);
+                db.execSQL(ScalarSummariesTable.CREATION_SQL);
+                db.execSQL(ScalarSummariesTable.INDEX_SQL);
+            }
+
+            @Override
+            public void onConfigure(SQLiteDatabase db) {
+                // Only takes effect on the next VACUUM: Android has already created its own
+                // metadata table by now.
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
             }
 
             @Override
             public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
                 while (oldVersion != newVersion) {
                     if (oldVersion == DbVersions.V1_START) {
-                        db.execSQL(ScalarSensorsTable.INDEX_SQL);
+                        db.execSQL(LegacyScalarSensorsTable.INDEX_SQL);
                         oldVersion = DbVersions.V2_INDEX;
                     } else if (oldVersion == DbVersions.V2_INDEX) {
                         db.execSQL("ALTER TABLE " + ScalarSensorsTable.NAME + " ADD COLUMN "
                                 + ScalarSensorsTable.Column.RESOLUTION_TIER + " INTEGER DEFAULT 0;");
                         oldVersion = DbVersions.V3_TIER;
+                    } else if (oldVersion == DbVersions.V3_TIER) {
+                        db.execSQL(LegacyScalarSensorsTable.COMPOSITE_INDEX_SQL);
+                        oldVersion = DbVersions.V4_COMPOSITE_INDEX;
+                    } else if (oldVersion == DbVersions.V4_COMPOSITE_INDEX) {
+                        // Renaming is quick however big the table is; the readings themselves
+                        // are moved later, in batches.
+                        db.execSQL("ALTER TABLE " + ScalarSensorsTable.NAME + " RENAME TO "
+                                + LegacyScalarSensorsTable.NAME + ";");
+                        db.execSQL(ScalarSensorsTable.CREATION_SQL);
+                        db.execSQL(ScalarSensorsTable.INDEX_SQL);
+                        db.execSQL(ScalarSensorsTable.COMPOSITE_INDEX_SQL);
+                        db.execSQL(SensorTagsTable.CREATION_SQL);
+                        oldVersion = DbVersions.V5_TAG_DICTIONARY;
+                    } else if (oldVersion == DbVersions.V5_TAG_DICTIONARY) {
+                        db.execSQL(RunPartitionsTable.CREATION_SQL);
+                        oldVersion = DbVersions.V6_RUN_PARTITIONS;
+                    } else if (oldVersion == DbVersions.V6_RUN_PARTITIONS) {
+                        // Runs recorded before this have no summaries; getAggregates reads their
+                        // readings instead.
+                        db.execSQL(ScalarSummariesTable.CREATION_SQL);
+                        db.execSQL(ScalarSummariesTable.INDEX_SQL);
+                        oldVersion = DbVersions.V7_SUMMARIES;
                     }
                 }
             }
+
+            @Override
+            public void onOpen(SQLiteDatabase db) {
+                mHasLegacyReadings = DatabaseUtils.queryNumEntries(db, "sqlite_master",
+                        "type = 'table' AND name = ?",
+                        new String[]{LegacyScalarSensorsTable.NAME}) > 0;
+                if (mJustCreated) {
+                    // Quick while the database is empty.
+                    db.execSQL("VACUUM;");
+                    mJustCreated = false;
+                }
+            }
         };
+        mOpenHelper.setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void addScalarReading(String sourceTag, int resolutionTier, long timestampMillis,
             double value) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         ContentValues values = new ContentValues();
-        values.put(ScalarSensorsTable.Column.TAG, sourceTag);
+        values.put(ScalarSensorsTable.Column.SENSOR_ID, getOrCreateSensorId(db, sourceTag));
         values.put(ScalarSensorsTable.Column.TIMESTAMP_MILLIS, timestampMillis);
         values.put(ScalarSensorsTable.Column.VALUE, value);
         values.put(ScalarSensorsTable.Column.RESOLUTION_TIER, resolutionTier);
-        mOpenHelper.getWritableDatabase().insert(ScalarSensorsTable.NAME, null, values);
+        db.insert(ScalarSensorsTable.NAME, null, values);
     }
 
     /**
-     * Gets the selection string and selectionArgs based on the tag, range and resolution tier.
+     * Readings with a run id are stored in that run's partition; others in scalar_sensors.
+     */
+    @Override
+    public void addScalarReadings(ScalarReadingBuffer readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        // Ids are assigned outside the batch's transaction, so that they are never cached without
+        // having been committed.
+        long sensorId = getOrCreateSensorId(db, readings.getSensorTag());
+        String runId = readings.getRunId();
+        long partitionId = runId == null ? NO_PARTITION_ID : getOrCreatePartitionId(db, runId);
+        String table = partitionId == NO_PARTITION_ID ? ScalarSensorsTable.NAME
+                : RunPartitionsTable.getTableName(partitionId);
+        SQLiteStatement insert = db.compileStatement(ScalarSensorsTable.getInsertSql(table));
+        long firstTimestamp = Long.MAX_VALUE;
+        long lastTimestamp = Long.MIN_VALUE;
+        db.beginTransaction();
+        try {
+            insert.bindLong(1, sensorId);
+            for (int tier = 0; tier < readings.getTierCount(); tier++) {
+                insert.bindLong(2, tier);
+                int tierSize = readings.getTierSize(tier);
+                for (int i = 0; i < tierSize; i++) {
+                    long timestamp = readings.getTimestamp(tier, i);
+                    firstTimestamp = Math.min(firstTimestamp, timestamp);
+                    lastTimestamp = Math.max(lastTimestamp, timestamp);
+                    insert.bindLong(3, timestamp);
+                    insert.bindDouble(4, readings.getValue(tier, i));
+                    insert.executeInsert();
+                }
+            }
+            if (partitionId != NO_PARTITION_ID) {
+                db.execSQL(RunPartitionsTable.EXTEND_SQL,
+                        new Object[]{firstTimestamp, lastTimestamp, partitionId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    @Override
+    public void addScalarSummary(String sensorTag, int level, ScalarAggregate summary) {
+        if (summary.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(ScalarSummariesTable.Column.SENSOR_ID, getOrCreateSensorId(db, sensorTag));
+        values.put(ScalarSummariesTable.Column.LEVEL, level);
+        values.put(ScalarSummariesTable.Column.COUNT, summary.getCount());
+        values.put(ScalarSummariesTable.Column.SUM, summary.getSum());
+        values.put(ScalarSummariesTable.Column.MIN, summary.getMin());
+        values.put(ScalarSummariesTable.Column.MAX, summary.getMax());
+        values.put(ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS,
+                summary.getFirstTimestampMillis());
+        values.put(ScalarSummariesTable.Column.FIRST_VALUE, summary.getFirstValue());
+        values.put(ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS,
+                summary.getLastTimestampMillis());
+        values.put(ScalarSummariesTable.Column.LAST_VALUE, summary.getLastValue());
+        db.insert(ScalarSummariesTable.NAME, null, values);
+    }
+
+    private long getPartitionId(SQLiteDatabase db, String runId) {
+        Long cached = mPartitionIds.get(runId);
+        if (cached != null) {
+            return cached;
+        }
+        Cursor cursor = db.query(RunPartitionsTable.NAME,
+                new String[]{RunPartitionsTable.Column.PARTITION_ID},
+                RunPartitionsTable.Column.RUN_ID + " = ?", new String[]{runId}, null, null, null);
+        try {
+            if (!cursor.moveToNext()) {
+                return NO_PARTITION_ID;
+            }
+            long partitionId = cursor.getLong(0);
+            mPartitionIds.put(runId, partitionId);
+            return partitionId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long getOrCreatePartitionId(SQLiteDatabase db, String runId) {
+        long partitionId = getPartitionId(db, runId);
+        if (partitionId != NO_PARTITION_ID) {
+            return partitionId;
+        }
+        db.beginTransaction();
+        try {
+            // An empty partition has a range that no query overlaps.
+            ContentValues values = new ContentValues();
+            values.put(RunPartitionsTable.Column.RUN_ID, runId);
+            values.put(RunPartitionsTable.Column.FIRST_TIMESTAMP_MILLIS, Long.MAX_VALUE);
+            values.put(RunPartitionsTable.Column.LAST_TIMESTAMP_MILLIS, Long.MIN_VALUE);
+            partitionId = db.insertOrThrow(RunPartitionsTable.NAME, null, values);
+            for (String sql : RunPartitionsTable.getTableCreationSql(partitionId)) {
+                db.execSQL(sql);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mPartitionIds.put(runId, partitionId);
+        return partitionId;
+    }
+
+    /**
+     * @return the ids of the run partitions holding any readings within {@code range}.  Does not
+     * use the cache, so that it is safe to call from any thread.
+     */
+    private static List<Long> getOverlappingPartitionIds(SQLiteDatabase db, TimeRange range) {
+        List<Long> partitionIds = new ArrayList<>();
+        long[] bounds = ChunkedSensorDatabase.getInclusiveBounds(range);
+        if (bounds[0] > bounds[1]) {
+            return partitionIds;
+        }
+        Cursor cursor = db.query(RunPartitionsTable.NAME,
+                new String[]{RunPartitionsTable.Column.PARTITION_ID},
+                RunPartitionsTable.Column.FIRST_TIMESTAMP_MILLIS + " <= ? AND "
+                        + RunPartitionsTable.Column.LAST_TIMESTAMP_MILLIS + " >= ?",
+                new String[]{String.valueOf(bounds[1]), String.valueOf(bounds[0])}, null, null,
+                RunPartitionsTable.Column.FIRST_TIMESTAMP_MILLIS);
+        try {
+            while (cursor.moveToNext()) {
+                partitionIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return partitionIds;
+    }
+
+    /**
+     * A table holding scalar readings, and the value that identifies a sensor's readings in it.
+     */
+    private static class ReadingSource {
+        public final String mTable;
+        public final String mKeyColumn;
+        public final String mKey;
+
+        ReadingSource(String table, String keyColumn, String key) {
+            mTable = table;
+            mKeyColumn = keyColumn;
+            mKey = key;
+        }
+
+        Pair<String, String[]> getSelectionAndArgs(TimeRange range, int resolutionTier) {
+            return SensorDatabaseImpl.getSelectionAndArgs(mKeyColumn, mKey, range,
+                    resolutionTier);
+        }
+    }
+
+    /**
+     * @return every table that may hold readings for the sensor within {@code range}:
+     * scalar_sensors, legacy_scalar_sensors if it still exists, and any overlapping run partitions.
+     */
+    private List<ReadingSource> getReadingSources(SQLiteDatabase db, String sensorTag,
+            long sensorId, TimeRange range) {
+        List<ReadingSource> sources = new ArrayList<>();
+        String sensorIdKey = String.valueOf(sensorId);
+        sources.add(new ReadingSource(ScalarSensorsTable.NAME, ScalarSensorsTable.Column.SENSOR_ID,
+                sensorIdKey));
+        if (mHasLegacyReadings) {
+            sources.add(new ReadingSource(LegacyScalarSensorsTable.NAME,
+                    LegacyScalarSensorsTable.Column.TAG, sensorTag));
+        }
+        if (sensorId != NO_SENSOR_ID) {
+            for (long partitionId : getOverlappingPartitionIds(db, range)) {
+                sources.add(new ReadingSource(RunPartitionsTable.getTableName(partitionId),
+                        ScalarSensorsTable.Column.SENSOR_ID, sensorIdKey));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * A read that chooses the tables to read (see {@link #getReadingSources}) as it runs.
+     */
+    private interface TableRead<T> {
+        T run(SQLiteDatabase db);
+    }
+
+    /**
+     * Runs {@code read} on the reading connection.  Reads run concurrently with writes, so a table
+     * may be dropped between the read choosing it and querying it: legacy_scalar_sensors once its
+     * readings have been moved, or a run's partition when its readings are deleted.  Each drop
+     * commits together with the change that stops the table being chosen (clearing
+     * {@link #mHasLegacyReadings}, or deleting the run_partitions row), so the read is started
+     * again, choosing its tables afresh.
+     */
+    private <T> T readChosenTables(TableRead<T> read) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return read.run(db);
+            } catch (SQLiteException e) {
+                if (attempt >= MAX_READ_ATTEMPTS || !isMissingTable(e)) {
+                    throw e;
+                }
+                Log.w(TAG, "Table dropped during a read; reading again", e);
+            }
+        }
+    }
+
+    private static boolean isMissingTable(SQLiteException e) {
+        String message = e.getMessage();
+        return message != null && message.contains("no such table");
+    }
+
+    /**
+     * @return the id of {@code sensorTag}, or {@link #NO_SENSOR_ID} if it doesn't have one yet.
+     */
+    private long getSensorId(SQLiteDatabase db, String sensorTag) {
+        Long cached = mSensorIds.get(sensorTag);
+        if (cached != null) {
+            return cached;
+        }
+        long sensorId = lookUpSensorId(db, sensorTag);
+        if (sensorId != NO_SENSOR_ID) {
+            mSensorIds.put(sensorTag, sensorId);
+        }
+        return sensorId;
+    }
+
+    private long getOrCreateSensorId(SQLiteDatabase db, String sensorTag) {
+        long sensorId = getSensorId(db, sensorTag);
+        if (sensorId == NO_SENSOR_ID) {
+            ContentValues values = new ContentValues();
+            values.put(SensorTagsTable.Column.TAG, sensorTag);
+            sensorId = db.insertOrThrow(SensorTagsTable.NAME, null, values);
+            mSensorIds.put(sensorTag, sensorId);
+        }
+        return sensorId;
+    }
+
+    /**
+     * Reads the id of {@code sensorTag} from the database, without using or updating the cache,
+     * so that it is safe to call from any thread.
+     */
+    private static long lookUpSensorId(SQLiteDatabase db, String sensorTag) {
+        Cursor cursor = db.query(SensorTagsTable.NAME,
+                new String[]{SensorTagsTable.Column.SENSOR_ID}, SensorTagsTable.Column.TAG + " = ?",
+                new String[]{sensorTag}, null, null, null);
+        try {
+            return cursor.moveToNext() ? cursor.getLong(0) : NO_SENSOR_ID;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Gets the selection string and selectionArgs based on the sensor, range and resolution tier.
      *
+     * @param keyColumn the column that identifies the sensor: the sensor id in scalar_sensors, or
+     *                  the tag in legacy_scalar_sensors
      * @return a pair where the first element is the selection string and the second element is the
      * array of selectionArgs.
      */
-    private Pair<String, String[]> getSelectionAndArgs(String sensorTag, TimeRange range,
-            int resolutionTier) {
+    private static Pair<String, String[]> getSelectionAndArgs(String keyColumn, String key,
+            TimeRange range, int resolutionTier) {
         List<String> clauses = new ArrayList<>();
         List<String> values = new ArrayList<>();
 
-        clauses.add(ScalarSensorsTable.Column.TAG + " = ?");
-        values.add(sensorTag);
+        clauses.add(keyColumn + " = ?");
+        values.add(key);
 
         if (resolutionTier >= 0) {
             clauses.add(ScalarSensorsTable.Column.RESOLUTION_TIER + " = ?");
@@ -134,54 +682,418 @@ public class SensorDatabaseImpl implements SensorDatabase {
                 values.toArray(new String[values.size()]));
     }
 
+    /**
+     * If {@code maxRecords} is 0, the returned list does not hold the readings: it reads them from
+     * the database, a window at a time, each time they are delivered.
+     */
     @Override
-    public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
-            int resolutionTier, int maxRecords) {
+    public ScalarReadingList getScalarReadings(final String sensorTag, final TimeRange range,
+            final int resolutionTier, final int maxRecords) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        final long sensorId = getSensorId(db, sensorTag);
+        if (maxRecords <= 0) {
+            return new WindowedReadingList(sensorTag, sensorId, range, resolutionTier);
+        }
+
+        return readChosenTables(new TableRead<ScalarReadingList>() {
+            @Override
+            public ScalarReadingList run(SQLiteDatabase db) {
+                Pair<String, String[]> queryAndArgs = getScalarReadingsQuery(db, sensorTag,
+                        sensorId, range, resolutionTier, String.valueOf(maxRecords));
+                Cursor cursor = db.rawQuery(queryAndArgs.first, queryAndArgs.second);
+                try {
+                    final long[] readTimestamps = new long[maxRecords];
+                    final double[] readValues = new double[maxRecords];
+                    int i = 0;
+                    while (cursor.moveToNext()) {
+                        readTimestamps[i] = cursor.getLong(0);
+                        readValues[i] = cursor.getDouble(1);
+                        i++;
+                    }
+                    return new ArrayScalarReadingList(readTimestamps, readValues, i);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
 
+    /**
+     * Reads every table that may hold matching readings (see {@link #getReadingSources}), merging
+     * them in timestamp order.
+     *
+     * @param limit a SQL LIMIT clause ("count" or "offset,count"), or null for no limit.
+     * @return the SQL, and its arguments, that {@link #getScalarReadings} runs.
+     */
+    private Pair<String, String[]> getScalarReadingsQuery(SQLiteDatabase db, String sensorTag,
+            long sensorId, TimeRange range, int resolutionTier, String limit) {
         String[] columns =
                 {ScalarSensorsTable.Column.TIMESTAMP_MILLIS, ScalarSensorsTable.Column.VALUE};
-        Pair<String, String[]> selectionAndArgs = getSelectionAndArgs(sensorTag, range,
-                resolutionTier);
-        String selection = selectionAndArgs.first;
-        String[] selectionArgs = selectionAndArgs.second;
         String orderBy = ScalarSensorsTable.Column.TIMESTAMP_MILLIS + (range.getOrder().equals(
                 TimeRange.ObservationOrder.OLDEST_FIRST) ? " ASC" : " DESC");
-        String limit = maxRecords <= 0 ? null : String.valueOf(maxRecords);
-        Cursor cursor = mOpenHelper.getReadableDatabase().query(ScalarSensorsTable.NAME, columns,
-                selection, selectionArgs, null, null, orderBy, limit);
-        try {
-            final int max = maxRecords <= 0 ? cursor.getCount() : maxRecords;
-            final long[] readTimestamps = new long[max];
-            final double[] readValues = new double[max];
-            int i = 0;
-            while (cursor.moveToNext()) {
-                readTimestamps[i] = cursor.getLong(0);
-                readValues[i] = cursor.getDouble(1);
-                i++;
+        List<ReadingSource> sources = getReadingSources(db, sensorTag, sensorId, range);
+        if (sources.size() == 1) {
+            Pair<String, String[]> selectionAndArgs = sources.get(0).getSelectionAndArgs(range,
+                    resolutionTier);
+            String query = SQLiteQueryBuilder.buildQueryString(false, sources.get(0).mTable,
+                    columns, selectionAndArgs.first, null, null, orderBy, limit);
+            return new Pair<>(query, selectionAndArgs.second);
+        }
+
+        List<String> selects = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        for (ReadingSource source : sources) {
+            Pair<String, String[]> selectionAndArgs = source.getSelectionAndArgs(range,
+                    resolutionTier);
+            selects.add(SQLiteQueryBuilder.buildQueryString(false, source.mTable, columns,
+                    selectionAndArgs.first, null, null, null, null));
+            args.addAll(Arrays.asList(selectionAndArgs.second));
+        }
+        String query = unionAll(selects) + " ORDER BY " + orderBy
+                + (limit == null ? "" : " LIMIT " + limit);
+        return new Pair<>(query, args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Joins {@code selects} with UNION ALL, nesting them if there are too many for one compound
+     * SELECT.  SQLite merges the terms of a single compound SELECT without sorting, when each is
+     * read from an index in the ORDER BY order.
+     */
+    private static String unionAll(List<String> selects) {
+        if (selects.size() <= MAX_COMPOUND_SELECT_TERMS) {
+            return Joiner.on(" UNION ALL ").join(selects);
+        }
+        List<String> groups = new ArrayList<>();
+        for (List<String> group : Lists.partition(selects, MAX_COMPOUND_SELECT_TERMS)) {
+            groups.add("SELECT * FROM (" + unionAll(group) + ")");
+        }
+        return unionAll(groups);
+    }
+
+    /**
+     * Reads the readings in a range only as they are delivered, {@link #mReadWindowSize} rows at
+     * a time, so that memory use doesn't grow with the size of the result.  (A plain cursor over
+     * a large result also re-runs the query each time it needs to refill its window.)  Each
+     * window resumes from the last timestamp read, using the composite index, rather than using
+     * an ever-growing OFFSET.
+     *
+     * Every call re-reads the database, so it sees readings added or deleted since the list was
+     * returned, and two calls may not agree.  Only for callers that read off the UI thread, such
+     * as ZoomTierBackfill: DataControllerImpl copies it (see
+     * {@link ArrayScalarReadingList#copyOf}) before handing it to the UI thread.
+     */
+    private class WindowedReadingList implements ScalarReadingList {
+        private final String mSensorTag;
+        private final long mSensorId;
+        private final TimeRange mRange;
+        private final int mResolutionTier;
+
+        WindowedReadingList(String sensorTag, long sensorId, TimeRange range,
+                int resolutionTier) {
+            mSensorTag = sensorTag;
+            mSensorId = sensorId;
+            mRange = range;
+            mResolutionTier = resolutionTier;
+        }
+
+        @Override
+        public void deliver(StreamConsumer c) {
+            ReadingKeyset keyset = new ReadingKeyset(mRange);
+            while (deliverWindow(mSensorTag, mSensorId, mResolutionTier, keyset, mReadWindowSize,
+                    c) == mReadWindowSize) {
+                // keep going
             }
-            final int actualCount = i;
-            return new ScalarReadingList() {
+        }
+
+        /**
+         * Counts the matching rows with a separate query.
+         */
+        @Override
+        public int size() {
+            return readChosenTables(new TableRead<Integer>() {
                 @Override
-                public void deliver(StreamConsumer c) {
-                    for (int i = 0; i < actualCount; i++) {
-                        c.addData(readTimestamps[i], readValues[i]);
+                public Integer run(SQLiteDatabase db) {
+                    long size = 0;
+                    for (ReadingSource source : getReadingSources(db, mSensorTag,
+                            getCurrentSensorId(db, mSensorTag, mSensorId), mRange)) {
+                        Pair<String, String[]> selectionAndArgs = source.getSelectionAndArgs(
+                                mRange, mResolutionTier);
+                        size += DatabaseUtils.queryNumEntries(db, source.mTable,
+                                selectionAndArgs.first, selectionAndArgs.second);
                     }
+                    return (int) size;
                 }
+            });
+        }
 
+        @Override
+        public int copyTo(long[] timestamps, double[] values, int offset) {
+            return ScalarReadingLists.copyByDelivering(this, timestamps, values, offset);
+        }
+
+        @Override
+        public List<ChartData.DataPoint> asDataPoints() {
+            final List<ChartData.DataPoint> result = new ArrayList<>();
+            deliver(new StreamConsumer() {
                 @Override
-                public int size() {
-                    return actualCount;
+                public void addData(long timestampMillis, double value) {
+                    result.add(new ChartData.DataPoint(timestampMillis, value));
                 }
+            });
+            return result;
+        }
+    }
 
-                @Override
-                public List<ChartData.DataPoint> asDataPoints() {
-                    List<ChartData.DataPoint> result = new ArrayList<>();
-                    for (int i = 0; i < actualCount; i++) {
-                        result.add(new ChartData.DataPoint(readTimestamps[i], readValues[i]));
+    /**
+     * A tag with no id when a read began may have been given one since, by a new reading or by
+     * migrating legacy readings.
+     */
+    private static long getCurrentSensorId(SQLiteDatabase db, String sensorTag, long sensorId) {
+        return sensorId != NO_SENSOR_ID ? sensorId : lookUpSensorId(db, sensorTag);
+    }
+
+    /**
+     * Delivers up to {@code windowSize} readings to {@code c}, carrying on from where
+     * {@code keyset} has got to, and advances it past them.  If the tables are dropped under the
+     * read, only this window is read again, resuming after the last reading delivered.
+     *
+     * @return how many readings were delivered
+     */
+    private int deliverWindow(final String sensorTag, final long sensorId,
+            final int resolutionTier, final ReadingKeyset keyset, final int windowSize,
+            final StreamConsumer c) {
+        return readChosenTables(new TableRead<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase db) {
+                String limit = keyset.getReadingsToSkip() + "," + windowSize;
+                Pair<String, String[]> queryAndArgs = getScalarReadingsQuery(db, sensorTag,
+                        getCurrentSensorId(db, sensorTag, sensorId), keyset.getRemainingRange(),
+                        resolutionTier, limit);
+                Cursor cursor = db.rawQuery(queryAndArgs.first, queryAndArgs.second);
+                int read = 0;
+                try {
+                    while (cursor.moveToNext()) {
+                        long timestampMillis = cursor.getLong(0);
+                        keyset.advance(timestampMillis);
+                        c.addData(timestampMillis, cursor.getDouble(1));
+                        read++;
                     }
-                    return result;
+                } finally {
+                    cursor.close();
+                }
+                return read;
+            }
+        });
+    }
+
+    /**
+     * @return the detail lines of SQLite's query plan for the query that
+     * {@link #getScalarReadings} would run with these arguments.
+     */
+    @VisibleForTesting
+    List<String> explainScalarReadingsQuery(String sensorTag, TimeRange range,
+            int resolutionTier, int maxRecords) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String limit = maxRecords <= 0 ? null : String.valueOf(maxRecords);
+        Pair<String, String[]> queryAndArgs = getScalarReadingsQuery(db, sensorTag,
+                getSensorId(db, sensorTag), range, resolutionTier, limit);
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + queryAndArgs.first,
+                queryAndArgs.second);
+        try {
+            List<String> details = new ArrayList<>();
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailColumn));
+            }
+            return details;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Each bucket is built from the highest-level summaries that fit inside it, working down the
+     * levels to fill whatever they leave uncovered, so that only readings near the edges of a
+     * bucket (or in runs recorded without summaries) are read one by one.
+     */
+    @Override
+    public List<ScalarAggregate> getAggregates(final String sensorTag, TimeRange range,
+            final int bucketCount) {
+        Preconditions.checkArgument(bucketCount > 0);
+        final long[] bounds = ScalarAggregates.getBucketedBounds(range);
+        return readChosenTables(new TableRead<List<ScalarAggregate>>() {
+            @Override
+            public List<ScalarAggregate> run(SQLiteDatabase db) {
+                long sensorId = getSensorId(db, sensorTag);
+                int topLevel = getTopSummaryLevel(db, sensorId);
+                List<ScalarAggregate> buckets = new ArrayList<>(bucketCount);
+                for (int i = 0; i < bucketCount; i++) {
+                    long start = ScalarAggregates.getBucketStart(bounds[0], bounds[1],
+                            bucketCount, i);
+                    long end = ScalarAggregates.getBucketStart(bounds[0], bounds[1], bucketCount,
+                            i + 1) - 1;
+                    ScalarAggregate bucket = new ScalarAggregate();
+                    aggregate(db, sensorTag, sensorId, start, end, topLevel, bucket);
+                    buckets.add(bucket);
+                }
+                return buckets;
+            }
+        });
+    }
+
+    /**
+     * Reads each tag a window at a time, in the order of {@code range}, and merges the windows as
+     * they are read, so that only one window per tag is held at once and rows reach
+     * {@code consumer} as soon as they are worked out.
+     */
+    @Override
+    public void getAlignedReadings(List<String> sensorTags, TimeRange range,
+            final int resolutionTier, AlignedReadings.Alignment alignment,
+            AlignedReadings.RowConsumer consumer) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        List<AlignedReadings.ReadingWindows> windows = new ArrayList<>(sensorTags.size());
+        for (final String tag : sensorTags) {
+            final long sensorId = getSensorId(db, tag);
+            final ReadingKeyset keyset = new ReadingKeyset(range);
+            windows.add(new AlignedReadings.ReadingWindows() {
+                @Override
+                public int deliverNext(int maxReadings, StreamConsumer c) {
+                    return deliverWindow(tag, sensorId, resolutionTier, keyset,
+                            Math.min(maxReadings, mReadWindowSize), c);
+                }
+            });
+        }
+        AlignedReadings.mergeWindows(windows, range.getOrder(), alignment, consumer);
+    }
+
+    /**
+     * @return the highest summary level stored for the sensor, or -1 if it has no summaries.
+     */
+    private static int getTopSummaryLevel(SQLiteDatabase db, long sensorId) {
+        if (sensorId == NO_SENSOR_ID) {
+            return -1;
+        }
+        return (int) DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX("
+                + ScalarSummariesTable.Column.LEVEL + "), -1) FROM " + ScalarSummariesTable.NAME
+                + " WHERE " + ScalarSummariesTable.Column.SENSOR_ID + " = ?",
+                new String[]{String.valueOf(sensorId)});
+    }
+
+    /**
+     * Merges every tier-0 reading from {@code start} to {@code end} (inclusive) into {@code into},
+     * using summaries at {@code level} and below.  Summaries at one level never overlap, and the
+     * readings between two neighbouring ones are usually already covered by one of them; the gap is
+     * only filled from the levels below if it holds readings of its own.
+     */
+    private void aggregate(SQLiteDatabase db, String sensorTag, long sensorId, long start,
+            long end, int level, ScalarAggregate into) {
+        if (start > end) {
+            return;
+        }
+        if (level < 0) {
+            aggregateReadings(db, sensorTag, sensorId, start, end, into);
+            return;
+        }
+        Cursor cursor = db.query(ScalarSummariesTable.NAME, ScalarSummariesTable.ALL_COLUMNS,
+                ScalarSummariesTable.Column.SENSOR_ID + " = ? AND "
+                        + ScalarSummariesTable.Column.LEVEL + " = ? AND "
+                        + ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS + " >= ? AND "
+                        + ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS + " <= ? AND "
+                        + ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS + " <= ?",
+                new String[]{String.valueOf(sensorId), String.valueOf(level),
+                        String.valueOf(start), String.valueOf(end), String.valueOf(end)}, null,
+                null, ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS);
+        try {
+            // The first timestamp not yet merged
+            long uncovered = start;
+            boolean isFirst = true;
+            while (cursor.moveToNext()) {
+                ScalarAggregate summary = readSummary(cursor);
+                long gapEnd = summary.getFirstTimestampMillis() - 1;
+                if (isFirst || hasReadings(db, sensorTag, sensorId, uncovered, gapEnd)) {
+                    aggregate(db, sensorTag, sensorId, uncovered, gapEnd, level - 1, into);
                 }
-            };
+                into.merge(summary);
+                uncovered = summary.getLastTimestampMillis() + 1;
+                isFirst = false;
+            }
+            aggregate(db, sensorTag, sensorId, uncovered, end, level - 1, into);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ScalarAggregate readSummary(Cursor cursor) {
+        return new ScalarAggregate(cursor.getLong(0), cursor.getDouble(1), cursor.getDouble(2),
+                cursor.getDouble(3), cursor.getLong(4), cursor.getDouble(5), cursor.getLong(6),
+                cursor.getDouble(7));
+    }
+
+    private boolean hasReadings(SQLiteDatabase db, String sensorTag, long sensorId, long start,
+            long end) {
+        if (start > end) {
+            return false;
+        }
+        Pair<String, String[]> queryAndArgs = getScalarReadingsQuery(db, sensorTag, sensorId,
+                TimeRange.oldest(Range.closed(start, end)), 0, "1");
+        Cursor cursor = db.rawQuery(queryAndArgs.first, queryAndArgs.second);
+        try {
+            return cursor.moveToNext();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Merges the tier-0 readings from {@code start} to {@code end} into {@code into}, without
+     * using summaries.
+     */
+    private void aggregateReadings(SQLiteDatabase db, String sensorTag, long sensorId,
+            long start, long end, ScalarAggregate into) {
+        TimeRange range = TimeRange.oldest(Range.closed(start, end));
+        String value = ScalarSensorsTable.Column.VALUE;
+        String[] columns = {"COUNT(*)", "SUM(" + value + ")", "MIN(" + value + ")",
+                "MAX(" + value + ")"};
+        for (ReadingSource source : getReadingSources(db, sensorTag, sensorId, range)) {
+            Pair<String, String[]> selectionAndArgs = source.getSelectionAndArgs(range, 0);
+            long count;
+            double sum;
+            double min;
+            double max;
+            Cursor cursor = db.query(source.mTable, columns, selectionAndArgs.first,
+                    selectionAndArgs.second, null, null, null);
+            try {
+                cursor.moveToNext();
+                count = cursor.getLong(0);
+                sum = cursor.getDouble(1);
+                min = cursor.getDouble(2);
+                max = cursor.getDouble(3);
+            } finally {
+                cursor.close();
+            }
+            if (count == 0) {
+                continue;
+            }
+            ScalarReading first = readEndReading(db, source.mTable, selectionAndArgs, " ASC");
+            ScalarReading last = readEndReading(db, source.mTable, selectionAndArgs, " DESC");
+            into.merge(new ScalarAggregate(count, sum, min, max,
+                    first.getCollectedTimeMillis(), first.getValue(),
+                    last.getCollectedTimeMillis(), last.getValue()));
+        }
+    }
+
+    /**
+     * @param direction " ASC" for the earliest matching reading, or " DESC" for the latest
+     */
+    private static ScalarReading readEndReading(SQLiteDatabase db, String table,
+            Pair<String, String[]> selectionAndArgs, String direction) {
+        Cursor cursor = db.query(table, new String[]{ScalarSensorsTable.Column.TIMESTAMP_MILLIS,
+                        ScalarSensorsTable.Column.VALUE}, selectionAndArgs.first,
+                selectionAndArgs.second, null, null,
+                ScalarSensorsTable.Column.TIMESTAMP_MILLIS + direction, "1");
+        try {
+            cursor.moveToNext();
+            return new ScalarReading(cursor.getLong(0), cursor.getDouble(1));
         } finally {
             cursor.close();
         }
@@ -189,29 +1101,586 @@ public class SensorDatabaseImpl implements SensorDatabase {
 
     // TODO: test
     @Override
-    public String getFirstDatabaseTagAfter(long timestamp) {
-        final String timestampString = String.valueOf(timestamp);
-        final Cursor cursor = mOpenHelper.getReadableDatabase().query(ScalarSensorsTable.NAME,
-                new String[]{ScalarSensorsTable.Column.TAG},
-                ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ">?", new String[]{timestampString},
-                null, null, ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " ASC", "1");
-        try {
-            if (cursor.moveToNext()) {
-                return cursor.getString(0);
-            } else {
-                return null;
+    public String getFirstDatabaseTagAfter(final long timestamp) {
+        return readChosenTables(new TableRead<String>() {
+            @Override
+            public String run(SQLiteDatabase db) {
+                return getFirstDatabaseTagAfter(db, timestamp);
+            }
+        });
+    }
+
+    private String getFirstDatabaseTagAfter(SQLiteDatabase db, long timestamp) {
+        final String[] args = new String[]{String.valueOf(timestamp)};
+        List<String> tables = new ArrayList<>();
+        tables.add(ScalarSensorsTable.NAME);
+        for (long partitionId : getOverlappingPartitionIds(db,
+                TimeRange.oldest(Range.greaterThan(timestamp)))) {
+            tables.add(RunPartitionsTable.getTableName(partitionId));
+        }
+
+        String tag = null;
+        long tagTimestamp = Long.MAX_VALUE;
+        for (String table : tables) {
+            Cursor cursor = db.rawQuery("SELECT t." + SensorTagsTable.Column.TAG + ", s."
+                    + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " FROM " + table + " s JOIN "
+                    + SensorTagsTable.NAME + " t ON s." + ScalarSensorsTable.Column.SENSOR_ID
+                    + " = t." + SensorTagsTable.Column.SENSOR_ID + " WHERE s."
+                    + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " > ? ORDER BY s."
+                    + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " ASC LIMIT 1", args);
+            try {
+                if (cursor.moveToNext() && cursor.getLong(1) < tagTimestamp) {
+                    tag = cursor.getString(0);
+                    tagTimestamp = cursor.getLong(1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (!mHasLegacyReadings) {
+            return tag;
+        }
+
+        Cursor cursor = db.query(LegacyScalarSensorsTable.NAME, new String[]{
+                LegacyScalarSensorsTable.Column.TAG, ScalarSensorsTable.Column.TIMESTAMP_MILLIS},
+                ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ">?", args, null, null,
+                ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " ASC", "1");
+        try {
+            if (cursor.moveToNext() && cursor.getLong(1) < tagTimestamp) {
+                tag = cursor.getString(0);
             }
         } finally {
             cursor.close();
         }
+        return tag;
     }
 
+    /**
+     * Also deletes every summary that covers any of the deleted readings, since it would no longer
+     * be accurate.
+     */
     @Override
     public void deleteScalarReadings(String sensorTag, TimeRange range) {
-        Pair<String, String[]> selectionAndArgs = getSelectionAndArgs(sensorTag, range,
-                -1 /* delete all resolutions */);
-        String selection = selectionAndArgs.first;
-        String[] selectionArgs = selectionAndArgs.second;
-        mOpenHelper.getWritableDatabase().delete(ScalarSensorsTable.NAME, selection, selectionArgs);
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long sensorId = getSensorId(db, sensorTag);
+        for (ReadingSource source : getReadingSources(db, sensorTag, sensorId, range)) {
+            Pair<String, String[]> selectionAndArgs = source.getSelectionAndArgs(range,
+                    -1 /* delete all resolutions */);
+            db.delete(source.mTable, selectionAndArgs.first, selectionAndArgs.second);
+        }
+        long[] bounds = ChunkedSensorDatabase.getInclusiveBounds(range);
+        if (sensorId != NO_SENSOR_ID && bounds[0] <= bounds[1]) {
+            db.delete(ScalarSummariesTable.NAME, ScalarSummariesTable.Column.SENSOR_ID + " = ? AND "
+                    + ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS + " <= ? AND "
+                    + ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS + " >= ?",
+                    new String[]{String.valueOf(sensorId), String.valueOf(bounds[1]),
+                            String.valueOf(bounds[0])});
+        }
+    }
+
+    /**
+     * Summaries are kept, since they still describe the deleted readings.  The bytes given back
+     * are the pages that the deletes freed; they are released to the file system in the
+     * background, as after deleting a run.
+     */
+    @Override
+    public long deleteScalarReadingsBelowTier(String sensorTag, TimeRange range,
+            int lowestKeptTier) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long sensorId = getSensorId(db, sensorTag);
+        long freeBytesBefore = getFreeBytes(db);
+        db.beginTransaction();
+        try {
+            for (ReadingSource source : getReadingSources(db, sensorTag, sensorId, range)) {
+                Pair<String, String[]> selectionAndArgs = source.getSelectionAndArgs(range,
+                        -1 /* all resolutions */);
+                String[] args = Arrays.copyOf(selectionAndArgs.second,
+                        selectionAndArgs.second.length + 1);
+                args[args.length - 1] = String.valueOf(lowestKeptTier);
+                db.delete(source.mTable, selectionAndArgs.first + " AND "
+                        + ScalarSensorsTable.Column.RESOLUTION_TIER + " < ?", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long freedBytes = getFreeBytes(db) - freeBytesBefore;
+        reclaimFreePagesInBackground();
+        return Math.max(0, freedBytes);
+    }
+
+    /**
+     * Summaries are only deleted if they lie entirely within the range; any that straddle its ends
+     * still describe tier-0 readings that are kept.
+     */
+    @Override
+    public void deleteZoomTiers(String sensorTag, TimeRange range) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long sensorId = getSensorId(db, sensorTag);
+        db.beginTransaction();
+        try {
+            for (ReadingSource source : getReadingSources(db, sensorTag, sensorId, range)) {
+                Pair<String, String[]> selectionAndArgs = source.getSelectionAndArgs(range,
+                        -1 /* all resolutions */);
+                db.delete(source.mTable, selectionAndArgs.first + " AND "
+                        + ScalarSensorsTable.Column.RESOLUTION_TIER + " > 0",
+                        selectionAndArgs.second);
+            }
+            long[] bounds = ChunkedSensorDatabase.getInclusiveBounds(range);
+            if (sensorId != NO_SENSOR_ID && bounds[0] <= bounds[1]) {
+                db.delete(ScalarSummariesTable.NAME, ScalarSummariesTable.Column.SENSOR_ID
+                        + " = ? AND " + ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS
+                        + " >= ? AND " + ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS
+                        + " <= ?", new String[]{String.valueOf(sensorId),
+                        String.valueOf(bounds[0]), String.valueOf(bounds[1])});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the size of the pages in {@code db} that hold no data
+     */
+    static long getFreeBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count;", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size;", null);
+    }
+
+    /**
+     * Drops the run's partition, however many readings it holds, and then deletes any readings
+     * stored outside of it (for example, recorded before V6) by range.
+     */
+    @Override
+    public void deleteRunReadings(String runId, List<String> sensorTags, TimeRange range) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long partitionId = getPartitionId(db, runId);
+        if (partitionId != NO_PARTITION_ID) {
+            db.beginTransaction();
+            try {
+                db.execSQL("DROP TABLE " + RunPartitionsTable.getTableName(partitionId) + ";");
+                db.delete(RunPartitionsTable.NAME, RunPartitionsTable.Column.PARTITION_ID + " = ?",
+                        new String[]{String.valueOf(partitionId)});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            mPartitionIds.remove(runId);
+        }
+        for (String tag : sensorTags) {
+            deleteScalarReadings(tag, range);
+        }
+        reclaimFreePagesInBackground();
+    }
+
+    /**
+     * Runs background maintenance as a series of small tasks on {@code executor}, so that other
+     * work queued on that executor gets to run in between: pass the executor that all other access
+     * to this database goes through.  This moves any readings left over from before V5 into
+     * scalar_sensors, and, after a run is deleted, returns the space it used to the file system.
+     */
+    public void setMaintenanceExecutor(Executor executor) {
+        mMaintenanceExecutor = executor;
+        migrateLegacyReadingsInBackground();
+        reclaimFreePagesInBackground();
+    }
+
+    private void reclaimFreePagesInBackground() {
+        final Executor executor = mMaintenanceExecutor;
+        if (executor == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (reclaimFreePages(VACUUM_PAGES_PER_STEP)) {
+                        executor.execute(this);
+                    }
+                } catch (SQLiteException e) {
+                    // Free pages are reused by new readings in the meantime.
+                    Log.e(TAG, "Could not reclaim free pages", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Releases up to {@code maxPages} of the pages freed by deleted readings, truncating the file.
+     *
+     * Databases created before V6 don't support incremental vacuuming, and can only be converted
+     * by rebuilding them with a full VACUUM.  This is done once more than half of the file is
+     * free, which is likely to follow deleting a large run.
+     *
+     * @return true if there may be more free pages to release
+     */
+    @VisibleForTesting
+    boolean reclaimFreePages(int maxPages) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count;", null);
+        if (freePages == 0) {
+            return false;
+        }
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum;", null)
+                == AUTO_VACUUM_INCREMENTAL) {
+            // incremental_vacuum releases one page each time its statement is stepped; counting
+            // the cursor's rows steps it to the end.
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ");", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            return freePages > maxPages;
+        }
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count;", null);
+        if (freePages * 2 > pages) {
+            db.execSQL("VACUUM;");
+        }
+        return false;
+    }
+
+    /**
+     * Moves the readings left over from before V5, which store their full tag in every row, into
+     * scalar_sensors a batch at a time, each as a separate task on the maintenance executor.
+     */
+    private void migrateLegacyReadingsInBackground() {
+        final Executor executor = mMaintenanceExecutor;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (migrateLegacyReadingBatch(LEGACY_MIGRATION_BATCH_SIZE)) {
+                        executor.execute(this);
+                    } else {
+                        reclaimFreePagesInBackground();
+                    }
+                } catch (SQLiteException e) {
+                    // Reads still see any readings that weren't moved; try again next launch.
+                    Log.e(TAG, "Could not migrate legacy readings", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves up to {@code batchSize} of the oldest legacy readings into scalar_sensors, in a single
+     * transaction, giving any new tags an id.  Drops the legacy table once it is empty.
+     *
+     * @return true if there may be more legacy readings left to move
+     */
+    @VisibleForTesting
+    boolean migrateLegacyReadingBatch(int batchSize) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (!mHasLegacyReadings) {
+            return false;
+        }
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("SELECT MAX(rowid) FROM (SELECT rowid FROM "
+                    + LegacyScalarSensorsTable.NAME + " ORDER BY rowid LIMIT ?)",
+                    new String[]{String.valueOf(batchSize)});
+            Long lastRow;
+            try {
+                cursor.moveToFirst();
+                lastRow = cursor.isNull(0) ? null : cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+            if (lastRow == null) {
+                db.execSQL("DROP TABLE " + LegacyScalarSensorsTable.NAME + ";");
+            } else {
+                Object[] args = new Object[]{lastRow};
+                db.execSQL(LegacyScalarSensorsTable.ADD_TAGS_SQL, args);
+                db.execSQL(LegacyScalarSensorsTable.MOVE_READINGS_SQL, args);
+                db.execSQL(LegacyScalarSensorsTable.DELETE_READINGS_SQL, args);
+            }
+            db.setTransactionSuccessful();
+            mHasLegacyReadings = lastRow != null;
+        } finally {
+            db.endTransaction();
+        }
+        return mHasLegacyReadings;
+    }
+
+    /**
+     * SQLite doesn't report how much space a table's rows use, so each tag and tier is given a
+     * share of the pages in use (which also hold the indexes and summaries) in proportion to its
+     * number of readings.
+     */
+    @Override
+    public List<TierUsage> getTierUsage() {
+        return readChosenTables(new TableRead<List<TierUsage>>() {
+            @Override
+            public List<TierUsage> run(SQLiteDatabase db) {
+                return getTierUsage(db);
+            }
+        });
+    }
+
+    private List<TierUsage> getTierUsage(SQLiteDatabase db) {
+        String[] columns = {ScalarSensorsTable.Column.SENSOR_ID,
+                ScalarSensorsTable.Column.RESOLUTION_TIER};
+        List<String> selects = new ArrayList<>();
+        selects.add(SQLiteQueryBuilder.buildQueryString(false, ScalarSensorsTable.NAME, columns,
+                null, null, null, null, null));
+        for (long partitionId : getOverlappingPartitionIds(db,
+                TimeRange.oldest(Range.<Long>all()))) {
+            selects.add(SQLiteQueryBuilder.buildQueryString(false,
+                    RunPartitionsTable.getTableName(partitionId), columns, null, null, null, null,
+                    null));
+        }
+        Map<Pair<String, Integer>, Long> counts = new HashMap<>();
+        addTierCounts(db.rawQuery("SELECT t." + SensorTagsTable.Column.TAG + ", r."
+                + ScalarSensorsTable.Column.RESOLUTION_TIER + ", COUNT(*) FROM ("
+                + unionAll(selects) + ") r JOIN " + SensorTagsTable.NAME + " t ON r."
+                + ScalarSensorsTable.Column.SENSOR_ID + " = t." + SensorTagsTable.Column.SENSOR_ID
+                + " GROUP BY t." + SensorTagsTable.Column.TAG + ", r."
+                + ScalarSensorsTable.Column.RESOLUTION_TIER, null), counts);
+        if (mHasLegacyReadings) {
+            addTierCounts(db.rawQuery("SELECT " + LegacyScalarSensorsTable.Column.TAG + ", "
+                    + ScalarSensorsTable.Column.RESOLUTION_TIER + ", COUNT(*) FROM "
+                    + LegacyScalarSensorsTable.NAME + " GROUP BY "
+                    + LegacyScalarSensorsTable.Column.TAG + ", "
+                    + ScalarSensorsTable.Column.RESOLUTION_TIER, null), counts);
+        }
+
+        long totalCount = 0;
+        for (long count : counts.values()) {
+            totalCount += count;
+        }
+        long usedBytes = DatabaseUtils.longForQuery(db, "PRAGMA page_count;", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size;", null) - getFreeBytes(db);
+        List<TierUsage> usage = new ArrayList<>();
+        for (Map.Entry<Pair<String, Integer>, Long> entry : counts.entrySet()) {
+            long count = entry.getValue();
+            usage.add(new TierUsage(entry.getKey().first, entry.getKey().second, count,
+                    Math.round((double) usedBytes * count / totalCount)));
+        }
+        return usage;
+    }
+
+    /**
+     * Adds the (tag, tier, count) rows of {@code cursor} to {@code counts}, and closes it.
+     */
+    private static void addTierCounts(Cursor cursor, Map<Pair<String, Integer>, Long> counts) {
+        try {
+            while (cursor.moveToNext()) {
+                Pair<String, Integer> key = new Pair<>(cursor.getString(0), cursor.getInt(1));
+                Long count = counts.get(key);
+                counts.put(key, (count == null ? 0 : count) + cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * How far a copy made with {@link #readCopyBatch} has got: every reading of the sensors with
+     * a smaller id has been read, and so has every reading of this sensor up to and including this
+     * timestamp.
+     */
+    public static class CopyPosition {
+        public static final CopyPosition START = new CopyPosition(Long.MIN_VALUE, Long.MIN_VALUE);
+
+        private final long mSensorId;
+        private final long mTimestampMillis;
+
+        public CopyPosition(long sensorId, long timestampMillis) {
+            mSensorId = sensorId;
+            mTimestampMillis = timestampMillis;
+        }
+
+        public long getSensorId() {
+            return mSensorId;
+        }
+
+        public long getTimestampMillis() {
+            return mTimestampMillis;
+        }
+    }
+
+    /**
+     * The readings read by one call to {@link #readCopyBatch}, and where the next call starts.
+     */
+    public static class CopyBatch {
+        private final ScalarReadingBuffer mReadings;
+        private final CopyPosition mNext;
+
+        CopyBatch(ScalarReadingBuffer readings, CopyPosition next) {
+            mReadings = readings;
+            mNext = next;
+        }
+
+        /**
+         * @return readings of a single sensor, all later than the position they were read from, or
+         * null if there were none
+         */
+        public ScalarReadingBuffer getReadings() {
+            return mReadings;
+        }
+
+        /**
+         * @return where to read the next batch from, or null once every reading has been read
+         */
+        public CopyPosition getNext() {
+            return mNext;
+        }
+    }
+
+    /**
+     * Copies every stored reading, in all tiers, into {@code destination}, a batch at a time (see
+     * {@link #readCopyBatch}).  Used to migrate recorded data into a different storage engine:
+     * opening this database first upgrades it to the current schema, so data recorded under any
+     * older schema version can be copied.
+     *
+     * @return the number of readings copied
+     */
+    public int copyAllReadingsTo(SensorDatabase destination) {
+        int copied = 0;
+        CopyPosition position = CopyPosition.START;
+        while (position != null) {
+            CopyBatch batch = readCopyBatch(position, MIGRATION_BATCH_SIZE);
+            if (batch.getReadings() != null) {
+                destination.addScalarReadings(batch.getReadings());
+                copied += batch.getReadings().size();
+            }
+            position = batch.getNext();
+        }
+        return copied;
+    }
+
+    /**
+     * Reads the next batch of a copy of every stored reading.  A batch holds the readings of one
+     * sensor, in all tiers, from just after {@code position} up to a timestamp chosen so that no
+     * tier has more than {@code maxReadingsPerTier} (unless several share that last timestamp).
+     * A copy that was cut off while a batch was being written can therefore go on from where
+     * that batch started, once the destination's readings of that sensor in the batch's span
+     * have been deleted.
+     *
+     * Any legacy readings are moved into the current schema first, one batch of them per call;
+     * those calls read nothing.
+     */
+    public CopyBatch readCopyBatch(CopyPosition position, int maxReadingsPerTier) {
+        if (migrateLegacyReadingBatch(LEGACY_MIGRATION_BATCH_SIZE)) {
+            return new CopyBatch(null, position);
+        }
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        List<String> tables = new ArrayList<>();
+        tables.add(ScalarSensorsTable.NAME);
+        for (long partitionId : getOverlappingPartitionIds(db,
+                TimeRange.oldest(Range.<Long>all()))) {
+            tables.add(RunPartitionsTable.getTableName(partitionId));
+        }
+        long sensorId = position.getSensorId();
+        String tag = lookUpSensorTag(db, sensorId);
+        if (tag == null) {
+            // The start of the copy, or readings whose tag is gone: go on to the next sensor.
+            return new CopyBatch(null, getNextCopyPosition(db, tables, sensorId));
+        }
+
+        long after = position.getTimestampMillis();
+        List<Integer> tiers = new ArrayList<>();
+        long last = Long.MAX_VALUE;
+        Long tier = getMinimum(db, tables, ScalarSensorsTable.Column.RESOLUTION_TIER, sensorId,
+                -1);
+        while (tier != null) {
+            tiers.add(tier.intValue());
+            Cursor cursor = queryCopyReadings(db, tables, sensorId, tier.intValue(), after,
+                    Long.MAX_VALUE, " LIMIT 1 OFFSET " + (maxReadingsPerTier - 1));
+            try {
+                if (cursor.moveToNext()) {
+                    last = Math.min(last, cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            tier = getMinimum(db, tables, ScalarSensorsTable.Column.RESOLUTION_TIER, sensorId,
+                    tier);
+        }
+
+        ScalarReadingBuffer readings = new ScalarReadingBuffer(tag);
+        for (int tierToRead : tiers) {
+            Cursor cursor = queryCopyReadings(db, tables, sensorId, tierToRead, after, last, "");
+            try {
+                while (cursor.moveToNext()) {
+                    readings.add(tierToRead, cursor.getLong(0), cursor.getDouble(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        CopyPosition next = last == Long.MAX_VALUE ? getNextCopyPosition(db, tables, sensorId)
+                : new CopyPosition(sensorId, last);
+        return new CopyBatch(readings.isEmpty() ? null : readings, next);
+    }
+
+    /**
+     * @return the position before the first reading of the sensor with the next larger id than
+     * {@code sensorId}, or null if there isn't one
+     */
+    private static CopyPosition getNextCopyPosition(SQLiteDatabase db, List<String> tables,
+            long sensorId) {
+        Long next = getMinimum(db, tables, ScalarSensorsTable.Column.SENSOR_ID, null, sensorId);
+        return next == null ? null : new CopyPosition(next, Long.MIN_VALUE);
+    }
+
+    /**
+     * @param sensorId the sensor to look in, or null to look at every row
+     * @return the smallest value of {@code column} in any of {@code tables} that is greater than
+     * {@code after}, or null if there is none.  Each table finds its own from its index.
+     */
+    private static Long getMinimum(SQLiteDatabase db, List<String> tables, String column,
+            Long sensorId, long after) {
+        String selection = (sensorId == null ? ""
+                : ScalarSensorsTable.Column.SENSOR_ID + " = " + sensorId + " AND ") + column
+                + " > " + after;
+        List<String> selects = new ArrayList<>();
+        for (String table : tables) {
+            selects.add("SELECT MIN(" + column + ") AS found FROM " + table + " WHERE "
+                    + selection);
+        }
+        Cursor cursor = db.rawQuery("SELECT MIN(found) FROM (" + unionAll(selects) + ")", null);
+        try {
+            return cursor.moveToNext() && !cursor.isNull(0) ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the timestamps and values of one sensor and tier in {@code tables} that are after
+     * {@code after} and no later than {@code last}, oldest first
+     */
+    private static Cursor queryCopyReadings(SQLiteDatabase db, List<String> tables, long sensorId,
+            int tier, long after, long last, String limit) {
+        String selection = ScalarSensorsTable.Column.SENSOR_ID + " = " + sensorId + " AND "
+                + ScalarSensorsTable.Column.RESOLUTION_TIER + " = " + tier + " AND "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " > " + after + " AND "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " <= " + last;
+        String[] columns =
+                {ScalarSensorsTable.Column.TIMESTAMP_MILLIS, ScalarSensorsTable.Column.VALUE};
+        List<String> selects = new ArrayList<>();
+        for (String table : tables) {
+            selects.add(SQLiteQueryBuilder.buildQueryString(false, table, columns, selection,
+                    null, null, null, null));
+        }
+        return db.rawQuery(unionAll(selects) + " ORDER BY "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + limit, null);
+    }
+
+    /**
+     * @return the tag whose id is {@code sensorId}, or null if there is none
+     */
+    private static String lookUpSensorTag(SQLiteDatabase db, long sensorId) {
+        Cursor cursor = db.query(SensorTagsTable.NAME, new String[]{SensorTagsTable.Column.TAG},
+                SensorTagsTable.Column.SENSOR_ID + " = ?",
+                new String[]{String.valueOf(sensorId)}, null, null, null);
+        try {
+            return cursor.moveToNext() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
     }
 }
@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.common.collect.Range;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies of the writes and reads made through an {@link InstrumentedSensorDatabase}.  Reads
+ * are grouped by how long a span of time they ask for, since a long range is expected to be slow.
+ *
+ * Thread-safe; the histograms returned are copies.
+ */
+public class StorageMetrics {
+    // Upper bounds, inclusive, of the time spans of each group of reads.  Unbounded reads go in
+    // the last group.
+    private static final long[] RANGE_CLASS_MAX_MILLIS = {TimeUnit.SECONDS.toMillis(1),
+            TimeUnit.MINUTES.toMillis(1), TimeUnit.HOURS.toMillis(1), Long.MAX_VALUE};
+
+    private static final String[] RANGE_CLASS_NAMES = {"<= 1s", "<= 1m", "<= 1h", "longer"};
+
+    private final LatencyHistogram mInsertLatency = new LatencyHistogram();
+    private long mInsertedReadingCount = 0;
+    private final LatencyHistogram[] mQueryLatency =
+            new LatencyHistogram[RANGE_CLASS_MAX_MILLIS.length];
+
+    public StorageMetrics() {
+        for (int i = 0; i < mQueryLatency.length; i++) {
+            mQueryLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param readingCount how many readings, across all tiers, the write stored
+     */
+    public synchronized void recordInsert(int readingCount, long nanos) {
+        mInsertLatency.record(nanos);
+        mInsertedReadingCount += readingCount;
+    }
+
+    public synchronized void recordQuery(TimeRange range, long nanos) {
+        mQueryLatency[getRangeClass(range)].record(nanos);
+    }
+
+    public synchronized LatencyHistogram getInsertLatency() {
+        return new LatencyHistogram(mInsertLatency);
+    }
+
+    public synchronized long getInsertedReadingCount() {
+        return mInsertedReadingCount;
+    }
+
+    /**
+     * @return readings stored per second spent writing them
+     */
+    public synchronized double getInsertThroughput() {
+        long nanos = mInsertLatency.getTotalNanos();
+        return nanos == 0 ? 0 : mInsertedReadingCount * 1e9 / nanos;
+    }
+
+    public static int getRangeClassCount() {
+        return RANGE_CLASS_MAX_MILLIS.length;
+    }
+
+    public static String getRangeClassName(int rangeClass) {
+        return RANGE_CLASS_NAMES[rangeClass];
+    }
+
+    public synchronized LatencyHistogram getQueryLatency(int rangeClass) {
+        return new LatencyHistogram(mQueryLatency[rangeClass]);
+    }
+
+    static int getRangeClass(TimeRange range) {
+        Range<Long> times = range.getTimes();
+        int last = RANGE_CLASS_MAX_MILLIS.length - 1;
+        if (times == null || !times.hasLowerBound() || !times.hasUpperBound()) {
+            return last;
+        }
+        long span = times.upperEndpoint() - times.lowerEndpoint();
+        for (int i = 0; i < last; i++) {
+            if (span <= RANGE_CLASS_MAX_MILLIS[i]) {
+                return i;
+            }
+        }
+        return last;
+    }
+}
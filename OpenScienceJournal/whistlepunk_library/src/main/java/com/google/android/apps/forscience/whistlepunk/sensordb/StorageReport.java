@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A snapshot of what the sensor database holds and how fast it has been, for the developer
+ * options and for offline analysis.
+ */
+public class StorageReport {
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final long mTimestampMillis;
+    private final List<TierUsage> mTierUsage;
+    private final LatencyHistogram mInsertLatency;
+    private final long mInsertedReadingCount;
+    private final double mInsertThroughput;
+    private final List<LatencyHistogram> mQueryLatency = new ArrayList<>();
+    private final long mCacheHitCount;
+    private final long mCacheMissCount;
+    private final long mCacheEvictionCount;
+    private final long mCacheSizeBytes;
+    private final long mCacheMaxBytes;
+    private final long mReclaimedBytes;
+
+    /**
+     * @param reclaimedBytes how much storage compacting old runs has given back since launch
+     */
+    public StorageReport(long timestampMillis, List<TierUsage> tierUsage, StorageMetrics metrics,
+            ScalarBlockCache cache, long reclaimedBytes) {
+        mTimestampMillis = timestampMillis;
+        mTierUsage = new ArrayList<>(tierUsage);
+        Collections.sort(mTierUsage, new Comparator<TierUsage>() {
+            @Override
+            public int compare(TierUsage lhs, TierUsage rhs) {
+                int byTag = lhs.getSensorTag().compareTo(rhs.getSensorTag());
+                return byTag != 0 ? byTag : Integer.compare(lhs.getResolutionTier(),
+                        rhs.getResolutionTier());
+            }
+        });
+        mInsertLatency = metrics.getInsertLatency();
+        mInsertedReadingCount = metrics.getInsertedReadingCount();
+        mInsertThroughput = metrics.getInsertThroughput();
+        for (int i = 0; i < StorageMetrics.getRangeClassCount(); i++) {
+            mQueryLatency.add(metrics.getQueryLatency(i));
+        }
+        mCacheHitCount = cache.getHitCount();
+        mCacheMissCount = cache.getMissCount();
+        mCacheEvictionCount = cache.getEvictionCount();
+        mCacheSizeBytes = cache.getSizeBytes();
+        mCacheMaxBytes = cache.getMaxBytes();
+        mReclaimedBytes = reclaimedBytes;
+    }
+
+    /**
+     * @return every tag and tier that has readings, sorted by tag and then tier
+     */
+    public List<TierUsage> getTierUsage() {
+        return mTierUsage;
+    }
+
+    public long getTotalReadingCount() {
+        long total = 0;
+        for (TierUsage usage : mTierUsage) {
+            total += usage.getReadingCount();
+        }
+        return total;
+    }
+
+    public long getTotalEstimatedBytes() {
+        long total = 0;
+        for (TierUsage usage : mTierUsage) {
+            total += usage.getEstimatedBytes();
+        }
+        return total;
+    }
+
+    public LatencyHistogram getInsertLatency() {
+        return mInsertLatency;
+    }
+
+    /**
+     * @return readings stored per second spent writing them
+     */
+    public double getInsertThroughput() {
+        return mInsertThroughput;
+    }
+
+    /**
+     * @param rangeClass see {@link StorageMetrics#getRangeClassCount()}
+     */
+    public LatencyHistogram getQueryLatency(int rangeClass) {
+        return mQueryLatency.get(rangeClass);
+    }
+
+    /**
+     * Writes the report as plain text: one section each for storage, writes, reads and the cache,
+     * with one tab-separated line per row.
+     */
+    public void writeTo(PrintWriter writer) {
+        writer.println("# Sensor storage report at " + mTimestampMillis);
+        writer.println();
+        writer.println("## Stored readings");
+        writer.println("tag\ttier\treadings\testimated_bytes");
+        for (TierUsage usage : mTierUsage) {
+            writer.println(usage.getSensorTag() + "\t" + usage.getResolutionTier() + "\t"
+                    + usage.getReadingCount() + "\t" + usage.getEstimatedBytes());
+        }
+        writer.println("total\t\t" + getTotalReadingCount() + "\t" + getTotalEstimatedBytes());
+        writer.println("reclaimed_bytes\t" + mReclaimedBytes);
+        writer.println();
+        writer.println("## Writes");
+        writer.println("batches\treadings\treadings_per_second\tmean_us\tp50_us\tp95_us\tp99_us");
+        writer.println(mInsertLatency.getCount() + "\t" + mInsertedReadingCount + "\t"
+                + Math.round(mInsertThroughput) + "\t" + formatLatency(mInsertLatency));
+        writer.println();
+        writer.println("## Reads, by length of range");
+        writer.println("range\treads\tmean_us\tp50_us\tp95_us\tp99_us");
+        for (int i = 0; i < mQueryLatency.size(); i++) {
+            LatencyHistogram latency = mQueryLatency.get(i);
+            writer.println(StorageMetrics.getRangeClassName(i) + "\t" + latency.getCount() + "\t"
+                    + formatLatency(latency));
+        }
+        writer.println();
+        writer.println("## Reading cache");
+        writer.println("hits\tmisses\tevictions\tsize_bytes\tmax_bytes");
+        writer.println(mCacheHitCount + "\t" + mCacheMissCount + "\t" + mCacheEvictionCount + "\t"
+                + mCacheSizeBytes + "\t" + mCacheMaxBytes);
+        writer.flush();
+    }
+
+    private static String formatLatency(LatencyHistogram latency) {
+        StringBuilder builder = new StringBuilder().append(latency.getMeanMicros());
+        for (double percentile : PERCENTILES) {
+            builder.append('\t').append(latency.getPercentileMicros(percentile));
+        }
+        return builder.toString();
+    }
+}
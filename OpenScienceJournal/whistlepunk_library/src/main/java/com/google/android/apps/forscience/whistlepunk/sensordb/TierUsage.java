@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+/**
+ * How many readings a {@link SensorDatabase} holds for one tag at one resolution tier, and
+ * roughly how much storage they take up.
+ */
+public class TierUsage {
+    private final String mSensorTag;
+    private final int mResolutionTier;
+    private final long mReadingCount;
+    private final long mEstimatedBytes;
+
+    public TierUsage(String sensorTag, int resolutionTier, long readingCount,
+            long estimatedBytes) {
+        mSensorTag = sensorTag;
+        mResolutionTier = resolutionTier;
+        mReadingCount = readingCount;
+        mEstimatedBytes = estimatedBytes;
+    }
+
+    public String getSensorTag() {
+        return mSensorTag;
+    }
+
+    public int getResolutionTier() {
+        return mResolutionTier;
+    }
+
+    public long getReadingCount() {
+        return mReadingCount;
+    }
+
+    public long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TierUsage{" +
+                "mSensorTag='" + mSensorTag + '\'' +
+                ", mResolutionTier=" + mResolutionTier +
+                ", mReadingCount=" + mReadingCount +
+                ", mEstimatedBytes=" + mEstimatedBytes +
+                '}';
+    }
+}
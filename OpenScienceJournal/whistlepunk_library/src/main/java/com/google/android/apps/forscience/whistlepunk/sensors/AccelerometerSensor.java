@@ -19,13 +19,10 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
-import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
@@ -55,8 +52,6 @@ public class AccelerometerSensor extends ScalarSensor {
         }
     }
 
-    private SensorEventListener mSensorEventListener;
-
     public AccelerometerSensor(Axis axis) {
         super(axis.getSensorId());
         mAxis = axis;
@@ -66,40 +61,20 @@ public class AccelerometerSensor extends ScalarSensor {
     protected SensorRecorder makeScalarControl(final StreamConsumer c,
             final SensorEnvironment environment, final Context context,
             final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
-            @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        c.addData(clock.getNow(), mAxis.getValue(event));
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_UI);
-
-            }
-
+        return new SensorEventRecorder(Sensor.TYPE_ACCELEROMETER, getId(), c, environment,
+                context, listener) {
             @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
+            protected double getValue(SensorEvent event) {
+                return mAxis.getValue(event);
             }
         };
     }
 
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingOptionsPresenter();
+    }
+
     public static boolean isAccelerometerAvailable(Context context) {
         return isSensorAvailable(context, Sensor.TYPE_ACCELEROMETER);
     }
@@ -19,14 +19,11 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
 import com.google.android.apps.forscience.javalib.DataRefresher;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
@@ -36,11 +33,12 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
  * This uses a DataRefresher to send the data to deal with low frequency of SensorEvent.
  * This sensor does not send onSensorChanged events very frequently, leading to the graph being
  * updated infrequently and then jumping when it does get an update without a refresher.
+ * If a faster sampling rate or decimation is chosen in the options, each event is recorded as it
+ * comes instead, timestamped with when the sensor took it.
  */
 public class AmbientLightSensor extends ScalarSensor {
     public static final String ID = "AmbientLightSensor";
     private final SystemScheduler mScheduler = new SystemScheduler();
-    private SensorEventListener mSensorEventListener;
     private DataRefresher mDataRefresher;
 
     public AmbientLightSensor() {
@@ -51,39 +49,20 @@ public class AmbientLightSensor extends ScalarSensor {
     protected SensorRecorder makeScalarControl(final StreamConsumer c,
             final SensorEnvironment environment, final Context context,
             final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
+        return new SensorEventRecorder(Sensor.TYPE_LIGHT, getId(), c, environment, context,
+                listener) {
             @Override
-            public void startObserving() {
-                mDataRefresher = new DataRefresher(mScheduler, environment.getDefaultClock());
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
+            protected void startListening() {
+                if (getSamplingOptions().equals(SamplingOptions.DEFAULT)) {
+                    mDataRefresher = new DataRefresher(mScheduler, environment.getDefaultClock());
+                    mDataRefresher.setStreamConsumer(c);
                 }
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        // values[0] is the ambient light level in SI lux units.
-                        mDataRefresher.setValue(event.values[0]);
-                        mDataRefresher.startStreaming();
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_UI);
-                mDataRefresher.setStreamConsumer(c);
-
+                super.startListening();
             }
 
             @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
+            protected void stopListening() {
+                super.stopListening();
                 if (mDataRefresher != null) {
                     mDataRefresher.stopStreaming();
                     mDataRefresher = null;
@@ -91,12 +70,29 @@ public class AmbientLightSensor extends ScalarSensor {
             }
 
             @Override
-            public void applyOptions(ReadableSensorOptions settings) {
-                // do nothing, no settings apply to collection
+            protected double getValue(SensorEvent event) {
+                // values[0] is the ambient light level in SI lux units.
+                return event.values[0];
+            }
+
+            @Override
+            protected void addReading(StreamConsumer consumer, long timestampMillis,
+                    double value) {
+                if (mDataRefresher == null) {
+                    super.addReading(consumer, timestampMillis, value);
+                } else {
+                    mDataRefresher.setValue(value);
+                    mDataRefresher.startStreaming();
+                }
             }
         };
     }
 
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingOptionsPresenter();
+    }
+
     public static boolean isAmbientLightAvailable(Context context) {
         return isSensorAvailable(context, Sensor.TYPE_LIGHT);
     }
@@ -19,15 +19,10 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
-import com.google.android.apps.forscience.javalib.DataRefresher;
-import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
@@ -37,7 +32,6 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
  */
 public class BarometerSensor extends ScalarSensor {
     public static final String ID = "BarometerSensor";
-    private SensorEventListener mSensorEventListener;
 
     public BarometerSensor() {
         super(ID);
@@ -47,41 +41,22 @@ public class BarometerSensor extends ScalarSensor {
     protected SensorRecorder makeScalarControl(final StreamConsumer c,
             final SensorEnvironment environment, final Context context,
             final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
+        return new SensorEventRecorder(Sensor.TYPE_PRESSURE, getId(), c, environment, context,
+                listener) {
             @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        // values[0]: Atmospheric pressure in hPa (millibar).
-                        // 1 hPa == 1 millibar
-                        c.addData(clock.getNow(), event.values[0]);
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_UI);
-            }
-
-            @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
+            protected double getValue(SensorEvent event) {
+                // values[0]: Atmospheric pressure in hPa (millibar).
+                // 1 hPa == 1 millibar
+                return event.values[0];
             }
         };
     }
 
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingOptionsPresenter();
+    }
+
     public static boolean isBarometerSensorAvailable(Context context) {
         return isSensorAvailable(context, Sensor.TYPE_PRESSURE);
     }
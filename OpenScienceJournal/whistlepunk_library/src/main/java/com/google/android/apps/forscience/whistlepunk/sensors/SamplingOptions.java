@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.hardware.SensorManager;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.DecimatingStreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+/**
+ * How often a built-in sensor is read, and how many of those readings are kept, as chosen in its
+ * options (see {@link SamplingOptionsPresenter}).
+ */
+class SamplingOptions {
+    static final String PREFS_KEY_SAMPLING_RATE = "sampling_rate";
+    static final String PREFS_KEY_SAMPLING_PERIOD_MICROS = "sampling_period_micros";
+    static final String PREFS_KEY_DECIMATION = "sampling_decimation";
+
+    // Values of PREFS_KEY_SAMPLING_RATE.  These must match R.array.sampling_rate_values.
+    static final String RATE_UI = "ui";
+    static final String RATE_GAME = "game";
+    static final String RATE_FASTEST = "fastest";
+    static final String RATE_CUSTOM = "custom";
+
+    static final long DEFAULT_SAMPLING_PERIOD_MICROS = 10000;
+    static final long DEFAULT_DECIMATION = 1;
+
+    // Timestamps are in whole milliseconds, so faster than this can't be told apart.
+    private static final long MIN_SAMPLING_PERIOD_MICROS = 1000;
+    private static final long MAX_DECIMATION = 100;
+
+    static final SamplingOptions DEFAULT =
+            new SamplingOptions(SensorManager.SENSOR_DELAY_UI, 1);
+
+    private final int mSamplingPeriod;
+    private final int mDecimation;
+
+    private SamplingOptions(int samplingPeriod, int decimation) {
+        mSamplingPeriod = samplingPeriod;
+        mDecimation = decimation;
+    }
+
+    public static SamplingOptions fromOptions(ReadableSensorOptions options) {
+        int decimation = (int) clamp(options.getLong(PREFS_KEY_DECIMATION, DEFAULT_DECIMATION), 1,
+                MAX_DECIMATION);
+        String rate = options.getString(PREFS_KEY_SAMPLING_RATE, RATE_UI);
+        switch (rate) {
+            case RATE_GAME:
+                return new SamplingOptions(SensorManager.SENSOR_DELAY_GAME, decimation);
+            case RATE_FASTEST:
+                return new SamplingOptions(SensorManager.SENSOR_DELAY_FASTEST, decimation);
+            case RATE_CUSTOM:
+                long micros = options.getLong(PREFS_KEY_SAMPLING_PERIOD_MICROS,
+                        DEFAULT_SAMPLING_PERIOD_MICROS);
+                return new SamplingOptions(
+                        (int) clamp(micros, MIN_SAMPLING_PERIOD_MICROS, Integer.MAX_VALUE),
+                        decimation);
+            default:
+                return new SamplingOptions(SensorManager.SENSOR_DELAY_UI, decimation);
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return what to pass to {@link SensorManager#registerListener}: one of the SENSOR_DELAY
+     * constants, or a period in microseconds.
+     */
+    public int getSamplingPeriod() {
+        return mSamplingPeriod;
+    }
+
+    /**
+     * @return {@code consumer}, behind a {@link DecimatingStreamConsumer} if only some readings
+     * are to be kept
+     */
+    public StreamConsumer wrap(StreamConsumer consumer) {
+        if (mDecimation == 1) {
+            return consumer;
+        }
+        return new DecimatingStreamConsumer(consumer, mDecimation);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SamplingOptions that = (SamplingOptions) o;
+        return mSamplingPeriod == that.mSamplingPeriod && mDecimation == that.mDecimation;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mSamplingPeriod + mDecimation;
+    }
+}
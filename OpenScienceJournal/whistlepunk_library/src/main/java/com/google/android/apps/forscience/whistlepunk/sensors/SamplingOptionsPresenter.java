@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+import com.google.android.apps.forscience.whistlepunk.R;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ActiveBundle;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.LongUpdatingWatcher;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * OptionsPresenter for how often a built-in sensor is read, and how many readings are kept
+ * (see {@link SamplingOptions}).
+ */
+class SamplingOptionsPresenter implements SensorPresenter.OptionsPresenter {
+    @Override
+    public View buildOptionsView(final ActiveBundle activeBundle, Context context) {
+        @SuppressLint("InflateParams") final View inflated =
+                LayoutInflater.from(context).inflate(R.layout.sampling_options, null);
+        final ReadableSensorOptions roBundle = activeBundle.getReadOnly();
+        final View customRow = inflated.findViewById(R.id.sampling_period_row);
+
+        final List<String> rates = Arrays.asList(
+                context.getResources().getStringArray(R.array.sampling_rate_values));
+        ArrayAdapter<CharSequence> rateAdapter = ArrayAdapter.createFromResource(context,
+                R.array.sampling_rate_names, android.R.layout.simple_spinner_item);
+        rateAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        Spinner rateSpinner = (Spinner) inflated.findViewById(R.id.sampling_rate_spinner);
+        rateSpinner.setAdapter(rateAdapter);
+        String rate = roBundle.getString(SamplingOptions.PREFS_KEY_SAMPLING_RATE,
+                SamplingOptions.RATE_UI);
+        rateSpinner.setSelection(Math.max(0, rates.indexOf(rate)));
+        customRow.setVisibility(
+                SamplingOptions.RATE_CUSTOM.equals(rate) ? View.VISIBLE : View.GONE);
+        rateSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                String rate = rates.get(position);
+                customRow.setVisibility(
+                        SamplingOptions.RATE_CUSTOM.equals(rate) ? View.VISIBLE : View.GONE);
+                activeBundle.changeString(SamplingOptions.PREFS_KEY_SAMPLING_RATE, rate);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        final EditText periodEdit = (EditText) inflated.findViewById(R.id.sampling_period_edit);
+        periodEdit.setText(String.valueOf(
+                roBundle.getLong(SamplingOptions.PREFS_KEY_SAMPLING_PERIOD_MICROS,
+                        SamplingOptions.DEFAULT_SAMPLING_PERIOD_MICROS)));
+        periodEdit.addTextChangedListener(new LongUpdatingWatcher(activeBundle,
+                SamplingOptions.PREFS_KEY_SAMPLING_PERIOD_MICROS, periodEdit));
+
+        final EditText decimationEdit =
+                (EditText) inflated.findViewById(R.id.sampling_decimation_edit);
+        decimationEdit.setText(String.valueOf(roBundle.getLong(
+                SamplingOptions.PREFS_KEY_DECIMATION, SamplingOptions.DEFAULT_DECIMATION)));
+        decimationEdit.addTextChangedListener(new LongUpdatingWatcher(activeBundle,
+                SamplingOptions.PREFS_KEY_DECIMATION, decimationEdit));
+
+        return inflated;
+    }
+
+    @Override
+    public void applyOptions(ReadableSensorOptions bundle) {
+        // Nothing to preview; the recorder applies them.
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import com.google.android.apps.forscience.whistlepunk.Clock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts the timestamps of SensorEvents, which are in nanoseconds since some fixed point (such
+ * as boot), to the time of a {@link Clock}.  The difference between the two is found once, from
+ * the first event, so that the time between readings is the time between when the sensor took
+ * them, rather than between when their callbacks happened to run.
+ */
+class SensorEventClock {
+    private final Clock mClock;
+    private boolean mHasOffset = false;
+    private long mOffsetMillis;
+
+    /**
+     * @param clock the clock to convert to; use a new SensorEventClock each time the sensor is
+     *              started, so that the difference is found again.
+     */
+    public SensorEventClock(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @param eventTimestampNanos {@code SensorEvent.timestamp}
+     * @return the same time, in milliseconds on the clock
+     */
+    public long getMillis(long eventTimestampNanos) {
+        long eventMillis = TimeUnit.NANOSECONDS.toMillis(eventTimestampNanos);
+        if (!mHasOffset) {
+            mOffsetMillis = mClock.getNow() - eventMillis;
+            mHasOffset = true;
+        }
+        return eventMillis + mOffsetMillis;
+    }
+}
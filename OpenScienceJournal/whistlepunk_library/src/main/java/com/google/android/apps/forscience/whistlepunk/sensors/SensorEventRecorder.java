@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.DecimatingStreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+/**
+ * Recorder for a built-in sensor that reports through {@link SensorManager}.  The sensor is read
+ * at the rate chosen in its options (see {@link SamplingOptions}), and each reading is
+ * timestamped with when the sensor took it (see {@link SensorEventClock}), and decimated if that
+ * was chosen too.  Changing the options while observing registers again at the new rate.
+ *
+ * A decimator starts again with each registration: the readings it still owes are passed on
+ * when the registration ends, but nothing is passed on for the first few readings of each (see
+ * {@link DecimatingStreamConsumer}).
+ */
+abstract class SensorEventRecorder extends AbstractSensorRecorder {
+    private final int mSensorType;
+    private final String mSensorId;
+    private final StreamConsumer mConsumer;
+    private final SensorEnvironment mEnvironment;
+    private final Context mContext;
+    private final SensorStatusListener mListener;
+
+    private SamplingOptions mSamplingOptions = SamplingOptions.DEFAULT;
+    private SensorEventListener mSensorEventListener;
+
+    // Where the current registration's readings go, if they are being decimated
+    private DecimatingStreamConsumer mDecimator;
+
+    /**
+     * @param sensorType which sensor to read, as in {@link Sensor#getType()}
+     */
+    SensorEventRecorder(int sensorType, String sensorId, StreamConsumer consumer,
+            SensorEnvironment environment, Context context, SensorStatusListener listener) {
+        mSensorType = sensorType;
+        mSensorId = sensorId;
+        mConsumer = consumer;
+        mEnvironment = environment;
+        mContext = context;
+        mListener = listener;
+    }
+
+    /**
+     * @return the value to record for {@code event}
+     */
+    protected abstract double getValue(SensorEvent event);
+
+    @Override
+    public void startObserving() {
+        mListener.onSourceStatus(mSensorId, SensorStatusListener.STATUS_CONNECTED);
+        startListening();
+    }
+
+    @Override
+    public void stopObserving() {
+        stopListening();
+        mListener.onSourceStatus(mSensorId, SensorStatusListener.STATUS_DISCONNECTED);
+    }
+
+    @Override
+    public void applyOptions(ReadableSensorOptions settings) {
+        SamplingOptions samplingOptions = SamplingOptions.fromOptions(settings);
+        if (samplingOptions.equals(mSamplingOptions)) {
+            return;
+        }
+        mSamplingOptions = samplingOptions;
+        if (mSensorEventListener != null) {
+            stopListening();
+            startListening();
+        }
+    }
+
+    protected SamplingOptions getSamplingOptions() {
+        return mSamplingOptions;
+    }
+
+    /**
+     * Registers for the sensor's events at the current sampling rate.
+     */
+    protected void startListening() {
+        SensorManager sensorManager = ScalarSensor.getSensorManager(mContext);
+        Sensor sensor = sensorManager.getDefaultSensor(mSensorType);
+        unregister();
+        final StreamConsumer consumer = mSamplingOptions.wrap(mConsumer);
+        mDecimator = consumer instanceof DecimatingStreamConsumer
+                ? (DecimatingStreamConsumer) consumer : null;
+        final SensorEventClock clock = new SensorEventClock(mEnvironment.getDefaultClock());
+        mSensorEventListener = new SensorEventListener() {
+            @Override
+            public void onSensorChanged(SensorEvent event) {
+                addReading(consumer, clock.getMillis(event.timestamp), getValue(event));
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+            }
+        };
+        sensorManager.registerListener(mSensorEventListener, sensor,
+                mSamplingOptions.getSamplingPeriod());
+    }
+
+    protected void stopListening() {
+        unregister();
+    }
+
+    /**
+     * Passes on any readings that the decimator still owes, and unregisters.  Events are delivered
+     * on the main thread, as this is called, so none arrive in between.
+     */
+    private void unregister() {
+        if (mSensorEventListener != null) {
+            if (mDecimator != null) {
+                mDecimator.flush();
+                mDecimator = null;
+            }
+            ScalarSensor.getSensorManager(mContext).unregisterListener(mSensorEventListener);
+            mSensorEventListener = null;
+        }
+    }
+
+    /**
+     * Passes on one reading; by default, straight to {@code consumer}.
+     *
+     * @param consumer the recorder's consumer, behind a decimator if one was chosen
+     */
+    protected void addReading(StreamConsumer consumer, long timestampMillis, double value) {
+        consumer.addData(timestampMillis, value);
+    }
+}
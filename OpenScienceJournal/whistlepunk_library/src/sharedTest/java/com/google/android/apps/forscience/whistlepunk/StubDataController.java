@@ -27,7 +27,10 @@ import com.google.android.apps.forscience.whistlepunk.metadata.Project;
 import com.google.android.apps.forscience.whistlepunk.metadata.Run;
 import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.sensordb.AlignedReadings;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.StorageReport;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 
 import java.util.List;
@@ -44,6 +47,19 @@ public class StubDataController implements DataController {
 
     }
 
+    @Override
+    public void getAggregates(String databaseTag, TimeRange timeRange, int bucketCount,
+            MaybeConsumer<List<ScalarAggregate>> onSuccess) {
+
+    }
+
+    @Override
+    public void getAlignedReadings(List<String> databaseTags, int resolutionTier,
+            TimeRange timeRange, AlignedReadings.Alignment alignment,
+            AlignedReadings.RowConsumer consumer, MaybeConsumer<Success> onSuccess) {
+
+    }
+
     @Override
     public void addLabel(Label label, MaybeConsumer<Label> onSuccess) {
 
@@ -273,4 +289,9 @@ public class StubDataController implements DataController {
     public void deleteSensorTrigger(SensorTrigger trigger, MaybeConsumer<Success> onSuccess) {
 
     }
+
+    @Override
+    public void getStorageReport(MaybeConsumer<StorageReport> onSuccess) {
+
+    }
 }
@@ -120,6 +120,15 @@ public class ManualSensor extends ScalarSensor {
         }
     }
 
+    /**
+     * Pushes {@code count} values at once, as a source that reads whole buffers would.
+     */
+    public void pushValues(long[] timestampsMillis, double[] values, int offset, int count) {
+        if (mConsumer != null) {
+            StreamConsumers.addData(mConsumer, timestampsMillis, values, offset, count);
+        }
+    }
+
     private SensorPresenter createPresenter() {
         StatsListener statsListener = new StubStatsListener();
         return createPresenter(new DataViewOptions(0, new ScalarDisplayOptions()),
@@ -29,11 +29,13 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class InMemorySensorDatabase implements SensorDatabase {
     private List<List<Reading>> mReadings = new ArrayList<>();
+    private List<List<ScalarAggregate>> mSummaries = new ArrayList<>();
 
     @NonNull
     public DataController makeSimpleController(MemoryMetadataManager manager) {
@@ -59,6 +61,16 @@ public class InMemorySensorDatabase implements SensorDatabase {
         getTierReadings(resolutionTier).add(new Reading(databaseTag, timestampMillis, value));
     }
 
+    @Override
+    public void addScalarReadings(ScalarReadingBuffer readings) {
+        for (int tier = 0; tier < readings.getTierCount(); tier++) {
+            for (int i = 0; i < readings.getTierSize(tier); i++) {
+                addScalarReading(readings.getSensorTag(), tier, readings.getTimestamp(tier, i),
+                        readings.getValue(tier, i));
+            }
+        }
+    }
+
     private List<Reading> getTierReadings(int resolutionTier) {
         while (resolutionTier >= mReadings.size()) {
             mReadings.add(new ArrayList<Reading>());
@@ -89,6 +101,16 @@ public class InMemorySensorDatabase implements SensorDatabase {
                 return readingsToReturn.size();
             }
 
+            @Override
+            public int copyTo(long[] timestamps, double[] values, int offset) {
+                for (int i = 0; i < readingsToReturn.size(); i++) {
+                    ScalarReading scalarReading = readingsToReturn.get(i);
+                    timestamps[offset + i] = scalarReading.getCollectedTimeMillis();
+                    values[offset + i] = scalarReading.getValue();
+                }
+                return readingsToReturn.size();
+            }
+
             @Override
             public List<ChartData.DataPoint> asDataPoints() {
                 List<ChartData.DataPoint> result = new ArrayList<>();
@@ -101,6 +123,30 @@ public class InMemorySensorDatabase implements SensorDatabase {
         };
     }
 
+    /**
+     * Summaries are kept so that tests can check them, but {@link #getAggregates} doesn't use them.
+     */
+    @Override
+    public void addScalarSummary(String sensorTag, int level, ScalarAggregate summary) {
+        while (level >= mSummaries.size()) {
+            mSummaries.add(new ArrayList<ScalarAggregate>());
+        }
+        mSummaries.get(level).add(summary);
+    }
+
+    @Override
+    public List<ScalarAggregate> getAggregates(String sensorTag, TimeRange range,
+            int bucketCount) {
+        return ScalarAggregates.computeFromReadings(this, sensorTag, range, bucketCount);
+    }
+
+    @Override
+    public void getAlignedReadings(List<String> sensorTags, TimeRange range, int resolutionTier,
+            AlignedReadings.Alignment alignment, AlignedReadings.RowConsumer consumer) {
+        AlignedReadings.computeFromReadings(this, sensorTags, range, resolutionTier, alignment,
+                consumer);
+    }
+
     @Override
     public String getFirstDatabaseTagAfter(long timestamp) {
         return null;
@@ -108,7 +154,37 @@ public class InMemorySensorDatabase implements SensorDatabase {
 
     @Override
     public void deleteScalarReadings(String sensorTag, TimeRange range) {
-        for (List<Reading> readingList : mReadings) {
+        deleteScalarReadingsBelowTier(sensorTag, range, mReadings.size());
+    }
+
+    /**
+     * Counts each deleted reading as the 16 bytes of its timestamp and value.
+     */
+    @Override
+    public long deleteScalarReadingsBelowTier(String sensorTag, TimeRange range,
+            int lowestKeptTier) {
+        long deleted = 0;
+        for (int tier = 0; tier < lowestKeptTier && tier < mReadings.size(); tier++) {
+            List<Reading> readingList = mReadings.get(tier);
+            for (int index = readingList.size() - 1; index >= 0; --index) {
+                Reading reading = readingList.get(index);
+                if (reading.getDatabaseTag().equals(sensorTag)
+                        && range.getTimes().contains(reading.getTimestampMillis())) {
+                    readingList.remove(index);
+                    deleted++;
+                }
+            }
+        }
+        return deleted * 16;
+    }
+
+    /**
+     * Summaries aren't kept by tag, so those of every tag within the range are deleted.
+     */
+    @Override
+    public void deleteZoomTiers(String sensorTag, TimeRange range) {
+        for (int tier = 1; tier < mReadings.size(); tier++) {
+            List<Reading> readingList = mReadings.get(tier);
             for (int index = readingList.size() - 1; index >= 0; --index) {
                 Reading reading = readingList.get(index);
                 if (reading.getDatabaseTag().equals(sensorTag)
@@ -117,6 +193,42 @@ public class InMemorySensorDatabase implements SensorDatabase {
                 }
             }
         }
+        for (List<ScalarAggregate> level : mSummaries) {
+            for (int index = level.size() - 1; index >= 0; --index) {
+                ScalarAggregate summary = level.get(index);
+                if (range.getTimes().contains(summary.getFirstTimestampMillis())
+                        && range.getTimes().contains(summary.getLastTimestampMillis())) {
+                    level.remove(index);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteRunReadings(String runId, List<String> sensorTags, TimeRange range) {
+        for (String tag : sensorTags) {
+            deleteScalarReadings(tag, range);
+        }
+    }
+
+    /**
+     * Counts each reading as the 16 bytes of its timestamp and value.
+     */
+    @Override
+    public List<TierUsage> getTierUsage() {
+        List<TierUsage> usage = new ArrayList<>();
+        for (int tier = 0; tier < mReadings.size(); tier++) {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (Reading reading : mReadings.get(tier)) {
+                Integer count = counts.get(reading.getDatabaseTag());
+                counts.put(reading.getDatabaseTag(), count == null ? 1 : count + 1);
+            }
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                usage.add(new TierUsage(entry.getKey(), tier, entry.getValue(),
+                        entry.getValue() * 16));
+            }
+        }
+        return usage;
     }
 
     public List<Reading> getReadings(int resolutionTier) {
@@ -127,6 +239,18 @@ public class InMemorySensorDatabase implements SensorDatabase {
         }
     }
 
+    public List<ScalarAggregate> getSummaries(int level) {
+        if (level >= mSummaries.size()) {
+            return Collections.emptyList();
+        } else {
+            return mSummaries.get(level);
+        }
+    }
+
+    public int getSummaryLevelCount() {
+        return mSummaries.size();
+    }
+
     public RecordingDataController makeSimpleRecordingController() {
         return makeSimpleRecordingController(new MemoryMetadataManager());
     }
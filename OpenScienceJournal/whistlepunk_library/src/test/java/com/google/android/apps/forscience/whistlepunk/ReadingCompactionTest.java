@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ReadingCompactionTest {
+    private static final RetentionPolicy KEEP_TIER_ONE = new RetentionPolicy(0, 1);
+
+    @Test
+    public void testPolicyIsDue() {
+        RetentionPolicy policy = RetentionPolicy.keepRawDataForDays(30);
+        long runEnd = 1000;
+        long day = TimeUnit.DAYS.toMillis(1);
+        assertFalse(policy.isDue(runEnd, runEnd + 29 * day));
+        assertTrue(policy.isDue(runEnd, runEnd + 30 * day));
+        assertFalse(RetentionPolicy.KEEP_EVERYTHING.isDue(runEnd, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testDeletesOnlyTiersBelowAndOnlyInRun() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        for (int i = 0; i < 100; i++) {
+            db.addScalarReading("sensor", 0, i, i);
+            db.addScalarReading("other", 0, i, i);
+        }
+        for (int i = 0; i < 100; i += 10) {
+            db.addScalarReading("sensor", 1, i, i);
+        }
+
+        ReadingCompaction.RunCompaction compaction = ReadingCompaction.RunCompaction.create(
+                "sensor", "run", Range.closed(20L, 79L), makeStats(3), KEEP_TIER_ONE);
+        assertNotNull(compaction);
+        assertEquals(1, compaction.getLowestKeptTier());
+        assertEquals(60 * 16, compaction.deleteReadings(db));
+
+        // Tier 0 of other runs, tier 1 and other sensors are kept.
+        assertEquals(40 + 100, db.getReadings(0).size());
+        assertEquals(10, db.getReadings(1).size());
+        assertEquals(1, compaction.getStats().getIntStat(ZoomRecorder.STATS_KEY_LOWEST_TIER, -1));
+    }
+
+    @Test
+    public void testKeepsTopTier() {
+        ReadingCompaction.RunCompaction compaction = ReadingCompaction.RunCompaction.create(
+                "sensor", "run", Range.closed(0L, 10L), makeStats(2), new RetentionPolicy(0, 5));
+        assertEquals(1, compaction.getLowestKeptTier());
+
+        // Only tier 0, so nothing can go.
+        assertNull(ReadingCompaction.RunCompaction.create("sensor", "run", Range.closed(0L, 10L),
+                makeStats(1), KEEP_TIER_ONE));
+    }
+
+    @Test
+    public void testSkipsRunsAlreadyCompactedOrWithoutTiers() {
+        RunStats compacted = makeStats(3);
+        compacted.putStat(ZoomRecorder.STATS_KEY_LOWEST_TIER, 1);
+        assertNull(ReadingCompaction.RunCompaction.create("sensor", "run", Range.closed(0L, 10L),
+                compacted, KEEP_TIER_ONE));
+
+        // Not backfilled yet
+        assertNull(ReadingCompaction.RunCompaction.create("sensor", "run", Range.closed(0L, 10L),
+                new RunStats(), KEEP_TIER_ONE));
+    }
+
+    private static RunStats makeStats(int tierCount) {
+        RunStats stats = new RunStats();
+        stats.putStat(StatsAccumulator.KEY_TOTAL_DURATION, 99);
+        stats.putStat(StatsAccumulator.KEY_NUM_DATA_POINTS, 100);
+        ZoomRecorder.putTierStats(stats, tierCount, 10, 0);
+        return stats;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBuffer;
+
+import org.junit.Test;
+
+public class ScalarIngestionQueueTest {
+    @Test
+    public void testWritesInOrderAndReusesBuffers() {
+        ScalarIngestionQueue queue = new ScalarIngestionQueue(2,
+                ScalarIngestionQueue.OverflowPolicy.BLOCK);
+        ScalarReadingBuffer first = makeBatch(queue, "tag", 0, 10);
+        ScalarReadingBuffer second = makeBatch(queue, "other", 10, 10);
+        assertTrue(queue.offer(first));
+        assertFalse(queue.offer(second));
+        assertTrue(queue.hasBatchesFor("tag"));
+
+        assertSame(first, queue.poll());
+        assertTrue(queue.hasBatchesFor("tag"));
+        queue.recycle(first);
+        assertFalse(queue.hasBatchesFor("tag"));
+        assertSame(second, queue.poll());
+        queue.recycle(second);
+        assertNull(queue.poll());
+
+        // Idle again, so the next batch needs the writer to be started
+        ScalarReadingBuffer reused = queue.obtain("tag", "run");
+        assertTrue(reused == first || reused == second);
+        assertEquals(0, reused.size());
+        assertEquals("run", reused.getRunId());
+        reused.add(0, 20, 20);
+        assertTrue(queue.offer(reused));
+    }
+
+    @Test
+    public void testDropOldest() {
+        ScalarIngestionQueue queue = new ScalarIngestionQueue(2,
+                ScalarIngestionQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(makeBatch(queue, "tag", 0, 10));
+        queue.offer(makeBatch(queue, "tag", 10, 10));
+        queue.offer(makeBatch(queue, "tag", 20, 10));
+
+        // The dropped batch's tier-1 reading goes with the next batch for the same sensor.
+        ScalarReadingBuffer first = queue.poll();
+        assertEquals(10, first.getTierSize(0));
+        assertEquals(10, first.getTimestamp(0, 0));
+        assertEquals(2, first.getTierSize(1));
+        assertEquals(0, first.getTimestamp(1, 0));
+        assertEquals(10, first.getTimestamp(1, 1));
+        assertEquals(20, queue.poll().getTimestamp(0, 0));
+        assertNull(queue.poll());
+        assertEquals(10, queue.takeDroppedReadingCount("tag", "run"));
+        assertEquals(0, queue.takeDroppedReadingCount("tag", "run"));
+    }
+
+    @Test
+    public void testDroppedZoomTiersAreWrittenOnceQueueIsEmpty() {
+        ScalarIngestionQueue queue = new ScalarIngestionQueue(1,
+                ScalarIngestionQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(makeBatch(queue, "tag", 0, 10));
+        queue.offer(makeBatch(queue, "other", 0, 10));
+        assertTrue(queue.hasBatchesFor("tag"));
+
+        assertEquals("other", queue.poll().getSensorTag());
+        ScalarReadingBuffer carried = queue.poll();
+        assertEquals("tag", carried.getSensorTag());
+        assertEquals(0, carried.getTierSize(0));
+        assertEquals(1, carried.getTierSize(1));
+        assertNull(queue.poll());
+        assertEquals(10, queue.takeDroppedReadingCount("tag", "run"));
+    }
+
+    @Test
+    public void testDecimateKeepsTimeSpan() {
+        ScalarIngestionQueue queue = new ScalarIngestionQueue(3,
+                ScalarIngestionQueue.OverflowPolicy.DECIMATE);
+        queue.offer(makeBatch(queue, "tag", 0, 10));
+        queue.offer(makeBatch(queue, "other", 0, 10));
+        queue.offer(makeBatch(queue, "tag", 10, 10));
+        // Combines the two "tag" batches at half the rate
+        queue.offer(makeBatch(queue, "other", 10, 10));
+
+        ScalarReadingBuffer combined = queue.poll();
+        assertEquals("tag", combined.getSensorTag());
+        assertEquals(10, combined.getTierSize(0));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 2, combined.getTimestamp(0, i));
+        }
+        assertEquals(2, combined.getTierSize(1));
+        queue.recycle(combined);
+        assertEquals(0, queue.poll().getTimestamp(0, 0));
+        assertEquals(10, queue.poll().getTimestamp(0, 0));
+        assertNull(queue.poll());
+        assertEquals(10, queue.takeDroppedReadingCount("tag", "run"));
+        assertEquals(0, queue.takeDroppedReadingCount("other", "run"));
+    }
+
+    @Test
+    public void testDecimateCombinesWithNewBatch() {
+        ScalarIngestionQueue queue = new ScalarIngestionQueue(2,
+                ScalarIngestionQueue.OverflowPolicy.DECIMATE);
+        queue.offer(makeBatch(queue, "tag", 0, 10));
+        queue.offer(makeBatch(queue, "other", 0, 10));
+        ScalarReadingBuffer incoming = makeBatch(queue, "tag", 10, 10);
+        assertFalse(queue.offer(incoming));
+
+        ScalarReadingBuffer combined = queue.poll();
+        assertEquals("tag", combined.getSensorTag());
+        assertEquals(10, combined.getTierSize(0));
+        assertEquals(18, combined.getTimestamp(0, 9));
+        assertEquals(2, combined.getTierSize(1));
+        assertEquals("other", queue.poll().getSensorTag());
+        assertNull(queue.poll());
+        assertEquals(10, queue.takeDroppedReadingCount("tag", "run"));
+    }
+
+    @Test
+    public void testDecimateKeepsZoomTiersWhenNothingToCombine() {
+        ScalarIngestionQueue queue = new ScalarIngestionQueue(2,
+                ScalarIngestionQueue.OverflowPolicy.DECIMATE);
+        queue.offer(makeBatch(queue, "tag", 0, 10));
+        queue.offer(makeBatch(queue, "other", 0, 10));
+        queue.offer(makeBatch(queue, "third", 0, 10));
+        queue.offer(makeBatch(queue, "tag", 10, 10));
+
+        assertEquals("third", queue.poll().getSensorTag());
+        ScalarReadingBuffer tag = queue.poll();
+        assertEquals("tag", tag.getSensorTag());
+        assertEquals(10, tag.getTierSize(0));
+        assertEquals(10, tag.getTimestamp(0, 0));
+        assertEquals(2, tag.getTierSize(1));
+        assertEquals(0, tag.getTimestamp(1, 0));
+        // Set aside to make room for the last batch, with nothing to combine with
+        ScalarReadingBuffer other = queue.poll();
+        assertEquals("other", other.getSensorTag());
+        assertEquals(0, other.getTierSize(0));
+        assertEquals(1, other.getTierSize(1));
+        assertNull(queue.poll());
+        assertEquals(10, queue.takeDroppedReadingCount("tag", "run"));
+        assertEquals(10, queue.takeDroppedReadingCount("other", "run"));
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws InterruptedException {
+        final ScalarIngestionQueue queue = new ScalarIngestionQueue(1,
+                ScalarIngestionQueue.OverflowPolicy.BLOCK);
+        queue.offer(makeBatch(queue, "tag", 0, 10));
+        final ScalarReadingBuffer second = makeBatch(queue, "tag", 10, 10);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.offer(second);
+            }
+        });
+        producer.start();
+        assertEquals(0, queue.poll().getTimestamp(0, 0));
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertSame(second, queue.poll());
+        assertEquals(0, queue.takeDroppedReadingCount("tag", "run"));
+    }
+
+    @Test
+    public void testBlockDecimatesOnUnblockableThread() {
+        ScalarIngestionQueue queue = new ScalarIngestionQueue(1,
+                ScalarIngestionQueue.OverflowPolicy.BLOCK, Thread.currentThread());
+        queue.offer(makeBatch(queue, "tag", 0, 10));
+        assertFalse(queue.offer(makeBatch(queue, "tag", 10, 10)));
+
+        ScalarReadingBuffer combined = queue.poll();
+        assertEquals(10, combined.getTierSize(0));
+        assertEquals(2, combined.getTierSize(1));
+        assertEquals(10, queue.takeDroppedReadingCount("tag", "run"));
+        assertNull(queue.poll());
+    }
+
+    /**
+     * @return a batch of {@code count} tier-0 readings starting at {@code start}, and one tier-1
+     * reading.
+     */
+    private static ScalarReadingBuffer makeBatch(ScalarIngestionQueue queue, String tag,
+            long start, int count) {
+        ScalarReadingBuffer batch = queue.obtain(tag, "run");
+        for (int i = 0; i < count; i++) {
+            batch.add(0, start + i, start + i);
+        }
+        batch.add(1, start, start);
+        return batch;
+    }
+}
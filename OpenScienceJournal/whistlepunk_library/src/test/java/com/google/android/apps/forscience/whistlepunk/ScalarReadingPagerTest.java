@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScalarReadingPagerTest {
+    /**
+     * Serves readings (in insertion order, which must be timestamp order) synchronously,
+     * honoring the range, order, and record limit.
+     */
+    private static class ListDataController extends StubDataController {
+        private final List<ScalarReading> mReadings = new ArrayList<>();
+        private int mRequests = 0;
+
+        void add(long timestamp, double value) {
+            mReadings.add(new ScalarReading(timestamp, value));
+        }
+
+        @Override
+        public void getScalarReadings(String databaseTag, int resolutionTier,
+                TimeRange timeRange, int maxRecords, MaybeConsumer<ScalarReadingList> onSuccess) {
+            mRequests++;
+            List<ScalarReading> ordered = timeRange.getOrder().equals(
+                    TimeRange.ObservationOrder.OLDEST_FIRST) ? mReadings
+                    : Lists.reverse(mReadings);
+            final List<ScalarReading> result = new ArrayList<>();
+            for (ScalarReading reading : ordered) {
+                if (result.size() < maxRecords
+                        && timeRange.getTimes().contains(reading.getCollectedTimeMillis())) {
+                    result.add(reading);
+                }
+            }
+            onSuccess.success(new ScalarReadingList() {
+                @Override
+                public void deliver(StreamConsumer c) {
+                    for (ScalarReading reading : result) {
+                        c.addData(reading.getCollectedTimeMillis(), reading.getValue());
+                    }
+                }
+
+                @Override
+                public int size() {
+                    return result.size();
+                }
+
+                @Override
+                public int copyTo(long[] timestamps, double[] values, int offset) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public List<ChartData.DataPoint> asDataPoints() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+    }
+
+    private static List<ScalarReading> readAllPages(ScalarReadingPager pager) {
+        final List<ScalarReading> read = new ArrayList<>();
+        while (!pager.isFinished()) {
+            pager.loadNextPage(new MaybeConsumer<ScalarReadingList>() {
+                @Override
+                public void success(ScalarReadingList page) {
+                    read.addAll(ScalarReading.slurp(page));
+                }
+
+                @Override
+                public void fail(Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        return read;
+    }
+
+    @Test public void testReadsEverythingInPages() {
+        ListDataController dc = new ListDataController();
+        for (int i = 0; i < 10; i++) {
+            dc.add(i, i);
+        }
+        ScalarReadingPager pager = new ScalarReadingPager(dc, "tag", 0,
+                TimeRange.oldest(Range.closed(2L, 8L)), 3);
+        List<ScalarReading> read = readAllPages(pager);
+        assertEquals(7, read.size());
+        assertEquals(new ScalarReading(2, 2), read.get(0));
+        assertEquals(new ScalarReading(8, 8), read.get(6));
+        assertEquals(3, dc.mRequests);
+    }
+
+    @Test public void testSharedTimestampsAcrossPageBoundary() {
+        ListDataController dc = new ListDataController();
+        dc.add(1, 1.0);
+        dc.add(2, 2.0);
+        dc.add(2, 2.1);
+        dc.add(2, 2.2);
+        dc.add(2, 2.3);
+        dc.add(3, 3.0);
+        List<ScalarReading> read = readAllPages(new ScalarReadingPager(dc, "tag", 0,
+                TimeRange.oldest(Range.<Long>all()), 2));
+        assertEquals(dc.mReadings, read);
+    }
+
+    @Test public void testNewestFirst() {
+        ListDataController dc = new ListDataController();
+        dc.add(1, 1.0);
+        dc.add(2, 2.0);
+        dc.add(2, 2.1);
+        dc.add(3, 3.0);
+        List<ScalarReading> read = readAllPages(new ScalarReadingPager(dc, "tag", 0,
+                TimeRange.newest(Range.<Long>all()), 2));
+        assertEquals(Lists.reverse(dc.mReadings), read);
+    }
+
+    @Test public void testEmptyRange() {
+        ListDataController dc = new ListDataController();
+        dc.add(1, 1.0);
+        ScalarReadingPager pager = new ScalarReadingPager(dc, "tag", 0,
+                TimeRange.oldest(Range.closed(5L, 10L)), 2);
+        assertFalse(pager.isFinished());
+        assertTrue(readAllPages(pager).isEmpty());
+        assertTrue(pager.isFinished());
+    }
+}
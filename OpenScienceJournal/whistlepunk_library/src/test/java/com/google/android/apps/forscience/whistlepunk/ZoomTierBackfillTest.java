@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.review.ZoomPresenter;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+public class ZoomTierBackfillTest {
+    private static final int NUM_READINGS = 1000;
+
+    @Test
+    public void testBackfillMatchesRecordedTiers() {
+        // Tiers as ScalarSensor would have recorded them
+        InMemorySensorDatabase recorded = new InMemorySensorDatabase();
+        RecordingDataController rdc = recorded.makeSimpleRecordingController();
+        ZoomRecorder zoomRecorder = new ZoomRecorder("sensor",
+                ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS * 2, 1);
+        for (int i = 0; i < NUM_READINGS; i++) {
+            zoomRecorder.addData(i, Math.sin(i / 10.0), rdc);
+        }
+        int recordedTierCount = zoomRecorder.countTiers();
+        zoomRecorder.flushAllTiers(rdc);
+
+        // Only tier 0 was stored
+        InMemorySensorDatabase legacy = new InMemorySensorDatabase();
+        for (int i = 0; i < NUM_READINGS; i++) {
+            legacy.addScalarReading("sensor", 0, i, Math.sin(i / 10.0));
+        }
+
+        ZoomTierBackfill.RunBackfill backfill = new ZoomTierBackfill.RunBackfill("sensor", "run",
+                Range.closed(0L, (long) NUM_READINGS - 1),
+                Range.closed(100L, (long) NUM_READINGS - 101));
+        int steps = 0;
+        while (!backfill.step(legacy, 100)) {
+            steps++;
+            assertTrue(steps < NUM_READINGS);
+        }
+        backfill.writeTiers(legacy);
+
+        for (int tier = 1; tier < recordedTierCount; tier++) {
+            assertEquals(recorded.getReadings(tier), legacy.getReadings(tier));
+        }
+        assertEquals(NUM_READINGS, legacy.getReadings(0).size());
+
+        RunStats stats = backfill.getStats();
+        assertTrue(ZoomPresenter.hasRequiredStats(stats));
+        assertEquals(recordedTierCount, stats.getIntStat(ZoomRecorder.STATS_KEY_TIER_COUNT, -1));
+        assertEquals(NUM_READINGS - 200,
+                stats.getIntStat(StatsAccumulator.KEY_NUM_DATA_POINTS, -1));
+    }
+
+    @Test
+    public void testBackfillAfterInterruptedOneStoresTiersOnce() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        for (int i = 0; i < NUM_READINGS; i++) {
+            db.addScalarReading("sensor", 0, i, Math.sin(i / 10.0));
+        }
+
+        // The first backfill writes its tiers, but the app stops before the stats are saved.
+        backfillRun(db);
+        int tierOneSize = db.getReadings(1).size();
+        int summaryCount = db.getSummaries(0).size();
+        assertTrue(tierOneSize > 0);
+        assertTrue(summaryCount > 0);
+
+        backfillRun(db);
+        assertEquals(tierOneSize, db.getReadings(1).size());
+        assertEquals(summaryCount, db.getSummaries(0).size());
+        assertEquals(NUM_READINGS, db.getReadings(0).size());
+    }
+
+    private void backfillRun(InMemorySensorDatabase db) {
+        ZoomTierBackfill.RunBackfill backfill = new ZoomTierBackfill.RunBackfill("sensor", "run",
+                Range.closed(0L, (long) NUM_READINGS - 1),
+                Range.closed(0L, (long) NUM_READINGS - 1));
+        while (!backfill.step(db, 100)) {
+            // keep reading
+        }
+        backfill.writeTiers(db);
+    }
+
+    @Test
+    public void testEmptyRunIsMarkedDone() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        ZoomTierBackfill.RunBackfill backfill = new ZoomTierBackfill.RunBackfill("sensor", "run",
+                Range.closed(0L, 100L), Range.closed(0L, 100L));
+        assertTrue(backfill.step(db, 100));
+        backfill.writeTiers(db);
+        assertEquals(0, db.getReadings(1).size());
+
+        RunStats stats = backfill.getStats();
+        assertTrue(ZoomPresenter.hasRequiredStats(stats));
+        assertEquals(0, stats.getIntStat(StatsAccumulator.KEY_NUM_DATA_POINTS, -1));
+    }
+}
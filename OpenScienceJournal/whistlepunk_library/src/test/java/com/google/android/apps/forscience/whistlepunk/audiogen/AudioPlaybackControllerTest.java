@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audiogen;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+public class AudioPlaybackControllerTest {
+    private static ScalarReadingList makeReadings(long firstTimestamp, int count) {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        for (int i = 0; i < count; i++) {
+            db.addScalarReading("tag", 0, firstTimestamp + i, firstTimestamp + i);
+        }
+        return db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0, 0);
+    }
+
+    private static void assertRemoves(AudioPlaybackController.ReadingQueue queue,
+            long firstTimestamp, int count) {
+        for (int i = 0; i < count; i++) {
+            assertEquals(firstTimestamp + i, queue.getFirstTimestamp());
+            assertEquals(firstTimestamp + i, queue.getFirstValue(), 0.0);
+            queue.removeFirst();
+        }
+    }
+
+    @Test public void testReadingQueueKeepsOrderWhenCompactingAndGrowing() {
+        AudioPlaybackController.ReadingQueue queue = new AudioPlaybackController.ReadingQueue();
+        queue.addAll(makeReadings(0, 150));
+        assertEquals(149, queue.getLastTimestamp());
+        assertRemoves(queue, 0, 100);
+
+        // Doesn't fit after the unplayed readings, so they get moved back to the start.
+        queue.addAll(makeReadings(150, 150));
+        assertEquals(200, queue.size());
+        assertEquals(299, queue.getLastTimestamp());
+
+        // Doesn't fit at all, so the queue grows.
+        queue.addAll(makeReadings(300, 500));
+        assertEquals(700, queue.size());
+        assertEquals(799, queue.getLastTimestamp());
+        assertRemoves(queue, 100, 700);
+        assertEquals(0, queue.size());
+    }
+}
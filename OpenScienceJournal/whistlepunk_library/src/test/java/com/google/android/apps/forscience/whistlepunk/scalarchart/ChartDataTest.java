@@ -173,4 +173,21 @@ public class ChartDataTest {
         chartData.throwAwayBefore(17);
         assertEquals(20, chartData.getClosestDataPointToTimestamp(0).getX());
     }
-}
\ No newline at end of file
+
+    @Test public void addOrderedGroupOfPointsFromArrays() {
+        ChartData chartData = new ChartData();
+        // After, before, then overlapping the existing data.
+        chartData.addOrderedGroupOfPoints(new long[] {20, 30, 99}, new double[] {2, 3, 99}, 2);
+        chartData.addOrderedGroupOfPoints(new long[] {0, 10}, new double[] {0, 1}, 2);
+        chartData.addOrderedGroupOfPoints(new long[] {5, 25}, new double[] {0.5, 2.5}, 2);
+
+        List<ChartData.DataPoint> expected = new ArrayList<>();
+        expected.add(new ChartData.DataPoint(0, 0));
+        expected.add(new ChartData.DataPoint(5, 0.5));
+        expected.add(new ChartData.DataPoint(10, 1));
+        expected.add(new ChartData.DataPoint(20, 2));
+        expected.add(new ChartData.DataPoint(25, 2.5));
+        expected.add(new ChartData.DataPoint(30, 3));
+        assertDataEquals(expected, chartData.getPoints());
+    }
+}
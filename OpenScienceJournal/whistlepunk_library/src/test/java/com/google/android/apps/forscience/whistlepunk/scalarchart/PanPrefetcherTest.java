@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.android.apps.forscience.whistlepunk.DataController;
+import com.google.android.apps.forscience.whistlepunk.ExplodingFactory;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ArrayScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.IncrementableMonotonicClock;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class PanPrefetcherTest {
+    private static final Range<Long> RECORDED = Range.closed(0L, 1000L);
+
+    private final IncrementableMonotonicClock mClock = new IncrementableMonotonicClock();
+    private final PanPrefetcher mPrefetcher = new PanPrefetcher(mClock,
+            new ExplodingFactory().makeListenerForOperation("prefetch"));
+    private final DataController mDataController = makeDataController(RECORDED);
+
+    /**
+     * @return a controller with a reading every millisecond in {@code recorded}
+     */
+    private static DataController makeDataController(Range<Long> recorded) {
+        InMemorySensorDatabase db = new OrderedSensorDatabase();
+        for (long i = recorded.lowerEndpoint(); i <= recorded.upperEndpoint(); i++) {
+            db.addScalarReading("sensor", 0, i, i);
+        }
+        return db.makeSimpleController(new MemoryMetadataManager());
+    }
+
+    private void pan(long xMin, long xMax, long minLoaded, long maxLoaded) {
+        pan(xMin, xMax, minLoaded, maxLoaded, RECORDED, mDataController);
+    }
+
+    private void pan(long xMin, long xMax, long minLoaded, long maxLoaded, Range<Long> recorded,
+            DataController dataController) {
+        mClock.increment();
+        mPrefetcher.onXAxisChanged(xMin, xMax, Range.closed(minLoaded, maxLoaded), recorded,
+                "sensor", 0, dataController);
+    }
+
+    @Test
+    public void testPrefetchesTheNextScreenWhilePanningForward() {
+        pan(100, 200, 90, 210);
+        assertNull(mPrefetcher.take("sensor", 0, 210, 250));
+
+        pan(105, 205, 90, 215);
+        ScalarReadingList readings = mPrefetcher.take("sensor", 0, 215, 250);
+        assertEquals(36, readings.size());
+        assertEquals(100, mPrefetcher.take("sensor", 0, 216, 315).size());
+
+        // Only one screen ahead, and only for the sensor and tier being shown
+        assertNull(mPrefetcher.take("sensor", 0, 215, 316));
+        assertNull(mPrefetcher.take("sensor", 1, 215, 250));
+        assertNull(mPrefetcher.take("other", 0, 215, 250));
+    }
+
+    @Test
+    public void testPrefetchesBackwardsUpToTheStartOfTheRun() {
+        pan(50, 150, 40, 160);
+        pan(45, 145, 35, 160);
+        assertEquals(36, mPrefetcher.take("sensor", 0, 0, 35).size());
+    }
+
+    @Test
+    public void testPrefetchesOnlyTheReadingsNearestTheLoadedData() {
+        // Too many readings on a screen to prefetch them all
+        Range<Long> recorded = Range.closed(0L, 10000L);
+        DataController dataController = makeDataController(recorded);
+        pan(1000, 4000, 1000, 4000, recorded, dataController);
+        pan(1010, 4010, 1000, 4010, recorded, dataController);
+        assertEquals(91, mPrefetcher.take("sensor", 0, 4010, 4100).size());
+        assertNull(mPrefetcher.take("sensor", 0, 4010, 7010));
+
+        mPrefetcher.clear();
+        pan(5000, 8000, 5000, 8000, recorded, dataController);
+        pan(4990, 7990, 4990, 8000, recorded, dataController);
+        ScalarReadingList readings = mPrefetcher.take("sensor", 0, 4900, 4990);
+        long[] timestamps = new long[readings.size()];
+        readings.copyTo(timestamps, new double[readings.size()], 0);
+        assertEquals(91, timestamps.length);
+        assertEquals(4900, timestamps[0]);
+        assertEquals(4990, timestamps[90]);
+        assertNull(mPrefetcher.take("sensor", 0, 1990, 4990));
+    }
+
+    @Test
+    public void testZoomingIsNotPanning() {
+        pan(100, 200, 90, 210);
+        pan(100, 300, 90, 310);
+        assertNull(mPrefetcher.take("sensor", 0, 310, 350));
+    }
+
+    @Test
+    public void testClearForgetsPrefetchedReadings() {
+        pan(100, 200, 90, 210);
+        pan(105, 205, 90, 215);
+        mPrefetcher.clear();
+        assertNull(mPrefetcher.take("sensor", 0, 215, 250));
+    }
+
+    /**
+     * Unlike InMemorySensorDatabase, keeps to the order and the number of readings asked for.
+     */
+    private static class OrderedSensorDatabase extends InMemorySensorDatabase {
+        @Override
+        public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
+                int resolutionTier, int maxRecords) {
+            List<ScalarReading> readings = ScalarReading.slurp(
+                    super.getScalarReadings(sensorTag, range, resolutionTier, 0));
+            if (range.getOrder() == TimeRange.ObservationOrder.NEWEST_FIRST) {
+                Collections.reverse(readings);
+            }
+            int size = maxRecords > 0 ? Math.min(maxRecords, readings.size()) : readings.size();
+            long[] timestamps = new long[size];
+            double[] values = new double[size];
+            for (int i = 0; i < size; i++) {
+                timestamps[i] = readings.get(i).getCollectedTimeMillis();
+                values[i] = readings.get(i).getValue();
+            }
+            return new ArrayScalarReadingList(timestamps, values, size);
+        }
+    }
+}
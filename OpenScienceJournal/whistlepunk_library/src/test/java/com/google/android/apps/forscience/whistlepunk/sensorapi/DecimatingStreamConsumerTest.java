@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DecimatingStreamConsumerTest {
+    private final List<Long> mTimestamps = new ArrayList<>();
+    private final List<Double> mValues = new ArrayList<>();
+    private final StreamConsumer mOutput = new StreamConsumer() {
+        @Override
+        public void addData(long timestampMillis, double value) {
+            mTimestamps.add(timestampMillis);
+            mValues.add(value);
+        }
+    };
+
+    @Test
+    public void testSteadyValuePassesThrough() {
+        DecimatingStreamConsumer decimator = new DecimatingStreamConsumer(mOutput, 5);
+        for (int i = 0; i < 200; i++) {
+            decimator.addData(i, 3);
+        }
+        // The filter is full after 41 points, and then every 5th point is passed on.
+        assertEquals(32, mValues.size());
+        for (int i = 0; i < mValues.size(); i++) {
+            assertEquals(3, mValues.get(i), 1e-9);
+            // Each at the middle of its filter
+            assertEquals(20 + 5 * i, (long) mTimestamps.get(i));
+        }
+    }
+
+    @Test
+    public void testRemovesWhatTheLowerRateCantShow() {
+        DecimatingStreamConsumer decimator = new DecimatingStreamConsumer(mOutput, 4);
+        for (int i = 0; i < 1000; i++) {
+            // Too fast for a quarter of the rate; simply keeping every 4th point would alias it
+            // into a wave of 0.4 cycles per kept point.
+            decimator.addData(i, 2 + Math.sin(2 * Math.PI * 0.35 * i));
+        }
+        for (double value : mValues) {
+            assertEquals(2, value, 0.001);
+        }
+    }
+
+    @Test
+    public void testKeepsWhatTheLowerRateCanShow() {
+        DecimatingStreamConsumer decimator = new DecimatingStreamConsumer(mOutput, 4);
+        for (int i = 0; i < 1000; i++) {
+            decimator.addData(i, Math.sin(2 * Math.PI * 0.02 * i));
+        }
+        for (int i = 0; i < mValues.size(); i++) {
+            assertEquals(Math.sin(2 * Math.PI * 0.02 * mTimestamps.get(i)), mValues.get(i), 0.01);
+        }
+    }
+
+    @Test
+    public void testFlushPassesOnOwedPoints() {
+        DecimatingStreamConsumer decimator = new DecimatingStreamConsumer(mOutput, 5);
+        for (int i = 0; i < 200; i++) {
+            decimator.addData(i, 3);
+        }
+        decimator.flush();
+        // The middles at 180, 185, 190 and 195 were still owed.
+        assertEquals(36, mValues.size());
+        for (int i = 0; i < mValues.size(); i++) {
+            assertEquals(3, mValues.get(i), 1e-9);
+            assertEquals(20 + 5 * i, (long) mTimestamps.get(i));
+        }
+
+        // Flushing again owes nothing more.
+        decimator.flush();
+        assertEquals(36, mValues.size());
+    }
+
+    @Test
+    public void testFlushStartsANewStream() {
+        DecimatingStreamConsumer decimator = new DecimatingStreamConsumer(mOutput, 2);
+        // Too few points to reach the middle of the first filter
+        for (int i = 0; i < 8; i++) {
+            decimator.addData(i, 1);
+        }
+        decimator.flush();
+        assertEquals(0, mValues.size());
+
+        for (int i = 100; i < 112; i++) {
+            decimator.addData(i, 1);
+        }
+        decimator.flush();
+        // The first middle is 8 points in, at 108, and then 110
+        assertEquals(2, mValues.size());
+        assertEquals(108, (long) mTimestamps.get(0));
+        assertEquals(110, (long) mTimestamps.get(1));
+        assertEquals(1, mValues.get(1), 1e-9);
+    }
+
+    @Test
+    public void testFactorOfOne() {
+        DecimatingStreamConsumer decimator = new DecimatingStreamConsumer(mOutput, 1);
+        for (int i = 0; i < 20; i++) {
+            decimator.addData(i, i);
+        }
+        assertEquals(12, mValues.size());
+        assertEquals(4, mValues.get(0), 1e-9);
+        assertEquals(4, (long) mTimestamps.get(0));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class DownsamplerTest {
+    private final long[] mTimestamps = new long[4];
+    private final double[] mValues = new double[4];
+
+    @Test
+    public void testM4KeepsFirstMinMaxAndLast() {
+        Downsampler m4 = new M4Downsampler();
+        m4.addData(0, 5);
+        m4.addData(1, 9);
+        m4.addData(2, 1);
+        m4.addData(3, 4);
+        assertEquals(4, m4.endWindow(mTimestamps, mValues));
+        assertEquals(0, mTimestamps[0]);
+        assertEquals(9, mValues[1], 0.001);
+        assertEquals(1, mValues[2], 0.001);
+        assertEquals(3, mTimestamps[3]);
+
+        // The first point is the min, and the last is the max: each is only kept once.
+        m4.addData(10, 1);
+        m4.addData(11, 3);
+        m4.addData(12, 2);
+        m4.addData(13, 4);
+        assertEquals(2, m4.endWindow(mTimestamps, mValues));
+        assertEquals(10, mTimestamps[0]);
+        assertEquals(13, mTimestamps[1]);
+
+        assertEquals(0, m4.finish(mTimestamps, mValues));
+    }
+
+    @Test
+    public void testLttbKeepsTheSpike() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        RecordingDataController rdc = db.makeSimpleRecordingController();
+        ZoomRecorder recorder = new ZoomRecorder("test", 5, 1, new LttbDownsampler());
+        for (int i = 0; i < 20; i++) {
+            recorder.addData(i, i == 7 ? 10 : 0, rdc);
+        }
+        recorder.flushAllTiers(rdc);
+
+        // One point per window, and the first and last points
+        ArrayList<InMemorySensorDatabase.Reading> expected = Lists.newArrayList(
+                new InMemorySensorDatabase.Reading("test", 0, 0),
+                new InMemorySensorDatabase.Reading("test", 7, 10),
+                new InMemorySensorDatabase.Reading("test", 10, 0),
+                new InMemorySensorDatabase.Reading("test", 19, 0));
+        assertEquals(expected, db.getReadings(1));
+    }
+
+    @Test
+    public void testLttbWithOneWindow() {
+        Downsampler lttb = new LttbDownsampler();
+        lttb.addData(0, 1);
+        lttb.addData(1, 2);
+        lttb.addData(2, 3);
+        assertEquals(2, lttb.finish(mTimestamps, mValues));
+        assertEquals(0, mTimestamps[0]);
+        assertEquals(2, mTimestamps[1]);
+    }
+
+    @Test
+    public void testTierAlgorithmsAreStored() {
+        RunStats stats = new RunStats();
+        ZoomRecorder.putTierStats(stats, 3, 20, Downsampler.ALGORITHM_LTTB);
+        assertEquals(3, stats.getIntStat(ZoomRecorder.STATS_KEY_TIER_COUNT, -1));
+        assertEquals(Downsampler.ALGORITHM_LTTB, ZoomRecorder.getTierAlgorithm(stats, 1));
+        assertEquals(Downsampler.ALGORITHM_LTTB, ZoomRecorder.getTierAlgorithm(stats, 2));
+
+        // Recorded before algorithms were stored
+        assertEquals(Downsampler.ALGORITHM_MIN_MAX,
+                ZoomRecorder.getTierAlgorithm(new RunStats(), 1));
+    }
+}
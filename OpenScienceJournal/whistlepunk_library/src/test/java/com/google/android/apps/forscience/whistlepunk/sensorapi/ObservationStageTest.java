@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class ObservationStageTest {
+    private final List<Runnable> mQueued = new ArrayList<>();
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+    };
+
+    private final List<Long> mTimestamps = new ArrayList<>();
+    private final List<Double> mAverages = new ArrayList<>();
+    private final ScalarObserver mObserver = new ScalarObserver() {
+        @Override
+        public void onNewScalarData(long timestampMillis, double value, double min, double max,
+                double average) {
+            assertEquals(timestampMillis, (long) value);
+            mTimestamps.add(timestampMillis);
+            mAverages.add(average);
+        }
+    };
+
+    private void runQueued() {
+        while (!mQueued.isEmpty()) {
+            mQueued.remove(0).run();
+        }
+    }
+
+    @Test
+    public void testOneMessagePerDrain() {
+        ObservationStage stage = new ObservationStage(mObserver, mExecutor, 64);
+        for (int i = 0; i < 50; i++) {
+            stage.addData(i, i, 0, i, i / 2.0);
+        }
+        assertEquals(1, mQueued.size());
+        assertEquals(0, mTimestamps.size());
+
+        runQueued();
+        assertEquals(50, mTimestamps.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (long) mTimestamps.get(i));
+            assertEquals(i / 2.0, mAverages.get(i), 0.0);
+        }
+
+        // The next point schedules another drain.
+        stage.addData(50, 50, 0, 50, 25);
+        assertEquals(1, mQueued.size());
+        runQueued();
+        assertEquals(51, mTimestamps.size());
+    }
+
+    @Test
+    public void testGrowsRatherThanDropping() {
+        ObservationStage stage = new ObservationStage(mObserver, mExecutor, 16);
+        for (int i = 0; i < 40; i++) {
+            stage.addData(i, i, 0, 0, 0);
+        }
+        stage.addData(new long[] {40, 41, 42}, new double[] {40, 41, 42}, 0, 3, 0, 0, 0);
+        assertEquals(1, mQueued.size());
+        runQueued();
+        assertEquals(43, mTimestamps.size());
+        for (int i = 0; i < 43; i++) {
+            assertEquals(i, (long) mTimestamps.get(i));
+        }
+    }
+
+    @Test
+    public void testPointsAddedWhileDeliveringAreDeliveredNext() {
+        final ObservationStage[] stage = new ObservationStage[1];
+        stage[0] = new ObservationStage(new ScalarObserver() {
+            @Override
+            public void onNewScalarData(long timestamp, double value, double min, double max,
+                    double average) {
+                mObserver.onNewScalarData(timestamp, value, min, max, average);
+                if (timestamp == 0) {
+                    // As if the sensor thread added a point during delivery
+                    stage[0].addData(1, 1, 0, 0, 0);
+                    assertEquals(1, mQueued.size());
+                }
+            }
+        }, mExecutor, 8);
+        stage[0].addData(0, 0, 0, 0, 0);
+        runQueued();
+        assertEquals(2, mTimestamps.size());
+        assertEquals(1, (long) mTimestamps.get(1));
+    }
+
+    @Test
+    public void testBuffersAreReusedAcrossDrains() {
+        ObservationStage stage = new ObservationStage(mObserver, mExecutor, 8);
+        for (int i = 0; i < 100; i++) {
+            stage.addData(i, i, 0, 0, 0);
+            if (i % 5 == 4) {
+                runQueued();
+            }
+        }
+        assertEquals(100, mTimestamps.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (long) mTimestamps.get(i));
+        }
+    }
+}
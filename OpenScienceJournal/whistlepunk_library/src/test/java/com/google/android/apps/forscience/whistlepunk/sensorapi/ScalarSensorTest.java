@@ -348,6 +348,84 @@ public class ScalarSensorTest {
         assertEquals(1.0, stats2.getStat(ZoomRecorder.STATS_KEY_TIER_COUNT), 0.001);
     }
 
+    @Test
+    public void testZoomWithM4() {
+        ManualSensor sensor = new ManualSensor("test", 1000, 5);
+        sensor.setDownsampler(new M4Downsampler());
+        SensorRecorder recorder = createRecorder(sensor);
+        recorder.startRecording("runId");
+        for (int i = 0; i < 40; i++) {
+            sensor.pushValue(i, i);
+        }
+
+        // Windows of 20, so that there are still 5 times as many points as in the tier above
+        ArrayList<InMemorySensorDatabase.Reading> expected = Lists.newArrayList(
+                new InMemorySensorDatabase.Reading("test", 0, 0),
+                new InMemorySensorDatabase.Reading("test", 19, 19),
+                new InMemorySensorDatabase.Reading("test", 20, 20),
+                new InMemorySensorDatabase.Reading("test", 39, 39));
+        assertEquals(expected, mDb.getReadings(1));
+        recorder.stopRecording(TestConsumers.<Success>expectingSuccess());
+        RunStats stats = mMetadata.getStats("runId", "test");
+        assertEquals(2.0, stats.getStat(ZoomRecorder.STATS_KEY_TIER_COUNT), 0.001);
+        assertEquals(Downsampler.ALGORITHM_M4, ZoomRecorder.getTierAlgorithm(stats, 1));
+    }
+
+    @Test
+    public void testBatchesMatchSinglePoints() {
+        long[] timestamps = new long[300];
+        double[] values = new double[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            // Now and then a repeated timestamp, which is thrown away
+            timestamps[i] = i % 17 == 16 ? i - 1 : i;
+            values[i] = Math.sin(i / 5.0) * 100;
+        }
+
+        InMemorySensorDatabase singleDb = new InMemorySensorDatabase();
+        MemoryMetadataManager singleMetadata = new MemoryMetadataManager();
+        RecordingSensorObserver singleObserver = new RecordingSensorObserver();
+        ManualSensor single = new ManualSensor("test", 1000, 5);
+        SensorRecorder singleRecorder = single.createRecorder(getContext(),
+                singleDb.makeSimpleRecordingController(singleMetadata), singleObserver);
+        singleRecorder.startRecording("runId");
+        for (int i = 0; i < timestamps.length; i++) {
+            single.pushValue(timestamps[i], values[i]);
+        }
+        singleRecorder.stopRecording(TestConsumers.<Success>expectingSuccess());
+
+        InMemorySensorDatabase batchedDb = new InMemorySensorDatabase();
+        MemoryMetadataManager batchedMetadata = new MemoryMetadataManager();
+        RecordingSensorObserver batchedObserver = new RecordingSensorObserver();
+        ManualSensor batched = new ManualSensor("test", 1000, 5);
+        SensorRecorder batchedRecorder = batched.createRecorder(getContext(),
+                batchedDb.makeSimpleRecordingController(batchedMetadata), batchedObserver);
+        batchedRecorder.startRecording("runId");
+        int[] batchSizes = {1, 7, 30, 2, 64, 13};
+        int offset = 0;
+        for (int i = 0; offset < timestamps.length; i++) {
+            int count = Math.min(batchSizes[i % batchSizes.length], timestamps.length - offset);
+            batched.pushValues(timestamps, values, offset, count);
+            offset += count;
+        }
+        batchedRecorder.stopRecording(TestConsumers.<Success>expectingSuccess());
+
+        for (int tier = 0; tier <= 2; tier++) {
+            assertEquals(singleDb.getReadings(tier), batchedDb.getReadings(tier));
+        }
+        assertFalse(batchedDb.getReadings(2).isEmpty());
+
+        RunStats singleStats = singleMetadata.getStats("runId", "test");
+        RunStats batchedStats = batchedMetadata.getStats("runId", "test");
+        assertEquals(singleStats.getKeys(), batchedStats.getKeys());
+        for (String key : singleStats.getKeys()) {
+            assertEquals(key, singleStats.getStat(key), batchedStats.getStat(key), 1e-9);
+        }
+
+        assertEquals(singleObserver.getReadings(), batchedObserver.getReadings());
+        assertEquals(timestamps.length - timestamps.length / 17,
+                batchedObserver.getReadings().size());
+    }
+
     @NonNull
     private ScaleTransform rpmToHertz() {
         ScaleTransform transform = new ScaleTransform();
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregate;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class SummaryRecorderTest {
+    @Test
+    public void testEachLevelCoversEveryPointOnce() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        RecordingDataController rdc = db.makeSimpleRecordingController();
+        SummaryRecorder recorder = new SummaryRecorder("test", 10, 3, 0);
+        for (int i = 0; i < 75; i++) {
+            recorder.addData(i, i, rdc);
+        }
+        recorder.flushAllLevels(rdc);
+
+        // 7 full summaries and a partial one at level 0, then 2 full and a partial at level 1
+        assertEquals(8, db.getSummaries(0).size());
+        assertEquals(3, db.getSummaries(1).size());
+        assertEquals(new ScalarAggregate(10, 45, 0, 9, 0, 0, 9, 9), db.getSummaries(0).get(0));
+        assertEquals(new ScalarAggregate(5, 360, 70, 74, 70, 70, 74, 74),
+                db.getSummaries(0).get(7));
+
+        for (int level = 0; level < db.getSummaryLevelCount(); level++) {
+            List<ScalarAggregate> summaries = db.getSummaries(level);
+            ScalarAggregate total = new ScalarAggregate();
+            long nextTimestamp = 0;
+            for (ScalarAggregate summary : summaries) {
+                assertEquals(nextTimestamp, summary.getFirstTimestampMillis());
+                nextTimestamp = summary.getLastTimestampMillis() + 1;
+                total.merge(summary);
+            }
+            assertEquals(new ScalarAggregate(75, 2775, 0, 74, 0, 0, 74, 74), total);
+        }
+    }
+
+    @Test
+    public void testClearDropsPartialSummaries() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        RecordingDataController rdc = db.makeSimpleRecordingController();
+        SummaryRecorder recorder = new SummaryRecorder("test", 10, 3, 0);
+        for (int i = 0; i < 5; i++) {
+            recorder.addData(i, i, rdc);
+        }
+        recorder.clear();
+        recorder.addData(100, 1, rdc);
+        recorder.flushAllLevels(rdc);
+
+        assertEquals(1, db.getSummaries(0).size());
+        assertEquals(new ScalarAggregate(1, 1, 1, 1, 100, 1, 100, 1), db.getSummaries(0).get(0));
+        assertEquals(1, db.getSummaryLevelCount());
+    }
+}
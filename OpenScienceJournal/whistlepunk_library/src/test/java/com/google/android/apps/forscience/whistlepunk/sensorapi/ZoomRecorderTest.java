@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+
+import org.junit.Test;
+
+public class ZoomRecorderTest {
+    private final InMemorySensorDatabase mDb = new InMemorySensorDatabase();
+    private final RecordingDataController mRdc = mDb.makeSimpleRecordingController();
+
+    private void record(ZoomRecorder recorder, int count, long millisBetween) {
+        for (int i = 0; i < count; i++) {
+            recorder.addData(i * millisBetween, Math.sin(i / 10.0), mRdc);
+        }
+    }
+
+    @Test
+    public void testChooseZoomLevel() {
+        assertEquals(ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+                ZoomRecorder.chooseZoomLevel(10));
+        assertEquals(6, ZoomRecorder.chooseZoomLevel(1));
+        assertEquals(4, ZoomRecorder.chooseZoomLevel(0.01));
+        assertEquals(200, ZoomRecorder.chooseZoomLevel(1000));
+        assertEquals(200, ZoomRecorder.chooseZoomLevel(100000));
+        assertEquals(ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+                ZoomRecorder.chooseZoomLevel(0));
+    }
+
+    @Test
+    public void testAdaptiveZoomLevelFollowsSampleRate() {
+        ZoomRecorder recorder = ZoomRecorder.createAdaptive("test", new MinMaxDownsampler(), 1000);
+        record(recorder, 10000, 1);
+        assertEquals(200, recorder.getZoomLevelBetweenTiers());
+        // Windows of 400: the min and max of each
+        assertEquals(50, mDb.getReadings(1).size());
+
+        recorder.clear();
+        record(recorder, 100, 1000);
+        assertEquals(6, recorder.getZoomLevelBetweenTiers());
+    }
+
+    @Test
+    public void testAdaptiveOnlyAddsTiersThatAreNeeded() {
+        ZoomRecorder recorder = ZoomRecorder.createAdaptive("test", new MinMaxDownsampler(), 10);
+        record(recorder, 4000, 100);
+        assertEquals(20, recorder.getZoomLevelBetweenTiers());
+        // The first window runs on until the zoom level is chosen, at the 100th point.
+        assertEquals(196, mDb.getReadings(1).size());
+        // Few enough to show the whole run, so there's no tier above
+        assertEquals(8, mDb.getReadings(2).size());
+        assertEquals(0, mDb.getReadings(3).size());
+        assertEquals(3, recorder.countTiers());
+    }
+
+    @Test
+    public void testShortRunGetsDefaultZoomLevel() {
+        ZoomRecorder recorder = ZoomRecorder.createAdaptive("test", new MinMaxDownsampler(), 10);
+        recorder.addData(0, 1, mRdc);
+        assertEquals(ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+                recorder.getZoomLevelBetweenTiers());
+        assertEquals(1, recorder.countTiers());
+        recorder.flushAllTiers(mRdc);
+        assertEquals(2, mDb.getReadings(1).size());
+    }
+
+    @Test
+    public void testBatchesMatchSinglePoints() {
+        int count = 4000;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = i * 100;
+            values[i] = Math.sin(i / 10.0);
+        }
+
+        ZoomRecorder single = ZoomRecorder.createAdaptive("test", new MinMaxDownsampler(), 10);
+        record(single, count, 100);
+        single.flushAllTiers(mRdc);
+
+        InMemorySensorDatabase batchDb = new InMemorySensorDatabase();
+        RecordingDataController batchRdc = batchDb.makeSimpleRecordingController();
+        ZoomRecorder batched = ZoomRecorder.createAdaptive("test", new MinMaxDownsampler(), 10);
+        // Uneven batches, so that some straddle the choice of zoom level and window ends
+        for (int offset = 0; offset < count; offset += 37) {
+            batched.addData(timestamps, values, offset, Math.min(37, count - offset), batchRdc);
+        }
+        batched.flushAllTiers(batchRdc);
+
+        assertEquals(single.getZoomLevelBetweenTiers(), batched.getZoomLevelBetweenTiers());
+        assertEquals(single.countTiers(), batched.countTiers());
+        for (int tier = 1; tier <= single.countTiers(); tier++) {
+            assertEquals(mDb.getReadings(tier), batchDb.getReadings(tier));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.metadata.RunStats;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class ZoomTierStageTest {
+    private static final int NUM_READINGS = 1000;
+
+    private final InMemorySensorDatabase mDb = new InMemorySensorDatabase();
+    private final RecordingDataController mRdc = mDb.makeSimpleRecordingController();
+    private final List<Runnable> mQueued = new ArrayList<>();
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+    };
+
+    private ZoomTierStage makeStage(int capacity, int batchSize) {
+        return new ZoomTierStage("test", new ZoomRecorder("test", 10, 1),
+                new SummaryRecorder("test"), mRdc, mExecutor, capacity, batchSize);
+    }
+
+    private void runQueued() {
+        while (!mQueued.isEmpty()) {
+            mQueued.remove(0).run();
+        }
+    }
+
+    private static double valueAt(int i) {
+        return Math.sin(i / 10.0);
+    }
+
+    @Test
+    public void testSameTiersAsRecordingDirectly() {
+        InMemorySensorDatabase direct = new InMemorySensorDatabase();
+        RecordingDataController directRdc = direct.makeSimpleRecordingController();
+        ZoomRecorder zoomRecorder = new ZoomRecorder("test", 10, 1);
+        SummaryRecorder summaryRecorder = new SummaryRecorder("test");
+        for (int i = 0; i < NUM_READINGS; i++) {
+            zoomRecorder.addData(i, valueAt(i), directRdc);
+            summaryRecorder.addData(i, valueAt(i), directRdc);
+        }
+        RunStats directStats = new RunStats();
+        ZoomRecorder.putTierStats(directStats, zoomRecorder.countTiers(),
+                zoomRecorder.getZoomLevelBetweenTiers(), zoomRecorder.getAlgorithm());
+        zoomRecorder.flushAllTiers(directRdc);
+        summaryRecorder.flushAllLevels(directRdc);
+
+        ZoomTierStage stage = makeStage(64, 16);
+        stage.clear();
+        for (int i = 0; i < NUM_READINGS; i++) {
+            stage.addData(i, valueAt(i));
+            if (i % 50 == 0) {
+                runQueued();
+            }
+        }
+        RunStats stats = new RunStats();
+        stage.putTierStats(stats);
+        stage.flushAllTiers();
+
+        assertEquals(directStats.getIntStat(ZoomRecorder.STATS_KEY_TIER_COUNT, -1),
+                stats.getIntStat(ZoomRecorder.STATS_KEY_TIER_COUNT, -1));
+        assertTrue(direct.getReadings(2).size() > 0);
+        for (int tier = 1; tier <= 3; tier++) {
+            assertEquals(direct.getReadings(tier), mDb.getReadings(tier));
+        }
+        for (int level = 0; level < direct.getSummaryLevelCount(); level++) {
+            assertEquals(direct.getSummaries(level), mDb.getSummaries(level));
+        }
+    }
+
+    @Test
+    public void testWaitsForABatch() {
+        ZoomTierStage stage = makeStage(64, 16);
+        for (int i = 0; i < 15; i++) {
+            stage.addData(i, valueAt(i));
+        }
+        assertTrue(mQueued.isEmpty());
+        stage.addData(15, valueAt(15));
+        assertEquals(1, mQueued.size());
+
+        // Only one drain is queued at a time.
+        stage.addData(16, valueAt(16));
+        assertEquals(1, mQueued.size());
+        runQueued();
+        assertEquals(2, mDb.getReadings(1).size());
+    }
+
+    @Test
+    public void testComputesTiersItselfWhenFull() {
+        ZoomTierStage stage = makeStage(8, 4);
+        // The executor never runs, so each time the buffer fills, the adding thread drains it.
+        for (int i = 0; i < 100; i++) {
+            stage.addData(i, valueAt(i));
+        }
+        assertEquals(18, mDb.getReadings(1).size());
+    }
+}
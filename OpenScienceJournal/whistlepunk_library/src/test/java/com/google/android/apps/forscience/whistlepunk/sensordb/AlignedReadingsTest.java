@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class AlignedReadingsTest {
+    private static final double DELTA = 0.0001;
+
+    private static ScalarReadingList readings(long[] timestamps, double[] values) {
+        return new ArrayScalarReadingList(timestamps, values, timestamps.length);
+    }
+
+    // Sensor a reads at 0, 10 and 20; sensor b at 5 and 20.
+    private static AlignedReadings.Rows merge(TimeRange.ObservationOrder order,
+            AlignedReadings.Alignment alignment) {
+        List<ScalarReadingList> lists = new ArrayList<>();
+        lists.add(readings(new long[]{0, 10, 20}, new double[]{0, 10, 20}));
+        lists.add(readings(new long[]{5, 20}, new double[]{100, 200}));
+        AlignedReadings.Rows rows = new AlignedReadings.Rows(2);
+        AlignedReadings.merge(lists, order, alignment, rows);
+        return rows;
+    }
+
+    private static List<Long> getTimestamps(AlignedReadings.Rows rows) {
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            timestamps.add(rows.getTimestamp(i));
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void testPrevious() {
+        AlignedReadings.Rows rows = merge(TimeRange.ObservationOrder.OLDEST_FIRST,
+                AlignedReadings.Alignment.PREVIOUS);
+        assertEquals(Arrays.asList(0L, 5L, 10L, 20L), getTimestamps(rows));
+        assertEquals(0, rows.getValue(0, 0), DELTA);
+        assertEquals(Double.NaN, rows.getValue(0, 1), DELTA);
+        assertEquals(0, rows.getValue(1, 0), DELTA);
+        assertEquals(100, rows.getValue(1, 1), DELTA);
+        assertEquals(10, rows.getValue(2, 0), DELTA);
+        assertEquals(100, rows.getValue(2, 1), DELTA);
+        assertEquals(20, rows.getValue(3, 0), DELTA);
+        assertEquals(200, rows.getValue(3, 1), DELTA);
+    }
+
+    @Test
+    public void testNearest() {
+        AlignedReadings.Rows rows = merge(TimeRange.ObservationOrder.OLDEST_FIRST,
+                AlignedReadings.Alignment.NEAREST);
+        assertEquals(100, rows.getValue(0, 1), DELTA);
+        // Equally close to 0 and 10: the earlier one wins.
+        assertEquals(0, rows.getValue(1, 0), DELTA);
+        assertEquals(100, rows.getValue(2, 1), DELTA);
+    }
+
+    @Test
+    public void testLinear() {
+        AlignedReadings.Rows rows = merge(TimeRange.ObservationOrder.OLDEST_FIRST,
+                AlignedReadings.Alignment.LINEAR);
+        assertEquals(Double.NaN, rows.getValue(0, 1), DELTA);
+        assertEquals(5, rows.getValue(1, 0), DELTA);
+        assertEquals(133.3333, rows.getValue(2, 1), DELTA);
+        assertEquals(200, rows.getValue(3, 1), DELTA);
+    }
+
+    @Test
+    public void testNewestFirst() {
+        AlignedReadings.Rows rows = merge(TimeRange.ObservationOrder.NEWEST_FIRST,
+                AlignedReadings.Alignment.LINEAR);
+        assertEquals(Arrays.asList(20L, 10L, 5L, 0L), getTimestamps(rows));
+        assertEquals(200, rows.getValue(0, 1), DELTA);
+        assertEquals(133.3333, rows.getValue(1, 1), DELTA);
+        assertEquals(5, rows.getValue(2, 0), DELTA);
+        assertEquals(Double.NaN, rows.getValue(3, 1), DELTA);
+    }
+
+    @Test
+    public void testDuplicateTimestampsMakeOneRow() {
+        List<ScalarReadingList> lists = new ArrayList<>();
+        lists.add(readings(new long[]{1, 1, 2}, new double[]{1, 1.5, 2}));
+        AlignedReadings.Rows rows = new AlignedReadings.Rows(1);
+        AlignedReadings.merge(lists, TimeRange.ObservationOrder.NEWEST_FIRST,
+                AlignedReadings.Alignment.PREVIOUS, rows);
+        assertEquals(Arrays.asList(2L, 1L), getTimestamps(rows));
+        assertEquals(1.5, rows.getValue(1, 0), DELTA);
+    }
+
+    /**
+     * Delivers a sensor's readings one at a time, the smallest window there can be.
+     */
+    private static AlignedReadings.ReadingWindows oneAtATime(final long[] timestamps,
+            final double[] values, final boolean newestFirst) {
+        return new AlignedReadings.ReadingWindows() {
+            private int mDelivered = 0;
+
+            @Override
+            public int deliverNext(int maxReadings, StreamConsumer c) {
+                if (mDelivered == timestamps.length) {
+                    return 0;
+                }
+                int index = newestFirst ? timestamps.length - 1 - mDelivered : mDelivered;
+                c.addData(timestamps[index], values[index]);
+                mDelivered++;
+                return 1;
+            }
+        };
+    }
+
+    @Test
+    public void testWindowsMergeLikeLists() {
+        for (TimeRange.ObservationOrder order : TimeRange.ObservationOrder.values()) {
+            for (AlignedReadings.Alignment alignment : AlignedReadings.Alignment.values()) {
+                boolean newestFirst = order == TimeRange.ObservationOrder.NEWEST_FIRST;
+                List<AlignedReadings.ReadingWindows> windows = new ArrayList<>();
+                windows.add(oneAtATime(new long[]{0, 10, 20}, new double[]{0, 10, 20},
+                        newestFirst));
+                windows.add(oneAtATime(new long[]{5, 20}, new double[]{100, 200}, newestFirst));
+                AlignedReadings.Rows rows = new AlignedReadings.Rows(2);
+                AlignedReadings.mergeWindows(windows, order, alignment, rows);
+
+                AlignedReadings.Rows expected = merge(order, alignment);
+                assertEquals(getTimestamps(expected), getTimestamps(rows));
+                for (int row = 0; row < expected.size(); row++) {
+                    for (int sensor = 0; sensor < 2; sensor++) {
+                        assertEquals(expected.getValue(row, sensor), rows.getValue(row, sensor),
+                                DELTA);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testListCopiedShortUsesReadingsCopied() {
+        // Counts more readings than it copies, as a list reading a changing database may.
+        ScalarReadingList shrunk = new ArrayScalarReadingList(new long[]{1, 2}, new double[]{1, 2},
+                2) {
+            @Override
+            public int size() {
+                return 3;
+            }
+        };
+        AlignedReadings.Rows rows = new AlignedReadings.Rows(1);
+        AlignedReadings.merge(Arrays.asList(shrunk), TimeRange.ObservationOrder.NEWEST_FIRST,
+                AlignedReadings.Alignment.PREVIOUS, rows);
+        assertEquals(Arrays.asList(2L, 1L), getTimestamps(rows));
+    }
+
+    @Test
+    public void testRowPagesHandOverFullPagesAndTheRest() {
+        final List<Integer> pageSizes = new ArrayList<>();
+        final AlignedReadings.Rows delivered = new AlignedReadings.Rows(2);
+        Executor recordingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                int before = delivered.size();
+                command.run();
+                pageSizes.add(delivered.size() - before);
+            }
+        };
+        AlignedReadings.RowPages pages = new AlignedReadings.RowPages(2, 3, recordingExecutor,
+                delivered);
+        for (int i = 0; i < 7; i++) {
+            pages.addRow(i, new double[]{i, -i});
+        }
+        pages.flush();
+        pages.flush();
+        assertEquals(Arrays.asList(3, 3, 1), pageSizes);
+        assertEquals(7, delivered.size());
+        assertEquals(-6, delivered.getValue(6, 1), DELTA);
+    }
+
+    @Test
+    public void testRowsCanBeDeliveredAgain() {
+        AlignedReadings.Rows rows = merge(TimeRange.ObservationOrder.OLDEST_FIRST,
+                AlignedReadings.Alignment.PREVIOUS);
+        AlignedReadings.Rows copy = new AlignedReadings.Rows(2);
+        rows.deliver(copy);
+        assertEquals(getTimestamps(rows), getTimestamps(copy));
+        assertEquals(rows.getValue(2, 1), copy.getValue(2, 1), DELTA);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class ArrayScalarReadingListTest {
+    @Test
+    public void testCopyReadsOnce() {
+        GrowingReadingList growing = new GrowingReadingList(100);
+        ArrayScalarReadingList copy = ArrayScalarReadingList.copyOf(growing);
+        assertEquals(1, growing.getDeliveryCount());
+
+        // Later changes don't show up in the copy, and its size agrees with what it delivers.
+        growing.grow(50);
+        assertEquals(100, copy.size());
+        List<ScalarReading> readings = ScalarReading.slurp(copy);
+        assertEquals(100, readings.size());
+        assertEquals(new ScalarReading(99, 99), readings.get(99));
+        assertEquals(1, growing.getDeliveryCount());
+    }
+
+    @Test
+    public void testArrayListIsNotCopied() {
+        ArrayScalarReadingList list = new ArrayScalarReadingList(new long[] {1, 2},
+                new double[] {3, 4}, 2);
+        assertSame(list, ArrayScalarReadingList.copyOf(list));
+    }
+
+    /**
+     * Like a list that reads the database on every call, while readings are still being added.
+     */
+    static class GrowingReadingList implements ScalarReadingList {
+        private int mSize;
+        private int mDeliveryCount = 0;
+
+        GrowingReadingList(int size) {
+            mSize = size;
+        }
+
+        void grow(int readings) {
+            mSize += readings;
+        }
+
+        int getDeliveryCount() {
+            return mDeliveryCount;
+        }
+
+        @Override
+        public void deliver(StreamConsumer c) {
+            mDeliveryCount++;
+            for (int i = 0; i < mSize; i++) {
+                c.addData(i, i);
+            }
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public int copyTo(long[] timestamps, double[] values, int offset) {
+            return ScalarReadingLists.copyByDelivering(this, timestamps, values, offset);
+        }
+
+        @Override
+        public List<ChartData.DataPoint> asDataPoints() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
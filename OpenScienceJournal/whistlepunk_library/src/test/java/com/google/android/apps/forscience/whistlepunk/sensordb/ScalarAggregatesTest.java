@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class ScalarAggregatesTest {
+    @Test
+    public void testBucketsSplitRangeEvenly() {
+        // 10 timestamps in 3 buckets: 3, 3 and 4 long
+        assertEquals(0, ScalarAggregates.getBucketStart(0, 9, 3, 0));
+        assertEquals(3, ScalarAggregates.getBucketStart(0, 9, 3, 1));
+        assertEquals(6, ScalarAggregates.getBucketStart(0, 9, 3, 2));
+        assertEquals(10, ScalarAggregates.getBucketStart(0, 9, 3, 3));
+    }
+
+    @Test
+    public void testComputeFromReadings() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        for (int i = 0; i < 20; i++) {
+            db.addScalarReading("tag", 0, i, i % 7);
+        }
+        List<ScalarAggregate> buckets = ScalarAggregates.computeFromReadings(db, "tag",
+                TimeRange.oldest(Range.closed(5L, 24L)), 4);
+        assertEquals(4, buckets.size());
+        // 5, 6, 0, 1, 2
+        assertEquals(new ScalarAggregate(5, 14, 0, 6, 5, 5, 9, 2), buckets.get(0));
+        // 3, 4, 5, 6, 0
+        assertEquals(new ScalarAggregate(5, 18, 0, 6, 10, 3, 14, 0), buckets.get(1));
+        // 1, 2, 3, 4, 5
+        assertEquals(new ScalarAggregate(5, 15, 1, 5, 15, 1, 19, 5), buckets.get(2));
+        assertTrue(buckets.get(3).isEmpty());
+    }
+
+    @Test
+    public void testUnboundedRange() {
+        try {
+            ScalarAggregates.computeFromReadings(new InMemorySensorDatabase(), "tag",
+                    TimeRange.oldest(Range.atLeast(0L)), 1);
+            fail("Should have thrown, because an unbounded range can't be split into buckets");
+        } catch (IllegalArgumentException expected) {
+            // success!
+        }
+    }
+
+    @Test
+    public void testMergeKeepsFirstAndLast() {
+        ScalarAggregate later = new ScalarAggregate();
+        later.add(10, 3);
+        later.add(11, -2);
+        ScalarAggregate earlier = new ScalarAggregate();
+        earlier.add(1, 5);
+        earlier.merge(later);
+        assertEquals(new ScalarAggregate(3, 6, -2, 5, 1, 5, 11, -2), earlier);
+        assertEquals(2.0, earlier.getAverage(), 0.0001);
+    }
+}
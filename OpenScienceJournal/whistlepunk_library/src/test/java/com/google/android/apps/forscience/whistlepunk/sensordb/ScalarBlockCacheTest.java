@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ScalarBlockCacheTest {
+    // Each block of 10 readings is 256 bytes, so this is room for two of them
+    private static final long TWO_BLOCKS = 600;
+
+    private static InMemorySensorDatabase makeDb(int readingCount) {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        for (int i = 0; i < readingCount; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        return db;
+    }
+
+    private static List<ScalarReading> read(ScalarBlockCache cache, SensorDatabase db,
+            TimeRange range, int maxRecords) {
+        return ScalarReading.slurp(cache.getScalarReadings(db, "tag", range, 0, maxRecords));
+    }
+
+    @Test
+    public void testRepeatedReadsHitTheCache() {
+        InMemorySensorDatabase db = makeDb(100);
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        TimeRange range = TimeRange.oldest(Range.closed(5L, 24L));
+
+        List<ScalarReading> first = read(cache, db, range, 0);
+        assertEquals(20, first.size());
+        assertEquals(new ScalarReading(5, 5), first.get(0));
+        assertEquals(new ScalarReading(24, 24), first.get(19));
+        assertEquals(3, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+
+        assertEquals(first, read(cache, db, range, 0));
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    public void testOrderAndLimits() {
+        InMemorySensorDatabase db = makeDb(100);
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+
+        assertEquals(Arrays.asList(new ScalarReading(9, 9), new ScalarReading(10, 10),
+                new ScalarReading(11, 11)),
+                read(cache, db, TimeRange.oldest(Range.open(8L, 12L)), 0));
+
+        // Only the newest block is needed for the newest 5 readings.
+        List<ScalarReading> newest = read(cache, db, TimeRange.newest(Range.closed(0L, 99L)), 5);
+        assertEquals(Arrays.asList(new ScalarReading(99, 99), new ScalarReading(98, 98),
+                new ScalarReading(97, 97), new ScalarReading(96, 96),
+                new ScalarReading(95, 95)), newest);
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testUnboundedReadsSkipTheCache() {
+        InMemorySensorDatabase db = makeDb(100);
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        assertEquals(100, read(cache, db, TimeRange.oldest(Range.<Long>all()), 0).size());
+        assertEquals(100, read(cache, db, TimeRange.oldest(Range.atLeast(0L)), 0).size());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testInvalidateAfterWriteAndDelete() {
+        InMemorySensorDatabase db = makeDb(20);
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 29L));
+        assertEquals(20, read(cache, db, range, 0).size());
+
+        ScalarReadingBuffer written = new ScalarReadingBuffer("tag");
+        written.add(0, 25, 25);
+        db.addScalarReadings(written);
+        cache.invalidate(written);
+        assertEquals(21, read(cache, db, range, 0).size());
+        // Only the block that was written to was read again.
+        assertEquals(4, cache.getMissCount());
+
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(0L, 9L)));
+        cache.invalidate("tag", 0, 9);
+        assertEquals(11, read(cache, db, range, 0).size());
+        assertEquals(5, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        InMemorySensorDatabase db = makeDb(30);
+        ScalarBlockCache cache = new ScalarBlockCache(TWO_BLOCKS, 10, 10);
+        read(cache, db, TimeRange.oldest(Range.closed(0L, 9L)), 0);
+        read(cache, db, TimeRange.oldest(Range.closed(10L, 19L)), 0);
+        read(cache, db, TimeRange.oldest(Range.closed(0L, 9L)), 0);
+        read(cache, db, TimeRange.oldest(Range.closed(20L, 29L)), 0);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getMissCount());
+
+        read(cache, db, TimeRange.oldest(Range.closed(0L, 9L)), 0);
+        assertEquals(3, cache.getMissCount());
+        read(cache, db, TimeRange.oldest(Range.closed(10L, 19L)), 0);
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testBlockLoadedDuringInvalidationIsNotKept() {
+        final ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        InMemorySensorDatabase db = new InMemorySensorDatabase() {
+            @Override
+            public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
+                    int resolutionTier, int maxRecords) {
+                ScalarReadingList readings = super.getScalarReadings(sensorTag, range,
+                        resolutionTier, maxRecords);
+                // As if a write finished on another thread while this read was running
+                cache.invalidate("tag", 0, 0);
+                return readings;
+            }
+        };
+        db.addScalarReading("tag", 0, 1, 1);
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 9L));
+        assertEquals(1, read(cache, db, range, 0).size());
+        assertEquals(1, read(cache, db, range, 0).size());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testSparseReadingsGetLongerBlocks() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        db.addScalarReading("tag", 1, 5, 5);
+        db.addScalarReading("tag", 1, 95, 95);
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 99L));
+        assertEquals(2, ScalarReading.slurp(cache.getScalarReadings(db, "tag", range, 1,
+                0)).size());
+        assertEquals(10, cache.getMissCount());
+
+        // 90ms between readings, so blocks of 10 readings are 900ms long from now on.
+        assertEquals(2, ScalarReading.slurp(cache.getScalarReadings(db, "tag", range, 1,
+                0)).size());
+        assertEquals(11, cache.getMissCount());
+        assertEquals(2, ScalarReading.slurp(cache.getScalarReadings(db, "tag", range, 1,
+                0)).size());
+        assertEquals(11, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // Other tiers still start out with short blocks.
+        db.addScalarReading("tag", 0, 5, 5);
+        cache.getScalarReadings(db, "tag", range, 0, 0);
+        assertEquals(21, cache.getMissCount());
+    }
+
+    @Test
+    public void testLongReadsChooseBlockLengths() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        for (int i = 0; i < 1000; i++) {
+            db.addScalarReading("tag", 2, i * 1000, i);
+        }
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 99999L));
+        assertEquals(100, ScalarReading.slurp(cache.getScalarReadings(db, "tag", range, 2,
+                0)).size());
+        assertEquals(0, cache.getMissCount());
+
+        assertEquals(100, ScalarReading.slurp(cache.getScalarReadings(db, "tag", range, 2,
+                0)).size());
+        assertEquals(10, cache.getMissCount());
+    }
+
+    @Test
+    public void testInvalidateBlocksOfEveryLength() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        db.addScalarReading("tag", 0, 0, 0);
+        db.addScalarReading("tag", 0, 200, 200);
+        ScalarBlockCache cache = new ScalarBlockCache(1024 * 1024, 10, 10);
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 200L));
+        // Cached in 10ms blocks, until the 200ms between readings moves the tier to 2000ms ones.
+        read(cache, db, range, 0);
+        read(cache, db, range, 0);
+        assertEquals(22, cache.getMissCount());
+
+        db.deleteScalarReadings("tag", TimeRange.oldest(range.getTimes()));
+        cache.invalidate("tag", 0, 200);
+        assertEquals(0, cache.getSizeBytes());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ScalarChunkCodecTest {
+    private void assertRoundTrip(long[] timestamps, double[] values) {
+        byte[] chunk = ScalarChunkCodec.encode(timestamps, values, 0, timestamps.length);
+        assertEquals(timestamps.length, ScalarChunkCodec.readCount(chunk));
+
+        long[] decodedTimestamps = new long[timestamps.length];
+        double[] decodedValues = new double[values.length];
+        assertEquals(timestamps.length,
+                ScalarChunkCodec.decode(chunk, decodedTimestamps, decodedValues));
+        assertArrayEquals(timestamps, decodedTimestamps);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(decodedValues[i]));
+        }
+    }
+
+    @Test public void testEmpty() {
+        assertRoundTrip(new long[0], new double[0]);
+    }
+
+    @Test public void testSingleReading() {
+        assertRoundTrip(new long[]{Long.MIN_VALUE}, new double[]{-0.0});
+    }
+
+    @Test public void testSteadyRate() {
+        long[] timestamps = new long[1000];
+        double[] values = new double[1000];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1466000000000L + i * 20;
+            values[i] = Math.round(Math.sin(i / 50.0) * 100) / 100.0;
+        }
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test public void testSteadyRateIsCompact() {
+        long[] timestamps = new long[1000];
+        double[] values = new double[1000];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1466000000000L + i * 20;
+            values[i] = 21.5;
+        }
+        byte[] chunk = ScalarChunkCodec.encode(timestamps, values, 0, timestamps.length);
+        // One bit for each timestamp and value, plus the header.
+        assertTrue("Got " + chunk.length + " bytes", chunk.length < 300);
+    }
+
+    @Test public void testIrregularTimestampsAndValues() {
+        Random random = new Random(12345);
+        long[] timestamps = new long[500];
+        double[] values = new double[500];
+        long timestamp = 0;
+        for (int i = 0; i < timestamps.length; i++) {
+            // Mix of repeated timestamps, small jitter, and huge gaps
+            int choice = random.nextInt(4);
+            timestamp += choice == 0 ? 0 : choice == 1 ? random.nextInt(10) :
+                    choice == 2 ? random.nextInt(5000) : random.nextLong() >>> 24;
+            timestamps[i] = timestamp;
+            values[i] = choice == 0 ? Double.NaN : random.nextGaussian() * 1e6;
+        }
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test public void testOffset() {
+        long[] timestamps = {1, 2, 3, 4};
+        double[] values = {1.0, 2.0, 3.0, 4.0};
+        byte[] chunk = ScalarChunkCodec.encode(timestamps, values, 1, 2);
+
+        long[] decodedTimestamps = new long[2];
+        double[] decodedValues = new double[2];
+        ScalarChunkCodec.decode(chunk, decodedTimestamps, decodedValues);
+        assertArrayEquals(new long[]{2, 3}, decodedTimestamps);
+        assertArrayEquals(new double[]{2.0, 3.0}, decodedValues, 0.0);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ScalarReadingListsTest {
+    @Test
+    public void testCopyStopsWhenArraysAreFull() {
+        // Counted 10, but 5 more were added before it was delivered.
+        ArrayScalarReadingListTest.GrowingReadingList list =
+                new ArrayScalarReadingListTest.GrowingReadingList(10);
+        long[] timestamps = new long[12];
+        double[] values = new double[12];
+        int size = list.size();
+        list.grow(5);
+
+        assertEquals(10, ScalarReadingLists.copyByDelivering(list, timestamps, values,
+                timestamps.length - size));
+        assertEquals(0, timestamps[2]);
+        assertEquals(9, timestamps[11]);
+        assertEquals(9, values[11], 0);
+    }
+
+    @Test
+    public void testCopyAll() {
+        ArrayScalarReadingListTest.GrowingReadingList list =
+                new ArrayScalarReadingListTest.GrowingReadingList(3);
+        long[] timestamps = new long[4];
+        double[] values = new double[4];
+        assertEquals(3, ScalarReadingLists.copyByDelivering(list, timestamps, values, 1));
+        assertEquals(2, timestamps[3]);
+        assertEquals(2, values[3], 0);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class StorageMetricsTest {
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(0.5));
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3000);  // 3us
+        }
+        histogram.record(100000);  // 100us
+        histogram.record(5000000);  // 5ms
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(4, histogram.getPercentileMicros(0.5));
+        assertEquals(4, histogram.getPercentileMicros(0.95));
+        assertEquals(128, histogram.getPercentileMicros(0.99));
+        assertEquals(8192, histogram.getPercentileMicros(1));
+    }
+
+    @Test
+    public void testRangeClasses() {
+        assertEquals(0, StorageMetrics.getRangeClass(TimeRange.oldest(Range.closed(0L, 1000L))));
+        assertEquals(1, StorageMetrics.getRangeClass(TimeRange.oldest(Range.closed(0L, 1001L))));
+        assertEquals(3, StorageMetrics.getRangeClass(
+                TimeRange.oldest(Range.closed(0L, 2 * 60 * 60 * 1000L))));
+        assertEquals(3, StorageMetrics.getRangeClass(TimeRange.oldest(Range.atLeast(0L))));
+        assertEquals(3, StorageMetrics.getRangeClass(TimeRange.NOW));
+    }
+
+    @Test
+    public void testInstrumentedDatabaseRecordsWritesAndReads() {
+        InstrumentedSensorDatabase db = new InstrumentedSensorDatabase(
+                new InMemorySensorDatabase(), new StorageMetrics());
+        ScalarReadingBuffer batch = new ScalarReadingBuffer("tag");
+        for (int i = 0; i < 10; i++) {
+            batch.add(0, i, i);
+        }
+        batch.add(1, 0, 0);
+        db.addScalarReadings(batch);
+        db.addScalarReading("tag", 0, 10, 10);
+        ScalarReadingList readings = db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(0L, 10L)), 0, 0);
+        assertEquals(11, readings.size());
+
+        // The read is only recorded once its readings are read out.
+        StorageMetrics metrics = db.getMetrics();
+        assertEquals(0, metrics.getQueryLatency(0).getCount());
+        assertEquals(11, readings.asDataPoints().size());
+
+        assertEquals(2, metrics.getInsertLatency().getCount());
+        assertEquals(12, metrics.getInsertedReadingCount());
+        assertEquals(1, metrics.getQueryLatency(0).getCount());
+        assertEquals(0, metrics.getQueryLatency(3).getCount());
+
+        StorageReport report = new StorageReport(0, db.getTierUsage(), metrics,
+                ScalarBlockCache.disabled(), 0);
+        assertEquals(12, report.getTotalReadingCount());
+        assertEquals(12 * 16, report.getTotalEstimatedBytes());
+        assertEquals(1, report.getTierUsage().get(1).getResolutionTier());
+
+        StringWriter text = new StringWriter();
+        report.writeTo(new PrintWriter(text));
+        assertTrue(text.toString().contains("tag\t0\t11\t176\n"));
+        assertTrue(text.toString().contains("tag\t1\t1\t16\n"));
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.sensordb.IncrementableMonotonicClock;
+
+import org.junit.Test;
+
+public class SensorEventClockTest {
+    @Test
+    public void testOffsetFoundFromFirstEvent() {
+        IncrementableMonotonicClock clock = new IncrementableMonotonicClock();
+        for (int i = 0; i < 1000; i++) {
+            clock.increment();
+        }
+        SensorEventClock eventClock = new SensorEventClock(clock);
+        assertEquals(1000, eventClock.getMillis(5000000000L));
+
+        // Later events are spaced by the sensor's timestamps, whenever they are delivered.
+        clock.increment();
+        assertEquals(1002, eventClock.getMillis(5002500000L));
+        assertEquals(1003, eventClock.getMillis(5003000000L));
+    }
+}